@@ -17,12 +17,13 @@ import org.zeromq.SocketType;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQ;
 import org.zeromq.ZContext;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Registros.Registro;
 import java.util.*;
 
 public class ActorDevolver {
-    private static final Gson gson = new Gson();
+    private static final Registro log = Registro.de(ActorDevolver.class);
+    private static final int TIMEOUT_GA_MS = Integer.getInteger("actor.timeoutMs", 5000);
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -33,46 +34,47 @@ public class ActorDevolver {
 
         String direccionGA1 = args[0];
         String direccionGA2 = args[1];
+        Registro.iniciar("ActorDevolver");
 
         try (ZContext context = new ZContext()) {
             Socket socketGC = context.createSocket(SocketType.SUB);
             socketGC.connect("tcp://localhost:5557");
             socketGC.subscribe("DEVOLVER".getBytes(ZMQ.CHARSET));
-            System.out.println("Actor Devolver iniciado, escuchando topico DEVOLVER, puerto 5557");
-            System.out.println("  -> Conectado a GA1: " + direccionGA1);
-            System.out.println("  -> Conectado a GA2: " + direccionGA2);
+            log.info("Actor Devolver iniciado, escuchando topico DEVOLVER, puerto 5557");
+            log.info("GA1: {}, GA2: {}", direccionGA1, direccionGA2);
 
             while (!Thread.currentThread().isInterrupted()) {
                 String topico = socketGC.recvStr();
-                String solicitud = socketGC.recvStr();
-                System.out.println("\n[" + topico + "] Recibido: " + solicitud);
+                byte[] solicitud = socketGC.recv();
+                if (log.esDebug()) {
+                    log.debug("[{}] Recibido: {}", topico, FormatoMensaje.describir(solicitud));
+                }
 
-                Map<String, Object> solicitudJSON = null;
+                Map<String, Object> datosSolicitud = null;
                 try {
-                    solicitudJSON = gson.fromJson(solicitud, 
-                        new TypeToken<Map<String, Object>>(){}.getType());
+                    datosSolicitud = FormatoMensaje.leer(solicitud);
                 } catch (Exception e) {
-                    System.err.println("ERROR: No se pudo parsear JSON: " + e.getMessage());
+                    log.warn("No se pudo leer el mensaje: {}", e.getMessage());
                     continue;
                 }
-                String isbn = (String) solicitudJSON.get("isbn");
-                String usuario = (String) solicitudJSON.get("usuario");
-                String idPrestamo = (String) solicitudJSON.get("idPrestamo");
+                String isbn = (String) datosSolicitud.get("isbn");
+                String usuario = (String) datosSolicitud.get("usuario");
+                String idPrestamo = (String) datosSolicitud.get("idPrestamo");
                 
                 // Validar que tengamos al menos isbn+usuario o idPrestamo
                 if ((isbn == null || usuario == null) && idPrestamo == null) {
-                    System.err.println("ERROR: Faltan campos obligatorios (isbn+usuario) o (idPrestamo)");
+                    log.warn("Faltan campos obligatorios (isbn+usuario) o (idPrestamo)");
                     continue;
                 }
 
-                System.out.println("  ISBN: " + isbn);
-                System.out.println("  Usuario: " + usuario);
-                if (idPrestamo != null) {
-                    System.out.println("  ID Prestamo: " + idPrestamo);
-                }
+                String idSolicitud = UUID.randomUUID().toString();
+                Registro.setSolicitud(idSolicitud);
+                log.debug("ISBN {}, usuario {}, idPrestamo {}", isbn, usuario, idPrestamo);
 
                 Map<String, Object> solicitudGA = new HashMap<>();
                 solicitudGA.put("operacion", "DEVOLUCION");
+                // Se repite en los reintentos para que el GA no ejecute la operación dos veces
+                solicitudGA.put("idSolicitud", idSolicitud);
                 
                 // Incluir todos los campos disponibles
                 if (idPrestamo != null) {
@@ -85,62 +87,64 @@ public class ActorDevolver {
                     solicitudGA.put("usuario", usuario);
                 }
 
-                String solicitudJson = gson.toJson(solicitudGA);
-                System.out.println("  Solicitud al GA: " + solicitudJson);
+                byte[] mensajeGA = FormatoMensaje.codificar(solicitudGA);
+                if (log.esDebug()) {
+                    log.debug("Solicitud al GA: {}", FormatoMensaje.describir(mensajeGA));
+                }
 
                 // Procesar con los GA
-                procesarConGA(context, direccionGA1, direccionGA2, solicitudJson);
+                procesarConGA(context, direccionGA1, direccionGA2, mensajeGA);
+                Registro.setSolicitud(null);
             }
 
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error: {}", e.getMessage(), e);
         }
     }
 
     private static void procesarConGA(ZContext context, String direccionGA1, 
-                                      String direccionGA2, String solicitudJson) {
+                                      String direccionGA2, byte[] mensajeGA) {
         // Intentar con GA1
-        boolean exitoGA1 = enviarAGA(context, direccionGA1, solicitudJson, "GA1");
+        boolean exitoGA1 = enviarAGA(context, direccionGA1, mensajeGA, "GA1");
         if (exitoGA1) return;
         
         // Si falla, intentar con GA2
-        enviarAGA(context, direccionGA2, solicitudJson, "GA2");
+        enviarAGA(context, direccionGA2, mensajeGA, "GA2");
     }
 
     private static boolean enviarAGA(ZContext context, String direccionGA, 
-                                      String solicitud, String nombreGA) {
+                                      byte[] solicitud, String nombreGA) {
         Socket socketGA = context.createSocket(SocketType.REQ);
-        socketGA.setReceiveTimeOut(5000);
-        socketGA.setSendTimeOut(5000);
+        socketGA.setReceiveTimeOut(TIMEOUT_GA_MS);
+        socketGA.setSendTimeOut(TIMEOUT_GA_MS);
 
         try {
             socketGA.connect(direccionGA);
-            System.out.println("[" + nombreGA + "] Enviando devolucion...");
+            log.debug("Enviando devolucion a {}", nombreGA);
 
             boolean enviado = socketGA.send(solicitud);
             if (!enviado) {
-                System.err.println("[" + nombreGA + "] No se pudo enviar");
+                log.warn("No se pudo enviar a {}", nombreGA);
                 return false;
             }
 
-            String respuestaJson = socketGA.recvStr();
-            if (respuestaJson == null) {
-                System.err.println("[" + nombreGA + "] Timeout - no responde");
+            // El GA responde en el formato de la solicitud
+            byte[] respuestaGA = socketGA.recv();
+            if (respuestaGA == null) {
+                log.warn("{} no responde (timeout)", nombreGA);
                 return false;
             }
 
-            Map<String, Object> respuesta = gson.fromJson(respuestaJson, 
-                new TypeToken<Map<String, Object>>(){}.getType());
+            Map<String, Object> respuesta = FormatoMensaje.leer(respuestaGA);
 
             boolean exito = (boolean) respuesta.get("exito");
             String mensaje = (String) respuesta.get("mensaje");
 
-            System.out.println("[" + nombreGA + "] " + (exito ? "Exito" : "Fallo") + ": " + mensaje);
+            log.debug("{} {}: {}", nombreGA, exito ? "Exito" : "Fallo", mensaje);
             return exito;
 
         } catch (Exception e) {
-            System.err.println("[" + nombreGA + "] Error: " + e.getMessage());
+            log.warn("{} Error: {}", nombreGA, e.getMessage());
             return false;
         } finally {
             socketGA.close();
@@ -8,151 +8,252 @@
  * distribuido responsable de procesar solicitudes de préstamo de libros. Actúa como
  * intermediario entre el Gestor de Carga (GC) y el Gestor de Almacenamiento (GA) que
  * manejan los datos de libros disponibles en cada sede.
+ * Se conecta al GC y se registra en su pool de actores, así que se pueden
+ * levantar varios ActorPrestamo para repartir los préstamos entre ellos.
+ * Cada actor atiende hasta actor.ventana préstamos a la vez en un pool de
+ * hilos y responde a medida que terminan, sin respetar el orden de
+ * llegada: el GC asocia cada respuesta a su préstamo por el id de
+ * correlación. Solo el hilo principal usa el socket del GC; los hilos del
+ * pool le devuelven las respuestas por un PUSH/PULL inproc.
  * ============================================================
  */
 
 package com.proyecto.Actores;
 
 import org.zeromq.SocketType;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZContext;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import org.zeromq.ZMsg;
+import com.proyecto.Protocolo.EscritorMensaje;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Registros.Registro;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ActorPrestamo {
-    private static final Gson gson = new Gson();
+    private static final Registro log = Registro.de(ActorPrestamo.class);
+    private static final int TIMEOUT_GA_MS = Integer.getInteger("actor.timeoutMs", 2000);
+    private static final long LATIDO_MS = Long.getLong("gc.latidoMs", 1000);
+    // Préstamos en curso a la vez; es la capacidad que se anuncia al GC
+    private static final int VENTANA = Math.max(1, Integer.getInteger("actor.ventana", 8));
+    private static final String DIRECCION_RESPUESTAS = "inproc://respuestas-prestamo";
+    private static final ThreadLocal<EscritorMensaje> escritores = ThreadLocal.withInitial(FormatoMensaje::nuevoEscritor);
     
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Uso: java ActorPrestamo <direccionGA1> <direccionGA2>");
-            System.out.println("Ejemplo: java ActorPrestamo tcp://localhost:5555 tcp://localhost:6555");
+            System.out.println("Uso: java ActorPrestamo <direccionGA1> <direccionGA2> [direccionGC]");
+            System.out.println("Ejemplo: java ActorPrestamo tcp://localhost:5555 tcp://localhost:6555 tcp://localhost:5559");
             return;
         }
         
         String direccionGA1 = args[0];
         String direccionGA2 = args[1];
+        String direccionGC = args.length > 2 ? args[2] : "tcp://localhost:5559";
+        Registro.iniciar("ActorPrestamo");
         
+        ExecutorService trabajadores = Executors.newFixedThreadPool(VENTANA);
         try (ZContext context = new ZContext()) {
-            Socket socketGC = context.createSocket(SocketType.REP);
-            socketGC.bind("tcp://*:5559");
-            System.out.println("Actor Prestamo iniciado en puerto 5559");
-            System.out.println("  -> Conectado a GA1: " + direccionGA1);
-            System.out.println("  -> Conectado a GA2: " + direccionGA2);
+            Socket socketRespuestas = context.createSocket(SocketType.PULL);
+            socketRespuestas.bind(DIRECCION_RESPUESTAS);
+            // Un PUSH por hilo del pool: los sockets no se comparten entre hilos
+            ThreadLocal<Socket> salidaRespuestas = ThreadLocal.withInitial(() -> {
+                Socket socket = context.createSocket(SocketType.PUSH);
+                socket.connect(DIRECCION_RESPUESTAS);
+                return socket;
+            });
+
+            // DEALER hacia el ROUTER del GC: se pueden levantar varios actores contra el mismo GC
+            Socket socketGC = context.createSocket(SocketType.DEALER);
+            socketGC.setLinger(0);
+            socketGC.connect(direccionGC);
+            socketGC.sendMore("LISTO");
+            socketGC.send(Integer.toString(VENTANA));
+            log.info("Actor Prestamo conectado al GC: {} (ventana {})", direccionGC, VENTANA);
+            log.info("GA1: {}, GA2: {}", direccionGA1, direccionGA2);
+            
+            ZMQ.Poller poller = context.createPoller(2);
+            int indiceGC = poller.register(socketGC, ZMQ.Poller.POLLIN);
+            int indiceRespuestas = poller.register(socketRespuestas, ZMQ.Poller.POLLIN);
+            long proximoLatido = System.currentTimeMillis() + LATIDO_MS;
             
             while (!Thread.currentThread().isInterrupted()) {
-                String solicitudGC = socketGC.recvStr();
-                System.out.println("\n[SOLICITUD] Recibida: " + solicitudGC);
-                
-                Map<String, Object> solicitudJSON = null;
-                try {
-                    solicitudJSON = gson.fromJson(solicitudGC, 
-                        new TypeToken<Map<String, Object>>(){}.getType());
-                } catch (Exception e) {
-                    System.err.println("ERROR: No se pudo parsear JSON: " + e.getMessage());
-                    socketGC.send("ERROR: Formato JSON invalido");
-                    continue;
+                if (poller.poll(Math.max(0, proximoLatido - System.currentTimeMillis())) < 0) {
+                    break;
                 }
-                
-                // Extraer valores del JSON parseado
-                String operacion = (String) solicitudJSON.get("operacion");
-                String isbn = (String) solicitudJSON.get("isbn");
-                String usuario = (String) solicitudJSON.get("usuario");
-                
-                // Validar campos
-                if (isbn == null || usuario == null) {
-                    System.err.println("ERROR: Faltan campos obligatorios (isbn, usuario)");
-                    socketGC.send("ERROR: Faltan campos obligatorios");
-                    continue;
+                if (poller.pollin(indiceGC)) {
+                    // [PRESTAR][id de correlación][mensaje]
+                    ZMsg mensaje = ZMsg.recvMsg(socketGC);
+                    if (mensaje != null && mensaje.size() == 3 && "PRESTAR".equals(mensaje.popString())) {
+                        String idCorrelacion = mensaje.popString();
+                        byte[] solicitudGC = mensaje.pop().getData();
+                        trabajadores.execute(() -> {
+                            String respuestaFinal = atenderSolicitud(context, direccionGA1, direccionGA2, solicitudGC);
+                            Socket salida = salidaRespuestas.get();
+                            salida.sendMore(idCorrelacion);
+                            salida.send(respuestaFinal);
+                        });
+                    }
                 }
-                
-                if (operacion == null || !operacion.equals("PRESTAR")) {
-                    System.err.println("ERROR: Operacion no soportada: " + operacion);
-                    socketGC.send("ERROR: Operacion no soportada");
-                    continue;
+                if (poller.pollin(indiceRespuestas)) {
+                    // [id de correlación][respuesta], en el orden en que terminan
+                    ZMsg respuesta = ZMsg.recvMsg(socketRespuestas);
+                    if (respuesta != null) {
+                        respuesta.push("RESPUESTA");
+                        respuesta.send(socketGC);
+                    }
+                }
+                if (System.currentTimeMillis() >= proximoLatido) {
+                    // Si el GC deja de recibirlos, reparte los préstamos entre los demás actores
+                    socketGC.sendMore("LATIDO");
+                    socketGC.send(Integer.toString(VENTANA));
+                    proximoLatido = System.currentTimeMillis() + LATIDO_MS;
                 }
-                
-                System.out.println("  ISBN: " + isbn);
-                System.out.println("  Usuario: " + usuario);
-                System.out.println("  Operacion: " + operacion);
-                
-                // Construir solicitud JSON para el GA
-                Map<String, Object> solicitudGA = new HashMap<>();
-                solicitudGA.put("operacion", "PRESTAMO");
-                solicitudGA.put("isbn", isbn);
-                solicitudGA.put("usuario", usuario);
-                
-                String solicitudJson = gson.toJson(solicitudGA);
-                System.out.println("  Solicitud al GA: " + solicitudJson);
-                
-                // Procesar con los GA
-                String respuestaFinal = procesarConGA(context, direccionGA1, direccionGA2, solicitudJson);
-                socketGC.send(respuestaFinal);
             }
             
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error: {}", e.getMessage(), e);
+        } finally {
+            trabajadores.shutdownNow();
+        }
+    }
+    
+    private static String atenderSolicitud(ZContext context, String direccionGA1,
+                                           String direccionGA2, byte[] solicitudGC) {
+        Map<String, Object> datosSolicitud = null;
+        try {
+            datosSolicitud = FormatoMensaje.leer(solicitudGC);
+        } catch (Exception e) {
+            log.warn("No se pudo leer el mensaje: {}", e.getMessage());
+            return "ERROR: Formato de mensaje invalido";
+        }
+        
+        // Extraer valores del mensaje leído
+        String operacion = (String) datosSolicitud.get("operacion");
+        String isbn = (String) datosSolicitud.get("isbn");
+        String usuario = (String) datosSolicitud.get("usuario");
+        String idSolicitud = (String) datosSolicitud.get("idSolicitud");
+        Registro.setSolicitud(idSolicitud);
+        try {
+            return prestar(context, direccionGA1, direccionGA2, operacion, isbn, usuario, idSolicitud);
+        } finally {
+            Registro.setSolicitud(null);
+        }
+    }
+
+    private static String prestar(ZContext context, String direccionGA1, String direccionGA2,
+                                  String operacion, String isbn, String usuario, String idSolicitud) {
+        // Validar campos
+        if (isbn == null || usuario == null) {
+            log.warn("Faltan campos obligatorios (isbn, usuario)");
+            return "ERROR: Faltan campos obligatorios";
+        }
+        
+        if (operacion == null || !operacion.equals("PRESTAR")) {
+            log.warn("Operacion no soportada: {}", operacion);
+            return "ERROR: Operacion no soportada";
         }
+        
+        log.debug("Prestamo recibido: ISBN {}, usuario {}", isbn, usuario);
+        
+        // Se repite en los reintentos para que el GA no ejecute la operación dos veces;
+        // el GC lo asigna para que valga también si reenvía el préstamo a otro actor
+        String id = idSolicitud != null ? idSolicitud : UUID.randomUUID().toString();
+        
+        // Procesar con los GA
+        return procesarConGA(context, direccionGA1, direccionGA2, id, isbn, usuario);
     }
     
-    private static String procesarConGA(ZContext context, String direccionGA1, 
-                                        String direccionGA2, String solicitudJson) {
+    // Solicitud para el GA, en el formato de protocolo.formato
+    private static EscritorMensaje armarSolicitud(String idSolicitud, String isbn, String usuario,
+                                                  boolean respaldo) {
+        EscritorMensaje solicitud = escritores.get().iniciar()
+                .campo("operacion", "PRESTAMO")
+                .campo("idSolicitud", idSolicitud)
+                .campo("isbn", isbn)
+                .campo("usuario", usuario);
+        if (respaldo) {
+            solicitud.campo("respaldo", true);
+        }
+        solicitud.terminar();
+        
+        if (log.esDebug()) {
+            log.debug("Solicitud al GA: {}", solicitud.toString());
+        }
+        return solicitud;
+    }
+    
+    private static String procesarConGA(ZContext context, String direccionGA1, String direccionGA2,
+                                        String idSolicitud, String isbn, String usuario) {
         // 1) Intentar con GA1
-        String respuesta = enviarAGA(context, direccionGA1, solicitudJson, "GA1");
+        EscritorMensaje solicitud = armarSolicitud(idSolicitud, isbn, usuario, false);
+        String respuesta = enviarAGA(context, direccionGA1, solicitud, "GA1");
         if (respuesta != null) {
             // Si GA1 respondió (éxito o error de negocio), devolvemos eso y NO probamos GA2
             return respuesta;
         }
         
-        // 2) Solo si hubo fallo técnico (respuesta == null), intentar con GA2
-        respuesta = enviarAGA(context, direccionGA2, solicitudJson, "GA2");
+        // 2) Reintentar una vez con GA1: con el mismo idSolicitud, si el primer
+        //    intento sí llegó, GA1 devuelve esa respuesta en lugar de prestar otra vez
+        respuesta = enviarAGA(context, direccionGA1, solicitud, "GA1");
+        if (respuesta != null) {
+            return respuesta;
+        }
+        
+        // 3) Solo si hubo fallo técnico (respuesta == null), intentar con GA2.
+        //    No se sabe si GA1 prestó: la solicitud va marcada como respaldo y GA2
+        //    solo presta si GA1 le confirma que no la atendió (y ya no la atenderá).
+        //    Si GA1 la atendió, GA2 devuelve esa respuesta; si GA1 no contesta,
+        //    GA2 responde con un error en lugar de arriesgar un segundo préstamo
+        solicitud = armarSolicitud(idSolicitud, isbn, usuario, true);
+        respuesta = enviarAGA(context, direccionGA2, solicitud, "GA2");
         if (respuesta != null) {
             return respuesta;
         }
         
-        // 3) Si también falla GA2 → fallo total
+        // 4) Si también falla GA2 → fallo total
         return "ERROR: Ambos GA no responden";
     }
     
     private static String enviarAGA(ZContext context, String direccionGA, 
-                                     String solicitud, String nombreGA) {
+                                     EscritorMensaje solicitud, String nombreGA) {
         Socket socketGA = context.createSocket(SocketType.REQ);
-        socketGA.setReceiveTimeOut(2000);
-        socketGA.setSendTimeOut(2000);
+        socketGA.setReceiveTimeOut(TIMEOUT_GA_MS);
+        socketGA.setSendTimeOut(TIMEOUT_GA_MS);
         
         try {
             socketGA.connect(direccionGA);
-            System.out.println("[" + nombreGA + "] Enviando solicitud...");
+            log.debug("Enviando solicitud a {}", nombreGA);
             
-            boolean enviado = socketGA.send(solicitud);
+            boolean enviado = socketGA.send(solicitud.getBuffer(), 0, solicitud.getLongitud(), 0);
             if (!enviado) {
-                System.err.println("[" + nombreGA + "] No se pudo enviar");
+                log.warn("No se pudo enviar a {}", nombreGA);
                 return null; 
             }
             
-            String respuestaJson = socketGA.recvStr();
-            if (respuestaJson == null) {
-                System.err.println("[" + nombreGA + "] Timeout - no responde");
+            // El GA responde en el formato de la solicitud
+            byte[] respuestaGA = socketGA.recv();
+            if (respuestaGA == null) {
+                log.warn("{} no responde (timeout)", nombreGA);
                 return null; 
             }
             
-            Map<String, Object> respuesta = gson.fromJson(respuestaJson, 
-                new TypeToken<Map<String, Object>>(){}.getType());
+            Map<String, Object> respuesta = FormatoMensaje.leer(respuestaGA);
             
             boolean exito = (boolean) respuesta.get("exito");
             String mensaje = (String) respuesta.get("mensaje");
             
             if (exito) {
-                System.out.println("[" + nombreGA + "] Exito: " + mensaje);
+                log.debug("{} Exito: {}", nombreGA, mensaje);
                 return "PRESTAMO EXITOSO (" + nombreGA + "): " + mensaje;
             } else {
-                System.out.println("[" + nombreGA + "] Fallo: " + mensaje);
+                log.debug("{} Fallo: {}", nombreGA, mensaje);
                 return "ERROR: " + mensaje;
             }
             
         } catch (Exception e) {
-            System.err.println("[" + nombreGA + "] Error: " + e.getMessage());
+            log.warn("{} Error: {}", nombreGA, e.getMessage());
             return null; 
         } finally {
             socketGA.close();
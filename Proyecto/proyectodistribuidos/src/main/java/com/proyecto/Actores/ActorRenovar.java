@@ -17,12 +17,13 @@ import org.zeromq.SocketType;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Registros.Registro;
 import java.util.*;
 
 public class ActorRenovar {
-    private static final Gson gson = new Gson();
+    private static final Registro log = Registro.de(ActorRenovar.class);
+    private static final int TIMEOUT_GA_MS = Integer.getInteger("actor.timeoutMs", 5000);
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -33,59 +34,60 @@ public class ActorRenovar {
 
         String direccionGA1 = args[0];
         String direccionGA2 = args[1];
+        Registro.iniciar("ActorRenovar");
 
         try (ZContext context = new ZContext()) {
             Socket socketGC = context.createSocket(SocketType.SUB);
             socketGC.connect("tcp://localhost:5558");
             socketGC.subscribe("RENOVAR".getBytes(ZMQ.CHARSET));
-            System.out.println("Actor Renovar iniciado, escuchando topico RENOVAR, puerto 5558");
-            System.out.println("  -> Conectado a GA1: " + direccionGA1);
-            System.out.println("  -> Conectado a GA2: " + direccionGA2);
+            log.info("Actor Renovar iniciado, escuchando topico RENOVAR, puerto 5558");
+            log.info("GA1: {}, GA2: {}", direccionGA1, direccionGA2);
 
             while (!Thread.currentThread().isInterrupted()) {
                 String topico = socketGC.recvStr();
-                String solicitud = socketGC.recvStr();
-                System.out.println("\n[" + topico + "] Recibido: " + solicitud);
+                byte[] solicitud = socketGC.recv();
+                if (log.esDebug()) {
+                    log.debug("[{}] Recibido: {}", topico, FormatoMensaje.describir(solicitud));
+                }
 
-                // Parsear JSON recibido del GC
-                Map<String, Object> solicitudJSON = null;
+                // Leer el mensaje recibido del GC
+                Map<String, Object> datosSolicitud = null;
                 try {
-                    solicitudJSON = gson.fromJson(solicitud, 
-                        new TypeToken<Map<String, Object>>(){}.getType());
+                    datosSolicitud = FormatoMensaje.leer(solicitud);
                 } catch (Exception e) {
-                    System.err.println("ERROR: No se pudo parsear JSON: " + e.getMessage());
+                    log.warn("No se pudo leer el mensaje: {}", e.getMessage());
                     continue;
                 }
 
                 // ============================================
-                // CORRECCIÓN: Extraer los campos del JSON
+                // CORRECCIÓN: Extraer los campos del mensaje
                 // ============================================
-                String isbn = (String) solicitudJSON.get("isbn");
-                String usuario = (String) solicitudJSON.get("usuario");
-                String idPrestamo = (String) solicitudJSON.get("idPrestamo");
-                String fechaActual = (String) solicitudJSON.get("fechaActual");
-                String fechaNuevaEntrega = (String) solicitudJSON.get("fechaNuevaEntrega");
+                String isbn = (String) datosSolicitud.get("isbn");
+                String usuario = (String) datosSolicitud.get("usuario");
+                String idPrestamo = (String) datosSolicitud.get("idPrestamo");
+                String fechaActual = (String) datosSolicitud.get("fechaActual");
+                String fechaNuevaEntrega = (String) datosSolicitud.get("fechaNuevaEntrega");
                 
                 // Validar campos obligatorios
                 if ((isbn == null || usuario == null) && idPrestamo == null) {
-                    System.err.println("ERROR: Faltan campos obligatorios (isbn+usuario) o (idPrestamo)");
+                    log.warn("Faltan campos obligatorios (isbn+usuario) o (idPrestamo)");
                     continue;
                 }
 
-                System.out.println("  ISBN: " + isbn);
-                System.out.println("  Usuario: " + usuario);
-                if (idPrestamo != null) {
-                    System.out.println("  ID Prestamo: " + idPrestamo);
-                }
+                String idSolicitud = UUID.randomUUID().toString();
+                Registro.setSolicitud(idSolicitud);
+                log.debug("ISBN {}, usuario {}, idPrestamo {}", isbn, usuario, idPrestamo);
                 if (fechaNuevaEntrega != null) {
-                    System.out.println("  Nueva fecha entrega: " + fechaNuevaEntrega);
+                    log.debug("Nueva fecha entrega: {}", fechaNuevaEntrega);
                 }
 
                 // ============================================
-                // Construir solicitud JSON para el GA con los campos extraídos
+                // Construir solicitud para el GA con los campos extraídos
                 // ============================================
                 Map<String, Object> solicitudGA = new HashMap<>();
                 solicitudGA.put("operacion", "RENOVACION");
+                // Se repite en los reintentos para que el GA no ejecute la operación dos veces
+                solicitudGA.put("idSolicitud", idSolicitud);
                 
                 // Incluir todos los campos disponibles
                 if (idPrestamo != null) {
@@ -104,60 +106,62 @@ public class ActorRenovar {
                     solicitudGA.put("fechaNuevaEntrega", fechaNuevaEntrega);
                 }
 
-                String solicitudJson = gson.toJson(solicitudGA);
-                System.out.println("  Solicitud al GA: " + solicitudJson);
+                byte[] mensajeGA = FormatoMensaje.codificar(solicitudGA);
+                if (log.esDebug()) {
+                    log.debug("Solicitud al GA: {}", FormatoMensaje.describir(mensajeGA));
+                }
 
                 // Procesar con los GA
-                procesarConGA(context, direccionGA1, direccionGA2, solicitudJson);
+                procesarConGA(context, direccionGA1, direccionGA2, mensajeGA);
+                Registro.setSolicitud(null);
             }
 
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error: {}", e.getMessage(), e);
         }
     }
 
     private static void procesarConGA(ZContext context, String direccionGA1, 
-                                      String direccionGA2, String solicitudJson) {
-        boolean exitoGA1 = enviarAGA(context, direccionGA1, solicitudJson, "GA1");
+                                      String direccionGA2, byte[] mensajeGA) {
+        boolean exitoGA1 = enviarAGA(context, direccionGA1, mensajeGA, "GA1");
         if (exitoGA1) return;
         
-        enviarAGA(context, direccionGA2, solicitudJson, "GA2");
+        enviarAGA(context, direccionGA2, mensajeGA, "GA2");
     }
 
     private static boolean enviarAGA(ZContext context, String direccionGA, 
-                                      String solicitud, String nombreGA) {
+                                      byte[] solicitud, String nombreGA) {
         Socket socketGA = context.createSocket(SocketType.REQ);
-        socketGA.setReceiveTimeOut(5000);
-        socketGA.setSendTimeOut(5000);
+        socketGA.setReceiveTimeOut(TIMEOUT_GA_MS);
+        socketGA.setSendTimeOut(TIMEOUT_GA_MS);
 
         try {
             socketGA.connect(direccionGA);
-            System.out.println("[" + nombreGA + "] Enviando renovacion...");
+            log.debug("Enviando renovacion a {}", nombreGA);
 
             boolean enviado = socketGA.send(solicitud);
             if (!enviado) {
-                System.err.println("[" + nombreGA + "] No se pudo enviar");
+                log.warn("No se pudo enviar a {}", nombreGA);
                 return false;
             }
 
-            String respuestaJson = socketGA.recvStr();
-            if (respuestaJson == null) {
-                System.err.println("[" + nombreGA + "] Timeout - no responde");
+            // El GA responde en el formato de la solicitud
+            byte[] respuestaGA = socketGA.recv();
+            if (respuestaGA == null) {
+                log.warn("{} no responde (timeout)", nombreGA);
                 return false;
             }
 
-            Map<String, Object> respuesta = gson.fromJson(respuestaJson, 
-                new TypeToken<Map<String, Object>>(){}.getType());
+            Map<String, Object> respuesta = FormatoMensaje.leer(respuestaGA);
 
             boolean exito = (boolean) respuesta.get("exito");
             String mensaje = (String) respuesta.get("mensaje");
 
-            System.out.println("[" + nombreGA + "] " + (exito ? "Exito" : "Fallo") + ": " + mensaje);
+            log.debug("{} {}: {}", nombreGA, exito ? "Exito" : "Fallo", mensaje);
             return exito;
 
         } catch (Exception e) {
-            System.err.println("[" + nombreGA + "] Error: " + e.getMessage());
+            log.warn("{} Error: {}", nombreGA, e.getMessage());
             return false;
         } finally {
             socketGA.close();
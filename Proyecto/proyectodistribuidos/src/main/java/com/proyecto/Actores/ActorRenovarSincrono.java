@@ -15,6 +15,7 @@ package com.proyecto.Actores;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 import org.zeromq.SocketType;
 import org.zeromq.ZContext;
@@ -23,9 +24,14 @@ import org.zeromq.ZMQ.Socket;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import com.proyecto.Registros.Registro;
 
 public class ActorRenovarSincrono {
+    private static final Registro log = Registro.de(ActorRenovarSincrono.class);
     private static final Gson gson = new Gson();
+    private static final Type TIPO_MAPA = new TypeToken<Map<String, Object>>(){}.getType();
+    private static final int TIMEOUT_GA_MS = Integer.getInteger("actor.timeoutMs", 5000);
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -36,25 +42,24 @@ public class ActorRenovarSincrono {
 
         String direccionGA1 = args[0];
         String direccionGA2 = args[1];
+        Registro.iniciar("ActorRenovarSincrono");
 
         try (ZContext context = new ZContext()) {
             Socket socketGC = context.createSocket(SocketType.REP);
             socketGC.bind("tcp://*:5561"); // Puerto diferente
             
-            System.out.println("Actor Renovar SÍNCRONO iniciado en puerto 5561");
-            System.out.println("  -> Conectado a GA1: " + direccionGA1);
-            System.out.println("  -> Conectado a GA2: " + direccionGA2);
+            log.info("Actor Renovar SÍNCRONO iniciado en puerto 5561");
+            log.info("GA1: {}, GA2: {}", direccionGA1, direccionGA2);
 
             while (!Thread.currentThread().isInterrupted()) {
                 String solicitudGC = socketGC.recvStr();
-                System.out.println("\n[SOLICITUD] Recibida: " + solicitudGC);
+                log.debug("Solicitud recibida: {}", solicitudGC);
 
                 Map<String, Object> solicitudJSON;
                 try {
-                    solicitudJSON = gson.fromJson(solicitudGC, 
-                        new TypeToken<Map<String, Object>>(){}.getType());
+                    solicitudJSON = gson.fromJson(solicitudGC, TIPO_MAPA);
                 } catch (JsonSyntaxException e) {
-                    System.err.println("ERROR: No se pudo parsear JSON: " + e.getMessage());
+                    log.warn("No se pudo parsear JSON: {}", e.getMessage());
                     socketGC.send("ERROR: Formato JSON invalido");
                     continue;
                 }
@@ -66,17 +71,20 @@ public class ActorRenovarSincrono {
                 String fechaNuevaEntrega = (String) solicitudJSON.get("fechaNuevaEntrega");
                 
                 if ((isbn == null || usuario == null) && idPrestamo == null) {
-                    System.err.println("ERROR: Faltan campos obligatorios");
+                    log.warn("Faltan campos obligatorios");
                     socketGC.send("ERROR: Faltan campos obligatorios");
                     continue;
                 }
 
-                System.out.println("  ISBN: " + isbn);
-                System.out.println("  Usuario: " + usuario);
+                String idSolicitud = UUID.randomUUID().toString();
+                Registro.setSolicitud(idSolicitud);
+                log.debug("ISBN {}, usuario {}", isbn, usuario);
 
                 // Construir solicitud para GA
                 Map<String, Object> solicitudGA = new HashMap<>();
                 solicitudGA.put("operacion", "RENOVACION");
+                // Se repite en los reintentos para que el GA no ejecute la operación dos veces
+                solicitudGA.put("idSolicitud", idSolicitud);
                 if (idPrestamo != null) {
                     solicitudGA.put("idPrestamo", idPrestamo);
                 }
@@ -96,13 +104,14 @@ public class ActorRenovarSincrono {
                 String solicitudJson = gson.toJson(solicitudGA);
                 String respuestaFinal = procesarConGA(context, direccionGA1, 
                                                       direccionGA2, solicitudJson);
+                Registro.setSolicitud(null);
                 
                 // Enviar respuesta al GC
                 socketGC.send(respuestaFinal);
             }
 
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
+            log.error("Error: {}", e.getMessage(), e);
         }
     }
 
@@ -124,41 +133,40 @@ public class ActorRenovarSincrono {
     private static String enviarAGA(ZContext context, String direccionGA, 
                                      String solicitud, String nombreGA) {
         Socket socketGA = context.createSocket(SocketType.REQ);
-        socketGA.setReceiveTimeOut(5000);
-        socketGA.setSendTimeOut(5000);
+        socketGA.setReceiveTimeOut(TIMEOUT_GA_MS);
+        socketGA.setSendTimeOut(TIMEOUT_GA_MS);
 
         try {
             socketGA.connect(direccionGA);
-            System.out.println("[" + nombreGA + "] Enviando renovación...");
+            log.debug("Enviando renovación a {}", nombreGA);
 
             boolean enviado = socketGA.send(solicitud);
             if (!enviado) {
-                System.err.println("[" + nombreGA + "] No se pudo enviar");
+                log.warn("No se pudo enviar a {}", nombreGA);
                 return null;
             }
 
             String respuestaJson = socketGA.recvStr();
             if (respuestaJson == null) {
-                System.err.println("[" + nombreGA + "] Timeout - no responde");
+                log.warn("{} no responde (timeout)", nombreGA);
                 return null;
             }
 
-            Map<String, Object> respuesta = gson.fromJson(respuestaJson, 
-                new TypeToken<Map<String, Object>>(){}.getType());
+            Map<String, Object> respuesta = gson.fromJson(respuestaJson, TIPO_MAPA);
 
             boolean exito = (boolean) respuesta.get("exito");
             String mensaje = (String) respuesta.get("mensaje");
 
             if (exito) {
-                System.out.println("[" + nombreGA + "] Éxito: " + mensaje);
+                log.debug("{} Éxito: {}", nombreGA, mensaje);
                 return "RENOVACION EXITOSA (" + nombreGA + "): " + mensaje;
             } else {
-                System.out.println("[" + nombreGA + "] Fallo: " + mensaje);
+                log.debug("{} Fallo: {}", nombreGA, mensaje);
                 return "ERROR: " + mensaje;
             }
 
         } catch (JsonSyntaxException e) {
-            System.err.println("[" + nombreGA + "] Error: " + e.getMessage());
+            log.warn("{} Error: {}", nombreGA, e.getMessage());
             return null;
         } finally {
             socketGA.close();
@@ -7,6 +7,7 @@
  * ClientePSMetrica lee solicitudes de un archivo y las envía al GC.
  * Maneja préstamos, devoluciones y renovaciones con validación.
  * Además realiza la medición del tiempo de respuesta promedio, su desviación estándar y cálculo de throughput, de cada cliente que se ejecuta. 
+ * Las solicitudes que el GC rechaza por carga (BUSY) se cuentan aparte y no entran en los tiempos de respuesta.
  */
 
 package com.proyecto;
@@ -32,6 +33,7 @@ public class ClientePSMetrica {
     private int totalProcesadas = 0;
     private int totalExitosas = 0;
     private int totalFallidas = 0;
+    private int totalRechazadas = 0;
     
     public ClientePSMetrica(String nombreCliente, String archivoSolicitudes, String direccionGC) {
         this.nombreCliente = nombreCliente;
@@ -96,7 +98,9 @@ public class ClientePSMetrica {
         long tiempoFinOp = System.nanoTime();
         long tiempoRespuesta = (tiempoFinOp - tiempoInicioOp) / 1_000_000; // Convertir a ms
         
-        if (respuesta != null) {
+        if (respuesta != null && respuesta.startsWith("BUSY")) {
+            totalRechazadas++;
+        } else if (respuesta != null) {
             totalProcesadas++;
             
             // Guardar tiempo según tipo de operación
@@ -170,6 +174,7 @@ public class ClientePSMetrica {
         System.out.println("Total procesadas: " + totalProcesadas);
         System.out.println("Exitosas: " + totalExitosas);
         System.out.println("Fallidas: " + totalFallidas);
+        System.out.println("Rechazadas por carga (BUSY): " + totalRechazadas);
         System.out.printf("Duración total: %.3f segundos%n", duracionSegundos);
         
         if (!tiemposRespuesta.isEmpty()) {
@@ -180,6 +185,7 @@ public class ClientePSMetrica {
             System.out.println("Total solicitudes medidas: " + tiemposRespuesta.size());
             System.out.printf("Tiempo promedio: %.2f ms%n", promedio);
             System.out.printf("Desviación estándar: %.2f ms%n", desviacion);
+            System.out.printf("Percentil 99: %d ms%n", calcularPercentil(tiemposRespuesta, 0.99));
         }
         
         // THROUGHPUT
@@ -203,6 +209,13 @@ public class ClientePSMetrica {
         return (double) suma / tiempos.size();
     }
     
+    private long calcularPercentil(List<Long> tiempos, double percentil) {
+        List<Long> ordenados = new ArrayList<>(tiempos);
+        Collections.sort(ordenados);
+        int indice = (int) Math.ceil(percentil * ordenados.size()) - 1;
+        return ordenados.get(Math.max(0, indice));
+    }
+    
     private double calcularDesviacionEstandar(List<Long> tiempos, double promedio) {
         if (tiempos.size() < 2) return 0.0;
         
@@ -0,0 +1,316 @@
+/**
+ * ============================================================
+ * Título: AntiEntropia - Comparación y reparación de préstamos entre sedes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Cada ga.antientropia.intervaloSeg segundos el GA compara sus copias de
+ * los préstamos originados en la otra sede con los que esa sede tiene, por
+ * el mismo canal ROUTER/DEALER de la recuperación de réplicas:
+ *
+ *   [RAIZ]                      -> [RAIZ][sede][hash]
+ *   [HIJOS][nivel][i,j,...]     -> [HIJOS][hashes de los hijos de i, j, ...]
+ *   [CUBETAS][i,j,...]          -> [CUBETAS][préstamos de esas cubetas en json]
+ *
+ * Solo se baja por los nodos con hashes distintos, así que lo transferido
+ * crece con la diferencia y no con la cantidad de préstamos. Cada sede
+ * repara únicamente los préstamos originados en la otra, que es la que
+ * tiene su versión vigente; la otra sede hace lo mismo en sentido inverso.
+ *
+ * Una réplica en tránsito también hace diferir una cubeta, así que una
+ * cubeta solo se repara si difiere en dos rondas seguidas.
+ *
+ * Cada lado arma su árbol una vez por ronda: quien compara, al recibir la
+ * raíz remota, y quien responde, al recibir RAIZ de ese cliente. Los HIJOS
+ * y CUBETAS de la ronda se contestan con ese mismo árbol, así los niveles
+ * de una comparación corresponden todos al mismo estado.
+ */
+
+package com.proyecto.Gestores;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.proyecto.Modelos.Prestamo;
+import com.proyecto.Persistencia.Almacenamiento;
+import com.proyecto.Persistencia.ArbolHashPrestamos;
+import com.proyecto.Persistencia.FormatoBinario;
+import com.proyecto.Registros.Registro;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import org.zeromq.*;
+
+public class AntiEntropia {
+    private static final Registro log = Registro.de(AntiEntropia.class);
+    private static final int ESPERA_RESPUESTA_MS = 2000;
+    private static final int MAX_RONDAS_ATENDIDAS = 8;
+
+    private final String sede;
+    private final Almacenamiento bd;
+    private final ZContext context;
+    private final String direccionRemota;
+    private final long intervaloMs;
+    private final BooleanSupplier activo;
+    private final Gson gson = new Gson();
+    private ZMQ.Socket socket;
+    private Set<Integer> cubetasSospechosas = new HashSet<>();
+    // Árbol de la ronda en curso de cada cliente; solo lo usa el hilo que responde
+    private final Map<String, ArbolHashPrestamos> rondasAtendidas =
+            new LinkedHashMap<String, ArbolHashPrestamos>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ArbolHashPrestamos> mayor) {
+                    return size() > MAX_RONDAS_ATENDIDAS;
+                }
+            };
+
+    public AntiEntropia(String sede, Almacenamiento bd, ZContext context, String direccionRemota,
+            long intervaloMs, BooleanSupplier activo) {
+        this.sede = sede;
+        this.bd = bd;
+        this.context = context;
+        this.direccionRemota = direccionRemota;
+        this.intervaloMs = intervaloMs;
+        this.activo = activo;
+    }
+
+    public static boolean atiende(String tipo) {
+        return "RAIZ".equals(tipo) || "HIJOS".equals(tipo) || "CUBETAS".equals(tipo);
+    }
+
+    /**
+     * Lado que responde: arma la respuesta (sin la identidad del cliente)
+     * a partir del árbol de los préstamos originados en esta sede. RAIZ
+     * empieza la ronda del cliente y arma el árbol; HIJOS y CUBETAS
+     * reutilizan el de esa ronda.
+     */
+    public ZMsg responder(String cliente, String tipo, ZMsg peticion) {
+        ArbolHashPrestamos arbol = rondasAtendidas.get(cliente);
+        if (arbol == null || "RAIZ".equals(tipo)) {
+            arbol = ArbolHashPrestamos.construir(bd.getPrestamos().values(), sede);
+            rondasAtendidas.put(cliente, arbol);
+        }
+        ZMsg respuesta = new ZMsg();
+        respuesta.add(tipo);
+        switch (tipo) {
+            case "RAIZ":
+                respuesta.add(sede);
+                respuesta.add(Long.toHexString(arbol.getRaiz()));
+                break;
+            case "HIJOS":
+                int nivel = Integer.parseInt(peticion.popString());
+                respuesta.add(unirHashes(arbol.hijos(nivel, leerIndices(peticion.popString()))));
+                break;
+            default:
+                // CUBETAS es lo último de la ronda
+                rondasAtendidas.remove(cliente);
+                List<Map<String, Object>> prestamos = new ArrayList<>();
+                for (int cubeta : leerIndices(peticion.popString())) {
+                    for (Prestamo prestamo : arbol.getCubeta(cubeta)) {
+                        Map<String, Object> datos = new HashMap<>();
+                        datos.put("idPrestamo", prestamo.getIdPrestamo());
+                        datos.put("isbn", prestamo.getIsbn());
+                        datos.put("usuario", prestamo.getUsuario());
+                        datos.put("renovaciones", prestamo.getNumRenovaciones());
+                        datos.put("fechaPrestamo", FormatoBinario.aMilis(prestamo.getFechaPrestamo()));
+                        prestamos.add(datos);
+                    }
+                }
+                respuesta.add(gson.toJson(prestamos));
+        }
+        return respuesta;
+    }
+
+    public void ejecutar() {
+        while (activo.getAsBoolean()) {
+            long siguiente = System.currentTimeMillis() + intervaloMs;
+            while (activo.getAsBoolean() && System.currentTimeMillis() < siguiente) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!activo.getAsBoolean()) {
+                break;
+            }
+            try {
+                ronda();
+            } catch (Exception e) {
+                log.warn("Error en anti-entropia: {}", e.getMessage());
+            }
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void ronda() {
+        ZMsg raiz = solicitar("RAIZ");
+        if (raiz == null) {
+            return;
+        }
+        String sedeRemota = raiz.popString();
+        long raizRemota = Long.parseUnsignedLong(raiz.popString(), 16);
+        ArbolHashPrestamos local = ArbolHashPrestamos.construir(bd.getPrestamos().values(), sedeRemota);
+        if (local.getRaiz() == raizRemota) {
+            cubetasSospechosas.clear();
+            return;
+        }
+
+        // Se baja nivel por nivel solo por los nodos distintos
+        int[] distintos = {0};
+        for (int nivel = 0; nivel < ArbolHashPrestamos.NIVEL_CUBETAS && distintos.length > 0; nivel++) {
+            ZMsg hijos = solicitar("HIJOS", Integer.toString(nivel), unirIndices(distintos));
+            if (hijos == null) {
+                return;
+            }
+            long[] remotos = leerHashes(hijos.popString());
+            long[] locales = local.hijos(nivel, distintos);
+            List<Integer> siguientes = new ArrayList<>();
+            for (int i = 0; i < locales.length; i++) {
+                if (locales[i] != remotos[i]) {
+                    siguientes.add(distintos[i / ArbolHashPrestamos.RAMAS] * ArbolHashPrestamos.RAMAS
+                            + i % ArbolHashPrestamos.RAMAS);
+                }
+            }
+            distintos = siguientes.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        Set<Integer> actuales = new HashSet<>();
+        List<Integer> confirmadas = new ArrayList<>();
+        for (int cubeta : distintos) {
+            actuales.add(cubeta);
+            if (cubetasSospechosas.contains(cubeta)) {
+                confirmadas.add(cubeta);
+            }
+        }
+        cubetasSospechosas = actuales;
+        if (confirmadas.isEmpty()) {
+            log.info("Anti-entropia: {} cubetas difieren de {}; se revisan en la proxima ronda", distintos.length,
+                    sedeRemota);
+            return;
+        }
+
+        int[] cubetas = confirmadas.stream().mapToInt(Integer::intValue).toArray();
+        ZMsg contenido = solicitar("CUBETAS", unirIndices(cubetas));
+        if (contenido == null) {
+            return;
+        }
+        // popString devolvería en hexadecimal un json con acentos (un usuario "josé")
+        List<Map<String, Object>> remotos = gson.fromJson(contenido.pop().getString(ZMQ.CHARSET),
+                new TypeToken<List<Map<String, Object>>>() {
+                }.getType());
+        reconciliar(sedeRemota, local, cubetas, remotos);
+        cubetasSospechosas.removeAll(confirmadas);
+    }
+
+    /**
+     * Deja las cubetas indicadas igual que en la otra sede: agrega los
+     * préstamos que faltan, les copia el número de renovaciones y la fecha
+     * de la otra sede y devuelve los que allá ya no están activos. Todo se
+     * aplica como réplica, con un solo commit.
+     */
+    private void reconciliar(String sedeRemota, ArbolHashPrestamos local, int[] cubetas,
+            List<Map<String, Object>> remotos) {
+        int[] cambios = new int[3];
+        bd.aplicarEnLote(() -> {
+            Set<String> vigentes = new HashSet<>();
+            for (Map<String, Object> remoto : remotos) {
+                String idPrestamo = (String) remoto.get("idPrestamo");
+                vigentes.add(idPrestamo);
+                Prestamo prestamo = bd.consultarPrestamo(idPrestamo);
+                if (prestamo == null) {
+                    bd.realizarPrestamoReplica((String) remoto.get("isbn"), (String) remoto.get("usuario"),
+                            idPrestamo, sedeRemota);
+                    prestamo = bd.consultarPrestamo(idPrestamo);
+                    cambios[0]++;
+                }
+                int renovaciones = ((Number) remoto.get("renovaciones")).intValue();
+                Number fecha = (Number) remoto.get("fechaPrestamo");
+                if (prestamo != null && prestamo.getNumRenovaciones() < renovaciones
+                        && bd.realizarRenovacionReplica(idPrestamo, renovaciones,
+                                fecha == null ? null : FormatoBinario.aFecha(fecha.longValue()))) {
+                    cambios[1]++;
+                }
+            }
+            for (int cubeta : cubetas) {
+                for (Prestamo prestamo : local.getCubeta(cubeta)) {
+                    if (!vigentes.contains(prestamo.getIdPrestamo())
+                            && bd.realizarDevolucionReplica(prestamo.getIdPrestamo())) {
+                        cambios[2]++;
+                    }
+                }
+            }
+        });
+        log.info("Anti-entropia con {}: {} cubetas reparadas ({})", sedeRemota, cubetas.length,
+                remotos.size() + " prestamos recibidos, " + cambios[0] + " agregados, "
+                + cambios[1] + " renovaciones, " + cambios[2] + " devueltos");
+    }
+
+    // Devuelve la respuesta sin el tipo, o null si la otra sede no respondió a tiempo
+    private ZMsg solicitar(String tipo, String... argumentos) {
+        if (socket == null) {
+            socket = context.createSocket(SocketType.DEALER);
+            socket.setReceiveTimeOut(ESPERA_RESPUESTA_MS);
+            socket.setLinger(0);
+            socket.connect(direccionRemota);
+        }
+        ZMsg peticion = new ZMsg();
+        peticion.add(tipo);
+        for (String argumento : argumentos) {
+            peticion.add(argumento);
+        }
+        peticion.send(socket);
+
+        ZMsg respuesta = ZMsg.recvMsg(socket);
+        if (respuesta == null || !tipo.equals(respuesta.popString())) {
+            // Una respuesta tardía se confundiría con la de la próxima petición
+            socket.close();
+            socket = null;
+            return null;
+        }
+        return respuesta;
+    }
+
+    private static String unirIndices(int[] indices) {
+        StringBuilder texto = new StringBuilder();
+        for (int indice : indices) {
+            if (texto.length() > 0) {
+                texto.append(',');
+            }
+            texto.append(indice);
+        }
+        return texto.toString();
+    }
+
+    private static int[] leerIndices(String texto) {
+        if (texto.isEmpty()) {
+            return new int[0];
+        }
+        String[] partes = texto.split(",");
+        int[] indices = new int[partes.length];
+        for (int i = 0; i < partes.length; i++) {
+            indices[i] = Integer.parseInt(partes[i]);
+        }
+        return indices;
+    }
+
+    private static String unirHashes(long[] hashes) {
+        StringBuilder texto = new StringBuilder(hashes.length * 17);
+        for (int i = 0; i < hashes.length; i++) {
+            if (i > 0) {
+                texto.append(',');
+            }
+            texto.append(Long.toHexString(hashes[i]));
+        }
+        return texto.toString();
+    }
+
+    private static long[] leerHashes(String texto) {
+        String[] partes = texto.split(",");
+        long[] hashes = new long[partes.length];
+        for (int i = 0; i < partes.length; i++) {
+            hashes[i] = Long.parseUnsignedLong(partes[i], 16);
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * ============================================================
+ * Título: AplicadorReplicas - Aplicación en paralelo de las réplicas recibidas
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * El receptor de réplicas del GA solo recibe y ordena; las operaciones se
+ * reparten por id de préstamo (o ISBN) entre varios hilos aplicadores, cada
+ * uno con su cola acotada. Las operaciones de un mismo préstamo caen
+ * siempre en la misma cola y se aplican en orden; las de préstamos
+ * distintos avanzan en paralelo. Cada aplicador toma lo que encuentra en
+ * su cola y lo aplica como un lote, con un solo commit en la bitácora.
+ *
+ * Si los aplicadores se atrasan las colas se llenan y el receptor se
+ * bloquea; las réplicas que la otra sede publique mientras tanto se
+ * recuperan después por el canal de recuperación.
+ *
+ * La marca persistida (MarcaReplicacion) es la última secuencia tal que
+ * ella y todas las anteriores ya se aplicaron, aunque los aplicadores
+ * terminen fuera de orden. Un lote que no se pudo aplicar no cuenta como
+ * aplicado: la marca se detiene antes de él y el receptor vuelve a pedirlo
+ * por el canal de recuperación.
+ */
+
+package com.proyecto.Gestores;
+
+import com.proyecto.Persistencia.Almacenamiento;
+import com.proyecto.Persistencia.MarcaReplicacion;
+import com.proyecto.Registros.Registro;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class AplicadorReplicas {
+    private static final Registro log = Registro.de(AplicadorReplicas.class);
+    private final Almacenamiento bd;
+    private final MarcaReplicacion marca;
+    private final MetricasReplicacion metricas;
+    private final Consumer<Map<String, Object>> aplicar;
+    private final List<BlockingQueue<Tarea>> colas = new ArrayList<>();
+    private final List<Thread> hilos = new ArrayList<>();
+    private final int tamanoLote;
+    private volatile boolean activo = true;
+
+    // Última secuencia entregada a las colas; solo la usa el hilo receptor
+    private long ultimaRecibida;
+    // Secuencias aplicadas por encima de la marca que esperan a las anteriores
+    private final TreeSet<Long> aplicadasFueraDeOrden = new TreeSet<>();
+    private long pendientes;
+    // Menor secuencia de un lote que falló y aún no se vuelve a pedir; 0 si no hay
+    private long primeraFallida;
+
+    private static final class Tarea {
+        final long secuencia;
+        final Map<String, Object> operacion;
+
+        Tarea(long secuencia, Map<String, Object> operacion) {
+            this.secuencia = secuencia;
+            this.operacion = operacion;
+        }
+    }
+
+    public AplicadorReplicas(String sede, Almacenamiento bd, MarcaReplicacion marca,
+            MetricasReplicacion metricas, Consumer<Map<String, Object>> aplicar,
+            int numAplicadores, int capacidadCola, int tamanoLote) {
+        this.bd = bd;
+        this.marca = marca;
+        this.metricas = metricas;
+        this.aplicar = aplicar;
+        this.tamanoLote = Math.max(1, tamanoLote);
+        this.ultimaRecibida = marca.get();
+
+        for (int i = 0; i < Math.max(1, numAplicadores); i++) {
+            BlockingQueue<Tarea> cola = new ArrayBlockingQueue<>(Math.max(1, capacidadCola));
+            colas.add(cola);
+            Thread hilo = new Thread(() -> ejecutar(cola));
+            hilo.setName("AplicadorReplicas-" + sede + "-" + i);
+            hilo.setDaemon(true);
+            hilo.start();
+            hilos.add(hilo);
+        }
+    }
+
+    public long getUltimaRecibida() {
+        retrocederAFallidas();
+        return ultimaRecibida;
+    }
+
+    // Si un lote falló, se da por no recibido desde su primera secuencia para volver a pedirlo
+    private synchronized void retrocederAFallidas() {
+        if (primeraFallida > 0) {
+            // Lo que sigue en las colas termina antes, para no encolarlo dos veces
+            while (pendientes > 0 && activo) {
+                try {
+                    wait(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (primeraFallida - 1 < ultimaRecibida) {
+                log.warn("Se vuelven a pedir las replicas desde {}", primeraFallida);
+                ultimaRecibida = primeraFallida - 1;
+            }
+            primeraFallida = 0;
+        }
+    }
+
+    /**
+     * Entrega a los aplicadores las operaciones con secuencias primera,
+     * primera + 1, ... que aún no se habían recibido. Bloquea mientras la
+     * cola que le corresponde a cada una esté llena.
+     */
+    public void encolar(long primera, List<Map<String, Object>> operaciones) throws InterruptedException {
+        for (int i = 0; i < operaciones.size(); i++) {
+            long secuencia = primera + i;
+            if (secuencia <= ultimaRecibida) {
+                continue;
+            }
+            Map<String, Object> operacion = operaciones.get(i);
+            BlockingQueue<Tarea> cola = colas.get(particion(operacion));
+            synchronized (this) {
+                // Al volver a pedir un lote fallido, las posteriores que sí se aplicaron no se repiten
+                if (aplicadasFueraDeOrden.contains(secuencia)) {
+                    ultimaRecibida = secuencia;
+                    continue;
+                }
+                pendientes++;
+            }
+            Tarea tarea = new Tarea(secuencia, operacion);
+            while (!cola.offer(tarea, 200, TimeUnit.MILLISECONDS)) {
+                if (!activo) {
+                    return;
+                }
+            }
+            ultimaRecibida = secuencia;
+        }
+    }
+
+    // Las réplicas de un préstamo llevan siempre su id; el ISBN queda para operaciones sin id
+    private int particion(Map<String, Object> operacion) {
+        Object clave = operacion.get("idPrestamo");
+        if (clave == null) {
+            clave = operacion.get("isbn");
+        }
+        int hash = clave == null ? 0 : clave.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), colas.size());
+    }
+
+    /**
+     * Da por recibidas, sin aplicarlas, las secuencias hasta la indicada;
+     * se usa cuando la otra sede ya las descartó de su bitácora.
+     */
+    public void omitirHasta(long secuencia) throws IOException, InterruptedException {
+        esperarVacio();
+        if (secuencia > ultimaRecibida) {
+            ultimaRecibida = secuencia;
+            marca.avanzar(secuencia);
+        }
+        synchronized (this) {
+            aplicadasFueraDeOrden.headSet(secuencia, true).clear();
+            if (primeraFallida <= secuencia) {
+                primeraFallida = 0;
+            }
+        }
+    }
+
+    /**
+     * La bitácora de la otra sede volvió a empezar: se vuelve a recorrer
+     * desde el principio. Volver a aplicar una réplica no cambia nada: los
+     * préstamos se identifican por id (y uno ya devuelto no revive), las
+     * renovaciones llevan el número absoluto y los cupos son acumulados.
+     */
+    public void reiniciar() throws IOException, InterruptedException {
+        esperarVacio();
+        ultimaRecibida = 0;
+        marca.avanzar(0);
+        synchronized (this) {
+            aplicadasFueraDeOrden.clear();
+            primeraFallida = 0;
+        }
+    }
+
+    private synchronized void esperarVacio() throws InterruptedException {
+        while (pendientes > 0 && activo) {
+            wait(200);
+        }
+    }
+
+    private void ejecutar(BlockingQueue<Tarea> cola) {
+        List<Tarea> lote = new ArrayList<>(tamanoLote);
+        while (activo || !cola.isEmpty()) {
+            Tarea primera;
+            try {
+                primera = cola.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (primera == null) {
+                continue;
+            }
+            lote.add(primera);
+            cola.drainTo(lote, tamanoLote - 1);
+            aplicarLote(lote);
+            lote.clear();
+        }
+    }
+
+    /**
+     * Aplica el lote con un único commit. Una réplica que falla no detiene
+     * las demás; si falla el commit la bitácora de BaseDatos queda en error
+     * y el monitoreo de salud marca la BD como no disponible. En ese caso el
+     * lote no se marca como aplicado (ver fallar).
+     */
+    private void aplicarLote(List<Tarea> lote) {
+        try {
+            bd.aplicarEnLote(() -> {
+                for (Tarea tarea : lote) {
+                    aplicar.accept(tarea.operacion);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Error aplicando lote de replicas: {}", e.getMessage(), e);
+            fallar(lote);
+            return;
+        }
+
+        long ahora = System.currentTimeMillis();
+        long retrasoTotal = 0;
+        long retrasoMaximo = 0;
+        for (Tarea tarea : lote) {
+            Object timestamp = tarea.operacion.get("timestamp");
+            long retraso = timestamp instanceof Number ? Math.max(0, ahora - ((Number) timestamp).longValue()) : 0;
+            retrasoTotal += retraso;
+            retrasoMaximo = Math.max(retrasoMaximo, retraso);
+        }
+        metricas.registrarAplicacion(lote.size(), retrasoTotal, retrasoMaximo);
+        completar(lote);
+    }
+
+    private synchronized void completar(List<Tarea> lote) {
+        for (Tarea tarea : lote) {
+            aplicadasFueraDeOrden.add(tarea.secuencia);
+        }
+        long anterior = marca.get();
+        long nueva = anterior;
+        while (aplicadasFueraDeOrden.remove(nueva + 1)) {
+            nueva++;
+        }
+        pendientes -= lote.size();
+        if (nueva != anterior) {
+            try {
+                marca.avanzar(nueva);
+            } catch (IOException e) {
+                log.error("Error guardando marca de replicacion: {}", e.getMessage());
+            }
+        }
+        notifyAll();
+    }
+
+    // La marca no pasa de la primera secuencia del lote; el receptor la vuelve a pedir
+    private synchronized void fallar(List<Tarea> lote) {
+        for (Tarea tarea : lote) {
+            if (primeraFallida == 0 || tarea.secuencia < primeraFallida) {
+                primeraFallida = tarea.secuencia;
+            }
+        }
+        pendientes -= lote.size();
+        notifyAll();
+    }
+
+    // Termina de aplicar lo que ya está en las colas
+    public void cerrar() {
+        activo = false;
+        for (Thread hilo : hilos) {
+            try {
+                hilo.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
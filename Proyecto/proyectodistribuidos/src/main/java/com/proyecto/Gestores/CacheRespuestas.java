@@ -0,0 +1,163 @@
+/**
+ * ============================================================
+ * Título: CacheRespuestas - Respuestas recientes del GA por id de solicitud
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Los actores envían un idSolicitud en cada solicitud al GA y lo repiten
+ * en los reintentos (al mismo GA o al de la otra sede). El GA guarda aquí
+ * la respuesta de cada id durante un tiempo limitado: una solicitud
+ * repetida recibe la misma respuesta sin volver a ejecutarse en la base
+ * de datos, y si la original sigue en curso espera su resultado. Se
+ * guarda la respuesta sin codificar porque el reintento puede llegar en
+ * otro formato (binario o JSON) y se le responde en el suyo.
+ *
+ * Cuando el actor pasa a la otra sede porque esta no le respondió, la
+ * otra sede pregunta aquí por el id antes de prestar (cederAOtraSede): si
+ * esta sede no lo ejecutó queda marcado con una respuesta provisional, y
+ * la solicitud original que llegue tarde ya no se ejecuta.
+ *
+ * La caché tiene una capacidad máxima y descarta primero las entradas más
+ * antiguas o vencidas (propiedades ga.cache.capacidad y ga.cache.ttlSeg).
+ */
+
+package com.proyecto.Gestores;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CacheRespuestas {
+    private final int capacidad;
+    private final long ttlMs;
+    private final Map<String, CompletableFuture<Map<String, Object>>> enCurso = new HashMap<>();
+    private final LinkedHashMap<String, Respuesta> respuestas = new LinkedHashMap<>();
+    private final AtomicLong aciertos = new AtomicLong();
+
+    private static final class Respuesta {
+        final Map<String, Object> campos;
+        final long instante = System.currentTimeMillis();
+        // Puesta por cederAOtraSede; la reemplaza la respuesta que llegue por replicación
+        final boolean provisional;
+
+        Respuesta(Map<String, Object> campos) {
+            this(campos, false);
+        }
+
+        Respuesta(Map<String, Object> campos, boolean provisional) {
+            this.campos = campos;
+            this.provisional = provisional;
+        }
+    }
+
+    public CacheRespuestas(int capacidad, long ttlMs) {
+        this.capacidad = capacidad;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Reserva el id para una solicitud nueva y devuelve null. Si el id ya
+     * se conoce devuelve el futuro con su respuesta, completo o en curso.
+     */
+    public synchronized CompletableFuture<Map<String, Object>> reservar(String idSolicitud) {
+        depurar();
+        Respuesta respuesta = respuestas.get(idSolicitud);
+        if (respuesta != null) {
+            aciertos.incrementAndGet();
+            return CompletableFuture.completedFuture(respuesta.campos);
+        }
+        CompletableFuture<Map<String, Object>> pendiente = enCurso.get(idSolicitud);
+        if (pendiente != null) {
+            aciertos.incrementAndGet();
+            return pendiente;
+        }
+        enCurso.put(idSolicitud, new CompletableFuture<>());
+        return null;
+    }
+
+    // Guarda la respuesta de una solicitud reservada con reservar()
+    public void completar(String idSolicitud, Map<String, Object> respuesta) {
+        CompletableFuture<Map<String, Object>> pendiente;
+        synchronized (this) {
+            pendiente = enCurso.remove(idSolicitud);
+            respuestas.put(idSolicitud, new Respuesta(respuesta));
+            depurar();
+        }
+        if (pendiente != null) {
+            pendiente.complete(respuesta);
+        }
+    }
+
+    /**
+     * Entrega la respuesta a quienes esperaban el id pero no la guarda, de
+     * modo que un reintento posterior vuelva a ejecutar la operación. Se usa
+     * para errores internos, que pueden ser transitorios.
+     */
+    public void descartar(String idSolicitud, Map<String, Object> respuesta) {
+        CompletableFuture<Map<String, Object>> pendiente;
+        synchronized (this) {
+            pendiente = enCurso.remove(idSolicitud);
+        }
+        if (pendiente != null) {
+            pendiente.complete(respuesta);
+        }
+    }
+
+    /**
+     * Registra la respuesta de una operación ejecutada en la otra sede y
+     * recibida por replicación, para que un reintento enviado a esta sede
+     * no la repita.
+     */
+    public synchronized void registrar(String idSolicitud, Map<String, Object> respuesta) {
+        Respuesta previa = respuestas.get(idSolicitud);
+        if (!enCurso.containsKey(idSolicitud) && (previa == null || previa.provisional)) {
+            // Se quita antes para que quede al final, en orden de llegada
+            respuestas.remove(idSolicitud);
+            respuestas.put(idSolicitud, new Respuesta(respuesta));
+            depurar();
+        }
+    }
+
+    /**
+     * La otra sede pide atender el id. Si esta sede no lo ejecutó, lo deja
+     * con la respuesta provisional indicada, para no ejecutarlo si llega
+     * después, y devuelve null. Si lo ejecutó o lo está ejecutando devuelve
+     * el futuro con su respuesta, como reservar().
+     */
+    public synchronized CompletableFuture<Map<String, Object>> cederAOtraSede(String idSolicitud,
+            Map<String, Object> provisional) {
+        depurar();
+        Respuesta respuesta = respuestas.get(idSolicitud);
+        if (respuesta != null) {
+            // Ya cedido antes: la otra sede lo intenta de nuevo
+            return respuesta.provisional ? null : CompletableFuture.completedFuture(respuesta.campos);
+        }
+        CompletableFuture<Map<String, Object>> pendiente = enCurso.get(idSolicitud);
+        if (pendiente != null) {
+            return pendiente;
+        }
+        respuestas.put(idSolicitud, new Respuesta(provisional, true));
+        return null;
+    }
+
+    // Las respuestas están en orden de llegada: basta revisar las más antiguas
+    private void depurar() {
+        long limite = System.currentTimeMillis() - ttlMs;
+        Iterator<Respuesta> it = respuestas.values().iterator();
+        while (it.hasNext()) {
+            Respuesta respuesta = it.next();
+            if (respuestas.size() <= capacidad && respuesta.instante >= limite) {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    public synchronized int getTamano() {
+        return respuestas.size();
+    }
+
+    public long getAciertos() {
+        return aciertos.get();
+    }
+}
@@ -9,19 +9,42 @@
  * Maneja operaciones de préstamo, devolución, y renovación, 
  * y asegura la disponibilidad de la base de datos y la sincronización 
  * entre réplicas primarias y secundarias mediante ZeroMQ.
+ * Las solicitudes llegan a un socket ROUTER y se reparten por inproc entre
+ * un grupo de hilos trabajadores (propiedad ga.trabajadores); las
+ * respuestas vuelven al cliente por su identidad. Las solicitudes repetidas
+ * (mismo idSolicitud) se responden desde CacheRespuestas. Las solicitudes
+ * pueden llegar en binario o en JSON (ver FormatoMensaje) y cada una se
+ * responde en su mismo formato.
+ * Cada réplica publicada lleva un número de secuencia y queda en
+ * BitacoraReplicacion, y se publican agrupadas en lotes. El receptor
+ * reparte las operaciones entre los hilos de AplicadorReplicas, que las
+ * aplican por lotes con un solo commit y guardan la última aplicada en
+ * MarcaReplicacion; si detecta un hueco, pide lo que falta a la otra sede
+ * por un canal de recuperación aparte.
  */
 
 package com.proyecto.Gestores;
 
+import com.proyecto.Modelos.Prestamo;
+import com.proyecto.Persistencia.Almacenamiento;
 import com.proyecto.Persistencia.BaseDatos;
+import com.proyecto.Persistencia.BaseDatosFragmentada;
+import com.proyecto.Persistencia.BitacoraReplicacion;
+import com.proyecto.Persistencia.FormatoBinario;
+import com.proyecto.Persistencia.MarcaReplicacion;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Registros.Registro;
 import org.zeromq.*;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class GA {
-    private BaseDatos bdLocal;
+    private static final Registro log = Registro.de(GA.class);
+    private Almacenamiento bdLocal;
+    private BaseDatosFragmentada bdFragmentada;
     private final String sede;
     private final String puertoServicio;
     private final String puertoReplicacionLocal;
@@ -31,11 +54,45 @@ public class GA {
 
     private ZContext context;
     private ZMQ.Socket socketServicio;
+    private ZMQ.Socket socketRespuestas;
+    private String direccionRespuestas;
+    private ThreadLocal<ZMQ.Socket> socketRespuestasHilo;
+    private ZMQ.Socket socketTrabajadores;
+    private String direccionTrabajadores;
+    private final Deque<ZFrame> trabajadoresLibres = new ArrayDeque<>();
+    private final CacheRespuestas cacheRespuestas = new CacheRespuestas(
+            Integer.getInteger("ga.cache.capacidad", 100000),
+            TimeUnit.SECONDS.toMillis(Long.getLong("ga.cache.ttlSeg", 300)));
+    private static final long ESPERA_SOLICITUD_REPETIDA_SEG = 10;
+    // Un préstamo de respaldo solo se ejecuta si la otra sede confirma a tiempo que no lo atendió
+    private static final int ESPERA_RESERVA_MS = Integer.getInteger("ga.respaldo.esperaMs", 1000);
+    private final ThreadLocal<ZMQ.Socket> socketReservaHilo = new ThreadLocal<>();
     private ZMQ.Socket socketReplicacionPub;
     private ZMQ.Socket socketReplicacionSub;
+    private ZMQ.Socket socketRecuperacion;
+    private BitacoraReplicacion bitacoraReplicacion;
+    private MarcaReplicacion marcaReplicacion;
+    private AplicadorReplicas aplicadorReplicas;
+    private AntiEntropia antiEntropia;
+    private TransferenciaEstado transferenciaEstado;
+    private RebalanceoCupos rebalanceoCupos;
+    private long ultimoLatido;
+    // Réplicas anexadas a la bitácora que aún no se publican (ver publicarLote)
+    private final List<String> lotePendiente = new ArrayList<>();
+    private long primeraSecuenciaLote;
+    private long inicioLote;
+    private long ultimaSecuenciaPublicada;
+    private final int tamanoLoteReplicacion = Math.max(1, Integer.getInteger("ga.replicacion.lote", 64));
+    private final long esperaLoteReplicacionMs = Long.getLong("ga.replicacion.loteMs", 5);
+    private final MetricasReplicacion metricasReplicacion = new MetricasReplicacion();
+    private static final long INTERVALO_LATIDO_MS = 1000;
+    private static final int LOTE_RECUPERACION = 1000;
+    private static final int ESPERA_RECUPERACION_MS = 1000;
     private final Gson gson;
 
     private volatile boolean activo = true;
+    private boolean cerrado = false;
+    private final List<Thread> hilosInternos = new ArrayList<>();
     private volatile boolean bdDisponible = true;
     private final ScheduledExecutorService schedulerHealth;
 
@@ -53,46 +110,152 @@ public class GA {
         this.gson = new Gson();
         this.schedulerHealth = Executors.newScheduledThreadPool(1);
 
+        long inicioArranque = System.nanoTime();
+        context = new ZContext();
+        transferirEstadoSiHaceFalta();
         inicializarBD();
         inicializarZeroMQ();
         iniciarMonitoreoSalud();
+        reportarArranque(inicioArranque);
     }
 
     private void inicializarBD() {
         try {
-            this.bdLocal = new BaseDatos(rutaBD, sede);
+            int fragmentos = Integer.getInteger("ga.fragmentos", 0);
+            if (fragmentos > 0) {
+                this.bdFragmentada = new BaseDatosFragmentada(rutaBD, sede, fragmentos);
+                this.bdLocal = bdFragmentada;
+            } else {
+                this.bdLocal = new BaseDatos(rutaBD, sede);
+            }
+            this.bitacoraReplicacion = new BitacoraReplicacion(rutaBD, sede);
+            this.marcaReplicacion = new MarcaReplicacion(rutaBD, sede);
+            this.ultimaSecuenciaPublicada = bitacoraReplicacion.getUltimaSecuencia();
             this.bdDisponible = bdLocal.verificarDisponibilidad();
-            System.out.println("BD " + sede + " inicializada. Disponible: " + bdDisponible);
+            log.info("BD {} inicializada. Disponible: {}", sede, bdDisponible);
         } catch (Exception e) {
-            System.err.println("ERROR: Fallo al inicializar BD: " + e.getMessage());
+            log.error("Fallo al inicializar BD: {}", e.getMessage(), e);
             this.bdDisponible = false;
         }
     }
 
-    private void inicializarZeroMQ() {
-        context = new ZContext();
+    /**
+     * Un GA sin datos (o arrancado con ga.transferencia=true) copia el
+     * estado de la otra sede antes de abrir su BD; si la otra sede no
+     * responde arranca con lo que tenga.
+     */
+    private void transferirEstadoSiHaceFalta() {
+        if (direccionReplicaRemota == null || direccionReplicaRemota.isEmpty()
+                || !TransferenciaEstado.debeTransferir(rutaBD, sede)) {
+            return;
+        }
+        log.info("GA {} - Solicitando el estado a la otra sede en {}", sede, direccionRecuperacionRemota());
+        try {
+            TransferenciaEstado.descargar(context, direccionRecuperacionRemota(), rutaBD, sede);
+        } catch (Exception e) {
+            log.error("Fallo la transferencia de estado: {}", e.getMessage());
+        }
+    }
 
-        socketServicio = context.createSocket(SocketType.REP);
+    private void reportarArranque(long inicioArranque) {
+        long listoMs = (System.nanoTime() - inicioArranque) / 1_000_000;
+        if (bdLocal == null) {
+            log.info("GA {} listo en {} ms (sin BD)", sede, listoMs);
+            return;
+        }
+        long cargaMs = bdLocal.getDuracionCargaMs();
+        log.info("GA {} listo en {} ms (carga BD: {})", sede, listoMs, bdLocal.getRegistrosCargados()
+                + " registros en " + cargaMs + " ms, "
+                + (bdLocal.getRegistrosCargados() * 1000 / Math.max(1, cargaMs)) + " registros/s");
+    }
+
+    private void inicializarZeroMQ() {
+        // ROUTER: las respuestas se devuelven por la identidad del cliente,
+        // así que pueden enviarse en otro orden que las solicitudes
+        socketServicio = context.createSocket(SocketType.ROUTER);
         socketServicio.bind("tcp://*:" + puertoServicio);
-        System.out.println("GA " + sede + " - Socket servicio en puerto " + puertoServicio);
+        log.info("GA {} - Socket servicio en puerto {}", sede, puertoServicio);
+
+        // Los hilos escritores de los fragmentos devuelven respuestas y réplicas
+        // por aquí; solo el hilo principal usa socketServicio y el PUB
+        direccionRespuestas = "inproc://respuestas-" + sede;
+        socketRespuestas = context.createSocket(SocketType.PULL);
+        socketRespuestas.bind(direccionRespuestas);
+        socketRespuestasHilo = ThreadLocal.withInitial(() -> {
+            ZMQ.Socket socket = context.createSocket(SocketType.PUSH);
+            socket.connect(direccionRespuestas);
+            return socket;
+        });
+
+        // Sin fragmentos, las operaciones las ejecuta un grupo de trabajadores
+        // y BaseDatos resuelve la concurrencia entre ellos
+        if (bdFragmentada == null) {
+            direccionTrabajadores = "inproc://trabajadores-" + sede;
+            socketTrabajadores = context.createSocket(SocketType.ROUTER);
+            socketTrabajadores.bind(direccionTrabajadores);
+            int numTrabajadores = Math.max(1, Integer.getInteger("ga.trabajadores", 4));
+            for (int i = 0; i < numTrabajadores; i++) {
+                int indice = i;
+                Thread hilo = new Thread(() -> ejecutarTrabajador(indice));
+                hilo.setName("Trabajador-" + sede + "-" + indice);
+                hilo.setDaemon(true);
+                hilo.start();
+                hilosInternos.add(hilo);
+            }
+            log.info("GA {} - {} trabajadores", sede, numTrabajadores);
+        }
 
         socketReplicacionPub = context.createSocket(SocketType.PUB);
         socketReplicacionPub.bind("tcp://*:" + puertoReplicacionLocal);
-        System.out.println("GA " + sede + " - Socket PUB replicación en puerto " + puertoReplicacionLocal);
+        log.info("GA {} - Socket PUB replicación en puerto {}", sede, puertoReplicacionLocal);
+
+        boolean conSedeRemota = direccionReplicaRemota != null && !direccionReplicaRemota.isEmpty();
+        if (bdLocal != null) {
+            antiEntropia = new AntiEntropia(sede, bdLocal, context,
+                    conSedeRemota ? direccionRecuperacionRemota() : null,
+                    TimeUnit.SECONDS.toMillis(Long.getLong("ga.antientropia.intervaloSeg", 60)), () -> activo);
+            rebalanceoCupos = new RebalanceoCupos(sede, bdLocal, context,
+                    conSedeRemota ? direccionRecuperacionRemota() : null,
+                    Long.getLong("ga.cupos.intervaloMs", 500), () -> activo, this::replicarDesdeHilo);
+            if (bitacoraReplicacion != null) {
+                transferenciaEstado = new TransferenciaEstado(bdLocal, bitacoraReplicacion);
+            }
+        }
+        if (bitacoraReplicacion != null) {
+            iniciarServidorRecuperacion();
+        }
 
-        if (direccionReplicaRemota != null && !direccionReplicaRemota.isEmpty()) {
+        if (conSedeRemota) {
             iniciarReceptorReplicas();
+            iniciarAntiEntropia();
+            iniciarRebalanceoCupos();
         }
 
-        System.out.println("GA " + sede + " iniciado como " + (esPrimario ? "PRIMARIO" : "SECUNDARIO"));
-        System.out.println("Publica replicas en puerto: " + puertoReplicacionLocal);
-        System.out.println("Escucha replicas desde: " + direccionReplicaRemota);
+        log.info("GA {} iniciado como {}", sede, esPrimario ? "PRIMARIO" : "SECUNDARIO");
+        log.info("Publica replicas en puerto: {}, escucha replicas desde: {}", puertoReplicacionLocal,
+                direccionReplicaRemota);
     }
 
     private void iniciarMonitoreoSalud() {
         schedulerHealth.scheduleAtFixedRate(() -> {
             verificarSaludBD();
         }, 5, 5, TimeUnit.SECONDS);
+
+        long reporteSeg = Long.getLong("ga.replicacion.reporteSeg", 30);
+        if (reporteSeg > 0) {
+            long[] reportadas = {0};
+            schedulerHealth.scheduleAtFixedRate(() -> {
+                long total = metricasReplicacion.getReplicasEnviadas() + metricasReplicacion.getReplicasAplicadas();
+                if (total != reportadas[0]) {
+                    reportadas[0] = total;
+                    log.info("Replicacion {}: {}", sede, metricasReplicacion.resumen());
+                }
+            }, reporteSeg, reporteSeg, TimeUnit.SECONDS);
+        }
+    }
+
+    public MetricasReplicacion getMetricasReplicacion() {
+        return metricasReplicacion;
     }
 
     private void verificarSaludBD() {
@@ -100,78 +263,441 @@ public class GA {
             boolean disponibleAhora = bdLocal.verificarDisponibilidad();
 
             if (!disponibleAhora && bdDisponible) {
-                System.err.println("¡ALERTA! BD " + sede + " NO DISPONIBLE");
+                log.error("¡ALERTA! BD {} NO DISPONIBLE", sede);
                 bdDisponible = false;
                 intentarRecuperacionBD();
             } else if (disponibleAhora && !bdDisponible) {
-                System.out.println("BD " + sede + " RECUPERADA");
+                log.info("BD {} RECUPERADA", sede);
                 bdDisponible = true;
             }
         } catch (Exception e) {
-            System.err.println("Error verificando salud BD: " + e.getMessage());
+            log.error("Error verificando salud BD: {}", e.getMessage());
             bdDisponible = false;
         }
     }
 
     private void intentarRecuperacionBD() {
-        System.out.println("Intentando recuperar BD " + sede + "...");
+        log.warn("Intentando recuperar BD {}...", sede);
         try {
             Thread.sleep(2000);
             this.bdDisponible = bdLocal.verificarDisponibilidad();
 
             if (bdDisponible) {
-                System.out.println("BD " + sede + " recuperada exitosamente");
+                log.info("BD {} recuperada exitosamente", sede);
             } else {
-                System.err.println("No se pudo recuperar BD " + sede);
+                log.error("No se pudo recuperar BD {}", sede);
             }
         } catch (Exception e) {
-            System.err.println("Error en recuperación BD: " + e.getMessage());
+            log.error("Error en recuperación BD: {}", e.getMessage());
             this.bdDisponible = false;
         }
     }
 
+    // Compara periódicamente los préstamos de la otra sede con su copia local y repara las diferencias
+    private void iniciarAntiEntropia() {
+        if (antiEntropia == null || Long.getLong("ga.antientropia.intervaloSeg", 60) <= 0) {
+            return;
+        }
+        Thread hilo = new Thread(antiEntropia::ejecutar);
+        hilo.setName("AntiEntropia-" + sede);
+        hilo.setDaemon(true);
+        hilo.start();
+        hilosInternos.add(hilo);
+    }
+
+    // Pide cupo a la otra sede para los títulos que se quedaron sin él
+    private void iniciarRebalanceoCupos() {
+        if (rebalanceoCupos == null || !bdLocal.getCupos().estaActivo()) {
+            return;
+        }
+        Thread hilo = new Thread(rebalanceoCupos::ejecutar);
+        hilo.setName("RebalanceoCupos-" + sede);
+        hilo.setDaemon(true);
+        hilo.start();
+        hilosInternos.add(hilo);
+    }
+
+    // Desde un hilo que no es el principal, la réplica se publica a través del PULL de respuestas
+    private void replicarDesdeHilo(Map<String, Object> replica) {
+        ZMQ.Socket socket = socketRespuestasHilo.get();
+        socket.sendMore("REPLICA");
+        socket.send(gson.toJson(replica));
+    }
+
     private void iniciarReceptorReplicas() {
+        if (marcaReplicacion != null) {
+            aplicadorReplicas = new AplicadorReplicas(sede, bdLocal, marcaReplicacion, metricasReplicacion,
+                    this::procesarReplica,
+                    Integer.getInteger("ga.replicacion.aplicadores", 4),
+                    Integer.getInteger("ga.replicacion.colaAplicacion", 1024),
+                    tamanoLoteReplicacion);
+        }
         Thread hiloReceptor = new Thread(() -> {
             socketReplicacionSub = context.createSocket(SocketType.SUB);
+            socketReplicacionSub.setReceiveTimeOut(1000);
             socketReplicacionSub.connect(direccionReplicaRemota);
             socketReplicacionSub.subscribe("".getBytes());
 
-            System.out.println("GA " + sede + " escuchando replicas desde: " + direccionReplicaRemota);
+            log.info("GA {} escuchando replicas desde: {}", sede, direccionReplicaRemota);
+
+            // Lo que la otra sede publicó mientras esta no escuchaba
+            if (aplicadorReplicas != null) {
+                try {
+                    recuperarReplicas();
+                } catch (Exception e) {
+                    log.warn("Error recuperando replicas: {}", e.getMessage());
+                }
+            }
 
             while (activo) {
                 try {
-                    String mensajeJson = socketReplicacionSub.recvStr();
-
-                    if (mensajeJson != null) {
-                        Map<String, Object> operacion = gson.fromJson(mensajeJson,
-                                new TypeToken<Map<String, Object>>() {
-                                }.getType());
-
-                        String sedeOrigen = (String) operacion.get("sedeOrigen");
-                        if (!sede.equals(sedeOrigen)) {
-                            System.out.println("[" + sede + "] Replica recibida desde " + sedeOrigen);
-                            aplicarReplicacion(operacion);
-                        }
+                    ZMsg mensaje = ZMsg.recvMsg(socketReplicacionSub);
+                    if (mensaje != null) {
+                        recibirReplica(mensaje);
                     }
                 } catch (Exception e) {
                     if (activo) {
-                        System.err.println("Error recibiendo replica: " + e.getMessage());
+                        log.warn("Error recibiendo replica: {}", e.getMessage());
                     }
                 }
             }
 
-            if (socketReplicacionSub != null) {
-                socketReplicacionSub.close();
+            if (socketRecuperacion != null) {
+                socketRecuperacion.close();
             }
+            socketReplicacionSub.close();
         });
         hiloReceptor.setName("ReceptorReplicas-" + sede);
         hiloReceptor.start();
+        hilosInternos.add(hiloReceptor);
+    }
+
+    /**
+     * Mensaje de la otra sede: [LOTE][primera secuencia][arreglo json],
+     * [OP][secuencia][json], [LATIDO][última secuencia publicada] o, si viene
+     * de una versión anterior, solo el json.
+     */
+    private void recibirReplica(ZMsg mensaje) throws IOException, InterruptedException {
+        if (mensaje.size() == 1) {
+            procesarReplica(leerOperacion(leerJson(mensaje)));
+            return;
+        }
+        String tipo = mensaje.popString();
+        long secuencia = Long.parseLong(mensaje.popString());
+        if ("LATIDO".equals(tipo)) {
+            if (aplicadorReplicas != null && secuencia != aplicadorReplicas.getUltimaRecibida()) {
+                recuperarReplicas();
+            }
+            return;
+        }
+
+        List<Map<String, Object>> operaciones;
+        if ("LOTE".equals(tipo)) {
+            operaciones = gson.fromJson(leerJson(mensaje), new TypeToken<List<Map<String, Object>>>() {
+            }.getType());
+        } else {
+            operaciones = Collections.singletonList(leerOperacion(leerJson(mensaje)));
+        }
+        if (aplicadorReplicas == null) {
+            bdLocal.aplicarEnLote(() -> operaciones.forEach(this::procesarReplica));
+            return;
+        }
+
+        long esperada = aplicadorReplicas.getUltimaRecibida() + 1;
+        if (secuencia > esperada) {
+            log.info("Hueco en replicas: se esperaba {} y llego {}", esperada, secuencia);
+            // La recuperación trae también estas operaciones
+            recuperarReplicas();
+            return;
+        }
+        // Las que ya llegaron por el canal de recuperación se omiten
+        aplicadorReplicas.encolar(secuencia, operaciones);
+    }
+
+    // popString devolvería en hexadecimal un json con acentos (un usuario "josé")
+    private static String leerJson(ZMsg mensaje) {
+        return mensaje.pop().getString(ZMQ.CHARSET);
+    }
+
+    private Map<String, Object> leerOperacion(String mensajeJson) {
+        return gson.fromJson(mensajeJson, new TypeToken<Map<String, Object>>() {
+        }.getType());
+    }
+
+    private void procesarReplica(Map<String, Object> operacion) {
+        String sedeOrigen = (String) operacion.get("sedeOrigen");
+        if (!sede.equals(sedeOrigen)) {
+            log.debug("Replica recibida desde {}", sedeOrigen);
+            aplicarReplicacion(operacion);
+        }
+    }
+
+    /**
+     * Pide a la otra sede, por el canal de recuperación, las operaciones
+     * posteriores a la última recibida y las entrega a los aplicadores.
+     * Si la otra sede no responde se deja para el siguiente latido.
+     */
+    private void recuperarReplicas() throws IOException, InterruptedException {
+        if (socketRecuperacion == null) {
+            socketRecuperacion = context.createSocket(SocketType.DEALER);
+            socketRecuperacion.setReceiveTimeOut(ESPERA_RECUPERACION_MS);
+            socketRecuperacion.setLinger(0);
+            socketRecuperacion.connect(direccionRecuperacionRemota());
+        }
+
+        int recuperadas = 0;
+        while (activo) {
+            long desde = aplicadorReplicas.getUltimaRecibida() + 1;
+            socketRecuperacion.sendMore("DESDE");
+            socketRecuperacion.send(Long.toString(desde));
+
+            List<Map<String, Object>> recibidas = new ArrayList<>();
+            long ultimaRemota = -1;
+            while (activo) {
+                ZMsg respuesta = ZMsg.recvMsg(socketRecuperacion);
+                if (respuesta == null) {
+                    // Una respuesta tardía se confundiría con la de la próxima petición
+                    log.warn("Sin respuesta de recuperacion desde {}", direccionRecuperacionRemota());
+                    socketRecuperacion.close();
+                    socketRecuperacion = null;
+                    return;
+                }
+                String tipo = respuesta.popString();
+                long secuencia = Long.parseLong(respuesta.popString());
+                if ("OP".equals(tipo)) {
+                    if (secuencia == desde + recibidas.size()) {
+                        recibidas.add(leerOperacion(leerJson(respuesta)));
+                    }
+                    continue;
+                }
+                if ("FUERA_DE_RANGO".equals(tipo)) {
+                    log.warn("Las replicas {} a {} ya no estan en la bitacora de la otra sede; se omiten", desde,
+                            secuencia - 1);
+                    aplicadorReplicas.omitirHasta(secuencia - 1);
+                } else {
+                    ultimaRemota = secuencia;
+                }
+                break;
+            }
+            if (ultimaRemota < 0) {
+                continue;
+            }
+
+            if (ultimaRemota < desde - 1) {
+                log.warn("La bitacora de replicacion de la otra sede se reinicio (ultima {}, marca {}); "
+                        + "se recorre desde el principio", ultimaRemota, desde - 1);
+                aplicadorReplicas.reiniciar();
+                continue;
+            }
+            if (recibidas.isEmpty()) {
+                break;
+            }
+            aplicadorReplicas.encolar(desde, recibidas);
+            recuperadas += recibidas.size();
+            if (aplicadorReplicas.getUltimaRecibida() >= ultimaRemota) {
+                break;
+            }
+        }
+
+        if (recuperadas > 0) {
+            log.info("Recuperadas {} replicas; ultima recibida {}", recuperadas, aplicadorReplicas.getUltimaRecibida());
+        }
+    }
+
+    // Por defecto la otra sede atiende recuperaciones en su puerto de replicación + 1
+    private String direccionRecuperacionRemota() {
+        String configurada = System.getProperty("ga.replicacion.direccionRecuperacion");
+        if (configurada != null) {
+            return configurada;
+        }
+        int separador = direccionReplicaRemota.lastIndexOf(':');
+        int puerto = Integer.parseInt(direccionReplicaRemota.substring(separador + 1));
+        return direccionReplicaRemota.substring(0, separador + 1) + (puerto + 1);
+    }
+
+    /**
+     * Atiende en su propio hilo las peticiones de recuperación de la otra
+     * sede. A [DESDE][secuencia] responde con hasta LOTE_RECUPERACION
+     * mensajes [OP][secuencia][json] seguidos de [FIN][última secuencia], o
+     * con [FUERA_DE_RANGO][primera disponible] si ya se descartaron. Por
+     * el mismo socket se atienden las consultas de AntiEntropia, los pedidos
+     * de cupo (RebalanceoCupos) y las transferencias de estado
+     * (TransferenciaEstado).
+     */
+    private void iniciarServidorRecuperacion() {
+        int puerto = Integer.getInteger("ga.replicacion.puertoRecuperacion",
+                Integer.parseInt(puertoReplicacionLocal) + 1);
+        ZMQ.Socket socket = context.createSocket(SocketType.ROUTER);
+        socket.setReceiveTimeOut(1000);
+        socket.setSndHWM(0);
+        socket.bind("tcp://*:" + puerto);
+
+        Thread hilo = new Thread(() -> {
+            while (activo) {
+                ZMsg peticion;
+                try {
+                    peticion = ZMsg.recvMsg(socket);
+                } catch (ZMQException e) {
+                    break;
+                }
+                if (peticion == null) {
+                    continue;
+                }
+                try {
+                    atenderRecuperacion(socket, peticion);
+                } catch (Exception e) {
+                    log.warn("Error atendiendo recuperacion: {}", e.getMessage());
+                }
+            }
+            socket.close();
+        });
+        hilo.setName("ServidorRecuperacion-" + sede);
+        hilo.setDaemon(true);
+        hilo.start();
+        hilosInternos.add(hilo);
+        log.info("GA {} - Recuperacion de replicas en puerto {}", sede, puerto);
+    }
+
+    private void atenderRecuperacion(ZMQ.Socket socket, ZMsg peticion) throws IOException {
+        ZFrame cliente = peticion.pop();
+        String tipo = peticion.popString();
+        if (antiEntropia != null && AntiEntropia.atiende(tipo)) {
+            ZMsg respuesta = antiEntropia.responder(cliente.strhex(), tipo, peticion);
+            respuesta.push(cliente);
+            respuesta.send(socket);
+            return;
+        }
+        if (rebalanceoCupos != null && RebalanceoCupos.atiende(tipo)) {
+            ZMsg respuesta = rebalanceoCupos.responder(tipo, peticion);
+            respuesta.push(cliente);
+            respuesta.send(socket);
+            return;
+        }
+        if (transferenciaEstado != null && TransferenciaEstado.atiende(tipo)) {
+            transferenciaEstado.atender(socket, cliente, tipo, peticion);
+            return;
+        }
+        if ("RESERVAR".equals(tipo)) {
+            atenderReserva(socket, cliente, peticion.popString());
+            return;
+        }
+        if (!"DESDE".equals(tipo)) {
+            return;
+        }
+        long desde = Long.parseLong(peticion.popString());
+        long ultima = bitacoraReplicacion.getUltimaSecuencia();
+        boolean disponible = desde > ultima || bitacoraReplicacion.leer(desde, ultima, LOTE_RECUPERACION,
+                (secuencia, json) -> enviarRecuperacion(socket, cliente, "OP", secuencia, json));
+        if (disponible) {
+            enviarRecuperacion(socket, cliente, "FIN", ultima, null);
+        } else {
+            enviarRecuperacion(socket, cliente, "FUERA_DE_RANGO", bitacoraReplicacion.getPrimeraSecuencia(), null);
+        }
+    }
+
+    /**
+     * [RESERVAR][idSolicitud] de la otra sede, que recibió un préstamo de
+     * respaldo. Responde [LIBRE] si esta sede no lo ejecutó (y ya no lo
+     * ejecutará), [RESPUESTA][json] si lo ejecutó o [EN_CURSO] si lo está
+     * ejecutando.
+     */
+    private void atenderReserva(ZMQ.Socket socket, ZFrame cliente, String idSolicitud) {
+        Map<String, Object> provisional = new HashMap<>();
+        provisional.put("exito", false);
+        provisional.put("mensaje", "La solicitud se atiende en la otra sede");
+        provisional.put("operacion", "PRESTAMO");
+        CompletableFuture<Map<String, Object>> previa = cacheRespuestas.cederAOtraSede(idSolicitud, provisional);
+
+        ZMsg respuesta = new ZMsg();
+        respuesta.add(cliente);
+        if (previa == null) {
+            log.info("Solicitud {} cedida a la otra sede", idSolicitud);
+            respuesta.add("LIBRE");
+        } else if (previa.isDone() && !previa.isCompletedExceptionally()) {
+            respuesta.add("RESPUESTA");
+            respuesta.add(gson.toJson(previa.join()));
+        } else {
+            respuesta.add("EN_CURSO");
+        }
+        respuesta.send(socket);
+    }
+
+    /**
+     * Pregunta a la otra sede por un préstamo de respaldo antes de
+     * ejecutarlo. Devuelve null si la otra sede lo cedió; si no, la
+     * respuesta para el actor: la que dio la otra sede o un error cuando no
+     * se sabe qué pasó allá (en curso o sin respuesta a tiempo).
+     */
+    private Map<String, Object> reservarEnOtraSede(String idSolicitud) {
+        if (direccionReplicaRemota == null || direccionReplicaRemota.isEmpty()) {
+            return null;
+        }
+        ZMQ.Socket socket = socketReservaHilo.get();
+        if (socket == null) {
+            socket = context.createSocket(SocketType.DEALER);
+            socket.setReceiveTimeOut(ESPERA_RESERVA_MS);
+            socket.setLinger(0);
+            socket.connect(direccionRecuperacionRemota());
+            socketReservaHilo.set(socket);
+        }
+        socket.sendMore("RESERVAR");
+        socket.send(idSolicitud);
+        ZMsg respuesta = ZMsg.recvMsg(socket);
+        if (respuesta == null) {
+            // Una respuesta tardía se confundiría con la de la próxima reserva
+            socket.close();
+            socketReservaHilo.remove();
+            log.warn("Prestamo de respaldo {} sin confirmar: la otra sede no responde", idSolicitud);
+            return respuestaSinConfirmar("La otra sede no confirmo la solicitud; reintente");
+        }
+        String estado = respuesta.popString();
+        if ("LIBRE".equals(estado)) {
+            return null;
+        }
+        if ("RESPUESTA".equals(estado)) {
+            log.info("Prestamo de respaldo {} ya atendido en la otra sede", idSolicitud);
+            // popString devolvería la respuesta en hexadecimal por los acentos
+            return leerOperacion(respuesta.pop().getString(ZMQ.CHARSET));
+        }
+        return respuestaSinConfirmar("La solicitud sigue en curso en la otra sede; reintente");
+    }
+
+    // Una respuesta sin confirmar no se guarda: el reintento vuelve a preguntar a la otra sede
+    private void guardarRespuesta(String idSolicitud, Map<String, Object> respuesta) {
+        if ("SIN_CONFIRMAR".equals(respuesta.get("error"))) {
+            cacheRespuestas.descartar(idSolicitud, respuesta);
+        } else {
+            cacheRespuestas.completar(idSolicitud, respuesta);
+        }
+    }
+
+    private static Map<String, Object> respuestaSinConfirmar(String mensaje) {
+        Map<String, Object> respuesta = new HashMap<>();
+        respuesta.put("exito", false);
+        respuesta.put("mensaje", mensaje);
+        respuesta.put("error", "SIN_CONFIRMAR");
+        respuesta.put("operacion", "PRESTAMO");
+        return respuesta;
+    }
+
+    private static void enviarRecuperacion(ZMQ.Socket socket, ZFrame cliente, String tipo, long secuencia,
+            String json) {
+        ZMsg mensaje = new ZMsg();
+        mensaje.add(cliente.duplicate());
+        mensaje.add(tipo);
+        mensaje.add(Long.toString(secuencia));
+        if (json != null) {
+            mensaje.add(json);
+        }
+        mensaje.send(socket);
     }
 
     private void aplicarReplicacion(Map<String, Object> operacion) {
         String tipo = (String) operacion.get("operacion");
         String sedeOrigen = (String) operacion.get("sedeOrigen");
-        System.out.println("Aplicando réplica: " + tipo + " de " + sedeOrigen);
+        Registro.setSolicitud((String) operacion.get("idSolicitud"));
+        log.debug("Aplicando réplica: {} de {}", tipo, sedeOrigen);
+        boolean aplicada = false;
 
         try {
             switch (tipo) {
@@ -180,126 +706,447 @@ public class GA {
                     String usuario = (String) operacion.get("usuario");
                     String idPrestamo = (String) operacion.get("idPrestamo");
 
-                    System.out.println("    Datos: ISBN=" + isbn + ", Usuario=" + usuario + ", ID=" + idPrestamo);
+                    log.debug("Datos: ISBN={}, Usuario={}, ID={}", isbn, usuario, idPrestamo);
 
                     String resultado = bdLocal.realizarPrestamoReplica(isbn, usuario, idPrestamo, sedeOrigen);
 
-                    if (resultado != null) {
-                        System.out.println("Operacion remota registrada");
+                    aplicada = resultado != null;
+                    if (aplicada) {
+                        log.debug("Operacion remota registrada");
                     } else {
-                        System.err.println("ERROR: No se pudo registrar operación remota");
+                        log.warn("No se pudo registrar operación remota");
                     }
                     break;
 
                 case "DEVOLUCION":
-                    boolean exitoDevolucion = bdLocal.realizarDevolucionReplica((String) operacion.get("idPrestamo"));
-                    if (exitoDevolucion) {
-                        System.out.println("Devolución remota registrada");
+                    aplicada = bdLocal.realizarDevolucionReplica((String) operacion.get("idPrestamo"));
+                    if (aplicada) {
+                        log.debug("Devolución remota registrada");
                     } else {
-                        System.err.println("ERROR: No se pudo registrar devolución remota");
+                        log.warn("No se pudo registrar devolución remota");
                     }
                     break;
 
                 case "RENOVACION":
-                    boolean exitoRenovacion = bdLocal.realizarRenovacionReplica((String) operacion.get("idPrestamo"));
-                    if (exitoRenovacion) {
-                        System.out.println("Renovacion remota registrada");
+                    Number renovaciones = (Number) operacion.get("renovaciones");
+                    if (renovaciones != null) {
+                        Number fecha = (Number) operacion.get("fechaPrestamo");
+                        aplicada = bdLocal.realizarRenovacionReplica((String) operacion.get("idPrestamo"),
+                                renovaciones.intValue(),
+                                fecha == null ? null : FormatoBinario.aFecha(fecha.longValue()));
+                    } else {
+                        // Réplica de una versión anterior, sin el número de renovaciones
+                        aplicada = bdLocal.realizarRenovacionReplica((String) operacion.get("idPrestamo"));
+                    }
+                    if (aplicada) {
+                        log.debug("Renovacion remota registrada");
                     } else {
-                        System.err.println("ERROR: No se pudo registrar renovación remota");
+                        log.warn("No se pudo registrar renovación remota");
+                    }
+                    break;
+
+                case "CUPO":
+                    // La otra sede le cedió parte de su cupo de un título a esta
+                    long incremento = bdLocal.getCupos().fusionar((String) operacion.get("isbn"), sedeOrigen,
+                            (String) operacion.get("destino"), ((Number) operacion.get("acumulado")).longValue());
+                    aplicada = true;
+                    if (incremento > 0) {
+                        log.info("Cupo recibido de {}: {} de {}", sedeOrigen, incremento, operacion.get("isbn"));
                     }
                     break;
 
                 default:
-                    System.err.println("Tipo de replica desconocido: " + tipo);
+                    log.warn("Tipo de replica desconocido: {}", tipo);
+            }
+
+            // Un reintento del actor enviado a esta sede recibe la respuesta de la otra
+            String idSolicitud = (String) operacion.get("idSolicitud");
+            if (aplicada && idSolicitud != null) {
+                cacheRespuestas.registrar(idSolicitud, respuestaExitosa(tipo));
             }
         } catch (Exception e) {
-            System.err.println("Error aplicando replica: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error aplicando replica: {}", e.getMessage(), e);
+        } finally {
+            Registro.setSolicitud(null);
         }
     }
 
     public void ejecutar() {
-        ZMQ.Poller poller = context.createPoller(1);
-        poller.register(socketServicio, ZMQ.Poller.POLLIN);
+        // Mientras no haya trabajadores libres no se leen solicitudes nuevas;
+        // esperan en la cola del ROUTER
+        ZMQ.Poller pollerCompleto = crearPoller();
+        int indiceServicio = pollerCompleto.register(socketServicio, ZMQ.Poller.POLLIN);
+        ZMQ.Poller pollerInterno = crearPoller();
 
-        System.out.println("GA " + sede + " esperando solicitudes...\n");
+        log.info("GA {} esperando solicitudes...", sede);
 
         while (activo && !Thread.currentThread().isInterrupted()) {
             try {
-                poller.poll(1000);
+                boolean aceptar = socketTrabajadores == null || !trabajadoresLibres.isEmpty();
+                ZMQ.Poller poller = aceptar ? pollerCompleto : pollerInterno;
+                poller.poll(esperaPoll());
 
                 if (poller.pollin(0)) {
+                    reenviarResultado(ZMsg.recvMsg(socketRespuestas));
+                }
+                if (socketTrabajadores != null && poller.pollin(1)) {
+                    atenderTrabajador();
+                }
+                if (aceptar && poller.pollin(indiceServicio)) {
                     procesarSolicitudServicio();
                 }
+                if (!lotePendiente.isEmpty()
+                        && System.currentTimeMillis() - inicioLote >= esperaLoteReplicacionMs) {
+                    publicarLote();
+                }
+                publicarLatido();
 
             } catch (Exception e) {
-                System.err.println("Error en loop principal: " + e.getMessage());
+                log.error("Error en loop principal: {}", e.getMessage(), e);
             }
         }
 
+        publicarLote();
         cerrar();
     }
 
+    // Con un lote de réplicas pendiente, el poll no espera más allá de su plazo
+    private long esperaPoll() {
+        if (lotePendiente.isEmpty()) {
+            return 1000;
+        }
+        return Math.max(0, esperaLoteReplicacionMs - (System.currentTimeMillis() - inicioLote));
+    }
+
+    private ZMQ.Poller crearPoller() {
+        ZMQ.Poller poller = context.createPoller(3);
+        poller.register(socketRespuestas, ZMQ.Poller.POLLIN);
+        if (socketTrabajadores != null) {
+            poller.register(socketTrabajadores, ZMQ.Poller.POLLIN);
+        }
+        return poller;
+    }
+
     private void procesarSolicitudServicio() {
-        try {
-            String mensajeJson = socketServicio.recvStr();
-            System.out.println("Solicitud recibida: " + mensajeJson);
+        ZMsg mensaje = ZMsg.recvMsg(socketServicio);
+        if (mensaje == null) {
+            return;
+        }
+        // El último frame es la solicitud; los anteriores son el sobre del cliente
+        byte[] datos = mensaje.removeLast().getData();
+        boolean binario = FormatoMensaje.esBinario(datos);
+        ZMsg sobre = mensaje;
 
-            Map<String, Object> solicitud = gson.fromJson(mensajeJson, new TypeToken<Map<String, Object>>() {
-            }.getType());
-            Map<String, Object> respuesta = new HashMap<>();
+        try {
+            if (log.esDebug()) {
+                log.debug("Solicitud recibida: {}", FormatoMensaje.describir(datos));
+            }
 
             if (!bdDisponible) {
+                Map<String, Object> respuesta = new HashMap<>();
                 respuesta.put("exito", false);
                 respuesta.put("mensaje", "BD no disponible. Usar replica secundaria.");
                 respuesta.put("error", "BD_NO_DISPONIBLE");
-                socketServicio.send(gson.toJson(respuesta));
-                System.err.println("Solicitud rechazada: BD no disponible");
+                responder(sobre, FormatoMensaje.codificar(respuesta, binario));
+                log.warn("Solicitud rechazada: BD no disponible");
                 return;
             }
 
-            String tipoOperacion = (String) solicitud.get("operacion");
+            if (socketTrabajadores != null) {
+                // [trabajador][sobre del cliente...][solicitud]
+                sobre.push(trabajadoresLibres.poll());
+                sobre.add(datos);
+                sobre.send(socketTrabajadores);
+                return;
+            }
 
-            switch (tipoOperacion) {
-                case "PRESTAMO":
-                    procesarPrestamo(solicitud, respuesta);
-                    break;
+            Map<String, Object> solicitud = FormatoMensaje.leer(datos);
+            String idSolicitud = (String) solicitud.get("idSolicitud");
+            CompletableFuture<Map<String, Object>> previa = idSolicitud != null
+                    ? cacheRespuestas.reservar(idSolicitud)
+                    : null;
+            if (previa != null) {
+                log.info("Solicitud repetida {}: se devuelve su respuesta", idSolicitud);
+                previa.thenAccept(respuesta -> enviarRespuesta(sobre, respuesta, binario));
+                return;
+            }
+            despacharAFragmento(solicitud, idSolicitud, sobre, binario);
 
-                case "DEVOLUCION":
-                    procesarDevolucion(solicitud, respuesta);
-                    break;
+        } catch (Exception e) {
+            log.warn("Error procesando solicitud: {}", e.getMessage());
+            responder(sobre, FormatoMensaje.codificar(respuestaError(e), binario));
+        }
+    }
 
-                case "RENOVACION":
-                    procesarRenovacion(solicitud, respuesta);
-                    break;
+    /**
+     * Encola la solicitud en el hilo escritor del fragmento que le
+     * corresponde. El resultado vuelve al hilo principal por el PULL de
+     * respuestas, de modo que este sigue recibiendo solicitudes mientras
+     * los fragmentos trabajan en paralelo.
+     */
+    private void despacharAFragmento(Map<String, Object> solicitud, String idSolicitud, ZMsg sobre,
+            boolean binario) {
+        String idPrestamo = (String) solicitud.get("idPrestamo");
+        String isbn = (String) solicitud.get("isbn");
 
-                default:
-                    respuesta.put("exito", false);
-                    respuesta.put("mensaje", "Operacion desconocida: " + tipoOperacion);
+        List<Map<String, Object>> replicas = new ArrayList<>(1);
+        CompletableFuture<Map<String, Object>> futuro;
+        if (idPrestamo != null && !"PRESTAMO".equals(solicitud.get("operacion"))) {
+            futuro = bdFragmentada.ejecutarPorPrestamo(idPrestamo,
+                    bd -> atenderEnFragmento(solicitud, idSolicitud, bd, replicas));
+        } else {
+            futuro = bdFragmentada.ejecutarPorIsbn(isbn != null ? isbn : "",
+                    bd -> atenderEnFragmento(solicitud, idSolicitud, bd, replicas));
+        }
+
+        futuro.whenComplete((respuesta, error) -> {
+            ZMQ.Socket socket = socketRespuestasHilo.get();
+            Map<String, Object> resultado;
+            if (error == null) {
+                for (Map<String, Object> replica : replicas) {
+                    socket.sendMore("REPLICA");
+                    socket.send(gson.toJson(replica));
+                }
+                resultado = respuesta;
+                if (idSolicitud != null) {
+                    guardarRespuesta(idSolicitud, respuesta);
+                }
+            } else {
+                Throwable causa = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                log.warn("Error procesando solicitud: {}", causa.getMessage());
+                resultado = respuestaError(causa);
+                if (idSolicitud != null) {
+                    cacheRespuestas.descartar(idSolicitud, resultado);
+                }
             }
+            enviarRespuesta(sobre, resultado, binario);
+        });
+    }
+
+    // En el hilo escritor del fragmento; sus registros, también los de la BD, llevan el idSolicitud
+    private Map<String, Object> atenderEnFragmento(Map<String, Object> solicitud, String idSolicitud,
+            Almacenamiento bd, List<Map<String, Object>> replicas) {
+        Registro.setSolicitud(idSolicitud);
+        try {
+            return atender(solicitud, bd, replicas);
+        } finally {
+            Registro.setSolicitud(null);
+        }
+    }
 
-            socketServicio.send(gson.toJson(respuesta));
-            System.out.println("Respuesta enviada: " + respuesta.get("mensaje"));
+    // Envía la respuesta al hilo principal desde cualquier hilo, por el PULL de respuestas
+    private void enviarRespuesta(ZMsg sobre, Map<String, Object> respuesta, boolean binario) {
+        ZMsg salida = sobre.duplicate();
+        salida.push("RESPUESTA");
+        salida.add(FormatoMensaje.codificar(respuesta, binario));
+        salida.send(socketRespuestasHilo.get());
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error procesando solicitud: " + e.getMessage());
-            Map<String, Object> error = new HashMap<>();
-            error.put("exito", false);
-            error.put("mensaje", "Error interno: " + e.getMessage());
-            socketServicio.send(gson.toJson(error));
+    /**
+     * Bucle de un trabajador: recibe el sobre del cliente con su solicitud,
+     * ejecuta la operación y devuelve las réplicas y la respuesta por el
+     * mismo socket. Cada respuesta indica que el trabajador quedó libre.
+     */
+    private void ejecutarTrabajador(int indice) {
+        ZMQ.Socket socket = context.createSocket(SocketType.DEALER);
+        socket.setReceiveTimeOut(1000);
+        socket.connect(direccionTrabajadores);
+        socket.send("LISTO");
+
+        while (activo) {
+            ZMsg tarea;
+            try {
+                tarea = ZMsg.recvMsg(socket);
+            } catch (ZMQException e) {
+                break;
+            }
+            if (tarea == null) {
+                continue;
+            }
+            byte[] datos = tarea.removeLast().getData();
+            List<Map<String, Object>> replicas = new ArrayList<>(1);
+            Map<String, Object> respuesta;
+            try {
+                Map<String, Object> solicitud = FormatoMensaje.leer(datos);
+                // Los registros de la solicitud, también los de la BD, llevan su idSolicitud
+                Registro.setSolicitud((String) solicitud.get("idSolicitud"));
+                respuesta = atenderUnaVez(solicitud, replicas);
+            } catch (Exception e) {
+                log.warn("Error procesando solicitud: {}", e.getMessage());
+                replicas.clear();
+                respuesta = respuestaError(e);
+            } finally {
+                Registro.setSolicitud(null);
+            }
+
+            try {
+                for (Map<String, Object> replica : replicas) {
+                    socket.sendMore("REPLICA");
+                    socket.send(gson.toJson(replica));
+                }
+                tarea.push("RESPUESTA");
+                tarea.add(FormatoMensaje.codificar(respuesta, FormatoMensaje.esBinario(datos)));
+                tarea.send(socket);
+            } catch (ZMQException e) {
+                break;
+            }
+        }
+        socket.close();
+    }
+
+    /**
+     * Ejecuta la solicitud salvo que su idSolicitud ya se haya visto; en ese
+     * caso devuelve la respuesta registrada, esperando si aún está en curso.
+     */
+    private Map<String, Object> atenderUnaVez(Map<String, Object> solicitud, List<Map<String, Object>> replicas)
+            throws Exception {
+        String idSolicitud = (String) solicitud.get("idSolicitud");
+        CompletableFuture<Map<String, Object>> previa = idSolicitud != null ? cacheRespuestas.reservar(idSolicitud) : null;
+        if (previa != null) {
+            log.info("Solicitud repetida {}: se devuelve su respuesta", idSolicitud);
+            return previa.get(ESPERA_SOLICITUD_REPETIDA_SEG, TimeUnit.SECONDS);
+        }
+
+        Map<String, Object> respuesta;
+        try {
+            respuesta = atender(solicitud, bdLocal, replicas);
+        } catch (RuntimeException e) {
+            if (idSolicitud != null) {
+                cacheRespuestas.descartar(idSolicitud, respuestaError(e));
+            }
+            throw e;
+        }
+        if (idSolicitud != null) {
+            guardarRespuesta(idSolicitud, respuesta);
         }
+        log.debug("Respuesta: {}", respuesta.get("mensaje"));
+        return respuesta;
     }
 
-    private void procesarPrestamo(Map<String, Object> solicitud, Map<String, Object> respuesta) {
+    private void atenderTrabajador() {
+        ZMsg mensaje = ZMsg.recvMsg(socketTrabajadores);
+        if (mensaje == null) {
+            return;
+        }
+        ZFrame trabajador = mensaje.pop();
+        String tipo = mensaje.peekFirst().getString(ZMQ.CHARSET);
+        if ("LISTO".equals(tipo)) {
+            trabajadoresLibres.add(trabajador);
+            return;
+        }
+        if ("RESPUESTA".equals(tipo)) {
+            trabajadoresLibres.add(trabajador);
+        }
+        reenviarResultado(mensaje);
+    }
+
+    // Reenvía lo que devolvió un trabajador o fragmento: una réplica al PUB o una respuesta al cliente
+    private void reenviarResultado(ZMsg mensaje) {
+        if (mensaje == null) {
+            return;
+        }
+        String tipo = mensaje.popString();
+        ZFrame cuerpo = mensaje.removeLast();
+        if ("REPLICA".equals(tipo)) {
+            replicarOperacion(cuerpo.getString(ZMQ.CHARSET));
+        } else {
+            // La respuesta ya viene codificada en el formato de la solicitud
+            responder(mensaje, cuerpo.getData());
+        }
+    }
+
+    private void responder(ZMsg sobre, byte[] respuesta) {
+        sobre.add(respuesta);
+        sobre.send(socketServicio);
+    }
+
+    private Map<String, Object> respuestaError(Throwable e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("exito", false);
+        error.put("mensaje", "Error interno: " + e.getMessage());
+        return error;
+    }
+
+    /**
+     * Ejecuta la operación sobre la base indicada (la sede completa o un
+     * fragmento) y agrega a replicas las operaciones que deben publicarse.
+     */
+    private Map<String, Object> atender(Map<String, Object> solicitud, Almacenamiento bd,
+            List<Map<String, Object>> replicas) {
+        Map<String, Object> respuesta = new HashMap<>();
+        String tipoOperacion = (String) solicitud.get("operacion");
+
+        switch (tipoOperacion) {
+            case "PRESTAMO":
+                procesarPrestamo(solicitud, respuesta, bd, replicas);
+                break;
+
+            case "DEVOLUCION":
+                procesarDevolucion(solicitud, respuesta, bd, replicas);
+                break;
+
+            case "RENOVACION":
+                procesarRenovacion(solicitud, respuesta, bd, replicas);
+                break;
+
+            default:
+                respuesta.put("exito", false);
+                respuesta.put("mensaje", "Operacion desconocida: " + tipoOperacion);
+        }
+
+        Object idSolicitud = solicitud.get("idSolicitud");
+        for (Map<String, Object> replica : replicas) {
+            replica.put("timestamp", System.currentTimeMillis());
+            replica.put("sedeOrigen", sede);
+            if (idSolicitud != null) {
+                replica.put("idSolicitud", idSolicitud);
+            }
+        }
+        return respuesta;
+    }
+
+    private static String mensajeExito(String operacion) {
+        switch (operacion) {
+            case "PRESTAMO":
+                return "Préstamo realizado exitosamente";
+            case "DEVOLUCION":
+                return "Devolucion registrada exitosamente";
+            default:
+                return "Renovación realizada exitosamente";
+        }
+    }
+
+    private static Map<String, Object> respuestaExitosa(String operacion) {
+        Map<String, Object> respuesta = new HashMap<>();
+        respuesta.put("exito", true);
+        respuesta.put("mensaje", mensajeExito(operacion));
+        respuesta.put("operacion", operacion);
+        return respuesta;
+    }
+
+    private void procesarPrestamo(Map<String, Object> solicitud, Map<String, Object> respuesta,
+            Almacenamiento bd, List<Map<String, Object>> replicas) {
         String isbn = (String) solicitud.get("isbn");
         String usuario = (String) solicitud.get("usuario");
 
-        String idPrestamo = bdLocal.realizarPrestamo(isbn, usuario);
+        // El actor no supo si la otra sede prestó: solo se presta si ella lo confirma
+        String idSolicitud = (String) solicitud.get("idSolicitud");
+        if (Boolean.TRUE.equals(solicitud.get("respaldo")) && idSolicitud != null) {
+            Map<String, Object> previa = reservarEnOtraSede(idSolicitud);
+            if (previa != null) {
+                respuesta.putAll(previa);
+                return;
+            }
+        }
+
+        String idPrestamo = bd.realizarPrestamo(isbn, usuario);
 
         Boolean exitoPrestamo = idPrestamo != null;
 
         respuesta.put("exito", exitoPrestamo);
-        respuesta.put("mensaje", exitoPrestamo ? "Préstamo realizado exitosamente" : "Libro no disponible");
+        respuesta.put("mensaje", exitoPrestamo ? mensajeExito("PRESTAMO") : "Libro no disponible");
         respuesta.put("operacion", "PRESTAMO");
 
         if (exitoPrestamo) {
@@ -309,11 +1156,12 @@ public class GA {
             datosReplicacion.put("usuario", usuario);
             datosReplicacion.put("idPrestamo", idPrestamo);
 
-            replicarOperacion(datosReplicacion);
+            replicas.add(datosReplicacion);
         }
     }
 
-    private void procesarDevolucion(Map<String, Object> solicitud, Map<String, Object> respuesta) {
+    private void procesarDevolucion(Map<String, Object> solicitud, Map<String, Object> respuesta,
+            Almacenamiento bd, List<Map<String, Object>> replicas) {
         String idPrestamo = (String) solicitud.get("idPrestamo");
         String isbn = (String) solicitud.get("isbn");
         String usuario = (String) solicitud.get("usuario");
@@ -322,17 +1170,18 @@ public class GA {
         String idPrestamoFinal = idPrestamo;
 
         if (idPrestamo != null) {
-            exitoDevolucion = bdLocal.realizarDevolucion(idPrestamo);
+            exitoDevolucion = bd.realizarDevolucion(idPrestamo);
         } else if (isbn != null && usuario != null) {
-            idPrestamoFinal = bdLocal.buscarPrestamoActivo(isbn, usuario);
-            exitoDevolucion = bdLocal.realizarDevolucionPorUsuario(isbn, usuario);
+            // Se replica el préstamo que se cerró bajo el candado, no uno buscado antes
+            idPrestamoFinal = bd.realizarDevolucionPorUsuario(isbn, usuario);
+            exitoDevolucion = idPrestamoFinal != null;
         } else {
             exitoDevolucion = false;
-            System.err.println("ERROR: Faltan parámetros (idPrestamo) o (isbn + usuario)");
+            log.warn("Faltan parámetros (idPrestamo) o (isbn + usuario)");
         }
 
         respuesta.put("exito", exitoDevolucion);
-        respuesta.put("mensaje", exitoDevolucion ? "Devolucion registrada exitosamente" : "Prestamo no encontrado");
+        respuesta.put("mensaje", exitoDevolucion ? mensajeExito("DEVOLUCION") : "Prestamo no encontrado");
         respuesta.put("operacion", "DEVOLUCION");
 
         if (exitoDevolucion) {
@@ -342,11 +1191,12 @@ public class GA {
             datosReplicacion.put("isbn", isbn);
             datosReplicacion.put("usuario", usuario);
 
-            replicarOperacion(datosReplicacion);
+            replicas.add(datosReplicacion);
         }
     }
 
-    private void procesarRenovacion(Map<String, Object> solicitud, Map<String, Object> respuesta) {
+    private void procesarRenovacion(Map<String, Object> solicitud, Map<String, Object> respuesta,
+            Almacenamiento bd, List<Map<String, Object>> replicas) {
         String idPrestamo = (String) solicitud.get("idPrestamo");
         String isbn = (String) solicitud.get("isbn");
         String usuario = (String) solicitud.get("usuario");
@@ -355,17 +1205,17 @@ public class GA {
         String idPrestamoFinal = idPrestamo;
 
         if (idPrestamo != null) {
-            exitoRenovacion = bdLocal.realizarRenovacion(idPrestamo);
+            exitoRenovacion = bd.realizarRenovacion(idPrestamo);
         } else if (isbn != null && usuario != null) {
-            idPrestamoFinal = bdLocal.buscarPrestamoActivo(isbn, usuario);
-            exitoRenovacion = bdLocal.realizarRenovacionPorUsuario(isbn, usuario);
+            idPrestamoFinal = bd.realizarRenovacionPorUsuario(isbn, usuario);
+            exitoRenovacion = idPrestamoFinal != null;
         } else {
             exitoRenovacion = false;
-            System.err.println("ERROR: Faltan parámetros (idPrestamo) o (isbn + usuario)");
+            log.warn("Faltan parámetros (idPrestamo) o (isbn + usuario)");
         }
 
         respuesta.put("exito", exitoRenovacion);
-        respuesta.put("mensaje", exitoRenovacion ? "Renovación realizada exitosamente" : "No se puede renovar");
+        respuesta.put("mensaje", exitoRenovacion ? mensajeExito("RENOVACION") : "No se puede renovar");
         respuesta.put("operacion", "RENOVACION");
 
         if (exitoRenovacion) {
@@ -374,35 +1224,131 @@ public class GA {
             datosReplicacion.put("idPrestamo", idPrestamoFinal);
             datosReplicacion.put("isbn", isbn);
             datosReplicacion.put("usuario", usuario);
+            // Valores absolutos: aplicar la réplica dos veces deja lo mismo
+            Prestamo renovado = bd.consultarPrestamo(idPrestamoFinal);
+            if (renovado != null) {
+                datosReplicacion.put("renovaciones", renovado.getNumRenovaciones());
+                datosReplicacion.put("fechaPrestamo", FormatoBinario.aMilis(renovado.getFechaPrestamo()));
+            }
 
-            replicarOperacion(datosReplicacion);
+            replicas.add(datosReplicacion);
         }
     }
 
-    private void replicarOperacion(Map<String, Object> operacion) {
-        if (socketReplicacionPub != null) {
+    /**
+     * Anexa la réplica a la bitácora con su número de secuencia y la suma al
+     * lote pendiente, que se publica al llegar a ga.replicacion.lote
+     * operaciones o tras ga.replicacion.loteMs milisegundos.
+     */
+    private void replicarOperacion(String mensaje) {
+        if (socketReplicacionPub != null && bitacoraReplicacion != null) {
             try {
-                operacion.put("timestamp", System.currentTimeMillis());
-                operacion.put("sedeOrigen", sede);
-                String mensaje = gson.toJson(operacion);
-
-                socketReplicacionPub.send(mensaje, ZMQ.DONTWAIT);
-                System.out.println("[" + sede + "] Réplica enviada: " + operacion.get("operacion"));
+                long secuencia = bitacoraReplicacion.anexar(mensaje);
+                if (lotePendiente.isEmpty()) {
+                    primeraSecuenciaLote = secuencia;
+                    inicioLote = System.currentTimeMillis();
+                }
+                lotePendiente.add(mensaje);
+                log.debug("Réplica {} en lote: {}", secuencia, mensaje);
+                if (lotePendiente.size() >= tamanoLoteReplicacion) {
+                    publicarLote();
+                }
 
             } catch (Exception e) {
-                System.err.println("Error replicando operación: " + e.getMessage());
+                log.error("Error replicando operación: {}", e.getMessage());
             }
         }
     }
 
-    public void cerrar() {
-        System.out.println("\nCerrando GA " + sede + "...");
+    // Un único mensaje [LOTE][primera secuencia][arreglo json] con las réplicas pendientes
+    private void publicarLote() {
+        if (lotePendiente.isEmpty()) {
+            return;
+        }
+        StringBuilder arreglo = new StringBuilder(lotePendiente.size() * 160);
+        arreglo.append('[');
+        for (int i = 0; i < lotePendiente.size(); i++) {
+            if (i > 0) {
+                arreglo.append(',');
+            }
+            arreglo.append(lotePendiente.get(i));
+        }
+        arreglo.append(']');
+        long ultima = primeraSecuenciaLote + lotePendiente.size() - 1;
+        try {
+            // Una secuencia publicada antes de estar en disco se reusaría tras una caída
+            bitacoraReplicacion.asegurar(ultima);
+        } catch (IOException e) {
+            // Sin bitácora no se anuncian; la anti-entropía repara los préstamos
+            log.error("No se pudo asegurar el lote de replicas hasta {}: {}", ultima, e.getMessage());
+            lotePendiente.clear();
+            return;
+        }
+        try {
+            socketReplicacionPub.send("LOTE", ZMQ.SNDMORE | ZMQ.DONTWAIT);
+            socketReplicacionPub.send(Long.toString(primeraSecuenciaLote), ZMQ.SNDMORE | ZMQ.DONTWAIT);
+            socketReplicacionPub.send(arreglo.toString(), ZMQ.DONTWAIT);
+        } catch (Exception e) {
+            // Quedan en la bitácora: el receptor las pedirá por el canal de recuperación
+            log.warn("Error publicando lote de replicas: {}", e.getMessage());
+        }
+        metricasReplicacion.registrarEnvio(lotePendiente.size());
+        ultimaSecuenciaPublicada = ultima;
+        lotePendiente.clear();
+    }
+
+    // Sin tráfico, el latido le indica al receptor si le falta algo por pedir
+    private void publicarLatido() {
+        long ahora = System.currentTimeMillis();
+        if (bitacoraReplicacion == null || ahora - ultimoLatido < INTERVALO_LATIDO_MS) {
+            return;
+        }
+        ultimoLatido = ahora;
+        socketReplicacionPub.send("LATIDO", ZMQ.SNDMORE | ZMQ.DONTWAIT);
+        socketReplicacionPub.send(Long.toString(ultimaSecuenciaPublicada), ZMQ.DONTWAIT);
+    }
+
+    public void detener() {
+        activo = false;
+    }
+
+    public synchronized void cerrar() {
+        if (cerrado) {
+            return;
+        }
+        cerrado = true;
+        log.info("Cerrando GA {}...", sede);
         activo = false;
         schedulerHealth.shutdown();
+        // Cada hilo cierra su propio socket; el contexto se cierra cuando ya no quedan en uso
+        for (Thread hilo : hilosInternos) {
+            try {
+                hilo.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (aplicadorReplicas != null) {
+            aplicadorReplicas.cerrar();
+        }
+        if (bdLocal != null) {
+            bdLocal.cerrar();
+        }
+        log.info("Replicacion {}: {}", sede, metricasReplicacion.resumen());
+        try {
+            if (bitacoraReplicacion != null) {
+                bitacoraReplicacion.close();
+            }
+            if (marcaReplicacion != null) {
+                marcaReplicacion.close();
+            }
+        } catch (IOException e) {
+            log.error("Error cerrando bitacora de replicacion: {}", e.getMessage());
+        }
         if (context != null) {
             context.close();
         }
-        System.out.println("GA " + sede + " cerrado");
+        log.info("GA {} cerrado", sede);
     }
 
     public static void main(String[] args) {
@@ -416,6 +1362,7 @@ public class GA {
             return;
         }
 
+        Registro.iniciar("GA-" + args[0]);
         GA ga = new GA(
                 args[0],  // sede
                 args[1],  // rutaBD
@@ -424,8 +1371,15 @@ public class GA {
                 args[4],  // direccionReplicaRemota
                 Boolean.parseBoolean(args[5])); // esPrimario
 
+        // El hilo principal cierra sus sockets al salir del bucle; el gancho solo lo detiene y espera
+        Thread hiloPrincipal = Thread.currentThread();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            ga.cerrar();
+            ga.detener();
+            try {
+                hiloPrincipal.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }));
 
         ga.ejecutar();
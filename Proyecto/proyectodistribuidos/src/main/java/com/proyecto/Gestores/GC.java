@@ -7,6 +7,20 @@
  * El Gestor de Carga (GC) es un componente central del sistema de gestión de bibliotecas
  * distribuido que actúa como intermediario entre el Cliente PS y los actores
  * especializados (ActorPrestamo, ActorDevolver, ActorRenovar).
+ * El GC es un broker por eventos: recibe de los PS por un ROUTER y reparte
+ * los préstamos, etiquetados con un id de correlación, entre los
+ * ActorPrestamo que se le conectan por otro ROUTER (ver PoolActores). No
+ * espera la respuesta de un préstamo para aceptar la siguiente solicitud;
+ * cuando la respuesta llega se entrega al PS que la pidió. Devoluciones y
+ * renovaciones se responden de inmediato.
+ * Cada préstamo tiene como plazo gc.timeoutMs desde que llega. Si no hay
+ * capacidad libre en los actores, el préstamo solo se admite si la cola
+ * tiene lugar (gc.cola) y la espera estimada más la latencia observada de
+ * los actores no supera gc.latenciaMaximaMs; si no, el PS recibe BUSY con
+ * un tiempo sugerido para reintentar. Un préstamo de la cola que ya no
+ * alcanzaría a terminar dentro de gc.latenciaMaximaMs desde su llegada (o
+ * de su plazo) se descarta con BUSY antes de llegar a un actor, así la
+ * estimación puede fallar pero los préstamos admitidos no esperan más.
  * ============================================================
  */
 package com.proyecto.Gestores;
@@ -15,218 +29,464 @@ import org.zeromq.SocketType;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQ;
 import org.zeromq.ZContext;
-import com.google.gson.Gson;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+import com.proyecto.Protocolo.EscritorMensaje;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Protocolo.SolicitudPS;
+import com.proyecto.Registros.Registro;
 import java.time.LocalDateTime;
 import java.util.*;
 
 public class GC {
-    private static final Gson gson = new Gson();
+    private static final Registro log = Registro.de(GC.class);
+    private static final long ESPERA_ACTOR_MS = Long.getLong("gc.timeoutMs", 7000);
+    private static final long LATIDO_MS = Long.getLong("gc.latidoMs", 1000);
+    private static final int LATIDOS_PERDIDOS = Integer.getInteger("gc.latidosPerdidos", 5);
+    private static final int COLA_MAXIMA = Integer.getInteger("gc.cola", 256);
+    private static final long LATENCIA_MAXIMA_MS = Long.getLong("gc.latenciaMaximaMs", 1000);
+    private static final long REINTENTO_MINIMO_MS = 100;
+    private static final long REINTENTO_MAXIMO_MS = 5000;
+
+    private final ZContext context;
+    private final Socket socketPS;
+    private final Socket socketPrestamo;
+    private final Socket socketDevolver;
+    private final Socket socketRenovar;
+    private final PoolActores actores = new PoolActores(LATIDO_MS, LATIDOS_PERDIDOS);
+    // Préstamos que esperan respuesta, estén o no en un actor; todos tienen
+    // el mismo plazo, así que el orden de inserción es también el de vencimiento
+    private final Map<String, Pendiente> pendientes = new LinkedHashMap<>();
+    // Préstamos que esperan un actor con capacidad libre
+    private final Deque<String> sinActor = new ArrayDeque<>();
+    // El idSolicitud que llega al GA: si un préstamo se reenvía a otro actor no se presta dos veces
+    private final String prefijoSolicitudes = UUID.randomUUID().toString();
+    private long ultimoIdCorrelacion = 0;
+    // Se reutilizan en cada solicitud: el GC atiende todo desde un solo hilo
+    private final SolicitudPS solicitud = new SolicitudPS();
+    private final EscritorMensaje escritor = FormatoMensaje.nuevoEscritor();
+    // Promedio móvil de lo que tarda un actor en responder un préstamo
+    private double latenciaActorMs = 0;
+
+    private static final class Pendiente {
+        final ZMsg sobre;
+        final byte[] mensajeActor;
+        final long llegada;
+        final long plazo;
+        PoolActores.Actor actor;
+        long despachado;
+
+        Pendiente(ZMsg sobre, byte[] mensajeActor, long llegada) {
+            this.sobre = sobre;
+            this.mensajeActor = mensajeActor;
+            this.llegada = llegada;
+            this.plazo = llegada + ESPERA_ACTOR_MS;
+        }
+
+        // Último momento en que tiene sentido entregarlo a un actor
+        long limiteDespacho() {
+            return Math.min(plazo, llegada + LATENCIA_MAXIMA_MS);
+        }
+    }
 
     public static void main(String[] args) {
-        String direccionActorPrestamo = args.length > 0 ? args[0] : "tcp://127.0.0.1:5559";
+        String direccionActores = args.length > 0 ? args[0] : "tcp://*:5559";
 
-        System.out.println("===============================================");
-        System.out.println("  GESTOR DE CARGA (GC) - Iniciando");
-        System.out.println("===============================================");
-        System.out.println("Actor Prestamo: " + direccionActorPrestamo);
-        System.out.println("===============================================\n");
+        Registro.iniciar("GC");
+        log.info("GESTOR DE CARGA (GC) - Iniciando");
+        log.info("Actores Prestamo: {}", direccionActores);
 
         try (ZContext context = new ZContext()) {
-            Socket socketPS = context.createSocket(SocketType.REP);
-            socketPS.bind("tcp://*:5565");
-            System.out.println("[OK] Socket PS iniciado en puerto 5565");
+            new GC(context, direccionActores).ejecutar();
+        } catch (Exception e) {
+            log.error("Error en GC: {}", e.getMessage(), e);
+        }
+    }
 
-            Socket socketPrestamo = context.createSocket(SocketType.REQ);
-            socketPrestamo.connect(direccionActorPrestamo);
-            socketPrestamo.setReceiveTimeOut(7000);
-            System.out.println("[OK] Conectado a ActorPrestamo");
+    private GC(ZContext context, String direccionActores) {
+        this.context = context;
 
-            Socket socketDevolver = context.createSocket(SocketType.PUB);
-            socketDevolver.bind("tcp://*:5557");
-            System.out.println("[OK] Socket Devoluciones (PUB) en puerto 5557");
+        // ROUTER: cada respuesta vuelve al PS por su sobre, en el orden en que esté lista
+        socketPS = context.createSocket(SocketType.ROUTER);
+        socketPS.bind("tcp://*:5565");
+        log.info("Socket PS (ROUTER) iniciado en puerto 5565");
 
-            Socket socketRenovar = context.createSocket(SocketType.PUB);
-            socketRenovar.bind("tcp://*:5558");
-            System.out.println("[OK] Socket Renovaciones (PUB) en puerto 5558");
+        // ROUTER: los ActorPrestamo se conectan y se registran; se puede agregar uno en cualquier momento
+        socketPrestamo = context.createSocket(SocketType.ROUTER);
+        socketPrestamo.setLinger(0);
+        socketPrestamo.bind(direccionActores);
+        log.info("Socket ActorPrestamo (ROUTER) en {}", direccionActores);
 
-            System.out.println("\n[LISTO] GC esperando solicitudes...\n");
+        socketDevolver = context.createSocket(SocketType.PUB);
+        socketDevolver.bind("tcp://*:5557");
+        log.info("Socket Devoluciones (PUB) en puerto 5557");
 
-            while (!Thread.currentThread().isInterrupted()) {
-                byte[] mensajeBytes = socketPS.recv();
-                String solicitudTexto = new String(mensajeBytes, ZMQ.CHARSET);
+        socketRenovar = context.createSocket(SocketType.PUB);
+        socketRenovar.bind("tcp://*:5558");
+        log.info("Socket Renovaciones (PUB) en puerto 5558");
+    }
 
-                System.out.println("\n[SOLICITUD] Recibida: " + solicitudTexto);
+    private void ejecutar() {
+        ZMQ.Poller poller = context.createPoller(2);
+        int indicePS = poller.register(socketPS, ZMQ.Poller.POLLIN);
+        int indicePrestamo = poller.register(socketPrestamo, ZMQ.Poller.POLLIN);
 
-                String[] partes = solicitudTexto.split(",");
+        // Los registros de un préstamo llevan su id de correlación; en el GA aparece como idSolicitud
+        log.info("GC esperando solicitudes (idSolicitud de los prestamos: {}-<correlacion>)", prefijoSolicitudes);
 
-                if (partes.length < 2) {
-                    String error = "ERROR: Formato invalido. Use: OPERACION,PARAMETROS";
-                    System.err.println("  [ERROR] " + error);
-                    socketPS.send(error.getBytes());
-                    continue;
-                }
+        while (!Thread.currentThread().isInterrupted()) {
+            if (poller.poll(esperaPoll()) < 0) {
+                break;
+            }
+            if (poller.pollin(indicePS)) {
+                atenderPS();
+            }
+            if (poller.pollin(indicePrestamo)) {
+                atenderActorPrestamo();
+            }
+            expulsarActoresInactivos();
+            vencerPendientes();
+            despachar();
+        }
+    }
+
+    // El poll no espera más allá del plazo del préstamo pendiente más antiguo
+    private long esperaPoll() {
+        if (pendientes.isEmpty()) {
+            return LATIDO_MS;
+        }
+        long plazo = pendientes.values().iterator().next().plazo;
+        return Math.max(0, Math.min(LATIDO_MS, plazo - System.currentTimeMillis()));
+    }
+
+    private void atenderPS() {
+        ZMsg mensaje = ZMsg.recvMsg(socketPS);
+        if (mensaje == null) {
+            return;
+        }
+        // El último frame es la solicitud; los anteriores son el sobre del PS
+        solicitud.leer(mensaje.removeLast().getData());
+        ZMsg sobre = mensaje;
 
-                String operacion = partes[0].trim();
+        if (log.esDebug()) {
+            log.debug("Solicitud recibida: {}", solicitud.toString());
+        }
 
-                switch (operacion) {
-                    case "PRESTAR":
-                        manejarPrestamo(socketPS, socketPrestamo, partes);
-                        break;
+        if (solicitud.getCampos() < 2) {
+            String error = "ERROR: Formato invalido. Use: OPERACION,PARAMETROS";
+            log.warn(error);
+            responder(sobre, error);
+            return;
+        }
 
-                    case "DEVOLVER":
-                        manejarDevolucion(socketPS, socketDevolver, partes);
-                        break;
+        switch (solicitud.getOperacion()) {
+            case SolicitudPS.PRESTAR:
+                manejarPrestamo(sobre);
+                break;
 
-                    case "RENOVAR":
-                        manejarRenovacion(socketPS, socketRenovar, partes);
-                        break;
+            case SolicitudPS.DEVOLVER:
+                manejarDevolucion(sobre);
+                break;
 
-                    default:
-                        String errorOp = "ERROR: Operacion desconocida: " + operacion;
-                        System.err.println("  [ERROR] " + errorOp);
-                        socketPS.send(errorOp.getBytes());
-                }
-            }
+            case SolicitudPS.RENOVAR:
+                manejarRenovacion(sobre);
+                break;
 
-        } catch (Exception e) {
-            System.err.println("[ERROR] Error en GC: " + e.getMessage());
-            e.printStackTrace();
+            default:
+                String errorOp = "ERROR: Operacion desconocida: " + solicitud.getTexto(SolicitudPS.CAMPO_OPERACION);
+                log.warn("{}", errorOp);
+                responder(sobre, errorOp);
         }
     }
 
-    private static void manejarPrestamo(Socket socketPS, Socket socketPrestamo, String[] partes) {
+    private void responder(ZMsg sobre, String respuesta) {
+        responder(sobre, respuesta.getBytes(ZMQ.CHARSET));
+    }
+
+    private void responder(ZMsg sobre, byte[] respuesta) {
+        sobre.add(respuesta);
+        sobre.send(socketPS);
+    }
+
+    private void manejarPrestamo(ZMsg sobre) {
         try {
-            if (partes.length < 3) {
+            if (solicitud.getCampos() < 3) {
                 String error = "ERROR: Use formato PRESTAR,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
-                socketPS.send(error.getBytes());
+                log.warn(error);
+                responder(sobre, error);
                 return;
             }
 
-            String isbn = partes[1].trim();
-            String usuario = partes[2].trim();
+            if (log.esDebug()) {
+                log.debug("Prestamo: ISBN {}, usuario {}", solicitud.getTexto(SolicitudPS.CAMPO_ISBN),
+                        solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+            }
 
-            System.out.println("  [PROCESANDO] Prestamo:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
+            long reintentarEnMs = reintentoPorCarga();
+            if (reintentarEnMs > 0) {
+                rechazar(sobre, reintentarEnMs);
+                return;
+            }
 
-            Map<String, Object> solicitudActor = new HashMap<>();
-            solicitudActor.put("operacion", "PRESTAR");
-            solicitudActor.put("isbn", isbn);
-            solicitudActor.put("usuario", usuario);
+            String idCorrelacion = Long.toString(++ultimoIdCorrelacion);
+            // El mensaje se escribe desde los bytes recibidos; la copia queda para reenviarlo
+            byte[] mensajeActor = escribirCampos("PRESTAR")
+                    .abrirCampo("idSolicitud").texto(prefijoSolicitudes).texto("-").texto(idCorrelacion).cerrarCampo()
+                    .terminar()
+                    .copiar();
+            pendientes.put(idCorrelacion,
+                    new Pendiente(sobre, mensajeActor, System.currentTimeMillis()));
+            sinActor.addLast(idCorrelacion);
+            despachar();
 
-            String solicitudJson = gson.toJson(solicitudActor);
+        } catch (Exception e) {
+            String error = "ERROR: Fallo procesando prestamo: " + e.getMessage();
+            log.error(error, e);
+            responder(sobre, error);
+        }
+    }
 
-            System.out.println("  [ENVIANDO] A ActorPrestamo: " + solicitudJson);
-            socketPrestamo.send(solicitudJson.getBytes(ZMQ.CHARSET));
+    /**
+     * 0 si el préstamo se admite; si no, en cuántos ms sugerir al PS que
+     * reintente. Mientras haya capacidad libre siempre se admite, así la
+     * latencia observada se sigue actualizando.
+     */
+    private long reintentoPorCarga() {
+        if (sinActor.isEmpty() && actores.elegir() != null) {
+            return 0;
+        }
+        if (sinActor.size() < COLA_MAXIMA && esperaEstimadaMs() + latenciaActorMs <= LATENCIA_MAXIMA_MS) {
+            return 0;
+        }
+        return Math.min(REINTENTO_MAXIMO_MS, Math.max(REINTENTO_MINIMO_MS, esperaEstimadaMs()));
+    }
 
-            byte[] respuestaBytes = socketPrestamo.recv();
+    // Lo que tardaría en vaciarse la cola con la capacidad y la latencia actuales
+    private long esperaEstimadaMs() {
+        return (long) (sinActor.size() * latenciaActorMs / Math.max(1, actores.getCapacidadTotal()));
+    }
+
+    private void rechazar(ZMsg sobre, long reintentarEnMs) {
+        String respuesta = "BUSY: GC saturado, reintente en " + reintentarEnMs + " ms";
+        // Con el GC saturado hay uno por solicitud; ClientePSMetrica los cuenta aparte
+        log.debug("{} ({} en cola)", respuesta, sinActor.size());
+        responder(sobre, respuesta);
+    }
 
-            if (respuestaBytes == null) {
-                String error = "ERROR: ActorPrestamo no responde (timeout)";
-                System.err.println("  [ERROR] " + error);
-                socketPS.send(error.getBytes());
+    // Entrega los préstamos en espera a los actores con capacidad libre
+    private void despachar() {
+        while (!sinActor.isEmpty()) {
+            PoolActores.Actor actor = actores.elegir();
+            if (actor == null) {
                 return;
             }
+            String idCorrelacion = sinActor.pollFirst();
+            Pendiente pendiente = pendientes.get(idCorrelacion);
+            if (pendiente == null) {
+                continue;
+            }
+            long ahora = System.currentTimeMillis();
+            // No alcanzaría a terminar a tiempo: no se le ocupa un lugar al actor. Uno que
+            // vuelve de un actor caído ya pudo llegar al GA y no se rechaza, porque
+            // el reintento del PS llevaría otro idSolicitud
+            if (pendiente.despachado == 0 && ahora + latenciaActorMs > pendiente.limiteDespacho()) {
+                pendientes.remove(idCorrelacion);
+                rechazar(pendiente.sobre,
+                        Math.min(REINTENTO_MAXIMO_MS, Math.max(REINTENTO_MINIMO_MS, esperaEstimadaMs())));
+                continue;
+            }
+            pendiente.actor = actor;
+            pendiente.despachado = ahora;
+            actores.asignar(actor, idCorrelacion);
+
+            Registro.setSolicitud(idCorrelacion);
+            log.debug("Prestamo enviado a ActorPrestamo {}", actor.getNombre());
+            Registro.setSolicitud(null);
+            ZMsg envio = new ZMsg();
+            envio.add(actor.getIdentidad().duplicate());
+            envio.add("PRESTAR");
+            envio.add(idCorrelacion);
+            envio.add(pendiente.mensajeActor);
+            envio.send(socketPrestamo);
+        }
+    }
 
-            String respuestaActor = new String(respuestaBytes, ZMQ.CHARSET);
-            System.out.println("  [RESPUESTA] ActorPrestamo: " + respuestaActor);
+    private void atenderActorPrestamo() {
+        ZMsg mensaje = ZMsg.recvMsg(socketPrestamo);
+        if (mensaje == null || mensaje.size() < 2) {
+            return;
+        }
+        ZFrame identidad = mensaje.pop();
+        String tipo = mensaje.popString();
+        long ahora = System.currentTimeMillis();
+
+        if ("LISTO".equals(tipo) || "LATIDO".equals(tipo)) {
+            int capacidad = mensaje.isEmpty() ? 1 : Integer.parseInt(mensaje.popString());
+            if (actores.registrar(identidad, capacidad, ahora)) {
+                log.info("ActorPrestamo {} registrado (capacidad {}, {} activos)", identidad.strhex(), capacidad,
+                        actores.getCantidad());
+            }
+            return;
+        }
+        if (!"RESPUESTA".equals(tipo) || mensaje.size() < 2) {
+            return;
+        }
+        actores.senalDeVida(identidad, ahora);
+        String idCorrelacion = mensaje.popString();
+        byte[] respuestaBytes = mensaje.pop().getData();
+
+        Registro.setSolicitud(idCorrelacion);
+        Pendiente pendiente = pendientes.remove(idCorrelacion);
+        if (pendiente == null) {
+            // Ya se le respondió al PS por tiempo vencido o con la respuesta
+            // de un actor expulsado; si este actor lo tenía, queda libre
+            actores.liberar(identidad, idCorrelacion);
+            log.info("Respuesta tardia de ActorPrestamo descartada");
+            Registro.setSolicitud(null);
+            return;
+        }
+        if (pendiente.actor == null) {
+            // Lo respondió un actor ya expulsado mientras esperaba otro
+            sinActor.remove(idCorrelacion);
+        } else if (PoolActores.esDe(pendiente.actor, identidad)) {
+            actores.liberar(pendiente.actor, idCorrelacion);
+            long muestra = ahora - pendiente.despachado;
+            latenciaActorMs = latenciaActorMs == 0 ? muestra : latenciaActorMs * 0.8 + muestra * 0.2;
+        }
+        // Si lo respondió un actor expulsado después de reenviarlo a otro, el
+        // lugar del nuevo se libera cuando llegue su propia respuesta
+        if (log.esDebug()) {
+            log.debug("Respuesta de ActorPrestamo: {}", new String(respuestaBytes, ZMQ.CHARSET));
+        }
+        Registro.setSolicitud(null);
+        responder(pendiente.sobre, respuestaBytes);
+    }
 
-            socketPS.send(respuestaBytes);
+    // Los préstamos de un actor caído se reenvían antes que los que aún no salieron
+    private void expulsarActoresInactivos() {
+        for (PoolActores.Actor actor : actores.expulsarInactivos(System.currentTimeMillis())) {
+            List<String> enCurso = new ArrayList<>(actor.enCurso);
+            log.warn("ActorPrestamo {} sin latidos; se reenvian {} prestamos ({} activos)", actor.getNombre(),
+                    enCurso.size(), actores.getCantidad());
+            for (int i = enCurso.size() - 1; i >= 0; i--) {
+                Pendiente pendiente = pendientes.get(enCurso.get(i));
+                if (pendiente != null) {
+                    pendiente.actor = null;
+                    sinActor.addFirst(enCurso.get(i));
+                }
+            }
+        }
+    }
 
-        } catch (Exception e) {
-            String error = "ERROR: Fallo procesando prestamo: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
-            socketPS.send(error.getBytes());
+    private void vencerPendientes() {
+        long ahora = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Pendiente>> it = pendientes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Pendiente> entrada = it.next();
+            Pendiente pendiente = entrada.getValue();
+            if (pendiente.plazo > ahora) {
+                break;
+            }
+            it.remove();
+            String error;
+            if (pendiente.actor != null) {
+                actores.liberar(pendiente.actor, entrada.getKey());
+                error = "ERROR: ActorPrestamo no responde (timeout)";
+            } else {
+                // Es de los más antiguos, así que está al principio de la cola
+                sinActor.remove(entrada.getKey());
+                error = "ERROR: No hay ActorPrestamo disponible (timeout)";
+            }
+            Registro.setSolicitud(entrada.getKey());
+            log.warn(error);
+            Registro.setSolicitud(null);
+            responder(pendiente.sobre, error);
         }
     }
 
-    private static void manejarDevolucion(Socket socketPS, Socket socketDevolver, String[] partes) {
+    // operacion, isbn y usuario, sin cerrar el mensaje, con los campos tomados de la solicitud
+    private EscritorMensaje escribirCampos(String operacion) {
+        return escritor.iniciar()
+                .campo("operacion", operacion)
+                .campo("isbn", solicitud.getDatos(), solicitud.getInicio(SolicitudPS.CAMPO_ISBN),
+                        solicitud.getFin(SolicitudPS.CAMPO_ISBN))
+                .campo("usuario", solicitud.getDatos(), solicitud.getInicio(SolicitudPS.CAMPO_USUARIO),
+                        solicitud.getFin(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    private void manejarDevolucion(ZMsg sobre) {
         try {
-            if (partes.length < 3) {
+            if (solicitud.getCampos() < 3) {
                 String error = "ERROR: Use DEVOLVER,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
-                socketPS.send(error.getBytes());
+                log.warn(error);
+                responder(sobre, error);
                 return;
             }
 
-            String isbn = partes[1].trim();
-            String usuario = partes[2].trim();
-            
-            System.out.println("  [PROCESANDO] Devolucion:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
+            if (log.esDebug()) {
+                log.debug("Devolucion: ISBN {}, usuario {}", solicitud.getTexto(SolicitudPS.CAMPO_ISBN),
+                        solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+            }
 
-            Map<String, Object> mensajeActor = new HashMap<>();
-            mensajeActor.put("operacion", "DEVOLVER");
-            mensajeActor.put("isbn", isbn);
-            mensajeActor.put("usuario", usuario);
-            
-            String mensajeJson = gson.toJson(mensajeActor);
+            EscritorMensaje mensaje = escribirCampos("DEVOLVER").terminar();
 
             // Respuesta INMEDIATA al PS
             String respuesta = "DEVOLUCION ACEPTADA: Se esta procesando la devolucion";
-            socketPS.send(respuesta.getBytes(ZMQ.CHARSET));
-            System.out.println("  [OK] Respuesta inmediata enviada al PS");
-
-            // Publicar JSON al topico DEVOLVER
+            responder(sobre, respuesta);
+            // Publicar al topico DEVOLVER
             socketDevolver.sendMore("DEVOLVER");
-            socketDevolver.send(mensajeJson.getBytes(ZMQ.CHARSET));
+            socketDevolver.send(mensaje.getBuffer(), 0, mensaje.getLongitud(), 0);
 
-            System.out.println("  [PUBLICADO] Topico DEVOLVER: " + mensajeJson);
+            if (log.esDebug()) {
+                log.debug("Publicado en DEVOLVER: {}", mensaje.toString());
+            }
 
         } catch (Exception e) {
             String error = "ERROR: Fallo procesando devolucion: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
-            socketPS.send(error.getBytes());
+            log.error(error, e);
+            responder(sobre, error);
         }
     }
 
-    private static void manejarRenovacion(Socket socketPS, Socket socketRenovar, String[] partes) {
+    private void manejarRenovacion(ZMsg sobre) {
         try {
-            if (partes.length < 3) {
+            if (solicitud.getCampos() < 3) {
                 String error = "ERROR: Use RENOVAR,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
-                socketPS.send(error.getBytes());
+                log.warn(error);
+                responder(sobre, error);
                 return;
             }
 
-            String isbn = partes[1].trim();
-            String usuario = partes[2].trim();
-            
             LocalDateTime fechaActual = LocalDateTime.now();
             LocalDateTime fechaNuevaEntrega = fechaActual.plusWeeks(1);
-            
-            System.out.println("  [PROCESANDO] Renovacion:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
-            
-            Map<String, Object> mensajeActor = new HashMap<>();
-            mensajeActor.put("operacion", "RENOVAR");
-            mensajeActor.put("isbn", isbn);
-            mensajeActor.put("usuario", usuario);
-            mensajeActor.put("fechaActual", fechaActual.toString());
-            mensajeActor.put("fechaNuevaEntrega", fechaNuevaEntrega.toString());
-            
-            String mensajeJson = gson.toJson(mensajeActor);
+
+            if (log.esDebug()) {
+                log.debug("Renovacion: ISBN {}, usuario {}", solicitud.getTexto(SolicitudPS.CAMPO_ISBN),
+                        solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+            }
+
+            EscritorMensaje mensaje = escribirCampos("RENOVAR")
+                    .campo("fechaActual", fechaActual.toString())
+                    .campo("fechaNuevaEntrega", fechaNuevaEntrega.toString())
+                    .terminar();
 
             // Respuesta INMEDIATA al PS
             String respuesta = String.format(
                     "RENOVACION ACEPTADA: Nueva fecha de entrega: %s",
                     fechaNuevaEntrega.toLocalDate());
-            socketPS.send(respuesta.getBytes(ZMQ.CHARSET));
-            System.out.println("  [OK] Respuesta inmediata enviada al PS");
-
-            // Publicar JSON al topico RENOVAR
+            responder(sobre, respuesta);
+            // Publicar al topico RENOVAR
             socketRenovar.sendMore("RENOVAR");
-            socketRenovar.send(mensajeJson.getBytes(ZMQ.CHARSET));
+            socketRenovar.send(mensaje.getBuffer(), 0, mensaje.getLongitud(), 0);
 
-            System.out.println("  [PUBLICADO] Topico RENOVAR: " + mensajeJson);
+            if (log.esDebug()) {
+                log.debug("Publicado en RENOVAR: {}", mensaje.toString());
+            }
 
         } catch (Exception e) {
             String error = "ERROR: Fallo procesando renovacion: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
-            socketPS.send(error.getBytes());
+            log.error(error, e);
+            responder(sobre, error);
         }
     }
 }
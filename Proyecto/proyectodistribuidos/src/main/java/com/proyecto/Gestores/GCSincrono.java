@@ -19,59 +19,66 @@ import java.util.Map;
 
 import org.zeromq.SocketType;
 import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
 
 import com.google.gson.Gson;
+import com.proyecto.Registros.Registro;
 
 public class GCSincrono {
+    private static final Registro log = Registro.de(GCSincrono.class);
     private static final Gson gson = new Gson();
+    private static final long ESPERA_ACTOR_MS = 7000;
+    // El último ActorPrestamo que se anunció; los préstamos se le envían de a uno
+    private static ZFrame actorPrestamo;
+    private static long ultimoIdCorrelacion = 0;
 
     public static void main(String[] args) {
-        String direccionActorPrestamo = args.length > 0 ? args[0] : "tcp://127.0.0.1:5559";
+        String direccionActorPrestamo = args.length > 0 ? args[0] : "tcp://*:5559";
         String direccionActorDevolver = args.length > 1 ? args[1] : "tcp://127.0.0.1:5560";
         String direccionActorRenovar = args.length > 2 ? args[2] : "tcp://127.0.0.1:5561";
 
-
-        System.out.println("  GESTOR DE CARGA SÍNCRONO (GC) - Iniciando");
-        System.out.println("===============================================");
-        System.out.println("Actor Préstamo:   " + direccionActorPrestamo);
-        System.out.println("Actor Devolución: " + direccionActorDevolver);
-        System.out.println("Actor Renovación: " + direccionActorRenovar);
+        Registro.iniciar("GCSincrono");
+        log.info("GESTOR DE CARGA SÍNCRONO (GC) - Iniciando");
+        log.info("Actor Préstamo: {}, Actor Devolución: {}, Actor Renovación: {}", direccionActorPrestamo,
+                direccionActorDevolver, direccionActorRenovar);
 
         try (ZContext context = new ZContext()) {
             Socket socketPS = context.createSocket(SocketType.REP);
             socketPS.bind("tcp://*:5565");
-            System.out.println("[OK] Socket PS iniciado en puerto 5565");
+            log.info("Socket PS iniciado en puerto 5565");
 
-            Socket socketPrestamo = context.createSocket(SocketType.REQ);
-            socketPrestamo.connect(direccionActorPrestamo);
-            socketPrestamo.setReceiveTimeOut(7000);
-            System.out.println("[OK] Conectado a ActorPrestamo");
+            // Los ActorPrestamo se conectan al GC y se anuncian con LISTO/LATIDO
+            Socket socketPrestamo = context.createSocket(SocketType.ROUTER);
+            socketPrestamo.setLinger(0);
+            socketPrestamo.bind(direccionActorPrestamo);
+            log.info("Socket ActorPrestamo (ROUTER) en {}", direccionActorPrestamo);
 
             Socket socketDevolver = context.createSocket(SocketType.REQ);
             socketDevolver.connect(direccionActorDevolver);
             socketDevolver.setReceiveTimeOut(7000);
-            System.out.println("[OK] Conectado a ActorDevolver");
+            log.info("Conectado a ActorDevolver");
 
             Socket socketRenovar = context.createSocket(SocketType.REQ);
             socketRenovar.connect(direccionActorRenovar);
             socketRenovar.setReceiveTimeOut(7000);
-            System.out.println("[OK] Conectado a ActorRenovar");
+            log.info("Conectado a ActorRenovar");
 
-            System.out.println("\n[LISTO] GC Síncrono esperando solicitudes...\n");
+            log.info("GC Síncrono esperando solicitudes...");
 
             while (!Thread.currentThread().isInterrupted()) {
                 byte[] mensajeBytes = socketPS.recv();
                 String solicitudTexto = new String(mensajeBytes, ZMQ.CHARSET);
 
-                System.out.println("\n[SOLICITUD] Recibida: " + solicitudTexto);
+                log.debug("Solicitud recibida: {}", solicitudTexto);
 
                 String[] partes = solicitudTexto.split(",");
 
                 if (partes.length < 2) {
                     String error = "ERROR: Formato invalido. Use: OPERACION,PARAMETROS";
-                    System.err.println("  [ERROR] " + error);
+                    log.warn(error);
                     socketPS.send(error.getBytes());
                     continue;
                 }
@@ -93,13 +100,13 @@ public class GCSincrono {
 
                     default:
                         String errorOp = "ERROR: Operacion desconocida: " + operacion;
-                        System.err.println("  [ERROR] " + errorOp);
+                        log.warn(errorOp);
                         socketPS.send(errorOp.getBytes());
                 }
             }
 
         } catch (Exception e) {
-            System.err.println("[ERROR] Error en GC: " + e.getMessage());
+            log.error("Error en GC: {}", e.getMessage(), e);
         }
     }
 
@@ -107,7 +114,7 @@ public class GCSincrono {
         try {
             if (partes.length < 3) {
                 String error = "ERROR: Use formato PRESTAR,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
@@ -115,9 +122,7 @@ public class GCSincrono {
             String isbn = partes[1].trim();
             String usuario = partes[2].trim();
 
-            System.out.println("  [PROCESANDO] Prestamo:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
+            log.debug("Prestamo: ISBN {}, usuario {}", isbn, usuario);
 
             Map<String, Object> solicitudActor = new HashMap<>();
             solicitudActor.put("operacion", "PRESTAR");
@@ -125,32 +130,75 @@ public class GCSincrono {
             solicitudActor.put("usuario", usuario);
 
             String solicitudJson = gson.toJson(solicitudActor);
-            socketPrestamo.send(solicitudJson.getBytes(ZMQ.CHARSET));
-
-            byte[] respuestaBytes = socketPrestamo.recv();
+            byte[] respuestaBytes = pedirAActor(socketPrestamo, solicitudJson);
             if (respuestaBytes == null) {
                 String error = "ERROR: ActorPrestamo no responde (timeout)";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
 
             String respuestaActor = new String(respuestaBytes, ZMQ.CHARSET);
-            System.out.println("  [RESPUESTA] ActorPrestamo: " + respuestaActor);
+            log.debug("Respuesta de ActorPrestamo: {}", respuestaActor);
             socketPS.send(respuestaBytes);
 
         } catch (Exception e) {
             String error = "ERROR: Fallo procesando prestamo: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
+            log.error(error, e);
             socketPS.send(error.getBytes());
         }
     }
 
+    /**
+     * Envía el préstamo al ActorPrestamo y espera su respuesta; null si no
+     * hay actor o no responde a tiempo.
+     */
+    private static byte[] pedirAActor(Socket socketPrestamo, String solicitudJson) {
+        long plazo = System.currentTimeMillis() + ESPERA_ACTOR_MS;
+        String idCorrelacion = Long.toString(++ultimoIdCorrelacion);
+        boolean enviado = false;
+
+        while (true) {
+            // Se leen primero los anuncios ya recibidos: el más reciente es el de la conexión vigente
+            if (!enviado && actorPrestamo != null && !hayMensajes(socketPrestamo)) {
+                ZMsg envio = new ZMsg();
+                envio.add(actorPrestamo.duplicate());
+                envio.add("PRESTAR");
+                envio.add(idCorrelacion);
+                envio.add(solicitudJson);
+                envio.send(socketPrestamo);
+                enviado = true;
+            }
+            long restante = plazo - System.currentTimeMillis();
+            if (restante <= 0) {
+                actorPrestamo = null;
+                return null;
+            }
+            socketPrestamo.setReceiveTimeOut((int) restante);
+            ZMsg mensaje = ZMsg.recvMsg(socketPrestamo);
+            if (mensaje == null || mensaje.size() < 2) {
+                continue;
+            }
+            ZFrame identidad = mensaje.pop();
+            String tipo = mensaje.popString();
+            if ("LISTO".equals(tipo) || "LATIDO".equals(tipo)) {
+                actorPrestamo = identidad;
+            } else if ("RESPUESTA".equals(tipo) && mensaje.size() == 2
+                    && idCorrelacion.equals(mensaje.popString())) {
+                return mensaje.pop().getData();
+            }
+        }
+    }
+
+    private static boolean hayMensajes(Socket socket) {
+        return (socket.getEvents() & ZMQ.Poller.POLLIN) != 0;
+    }
+
     private static void manejarDevolucionSincrona(Socket socketPS, Socket socketDevolver, String[] partes) {
         try {
             if (partes.length < 3) {
                 String error = "ERROR: Use DEVOLVER,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
@@ -158,9 +206,7 @@ public class GCSincrono {
             String isbn = partes[1].trim();
             String usuario = partes[2].trim();
             
-            System.out.println("  [PROCESANDO] Devolucion SÍNCRONA:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
+            log.debug("Devolucion SÍNCRONA: ISBN {}, usuario {}", isbn, usuario);
 
             Map<String, Object> mensajeActor = new HashMap<>();
             mensajeActor.put("operacion", "DEVOLVER");
@@ -173,20 +219,20 @@ public class GCSincrono {
             byte[] respuestaBytes = socketDevolver.recv();
             if (respuestaBytes == null) {
                 String error = "ERROR: ActorDevolver no responde (timeout)";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
 
             String respuestaActor = new String(respuestaBytes, ZMQ.CHARSET);
-            System.out.println("  [RESPUESTA] ActorDevolver: " + respuestaActor);
+            log.debug("Respuesta de ActorDevolver: {}", respuestaActor);
             
             // Responder al PS DESPUÉS de que la BD esté actualizada
             socketPS.send(respuestaBytes);
 
         } catch (Exception e) {
             String error = "ERROR: Fallo procesando devolucion: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
+            log.error(error, e);
             socketPS.send(error.getBytes());
         }
     }
@@ -196,7 +242,7 @@ public class GCSincrono {
         try {
             if (partes.length < 3) {
                 String error = "ERROR: Use RENOVAR,ISBN,USUARIO";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
@@ -207,9 +253,7 @@ public class GCSincrono {
             LocalDateTime fechaActual = LocalDateTime.now();
             LocalDateTime fechaNuevaEntrega = fechaActual.plusWeeks(1);
             
-            System.out.println("  [PROCESANDO] Renovacion SÍNCRONA:");
-            System.out.println("    - ISBN: " + isbn);
-            System.out.println("    - Usuario: " + usuario);
+            log.debug("Renovacion SÍNCRONA: ISBN {}, usuario {}", isbn, usuario);
             
             Map<String, Object> mensajeActor = new HashMap<>();
             mensajeActor.put("operacion", "RENOVAR");
@@ -225,18 +269,18 @@ public class GCSincrono {
             byte[] respuestaBytes = socketRenovar.recv();
             if (respuestaBytes == null) {
                 String error = "ERROR: ActorRenovar no responde (timeout)";
-                System.err.println("  [ERROR] " + error);
+                log.warn(error);
                 socketPS.send(error.getBytes());
                 return;
             }
 
             String respuestaActor = new String(respuestaBytes, ZMQ.CHARSET);
-            System.out.println("  [RESPUESTA] ActorRenovar: " + respuestaActor);
+            log.debug("Respuesta de ActorRenovar: {}", respuestaActor);
             socketPS.send(respuestaBytes);
 
         } catch (Exception e) {
             String error = "ERROR: Fallo procesando renovacion: " + e.getMessage();
-            System.err.println("  [ERROR] " + error);
+            log.error(error, e);
             socketPS.send(error.getBytes());
         }
     }
@@ -0,0 +1,71 @@
+/**
+ * ============================================================
+ * Título: MetricasReplicacion - Tamaño de lote y retraso de la replicación
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Contadores que el GA actualiza al publicar y al aplicar lotes de
+ * réplicas. El retraso de una operación es el tiempo entre su ejecución en
+ * la otra sede (campo timestamp de la réplica) y su aplicación en esta, así
+ * que incluye la diferencia entre los relojes de ambas sedes.
+ */
+
+package com.proyecto.Gestores;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricasReplicacion {
+    private final AtomicLong lotesEnviados = new AtomicLong();
+    private final AtomicLong replicasEnviadas = new AtomicLong();
+    private final AtomicLong lotesAplicados = new AtomicLong();
+    private final AtomicLong replicasAplicadas = new AtomicLong();
+    private final AtomicLong retrasoTotalMs = new AtomicLong();
+    private final AtomicLong retrasoMaximoMs = new AtomicLong();
+
+    public void registrarEnvio(int replicas) {
+        lotesEnviados.incrementAndGet();
+        replicasEnviadas.addAndGet(replicas);
+    }
+
+    public void registrarAplicacion(int replicas, long retrasoTotal, long retrasoMaximo) {
+        lotesAplicados.incrementAndGet();
+        replicasAplicadas.addAndGet(replicas);
+        retrasoTotalMs.addAndGet(retrasoTotal);
+        retrasoMaximoMs.accumulateAndGet(retrasoMaximo, Math::max);
+    }
+
+    public double getTamanoPromedioLoteEnviado() {
+        long lotes = lotesEnviados.get();
+        return lotes == 0 ? 0.0 : (double) replicasEnviadas.get() / lotes;
+    }
+
+    public double getTamanoPromedioLoteAplicado() {
+        long lotes = lotesAplicados.get();
+        return lotes == 0 ? 0.0 : (double) replicasAplicadas.get() / lotes;
+    }
+
+    public double getRetrasoPromedioMs() {
+        long replicas = replicasAplicadas.get();
+        return replicas == 0 ? 0.0 : (double) retrasoTotalMs.get() / replicas;
+    }
+
+    public long getRetrasoMaximoMs() {
+        return retrasoMaximoMs.get();
+    }
+
+    public long getReplicasEnviadas() {
+        return replicasEnviadas.get();
+    }
+
+    public long getReplicasAplicadas() {
+        return replicasAplicadas.get();
+    }
+
+    public String resumen() {
+        return String.format("enviadas %d (lote promedio %.1f), aplicadas %d (lote promedio %.1f), "
+                + "retraso promedio %.1f ms, maximo %d ms",
+                getReplicasEnviadas(), getTamanoPromedioLoteEnviado(),
+                getReplicasAplicadas(), getTamanoPromedioLoteAplicado(),
+                getRetrasoPromedioMs(), getRetrasoMaximoMs());
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * ============================================================
+ * Título: PoolActores - ActorPrestamo registrados en el GC
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Los ActorPrestamo se conectan al ROUTER del GC y se anuncian con
+ * [LISTO][capacidad]; después mandan [LATIDO][capacidad] cada
+ * gc.latidoMs. Cada préstamo va al actor con menos préstamos en curso
+ * entre los que aún tienen capacidad libre. Un actor del que no se sabe
+ * nada en gc.latidosPerdidos latidos se da por caído y sus préstamos en
+ * curso vuelven a la cola del GC.
+ */
+
+package com.proyecto.Gestores;
+
+import java.util.*;
+import org.zeromq.ZFrame;
+
+public class PoolActores {
+
+    public static final class Actor {
+        final ZFrame identidad;
+        final String nombre;
+        int capacidad;
+        long ultimoLatido;
+        final Set<String> enCurso = new LinkedHashSet<>();
+
+        Actor(ZFrame identidad, int capacidad, long ahora) {
+            this.identidad = identidad;
+            this.nombre = identidad.strhex();
+            this.capacidad = capacidad;
+            this.ultimoLatido = ahora;
+        }
+
+        public ZFrame getIdentidad() {
+            return identidad;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+    }
+
+    private final long limiteSilencioMs;
+    // En orden de uso: entre actores igual de ocupados se elige el que lleva más sin recibir
+    private final Map<String, Actor> actores = new LinkedHashMap<>();
+
+    public PoolActores(long latidoMs, int latidosPerdidos) {
+        this.limiteSilencioMs = latidoMs * latidosPerdidos;
+    }
+
+    /**
+     * Registra un LISTO o un LATIDO. Devuelve true si el actor es nuevo.
+     */
+    public boolean registrar(ZFrame identidad, int capacidad, long ahora) {
+        Actor actor = actores.get(identidad.strhex());
+        if (actor == null) {
+            actores.put(identidad.strhex(), new Actor(identidad.duplicate(), Math.max(1, capacidad), ahora));
+            return true;
+        }
+        actor.capacidad = Math.max(1, capacidad);
+        actor.ultimoLatido = ahora;
+        return false;
+    }
+
+    // Cualquier mensaje del actor cuenta como latido
+    public void senalDeVida(ZFrame identidad, long ahora) {
+        Actor actor = actores.get(identidad.strhex());
+        if (actor != null) {
+            actor.ultimoLatido = ahora;
+        }
+    }
+
+    /**
+     * El actor con menos préstamos en curso que aún tiene capacidad, o
+     * null si todos están llenos.
+     */
+    public Actor elegir() {
+        Actor elegido = null;
+        for (Actor actor : actores.values()) {
+            if (actor.enCurso.size() < actor.capacidad
+                    && (elegido == null || actor.enCurso.size() < elegido.enCurso.size())) {
+                elegido = actor;
+            }
+        }
+        return elegido;
+    }
+
+    public void asignar(Actor actor, String idCorrelacion) {
+        actor.enCurso.add(idCorrelacion);
+        actores.remove(actor.nombre);
+        actores.put(actor.nombre, actor);
+    }
+
+    public void liberar(Actor actor, String idCorrelacion) {
+        actor.enCurso.remove(idCorrelacion);
+    }
+
+    // Para respuestas que ya no tienen pendiente: libera el lugar solo si ese actor lo ocupaba
+    public void liberar(ZFrame identidad, String idCorrelacion) {
+        Actor actor = actores.get(identidad.strhex());
+        if (actor != null) {
+            actor.enCurso.remove(idCorrelacion);
+        }
+    }
+
+    public static boolean esDe(Actor actor, ZFrame identidad) {
+        return actor.nombre.equals(identidad.strhex());
+    }
+
+    /**
+     * Quita los actores que dejaron de dar señales y los devuelve, con sus
+     * préstamos en curso, para que el GC los reenvíe.
+     */
+    public List<Actor> expulsarInactivos(long ahora) {
+        List<Actor> expulsados = new ArrayList<>();
+        for (Iterator<Actor> it = actores.values().iterator(); it.hasNext();) {
+            Actor actor = it.next();
+            if (ahora - actor.ultimoLatido > limiteSilencioMs) {
+                it.remove();
+                expulsados.add(actor);
+            }
+        }
+        return expulsados;
+    }
+
+    public int getCapacidadTotal() {
+        int total = 0;
+        for (Actor actor : actores.values()) {
+            total += actor.capacidad;
+        }
+        return total;
+    }
+
+    public int getCantidad() {
+        return actores.size();
+    }
+}
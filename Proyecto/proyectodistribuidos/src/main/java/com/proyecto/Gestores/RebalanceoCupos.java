@@ -0,0 +1,158 @@
+/**
+ * ============================================================
+ * Título: RebalanceoCupos - Traspaso en segundo plano de cupos entre sedes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Los préstamos se conceden dentro del cupo de la sede sin consultar a la
+ * otra (ver CuposInventario). Cuando un título se queda sin cupo, este
+ * hilo se lo pide a la otra sede por el canal de recuperación:
+ *
+ *   [CUPO][sede que pide][isbn,isbn,...] -> [CUPO][sede que cede][isbn=acumulado;...]
+ *
+ * La sede que responde cede la mitad de lo que tiene libre de cada título
+ * y responde con el acumulado que le ha cedido a quien pide. La cesión
+ * también se publica como réplica CUPO, así que si la respuesta se
+ * pierde el cupo llega igual por la replicación; como los acumulados se
+ * combinan con el máximo, recibirlo dos veces no lo duplica.
+ */
+
+package com.proyecto.Gestores;
+
+import com.proyecto.Persistencia.Almacenamiento;
+import com.proyecto.Persistencia.CuposInventario;
+import com.proyecto.Registros.Registro;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import org.zeromq.*;
+
+public class RebalanceoCupos {
+    private static final Registro log = Registro.de(RebalanceoCupos.class);
+    private static final int ESPERA_RESPUESTA_MS = 2000;
+    private static final int TITULOS_POR_PETICION = 256;
+
+    private final String sede;
+    private final Almacenamiento bd;
+    private final ZContext context;
+    private final String direccionRemota;
+    private final long intervaloMs;
+    private final BooleanSupplier activo;
+    private final Consumer<Map<String, Object>> replicar;
+    private ZMQ.Socket socket;
+
+    public RebalanceoCupos(String sede, Almacenamiento bd, ZContext context, String direccionRemota,
+            long intervaloMs, BooleanSupplier activo, Consumer<Map<String, Object>> replicar) {
+        this.sede = sede;
+        this.bd = bd;
+        this.context = context;
+        this.direccionRemota = direccionRemota;
+        this.intervaloMs = intervaloMs;
+        this.activo = activo;
+        this.replicar = replicar;
+    }
+
+    public static boolean atiende(String tipo) {
+        return "CUPO".equals(tipo);
+    }
+
+    /**
+     * Lado que cede: arma la respuesta (sin la identidad del cliente) y
+     * publica como réplica cada cesión nueva.
+     */
+    public ZMsg responder(String tipo, ZMsg peticion) {
+        String solicitante = peticion.popString();
+        StringBuilder acumulados = new StringBuilder();
+        for (String isbn : peticion.popString().split(",")) {
+            if (isbn.isEmpty()) {
+                continue;
+            }
+            long anterior = bd.getCupos().getCedido(isbn, sede, solicitante);
+            long acumulado = bd.cederCupo(isbn, solicitante);
+            if (acumulado > anterior) {
+                Map<String, Object> replica = new HashMap<>();
+                replica.put("operacion", "CUPO");
+                replica.put("isbn", isbn);
+                replica.put("destino", solicitante);
+                replica.put("acumulado", acumulado);
+                replica.put("timestamp", System.currentTimeMillis());
+                replica.put("sedeOrigen", sede);
+                replicar.accept(replica);
+            }
+            if (acumulados.length() > 0) {
+                acumulados.append(';');
+            }
+            acumulados.append(isbn).append('=').append(acumulado);
+        }
+        ZMsg respuesta = new ZMsg();
+        respuesta.add(tipo);
+        respuesta.add(sede);
+        respuesta.add(acumulados.toString());
+        return respuesta;
+    }
+
+    public void ejecutar() {
+        while (activo.getAsBoolean()) {
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<String> agotados = bd.getCupos().tomarAgotados();
+            for (int i = 0; i < agotados.size() && activo.getAsBoolean(); i += TITULOS_POR_PETICION) {
+                List<String> titulos = agotados.subList(i, Math.min(agotados.size(), i + TITULOS_POR_PETICION));
+                try {
+                    if (!pedir(titulos)) {
+                        // Se vuelven a pedir en la próxima ronda
+                        titulos.forEach(bd.getCupos()::marcarAgotado);
+                        break;
+                    }
+                } catch (Exception e) {
+                    log.warn("Error pidiendo cupos: {}", e.getMessage());
+                }
+            }
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private boolean pedir(List<String> titulos) throws Exception {
+        if (socket == null) {
+            socket = context.createSocket(SocketType.DEALER);
+            socket.setReceiveTimeOut(ESPERA_RESPUESTA_MS);
+            socket.setLinger(0);
+            socket.connect(direccionRemota);
+        }
+        socket.sendMore("CUPO");
+        socket.sendMore(sede);
+        socket.send(String.join(",", titulos));
+
+        ZMsg respuesta = ZMsg.recvMsg(socket);
+        if (respuesta == null || !"CUPO".equals(respuesta.popString())) {
+            // Una respuesta tardía se confundiría con la de la próxima petición
+            socket.close();
+            socket = null;
+            return false;
+        }
+        String origen = respuesta.popString();
+        CuposInventario cupos = bd.getCupos();
+        long recibidos = 0;
+        int conCupo = 0;
+        for (String par : respuesta.popString().split(";")) {
+            int separador = par.indexOf('=');
+            if (separador <= 0) {
+                continue;
+            }
+            long incremento = cupos.fusionar(par.substring(0, separador), origen, sede,
+                    Long.parseLong(par.substring(separador + 1)));
+            if (incremento > 0) {
+                recibidos += incremento;
+                conCupo++;
+            }
+        }
+        log.info("Cupos pedidos a {} para {} titulos: {}", origen, titulos.size(),
+                recibidos + " ejemplares recibidos en " + conCupo + " titulos");
+        return true;
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * ============================================================
+ * Título: TransferenciaEstado - Copia del estado de una sede desde la otra
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Permite arrancar un GA nuevo o reconstruir uno borrado a partir del
+ * estado de la otra sede, sin detenerla. Usa el mismo canal ROUTER/DEALER
+ * de la recuperación de réplicas:
+ *
+ *   [INSTANTANEA]        -> [INSTANTANEA][secuencia][prestamos][libros]
+ *   [CREDITO][n]         -> hasta n mensajes [BLOQUE][P|C|L][líneas CSV]
+ *                           y al final [FIN_INSTANTANEA]
+ *
+ * La sede que responde copia sus préstamos, cupos y libros en memoria al
+ * recibir la petición, con las mutaciones detenidas y junto con la última
+ * secuencia de réplica asignada: la copia incluye exactamente lo replicado
+ * hasta esa secuencia (y quizá operaciones aún sin secuencia, que se
+ * vuelven a aplicar sin efecto porque las réplicas son idempotentes).
+ * Después sigue atendiendo mientras la entrega; solo envía tantos bloques
+ * como créditos le haya dado quien descarga, que repone uno por cada
+ * bloque escrito en disco.
+ *
+ * Quien descarga escribe en una carpeta temporal dentro de rutaBD los
+ * archivos prestamos_<SEDE>.txt y libros_<SEDE>.txt, que BaseDatos
+ * importa al arrancar, y cupos_<SEDE>.txt con los contadores de cupos que
+ * conoce la otra sede (los suyos incluidos), y deja su marca de
+ * replicación en la secuencia de la copia: la replicación en vivo
+ * continúa desde ahí. Los ejemplares prestados de cada libro se
+ * recalculan con los préstamos originados en la sede que descarga, porque
+ * cada sede presta de su propio inventario. Solo cuando llegó el último
+ * bloque y las cantidades coinciden con las anunciadas se aparta el
+ * estado anterior y se mueven los archivos a rutaBD.
+ */
+
+package com.proyecto.Gestores;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import com.proyecto.Persistencia.Almacenamiento;
+import com.proyecto.Persistencia.BitacoraReplicacion;
+import com.proyecto.Persistencia.FormatoCSV;
+import com.proyecto.Persistencia.MarcaReplicacion;
+import com.proyecto.Registros.Registro;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.zeromq.*;
+
+public class TransferenciaEstado {
+    private static final Registro log = Registro.de(TransferenciaEstado.class);
+    private static final long VIGENCIA_SESION_MS = 5 * 60 * 1000;
+    private static final int ESPERA_RESPUESTA_MS = 10_000;
+    private static final String CARPETA_TEMPORAL = "transferencia-en-curso";
+
+    private final Almacenamiento bd;
+    private final BitacoraReplicacion bitacora;
+    private final int lineasPorBloque;
+    private final Map<String, Sesion> sesiones = new HashMap<>();
+
+    // Copia en curso para un cliente: préstamos, cupos y por último libros
+    private static final class Sesion {
+        final String[] tipos = {"P", "C", "L"};
+        final List<List<String>> partes;
+        int parte;
+        int siguiente;
+        long ultimoUso = System.currentTimeMillis();
+
+        Sesion(List<String> prestamos, List<String> cupos, List<String> libros) {
+            this.partes = Arrays.asList(prestamos, cupos, libros);
+        }
+    }
+
+    public TransferenciaEstado(Almacenamiento bd, BitacoraReplicacion bitacora) {
+        this.bd = bd;
+        this.bitacora = bitacora;
+        this.lineasPorBloque = Math.max(1, Integer.getInteger("ga.transferencia.bloque", 1000));
+    }
+
+    public static boolean atiende(String tipo) {
+        return "INSTANTANEA".equals(tipo) || "CREDITO".equals(tipo);
+    }
+
+    /**
+     * Lado que responde; lo llama el hilo del servidor de recuperación.
+     */
+    public void atender(ZMQ.Socket socket, ZFrame cliente, String tipo, ZMsg peticion) {
+        long ahora = System.currentTimeMillis();
+        sesiones.values().removeIf(sesion -> ahora - sesion.ultimoUso > VIGENCIA_SESION_MS);
+        String clave = cliente.strhex();
+
+        if ("INSTANTANEA".equals(tipo)) {
+            // Toda réplica con secuencia ya se aplicó a la BD, así que la copia y
+            // la marca tomadas sin mutaciones en curso se corresponden
+            long[] secuencia = new long[1];
+            List<String> prestamos = new ArrayList<>();
+            List<String> libros = new ArrayList<>();
+            List<String> cupos = new ArrayList<>();
+            bd.congelado(() -> {
+                secuencia[0] = bitacora.getUltimaAnexada();
+                for (Prestamo prestamo : bd.getPrestamos().values()) {
+                    prestamos.add(FormatoCSV.escribirPrestamo(prestamo));
+                }
+                for (Libro libro : bd.getLibros().values()) {
+                    libros.add(FormatoCSV.escribirLibro(libro));
+                }
+                cupos.addAll(bd.getCupos().exportar());
+            });
+            try {
+                // Quien descarga continúa desde la marca: no puede anunciarse antes de estar en disco
+                bitacora.asegurar(secuencia[0]);
+            } catch (IOException e) {
+                log.error("Transferencia de estado cancelada: {}", e.getMessage());
+                return;
+            }
+            sesiones.put(clave, new Sesion(prestamos, cupos, libros));
+            enviar(socket, cliente, "INSTANTANEA", Long.toString(secuencia[0]),
+                    Integer.toString(prestamos.size()), Integer.toString(libros.size()));
+            log.info("Transferencia de estado: {} prestamos y {} libros hasta la replica {}", prestamos.size(),
+                    libros.size(), secuencia[0]);
+            return;
+        }
+
+        Sesion sesion = sesiones.get(clave);
+        if (sesion == null) {
+            return;
+        }
+        sesion.ultimoUso = ahora;
+        int creditos = Integer.parseInt(peticion.popString());
+        for (int i = 0; i < creditos; i++) {
+            while (sesion.parte < sesion.partes.size()
+                    && sesion.siguiente >= sesion.partes.get(sesion.parte).size()) {
+                sesion.parte++;
+                sesion.siguiente = 0;
+            }
+            if (sesion.parte == sesion.partes.size()) {
+                enviar(socket, cliente, "FIN_INSTANTANEA");
+                sesiones.remove(clave);
+                return;
+            }
+            List<String> lista = sesion.partes.get(sesion.parte);
+            int hasta = Math.min(lista.size(), sesion.siguiente + lineasPorBloque);
+            enviar(socket, cliente, "BLOQUE", sesion.tipos[sesion.parte],
+                    String.join("\n", lista.subList(sesion.siguiente, hasta)));
+            sesion.siguiente = hasta;
+        }
+    }
+
+    private static void enviar(ZMQ.Socket socket, ZFrame cliente, String... partes) {
+        ZMsg mensaje = new ZMsg();
+        mensaje.add(cliente.duplicate());
+        for (String parte : partes) {
+            mensaje.add(parte);
+        }
+        mensaje.send(socket);
+    }
+
+    /**
+     * Se transfiere si se pidió con ga.transferencia=true o si rutaBD no
+     * tiene datos de la sede.
+     */
+    public static boolean debeTransferir(String rutaBD, String sede) {
+        if (Boolean.getBoolean("ga.transferencia")) {
+            return true;
+        }
+        Path directorio = Paths.get(rutaBD);
+        return !Files.exists(directorio.resolve("libros_" + sede + ".txt"))
+                && !Files.exists(directorio.resolve("libros_" + sede + ".dat"))
+                && !Files.exists(directorio.resolve("inventario_" + sede + ".idx"))
+                && !Files.exists(directorio.resolve("fragmentos_" + sede + ".txt"));
+    }
+
+    /**
+     * Descarga el estado de la otra sede en rutaBD. Lo que hubiera en rutaBD
+     * se mueve a una carpeta anterior-<fecha>. Devuelve false si la otra
+     * sede no respondió, la copia se interrumpió o llegó incompleta; en ese
+     * caso rutaBD queda como estaba.
+     */
+    public static boolean descargar(ZContext context, String direccion, String rutaBD, String sede)
+            throws IOException {
+        int ventana = Math.max(1, Integer.getInteger("ga.transferencia.ventana", 8));
+        ZMQ.Socket socket = context.createSocket(SocketType.DEALER);
+        socket.setReceiveTimeOut(ESPERA_RESPUESTA_MS);
+        socket.setLinger(0);
+        socket.connect(direccion);
+        Path temporal = null;
+        try {
+            socket.send("INSTANTANEA");
+            ZMsg cabecera = ZMsg.recvMsg(socket);
+            if (cabecera == null || !"INSTANTANEA".equals(cabecera.popString())) {
+                log.warn("GA {}: la otra sede no respondio la transferencia en {}", sede, direccion);
+                return false;
+            }
+            long secuencia = Long.parseLong(cabecera.popString());
+            long totalPrestamos = Long.parseLong(cabecera.popString());
+            long totalLibros = Long.parseLong(cabecera.popString());
+            long inicio = System.nanoTime();
+
+            Path directorio = Paths.get(rutaBD);
+            // Una transferencia que se cortó antes deja la carpeta temporal: se vuelve a empezar
+            temporal = directorio.resolve(CARPETA_TEMPORAL);
+            borrarCarpeta(temporal);
+            Files.createDirectories(temporal);
+            String[] nombres = {"prestamos_" + sede + ".txt", "cupos_" + sede + ".txt", "libros_" + sede + ".txt"};
+            Path prestamosTemporal = temporal.resolve(nombres[0]);
+            Path cuposTemporal = temporal.resolve(nombres[1]);
+            Path librosTemporal = temporal.resolve(nombres[2]);
+
+            // Préstamos activos originados en esta sede, por ISBN
+            Map<String, Integer> prestadosLocales = new HashMap<>();
+            long bytes = 0;
+            long prestamosRecibidos = 0;
+            long librosRecibidos = 0;
+            socket.sendMore("CREDITO");
+            socket.send(Integer.toString(ventana));
+            try (BufferedWriter prestamos = Files.newBufferedWriter(prestamosTemporal, StandardCharsets.UTF_8);
+                    BufferedWriter cupos = Files.newBufferedWriter(cuposTemporal, StandardCharsets.UTF_8);
+                    BufferedWriter libros = Files.newBufferedWriter(librosTemporal, StandardCharsets.UTF_8)) {
+                while (true) {
+                    ZMsg mensaje = ZMsg.recvMsg(socket);
+                    if (mensaje == null) {
+                        log.warn("GA {}: la transferencia de estado se interrumpio", sede);
+                        return false;
+                    }
+                    String tipo = mensaje.popString();
+                    if ("FIN_INSTANTANEA".equals(tipo)) {
+                        break;
+                    }
+                    String parte = mensaje.popString();
+                    // popString devolvería el bloque en hexadecimal por los saltos de línea
+                    String bloque = new String(mensaje.pop().getData(), StandardCharsets.UTF_8);
+                    bytes += bloque.length();
+                    for (String linea : bloque.split("\n")) {
+                        if ("C".equals(parte)) {
+                            cupos.write(linea);
+                            cupos.newLine();
+                        } else if ("P".equals(parte)) {
+                            prestamosRecibidos++;
+                            Prestamo prestamo = FormatoCSV.leerPrestamo(linea, sede);
+                            if (prestamo != null && prestamo.isPrestamoActivo() && sede.equals(prestamo.getSede())) {
+                                prestadosLocales.merge(prestamo.getIsbn(), 1, Integer::sum);
+                            }
+                            prestamos.write(linea);
+                            prestamos.newLine();
+                        } else {
+                            librosRecibidos++;
+                            Libro libro = FormatoCSV.leerLibro(linea);
+                            if (libro == null) {
+                                continue;
+                            }
+                            int prestados = Math.min(libro.getEjemplaresTotales(),
+                                    prestadosLocales.getOrDefault(libro.getIsbn(), 0));
+                            libros.write(FormatoCSV.escribirLibro(new Libro(libro.getIsbn(), libro.getTitulo(),
+                                    libro.getAutor(), libro.getEjemplaresTotales(), prestados)));
+                            libros.newLine();
+                        }
+                    }
+                    socket.sendMore("CREDITO");
+                    socket.send("1");
+                }
+            }
+
+            if (prestamosRecibidos != totalPrestamos || librosRecibidos != totalLibros) {
+                log.warn("GA {}: transferencia incompleta ({} prestamos, {} libros); se descarta", sede,
+                        prestamosRecibidos + " de " + totalPrestamos, librosRecibidos + " de " + totalLibros);
+                return false;
+            }
+            try (MarcaReplicacion marca = new MarcaReplicacion(temporal.toString(), sede)) {
+                marca.avanzar(secuencia);
+            }
+
+            // La copia está completa: recién ahora se reemplaza el estado de rutaBD
+            apartarEstadoAnterior(directorio, sede);
+            String nombreMarca = "replicacion_recibida_" + sede + ".dat";
+            Files.move(temporal.resolve(nombreMarca), directorio.resolve(nombreMarca),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // Los libros se publican al final: sin ellos, el próximo arranque vuelve a transferir
+            for (String nombre : nombres) {
+                publicar(temporal.resolve(nombre), directorio.resolve(nombre));
+            }
+
+            long ms = Math.max(1, (System.nanoTime() - inicio) / 1_000_000);
+            log.info("GA {}: estado transferido desde {} ({})", sede, direccion, totalPrestamos
+                    + " prestamos, " + totalLibros + " libros, " + (bytes / 1024) + " KB en " + ms
+                    + " ms; la replicacion continua desde " + secuencia);
+            return true;
+        } finally {
+            socket.close();
+            if (temporal != null) {
+                borrarCarpeta(temporal);
+            }
+        }
+    }
+
+    private static void borrarCarpeta(Path carpeta) throws IOException {
+        if (!Files.exists(carpeta)) {
+            return;
+        }
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(carpeta)) {
+            for (Path archivo : archivos) {
+                Files.delete(archivo);
+            }
+        }
+        Files.delete(carpeta);
+    }
+
+    // No se borra nada: el estado previo queda en anterior-<fecha> por si se necesita
+    private static void apartarEstadoAnterior(Path directorio, String sede) throws IOException {
+        Path destino = directorio.resolve("anterior-" + System.currentTimeMillis());
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio)) {
+            for (Path archivo : archivos) {
+                String nombre = archivo.getFileName().toString();
+                if (nombre.startsWith("anterior-") || !(nombre.contains("_" + sede) || nombre.startsWith("fragmento"))) {
+                    continue;
+                }
+                Files.createDirectories(destino);
+                Files.move(archivo, destino.resolve(nombre));
+            }
+        }
+        if (Files.exists(destino)) {
+            log.info("Estado anterior movido a {}", destino);
+        }
+    }
+
+    private static void publicar(Path temporal, Path destino) throws IOException {
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            canal.force(true);
+        }
+        Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
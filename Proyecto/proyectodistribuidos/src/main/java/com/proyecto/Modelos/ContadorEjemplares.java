@@ -0,0 +1,20 @@
+/**
+ * ============================================================
+ * Título: ContadorEjemplares
+ * Autores: Sergio Ortiz, Isabella Palacio, Juan Sebastian Vargas, Ana Sofia Grass
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Celda donde un Libro guarda sus ejemplares totales y disponibles
+ * empaquetados en un long (ver Libro.empaquetar). Por defecto vive en
+ * memoria; el inventario mapeado de BaseDatos la ubica dentro de un
+ * archivo para que prestar y devolver lo actualicen en el mismo lugar.
+ */
+
+package com.proyecto.Modelos;
+
+public interface ContadorEjemplares {
+
+    long get();
+
+    boolean compareAndSet(long esperado, long nuevo);
+}
@@ -8,48 +8,79 @@
  * el ISBN, título, autor, número de ejemplares disponibles y el total 
  * de ejemplares. Proporciona métodos para gestionar los préstamos 
  * de libros, asegurando que los ejemplares disponibles se reduzcan 
- * de forma segura mediante sincronización.
+ * de forma segura entre hilos.
+ * Los ejemplares totales y disponibles se guardan juntos en un único
+ * contador (totales en los 32 bits altos, disponibles en los bajos) y se
+ * actualizan con compare-and-set, sin monitores: prestar, devolver y leer
+ * la disponibilidad nunca bloquean y siempre ven un par consistente.
+ * El contador puede vivir en memoria o en un archivo mapeado
+ * (ver ContadorEjemplares).
  */
 
 package com.proyecto.Modelos;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Libro {
     private String isbn;
     private String titulo;
     private String autor;
-    private int ejemplaresDisponibles;
-    private int ejemplaresTotales;
+    private final ContadorEjemplares ejemplares;
 
     public Libro(String isbn, String titulo, String autor, int ejemplares) {
+        this(isbn, titulo, autor, ejemplares, 0);
+    }
+
+    public Libro(String isbn, String titulo, String autor, int ejemplaresTotales, int ejemplaresPrestados) {
         this.isbn = isbn;
         this.titulo = titulo;
         this.autor = autor;
-        this.ejemplaresTotales = ejemplares;
-        this.ejemplaresDisponibles = ejemplares;
+        this.ejemplares = new ContadorEnMemoria(empaquetar(ejemplaresTotales, ejemplaresTotales - ejemplaresPrestados));
     }
 
-    public Libro(String isbn, String titulo, String autor, int ejemplaresTotales, int ejemplaresPrestados) {
+    public Libro(String isbn, String titulo, String autor, ContadorEjemplares ejemplares) {
         this.isbn = isbn;
         this.titulo = titulo;
         this.autor = autor;
-        this.ejemplaresTotales = ejemplaresTotales;
-        this.ejemplaresDisponibles = ejemplaresTotales - ejemplaresPrestados;
+        this.ejemplares = ejemplares;
     }
 
-    public synchronized boolean prestar() {
-        if (ejemplaresDisponibles > 0) {
-            ejemplaresDisponibles--;
-            return true;
+    public boolean prestar() {
+        while (true) {
+            long actual = ejemplares.get();
+            if (disponibles(actual) <= 0) {
+                return false;
+            }
+            if (ejemplares.compareAndSet(actual, empaquetar(totales(actual), disponibles(actual) - 1))) {
+                return true;
+            }
         }
-        return false;
     }
 
-    public synchronized void devolver() {
-        if (ejemplaresDisponibles < ejemplaresTotales) {
-            ejemplaresDisponibles++;
+    public void devolver() {
+        while (true) {
+            long actual = ejemplares.get();
+            if (disponibles(actual) >= totales(actual)) {
+                return;
+            }
+            if (ejemplares.compareAndSet(actual, empaquetar(totales(actual), disponibles(actual) + 1))) {
+                return;
+            }
         }
     }
 
+    public static long empaquetar(int totales, int disponibles) {
+        return ((long) totales << 32) | (disponibles & 0xFFFFFFFFL);
+    }
+
+    private static int totales(long estado) {
+        return (int) (estado >>> 32);
+    }
+
+    private static int disponibles(long estado) {
+        return (int) estado;
+    }
+
     public String getIsbn() {
         return isbn;
     }
@@ -58,13 +89,39 @@ public class Libro {
         return titulo;
     }
 
+    public String getAutor() {
+        return autor;
+    }
+
+    public int getEjemplaresTotales() {
+        return totales(ejemplares.get());
+    }
+
     public int getEjemplaresDisponibles() {
-        return ejemplaresDisponibles;
+        return disponibles(ejemplares.get());
+    }
+
+    public Libro copiar() {
+        long estado = ejemplares.get();
+        return new Libro(isbn, titulo, autor, totales(estado), totales(estado) - disponibles(estado));
+    }
+
+    public long getEstado() {
+        return ejemplares.get();
     }
 
     public String toCSV() {
-        int ejemplaresPrestados = ejemplaresTotales - ejemplaresDisponibles;
+        long estado = ejemplares.get();
+        int ejemplaresPrestados = totales(estado) - disponibles(estado);
         return String.format("%s,%s,%s,%d,%d",
-                isbn, titulo, autor, ejemplaresTotales, ejemplaresPrestados);
+                isbn, titulo, autor, totales(estado), ejemplaresPrestados);
+    }
+
+    private static final class ContadorEnMemoria extends AtomicLong implements ContadorEjemplares {
+        private static final long serialVersionUID = 1L;
+
+        ContadorEnMemoria(long inicial) {
+            super(inicial);
+        }
     }
 }
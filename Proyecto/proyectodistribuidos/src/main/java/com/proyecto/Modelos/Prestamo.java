@@ -119,6 +119,15 @@ public class Prestamo {
         this.numRenovaciones = numRenovaciones;
     }
 
+    public Prestamo copiar() {
+        Prestamo copia = new Prestamo(idPrestamo, isbn, usuario, sede);
+        copia.fechaPrestamo = fechaPrestamo;
+        copia.fechaDevolucion = fechaDevolucion;
+        copia.prestamoActivo = prestamoActivo;
+        copia.numRenovaciones = numRenovaciones;
+        return copia;
+    }
+
     public String toCSV() {
         return String.format("%s,%s,%s,%s,%d,%s",
                 idPrestamo,
@@ -0,0 +1,95 @@
+/**
+ * ============================================================
+ * Título: Almacenamiento - Operaciones de persistencia que usa el GA
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Contrato común de BaseDatos (una sola base por sede) y de
+ * BaseDatosFragmentada (la sede repartida en fragmentos por ISBN), de modo
+ * que el GA y los actores de replicación no dependan del modo elegido.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+public interface Almacenamiento {
+
+    String realizarPrestamo(String isbn, String usuario);
+
+    String realizarPrestamoReplica(String isbn, String usuario, String idPrestamo, String sedeOrigen);
+
+    boolean realizarDevolucion(String idPrestamo);
+
+    boolean realizarDevolucionReplica(String idPrestamo);
+
+    boolean realizarRenovacion(String idPrestamo);
+
+    boolean realizarRenovacionReplica(String idPrestamo);
+
+    /**
+     * Deja el préstamo con el número de renovaciones y la fecha que tiene en
+     * su sede de origen. Es idempotente: si ya tiene esas renovaciones (o
+     * más) no cambia nada. Con fecha null conserva la fecha actual.
+     */
+    boolean realizarRenovacionReplica(String idPrestamo, int renovaciones, LocalDateTime fecha);
+
+    /**
+     * Ejecuta un lote de operaciones de réplica y espera la bitácora una sola
+     * vez al final, de modo que todo el lote comparte un único commit.
+     */
+    void aplicarEnLote(Runnable operaciones);
+
+    /**
+     * Ejecuta la acción sin ninguna mutación en curso: espera a las que
+     * están a medias y detiene las nuevas hasta que termine. Sirve para
+     * copiar el estado junto con una marca que le corresponda exactamente.
+     */
+    void congelado(Runnable accion);
+
+    /**
+     * Cede a la sede destino parte del cupo libre del título y devuelve el
+     * acumulado cedido a esa sede (ver CuposInventario).
+     */
+    long cederCupo(String isbn, String destino);
+
+    /**
+     * Cupos de la sede. Combinar lo cedido por otra sede no necesita
+     * candado: solo aumenta el cupo propio.
+     */
+    CuposInventario getCupos();
+
+    /**
+     * Devuelve un préstamo activo del usuario para el isbn. Retorna el id del
+     * préstamo que cerró, o null si no había ninguno.
+     */
+    String realizarDevolucionPorUsuario(String isbn, String usuario);
+
+    // Igual que realizarDevolucionPorUsuario: retorna el id renovado o null
+    String realizarRenovacionPorUsuario(String isbn, String usuario);
+
+    String buscarPrestamoActivo(String isbn, String usuario);
+
+    Libro consultarLibro(String isbn);
+
+    Prestamo consultarPrestamo(String idPrestamo);
+
+    Map<String, Libro> getLibros();
+
+    Map<String, Prestamo> getPrestamos();
+
+    boolean verificarDisponibilidad();
+
+    String getSede();
+
+    void tomarInstantanea();
+
+    long getRegistrosCargados();
+
+    long getDuracionCargaMs();
+
+    void cerrar();
+}
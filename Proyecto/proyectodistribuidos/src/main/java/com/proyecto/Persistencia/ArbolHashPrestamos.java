@@ -0,0 +1,125 @@
+/**
+ * ============================================================
+ * Título: ArbolHashPrestamos - Árbol de hashes sobre los préstamos de una sede
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Resume los préstamos activos originados en una sede en un árbol de
+ * RAMAS hijos por nodo. Cada préstamo cae en una de NUM_CUBETAS cubetas
+ * según el hash de su id; la hoja de una cubeta es el XOR de los hashes
+ * de sus préstamos (no depende del orden) y cada nodo interno combina los
+ * hashes de sus hijos. Dos sedes con el mismo conjunto tienen la misma
+ * raíz; si difieren, bajar por los nodos distintos lleva solo a las
+ * cubetas que hay que comparar préstamo por préstamo.
+ *
+ * El hash de un préstamo cubre id, ISBN, usuario, sede de origen y número
+ * de renovaciones, que son iguales en ambas sedes; las fechas no, porque
+ * cada sede registra la de su propia aplicación.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Prestamo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class ArbolHashPrestamos {
+    public static final int RAMAS = 32;
+    public static final int NIVEL_CUBETAS = 2;
+    public static final int NUM_CUBETAS = RAMAS * RAMAS;
+
+    // niveles[0] es la raíz y niveles[NIVEL_CUBETAS] las cubetas
+    private final long[][] niveles = new long[NIVEL_CUBETAS + 1][];
+    private final List<List<Prestamo>> cubetas = new ArrayList<>(NUM_CUBETAS);
+
+    private ArbolHashPrestamos() {
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            cubetas.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Construye el árbol con los préstamos originados en sedeOrigen.
+     */
+    public static ArbolHashPrestamos construir(Collection<Prestamo> prestamos, String sedeOrigen) {
+        ArbolHashPrestamos arbol = new ArbolHashPrestamos();
+        long[] hojas = new long[NUM_CUBETAS];
+        for (Prestamo prestamo : prestamos) {
+            if (!sedeOrigen.equals(prestamo.getSede())) {
+                continue;
+            }
+            int cubeta = cubeta(prestamo.getIdPrestamo());
+            hojas[cubeta] ^= hashPrestamo(prestamo);
+            arbol.cubetas.get(cubeta).add(prestamo);
+        }
+
+        arbol.niveles[NIVEL_CUBETAS] = hojas;
+        for (int nivel = NIVEL_CUBETAS - 1; nivel >= 0; nivel--) {
+            long[] hijos = arbol.niveles[nivel + 1];
+            long[] nodos = new long[hijos.length / RAMAS];
+            for (int i = 0; i < nodos.length; i++) {
+                long acumulado = nivel;
+                for (int j = 0; j < RAMAS; j++) {
+                    acumulado = acumulado * 0x9E3779B97F4A7C15L + hijos[i * RAMAS + j];
+                }
+                nodos[i] = mezclar(acumulado);
+            }
+            arbol.niveles[nivel] = nodos;
+        }
+        return arbol;
+    }
+
+    public static int cubeta(String idPrestamo) {
+        int hash = idPrestamo.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), NUM_CUBETAS);
+    }
+
+    public static long hashPrestamo(Prestamo prestamo) {
+        long hash = 0xcbf29ce484222325L;
+        hash = acumular(hash, prestamo.getIdPrestamo());
+        hash = acumular(hash, prestamo.getIsbn());
+        hash = acumular(hash, prestamo.getUsuario());
+        hash = acumular(hash, prestamo.getSede());
+        hash = (hash ^ prestamo.getNumRenovaciones()) * 0x100000001b3L;
+        return mezclar(hash);
+    }
+
+    // FNV-1a sobre los caracteres, con un separador para que "ab"+"c" no equivalga a "a"+"bc"
+    private static long acumular(long hash, String texto) {
+        if (texto != null) {
+            for (int i = 0; i < texto.length(); i++) {
+                hash = (hash ^ texto.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0x1f) * 0x100000001b3L;
+    }
+
+    private static long mezclar(long valor) {
+        valor ^= valor >>> 33;
+        valor *= 0xff51afd7ed558ccdL;
+        valor ^= valor >>> 33;
+        valor *= 0xc4ceb9fe1a85ec53L;
+        valor ^= valor >>> 33;
+        return valor;
+    }
+
+    public long getRaiz() {
+        return niveles[0][0];
+    }
+
+    /**
+     * Devuelve, en orden, los RAMAS hashes hijos de cada nodo indicado del nivel dado.
+     */
+    public long[] hijos(int nivel, int[] indices) {
+        long[] resultado = new long[indices.length * RAMAS];
+        for (int k = 0; k < indices.length; k++) {
+            System.arraycopy(niveles[nivel + 1], indices[k] * RAMAS, resultado, k * RAMAS, RAMAS);
+        }
+        return resultado;
+    }
+
+    public List<Prestamo> getCubeta(int cubeta) {
+        return cubetas.get(cubeta);
+    }
+}
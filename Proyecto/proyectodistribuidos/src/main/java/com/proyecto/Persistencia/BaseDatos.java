@@ -6,39 +6,192 @@
  * ============================================================
  * La clase BaseDatos gestiona la persistencia de los datos de los 
  * libros y préstamos, incluyendo operaciones de préstamo, devolución 
- * y renovación de libros. Los datos se almacenan en archivos de texto 
+ * y renovación de libros. Los datos se almacenan en archivos en disco 
  * y se gestionan en memoria a través de mapas concurrentes. La clase 
  * soporta tanto operaciones locales como remotas (para la sincronización 
  * entre sedes). Además, garantiza la consistencia de los datos mediante 
  * la persistencia en disco de manera sincronizada.
+ * Cada mutación se anexa a una bitácora de operaciones (RegistroOperaciones)
+ * en lugar de reescribir los archivos completos; los archivos de libros y
+ * préstamos actúan como instantánea y la bitácora se reproduce sobre ellos
+ * al arrancar. Una tarea en segundo plano toma instantáneas periódicas
+ * (propiedad ga.instantanea.intervaloSeg) y descarta la bitácora cubierta,
+ * de modo que el arranque solo reproduce lo ocurrido desde la última.
+ * Las instantáneas usan el formato binario de FormatoBinario (.dat); si solo
+ * existen los archivos de texto anteriores (.txt) se importan al arrancar.
+ * Con ga.inventario.mapeado=true los contadores de ejemplares viven en un
+ * archivo mapeado (InventarioMapeado) y las instantáneas ya no reescriben
+ * el catálogo.
+ * Las mutaciones se sincronizan por franjas de candados según el ISBN, de
+ * modo que préstamos sobre títulos distintos avanzan en paralelo.
+ * Un préstamo local solo se concede dentro del cupo de la sede para ese
+ * título (CuposInventario); al agotarse, el título queda anotado para que
+ * el GA pida cupo a la otra sede.
  */
 
 package com.proyecto.Persistencia;
 
 import com.proyecto.Modelos.Libro;
 import com.proyecto.Modelos.Prestamo;
+import com.proyecto.Registros.Registro;
 import java.io.*;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class BaseDatos {
+public class BaseDatos implements Almacenamiento {
+    private static final Registro log = Registro.de(BaseDatos.class);
+    private final String rutaBase;
     private final String rutaLibros;
     private final String rutaPrestamos;
+    private final String rutaLibrosCSV;
+    private final String rutaPrestamosCSV;
+    private final String rutaRegistro;
+    private RegistroOperaciones registro;
+    private long lsnLibros = 0;
+    private long lsnPrestamos = 0;
+    // Se cargaron datos sin instantánea binaria; hay que escribirla aunque no haya bitácora
+    private boolean instantaneaPendiente = false;
+    private long registrosCargados = 0;
+    private long duracionCargaMs = 0;
     private final Map<String, Libro> libros;
     private final Map<String, Prestamo> prestamos; 
+    // Índice secundario (isbn, usuario) -> ids de préstamos activos
+    private final Map<String, Set<String>> prestamosPorUsuario;
     private final Object lockArchivo = new Object();
+    // Franjas de candados por ISBN; el candado de instantáneas las excluye a todas
+    private static final int NUM_FRANJAS = 256;
+    private final ReentrantLock[] franjas = new ReentrantLock[NUM_FRANJAS];
+    private final ReentrantReadWriteLock lockInstantanea = new ReentrantReadWriteLock();
     private final String sede;
+    private final ModoDurabilidad modoDurabilidad;
+    private final long intervaloDurabilidadMs;
+    private final long intervaloInstantaneaSeg;
+    private final Instantaneas instantaneas;
+    private ScheduledExecutorService schedulerInstantaneas;
+    // Motor opcional de inventario mapeado (propiedad ga.inventario.mapeado)
+    private final boolean usarInventarioMapeado;
+    private InventarioMapeado inventario;
+    // Hay un inventario mapeado en disco pero el motor está desactivado
+    private boolean inventarioObsoleto = false;
+    // Con confirmación diferida (ver BaseDatosFragmentada) las mutaciones no
+    // esperan a la bitácora: el hilo que las ejecuta recoge el lsn y lo confirma
+    private final boolean confirmacionDiferida;
+    private long lsnPorConfirmar = -1;
+    // Mayor lsn del lote de réplicas que ejecuta este hilo (ver aplicarEnLote)
+    private final ThreadLocal<long[]> loteEnCurso = new ThreadLocal<>();
+    // Compartido por todos los fragmentos de la sede
+    private final CuposInventario cupos;
+    // Ids de los últimos préstamos devueltos (ga.devueltos.memoria), para que
+    // una réplica PRESTAMO repetida o atrasada no reviva un préstamo cerrado
+    private final Set<String> devueltos;
 
     public BaseDatos(String rutaBase, String sede) {
+        this(rutaBase, sede,
+                ModoDurabilidad.desdeTexto(System.getProperty("ga.durabilidad")),
+                Long.getLong("ga.durabilidad.intervaloMs", 10));
+    }
+
+    public BaseDatos(String rutaBase, String sede, ModoDurabilidad modoDurabilidad, long intervaloDurabilidadMs) {
+        this(rutaBase, sede, modoDurabilidad, intervaloDurabilidadMs, false, null);
+    }
+
+    BaseDatos(String rutaBase, String sede, ModoDurabilidad modoDurabilidad, long intervaloDurabilidadMs,
+            boolean confirmacionDiferida, CuposInventario cupos) {
+        this.confirmacionDiferida = confirmacionDiferida;
         this.sede = sede;
-        this.rutaLibros = rutaBase + "/libros_" + sede + ".txt";
-        this.rutaPrestamos = rutaBase + "/prestamos_" + sede + ".txt";
-        this.libros = new ConcurrentHashMap<>();
-        this.prestamos = new ConcurrentHashMap<>();
+        this.modoDurabilidad = modoDurabilidad;
+        this.intervaloDurabilidadMs = intervaloDurabilidadMs;
+        this.intervaloInstantaneaSeg = Long.getLong("ga.instantanea.intervaloSeg", 60);
+        this.usarInventarioMapeado = Boolean.getBoolean("ga.inventario.mapeado");
+        int memoriaDevueltos = Integer.getInteger("ga.devueltos.memoria", 100000);
+        this.devueltos = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > memoriaDevueltos;
+            }
+        });
+        this.rutaBase = rutaBase;
+        this.rutaLibros = rutaBase + "/libros_" + sede + ".dat";
+        this.rutaPrestamos = rutaBase + "/prestamos_" + sede + ".dat";
+        this.rutaLibrosCSV = rutaBase + "/libros_" + sede + ".txt";
+        this.rutaPrestamosCSV = rutaBase + "/prestamos_" + sede + ".txt";
+        this.rutaRegistro = rutaBase + "/operaciones_" + sede + ".log";
+        this.instantaneas = new Instantaneas(rutaLibros, rutaPrestamos);
+        for (int i = 0; i < NUM_FRANJAS; i++) {
+            this.franjas[i] = new ReentrantLock();
+        }
         inicializarArchivos();
-        cargarDatos();
+        try {
+            this.cupos = cupos != null ? cupos : new CuposInventario(rutaBase, sede);
+        } catch (IOException e) {
+            log.error("Error cargando cupos: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+
+        // Los archivos se leen antes de crear los mapas para dimensionarlos
+        // con la cantidad exacta de registros
+        long inicioCarga = System.nanoTime();
+        CargadorParalelo cargador = new CargadorParalelo();
+        CargadorParalelo.Resultado<Libro> librosLeidos = leerLibros(cargador);
+        CargadorParalelo.Resultado<Prestamo> prestamosLeidos = leerPrestamos(cargador);
+        this.libros = new ConcurrentHashMap<>(capacidad(librosLeidos.getTotal()));
+        this.prestamos = new ConcurrentHashMap<>(capacidad(prestamosLeidos.getTotal()));
+        this.prestamosPorUsuario = new ConcurrentHashMap<>(capacidad(prestamosLeidos.getTotal()));
+        librosLeidos.paraCada(cargador.getPool(), libro -> libros.put(libro.getIsbn(), libro));
+        prestamosLeidos.paraCada(cargador.getPool(), this::agregarPrestamo);
+        if (usarInventarioMapeado && inventario == null) {
+            crearInventario(cargador);
+        }
+        cargarDatos(inicioCarga);
+        sembrarCupos(cupos == null);
+    }
+
+    /**
+     * En el primer arranque descuenta del cupo inicial de cada sede los
+     * préstamos activos que ya traen los datos, para no prestar de más.
+     * Con fragmentos el inventario es compartido y lo guarda
+     * BaseDatosFragmentada cuando todos terminaron de cargar.
+     */
+    private void sembrarCupos(boolean guardar) {
+        if (!cupos.isSiembraPendiente()) {
+            return;
+        }
+        Map<String, Map<String, Integer>> prestadosPorTitulo = new HashMap<>();
+        for (Prestamo prestamo : prestamos.values()) {
+            if (prestamo.isPrestamoActivo()) {
+                prestadosPorTitulo.computeIfAbsent(prestamo.getIsbn(), isbn -> new HashMap<>())
+                        .merge(prestamo.getSede(), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<String, Map<String, Integer>> titulo : prestadosPorTitulo.entrySet()) {
+            Libro libro = libros.get(titulo.getKey());
+            if (libro != null) {
+                cupos.sembrar(titulo.getKey(), libro.getEjemplaresTotales(), titulo.getValue());
+            }
+        }
+        if (guardar) {
+            try {
+                cupos.terminarSiembra();
+            } catch (IOException e) {
+                log.error("Error guardando cupos iniciales: {}", e.getMessage());
+                throw new RuntimeException("Fallo en persistencia", e);
+            }
+        }
+        log.info("Cupos iniciales de {} calculados para {} titulos con prestamos", sede,
+                prestadosPorTitulo.size());
+    }
+
+    // Margen para las altas posteriores a la carga sin redimensionar de inmediato
+    private static int capacidad(int registros) {
+        return registros + registros / 4 + 16;
     }
 
     private void inicializarArchivos() {
@@ -47,283 +200,876 @@ public class BaseDatos {
             if (directorio != null && !Files.exists(directorio)) {
                 Files.createDirectories(directorio);
             }
-
-            if (!Files.exists(Paths.get(rutaLibros))) {
-                Files.createFile(Paths.get(rutaLibros));
-            }
-            if (!Files.exists(Paths.get(rutaPrestamos))) {
-                Files.createFile(Paths.get(rutaPrestamos));
-            }
         } catch (IOException e) {
-            System.err.println("Error inicializando archivos: " + e.getMessage());
+            log.error("Error inicializando archivos: {}", e.getMessage());
         }
     }
 
-    private void cargarDatos() {
-        cargarLibros();
-        cargarPrestamos();
-        System.out.println("BD " + sede + " cargada: " + libros.size() + " libros, "
-                + prestamos.size() + " prestamos (locales + remotos)");
+    private void cargarDatos(long inicioCarga) {
+        int reproducidas = reproducirRegistro();
+        registrosCargados = libros.size() + prestamos.size() + reproducidas;
+        duracionCargaMs = Math.max(1, (System.nanoTime() - inicioCarga) / 1_000_000);
+        log.info("BD {} cargada: {}", sede, libros.size() + " libros, "
+                + prestamos.size() + " prestamos (locales + remotos), "
+                + reproducidas + " operaciones reproducidas de la bitacora"
+                + " (durabilidad " + modoDurabilidad.getNombre() + ") en " + duracionCargaMs + " ms, "
+                + (registrosCargados * 1000 / duracionCargaMs) + " registros/s");
+
+        // Consolidar lo reproducido en una instantánea para que el próximo
+        // arranque no tenga que volver a recorrer la misma bitácora
+        if (reproducidas > 0 || instantaneaPendiente) {
+            tomarInstantanea();
+        }
+        iniciarInstantaneasPeriodicas();
     }
 
-    private void cargarLibros() {
+    private int reproducirRegistro() {
         try {
-            List<String> lineas = Files.readAllLines(Paths.get(rutaLibros));
-            for (String linea : lineas) {
-                if (linea.trim().isEmpty())
-                    continue;
-
-                String[] datos = linea.split(",");
-                if (datos.length >= 4) {
-                    Libro libro;
-
-                    if (datos.length >= 5) {
-                        libro = new Libro(
-                                datos[0].trim(),
-                                datos[1].trim(),
-                                datos[2].trim(),
-                                Integer.parseInt(datos[3].trim()),
-                                Integer.parseInt(datos[4].trim()));
-                    } else {
-                        libro = new Libro(
-                                datos[0].trim(),
-                                datos[1].trim(),
-                                datos[2].trim(),
-                                Integer.parseInt(datos[3].trim()));
+            registro = new RegistroOperaciones(rutaRegistro, modoDurabilidad, intervaloDurabilidadMs);
+            registro.establecerLsnMinimo(Math.max(lsnLibros, lsnPrestamos));
+            return registro.reproducir(Math.min(lsnLibros, lsnPrestamos), this::aplicarEntrada);
+        } catch (IOException e) {
+            log.error("Error reproduciendo bitacora: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+    }
+
+    /**
+     * Aplica una operación de la bitácora. Cada archivo de la instantánea
+     * lleva su propio lsn, así que el efecto sobre libros y sobre préstamos
+     * se aplica por separado solo si la instantánea correspondiente no lo cubre.
+     */
+    private void aplicarEntrada(RegistroOperaciones.Entrada entrada) {
+        boolean enLibros = entrada.lsn > lsnLibros;
+        boolean enPrestamos = entrada.lsn > lsnPrestamos;
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entrada.datos))) {
+            switch (entrada.tipo) {
+                case RegistroOperaciones.PRESTAMO:
+                case RegistroOperaciones.PRESTAMO_REPLICA: {
+                    String idPrestamo = in.readUTF();
+                    String isbn = in.readUTF();
+                    String usuario = in.readUTF();
+                    String sedeOrigen = in.readUTF();
+                    LocalDateTime fecha = FormatoBinario.aFecha(in.readLong());
+
+                    if (enLibros && entrada.tipo == RegistroOperaciones.PRESTAMO) {
+                        Libro libro = libros.get(isbn);
+                        if (libro != null) {
+                            libro.prestar();
+                        }
+                    }
+                    if (enPrestamos) {
+                        Prestamo prestamo = new Prestamo(idPrestamo, isbn, usuario, sedeOrigen);
+                        prestamo.setFechaPrestamo(fecha);
+                        if (!prestamos.containsKey(idPrestamo)) {
+                            agregarPrestamo(prestamo);
+                        }
+                    }
+                    break;
+                }
+
+                case RegistroOperaciones.DEVOLUCION:
+                case RegistroOperaciones.DEVOLUCION_REPLICA: {
+                    String idPrestamo = in.readUTF();
+                    String isbn = in.readUTF();
+
+                    if (enLibros && entrada.tipo == RegistroOperaciones.DEVOLUCION) {
+                        Libro libro = libros.get(isbn);
+                        if (libro != null) {
+                            libro.devolver();
+                        }
+                    }
+                    if (enPrestamos) {
+                        quitarPrestamo(idPrestamo);
                     }
+                    recordarDevuelto(idPrestamo);
+                    break;
+                }
+
+                case RegistroOperaciones.RENOVACION:
+                case RegistroOperaciones.RENOVACION_REPLICA: {
+                    String idPrestamo = in.readUTF();
+                    int renovaciones = in.readInt();
+                    LocalDateTime fecha = FormatoBinario.aFecha(in.readLong());
 
-                    libros.put(libro.getIsbn(), libro);
+                    Prestamo prestamo = prestamos.get(idPrestamo);
+                    if (enPrestamos && prestamo != null) {
+                        prestamo.setNumRenovaciones(renovaciones);
+                        prestamo.setFechaPrestamo(fecha);
+                    }
+                    break;
                 }
+
+                default:
+                    log.warn("Tipo de operacion desconocido en bitacora: {}", entrada.tipo);
             }
         } catch (IOException e) {
-            System.err.println("Error cargando libros: " + e.getMessage());
+            log.warn("Registro {} ilegible: {}", entrada.lsn, e.getMessage());
         }
     }
 
-    private void cargarPrestamos() {
+    private CargadorParalelo.Resultado<Libro> leerLibros(CargadorParalelo cargador) {
         try {
-            List<String> lineas = Files.readAllLines(Paths.get(rutaPrestamos));
-            for (String linea : lineas) {
-                if (linea.trim().isEmpty())
-                    continue;
-
-                String[] datos = linea.split(",");
-                if (datos.length >= 6) {
-                    String idPrestamo = datos[0].trim();
-                    String isbn = datos[1].trim();
-                    String usuario = datos[2].trim();
-                    String fechaStr = datos[3].trim();
-
-                    int renovaciones = 0;
-                    if (!datos[4].trim().isEmpty()) {
-                        try {
-                            renovaciones = Integer.parseInt(datos[4].trim());
-                        } catch (NumberFormatException e) {
-                            renovaciones = 0;
-                        }
-                    }
+            // Si existe, el inventario mapeado es la fuente de los libros
+            if (InventarioMapeado.existe(rutaBase, sede)) {
+                return leerInventario(cargador);
+            }
 
-                    boolean activo = true;
-                    if (!datos[5].trim().isEmpty()) {
-                        activo = Boolean.parseBoolean(datos[5].trim());
-                    }
+            Path ruta = Paths.get(rutaLibros);
+            if (Files.exists(ruta)) {
+                CargadorParalelo.Resultado<Libro> resultado = cargador.leerLibrosBinario(ruta);
+                lsnLibros = resultado.getLsn();
+                return resultado;
+            }
 
-                    // Detectar si es préstamo local o remoto por el formato del ID
-                    String sedeOrigen = sede; // Por defecto, asumimos que es local
-                    if (datos.length >= 7) {
-                        sedeOrigen = datos[6].trim(); // Si hay 7 columnas, indica la sede origen
-                    }
+            // Formato de texto anterior: se importa una sola vez y se reescribe en binario
+            instantaneaPendiente = true;
+            Path rutaCSV = Paths.get(rutaLibrosCSV);
+            if (!Files.exists(rutaCSV)) {
+                return CargadorParalelo.Resultado.vacio();
+            }
+            CargadorParalelo.Resultado<Libro> resultado = cargador.leerLibrosCSV(rutaCSV);
+            lsnLibros = resultado.getLsn();
+            log.info("BD {}: importados {} libros desde {}", sede, resultado.getTotal(), rutaLibrosCSV);
+            return resultado;
+        } catch (IOException e) {
+            log.error("Error cargando libros: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+    }
 
-                    Prestamo prestamo = new Prestamo(idPrestamo, isbn, usuario, sedeOrigen);
-                    prestamo.setNumRenovaciones(renovaciones);
-                    prestamo.setPrestamoActivo(activo);
+    private CargadorParalelo.Resultado<Libro> leerInventario(CargadorParalelo cargador) throws IOException {
+        long inicio = System.nanoTime();
+        InventarioMapeado abierto = InventarioMapeado.abrir(rutaBase, sede);
+        CargadorParalelo.Resultado<Libro> resultado = abierto.leerLibros(cargador);
+        lsnLibros = abierto.getLsn();
+        if (usarInventarioMapeado) {
+            inventario = abierto;
+            log.info("BD {}: inventario mapeado abierto con {} libros en {} ms", sede, resultado.getTotal(),
+                    (System.nanoTime() - inicio) / 1_000_000);
+            return resultado;
+        }
 
-                    try {
-                        prestamo.setFechaPrestamo(LocalDateTime.parse(fechaStr));
-                    } catch (Exception e) {
-                    }
+        // Motor desactivado: se vuelve a libros_<SEDE>.dat con contadores en memoria
+        List<Libro> copias = new ArrayList<>(resultado.getTotal());
+        for (Libro libro : resultado.comoLista()) {
+            copias.add(libro.copiar());
+        }
+        abierto.close();
+        inventarioObsoleto = true;
+        instantaneaPendiente = true;
+        log.info("BD {}: inventario mapeado desactivado, se migra a {}", sede, rutaLibros);
+        return new CargadorParalelo.Resultado<>(lsnLibros, Collections.singletonList(copias));
+    }
 
-                    prestamos.put(prestamo.getIdPrestamo(), prestamo);
-                }
+    private void crearInventario(CargadorParalelo cargador) {
+        try {
+            inventario = InventarioMapeado.crear(rutaBase, sede, libros.values(), lsnLibros);
+            inventario.leerLibros(cargador).paraCada(cargador.getPool(), libro -> libros.put(libro.getIsbn(), libro));
+            log.info("BD {}: inventario mapeado creado con {} libros", sede, libros.size());
+        } catch (IOException e) {
+            log.error("Error creando inventario mapeado: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+    }
+
+    private CargadorParalelo.Resultado<Prestamo> leerPrestamos(CargadorParalelo cargador) {
+        try {
+            Path ruta = Paths.get(rutaPrestamos);
+            if (Files.exists(ruta)) {
+                CargadorParalelo.Resultado<Prestamo> resultado = cargador.leerPrestamosBinario(ruta);
+                lsnPrestamos = resultado.getLsn();
+                return resultado;
+            }
+
+            instantaneaPendiente = true;
+            Path rutaCSV = Paths.get(rutaPrestamosCSV);
+            if (!Files.exists(rutaCSV)) {
+                return CargadorParalelo.Resultado.vacio();
             }
+            CargadorParalelo.Resultado<Prestamo> resultado = cargador.leerPrestamosCSV(rutaCSV, sede);
+            lsnPrestamos = resultado.getLsn();
+            log.info("BD {}: importados {} prestamos desde {}", sede, resultado.getTotal(), rutaPrestamosCSV);
+            return resultado;
         } catch (IOException e) {
-            System.err.println("Error cargando prestamos: " + e.getMessage());
+            log.error("Error cargando prestamos: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
         }
     }
 
-    public synchronized String realizarPrestamo(String isbn, String usuario) {
-        Libro libro = libros.get(isbn);
-        if (libro != null && libro.prestar()) {
-            String idPrestamo = UUID.randomUUID().toString();
+    @Override
+    public String realizarPrestamo(String isbn, String usuario) {
+        String idPrestamo;
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            Libro libro = libros.get(isbn);
+            if (libro == null) {
+                log.debug("Libro {} no disponible", isbn);
+                return null;
+            }
+            int total = libro.getEjemplaresTotales();
+            int prestados = total - libro.getEjemplaresDisponibles();
+            int cupo = cupos.cupo(isbn, total);
+            if (prestados >= cupo || !libro.prestar()) {
+                if (cupos.estaActivo() && total > 0) {
+                    cupos.marcarAgotado(isbn);
+                }
+                log.debug("Libro {} no disponible (cupo de {}: {})", isbn, sede, cupo);
+                return null;
+            }
+            if (cupos.estaActivo() && prestados + 1 >= cupo) {
+                cupos.marcarAgotado(isbn);
+            }
+            idPrestamo = UUID.randomUUID().toString();
             Prestamo prestamo = new Prestamo(idPrestamo, isbn, usuario, sede);
-            prestamos.put(idPrestamo, prestamo);
-            persistirCambios();
-            System.out.println("Prestamo LOCAL realizado: " + idPrestamo + " - " + libro.getTitulo());
-            return idPrestamo;
+            try {
+                lsn = registrar(RegistroOperaciones.PRESTAMO,
+                        codificarPrestamo(idPrestamo, isbn, usuario, sede, prestamo.getFechaPrestamo()));
+            } catch (RuntimeException e) {
+                libro.devolver();
+                throw e;
+            }
+            agregarPrestamo(prestamo);
+            log.debug("Prestamo LOCAL realizado: {} - {}", idPrestamo, libro.getTitulo());
+        } finally {
+            liberar(franja);
         }
-        System.out.println("Libro " + isbn + " no disponible");
-        return null;
+        confirmar(lsn);
+        return idPrestamo;
     }
 
-    public synchronized String realizarPrestamoReplica(String isbn, String usuario, String idPrestamo,
+    @Override
+    public String realizarPrestamoReplica(String isbn, String usuario, String idPrestamo,
             String sedeOrigen) {
-        // Verificar que la operación no exista ya
-        if (prestamos.containsKey(idPrestamo)) {
-            System.out.println("Operacion remota " + idPrestamo + " ya registrada, ignorando");
-            return idPrestamo;
-        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            // Verificar que la operación no exista ya ni se haya devuelto
+            if (prestamos.containsKey(idPrestamo) || fueDevuelto(idPrestamo)) {
+                log.debug("Operacion remota {} ya registrada, ignorando", idPrestamo);
+                return idPrestamo;
+            }
 
-        Prestamo prestamoRemoto = new Prestamo(idPrestamo, isbn, usuario, sedeOrigen);
-        prestamos.put(idPrestamo, prestamoRemoto);
+            Prestamo prestamoRemoto = new Prestamo(idPrestamo, isbn, usuario, sedeOrigen);
+            lsn = registrar(RegistroOperaciones.PRESTAMO_REPLICA,
+                    codificarPrestamo(idPrestamo, isbn, usuario, sedeOrigen, prestamoRemoto.getFechaPrestamo()));
+            agregarPrestamo(prestamoRemoto);
 
-        persistirCambios();
-        System.out.println("Operacion remota REGISTRADA: " + idPrestamo);
+            log.debug("Operacion remota REGISTRADA: {}", idPrestamo);
+        } finally {
+            liberar(franja);
+        }
+        confirmar(lsn);
         return idPrestamo;
     }
 
-    public synchronized boolean realizarDevolucion(String idPrestamo) {
-        Prestamo prestamo = prestamos.get(idPrestamo);
+    @Override
+    public boolean realizarDevolucion(String idPrestamo) {
+        String isbn = isbnDePrestamo(idPrestamo);
+        if (isbn == null) {
+            return false;
+        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            lsn = devolver(idPrestamo);
+        } finally {
+            liberar(franja);
+        }
+        return confirmar(lsn);
+    }
 
-        if (prestamo != null && prestamo.isPrestamoActivo()) {
-            Libro libro = libros.get(prestamo.getIsbn());
+    /**
+     * Registra una devolución hecha en la otra sede. Si el préstamo se
+     * originó aquí, el ejemplar vuelve al inventario (y al cupo) de esta sede.
+     */
+    @Override
+    public boolean realizarDevolucionReplica(String idPrestamo) {
+        String isbn = isbnDePrestamo(idPrestamo);
+        if (isbn == null) {
+            return false;
+        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            Prestamo prestamo = prestamos.get(idPrestamo);
+            if (prestamo == null || !prestamo.isPrestamoActivo()) {
+                return false;
+            }
+            Libro libro = sede.equals(prestamo.getSede()) ? libros.get(prestamo.getIsbn()) : null;
+            lsn = registrar(libro != null ? RegistroOperaciones.DEVOLUCION : RegistroOperaciones.DEVOLUCION_REPLICA,
+                    codificarDevolucion(idPrestamo, prestamo.getIsbn()));
             if (libro != null) {
                 libro.devolver();
-                prestamo.setPrestamoActivo(false);
-                prestamo.setFechaDevolucion(LocalDateTime.now());
-                prestamos.remove(idPrestamo);
-                persistirCambios();
-                System.out.println("Devolucion LOCAL realizada: " + idPrestamo);
-                return true;
             }
+            prestamo.setPrestamoActivo(false);
+            prestamo.setFechaDevolucion(LocalDateTime.now());
+            quitarPrestamo(idPrestamo);
+            recordarDevuelto(idPrestamo);
+            log.debug("Devolucion remota REGISTRADA: {}", idPrestamo);
+        } finally {
+            liberar(franja);
+        }
+        return confirmar(lsn);
+    }
+
+    @Override
+    public boolean realizarRenovacion(String idPrestamo) {
+        String isbn = isbnDePrestamo(idPrestamo);
+        if (isbn == null) {
+            return false;
+        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            lsn = renovar(idPrestamo);
+        } finally {
+            liberar(franja);
+        }
+        return confirmar(lsn);
+    }
+
+    @Override
+    public boolean realizarRenovacionReplica(String idPrestamo) {
+        String isbn = isbnDePrestamo(idPrestamo);
+        if (isbn == null) {
+            return false;
+        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            Prestamo prestamo = prestamos.get(idPrestamo);
+            if (prestamo == null || !prestamo.puedeRenovarse()) {
+                return false;
+            }
+            int renovaciones = prestamo.getNumRenovaciones() + 1;
+            LocalDateTime fecha = LocalDateTime.now();
+            lsn = registrar(RegistroOperaciones.RENOVACION_REPLICA, codificarRenovacion(idPrestamo, renovaciones, fecha));
+            prestamo.setNumRenovaciones(renovaciones);
+            prestamo.setFechaPrestamo(fecha);
+            log.debug("Renovacion remota REGISTRADA: {}", idPrestamo);
+        } finally {
+            liberar(franja);
         }
+        return confirmar(lsn);
+    }
 
-        return false;
+    @Override
+    public boolean realizarRenovacionReplica(String idPrestamo, int renovaciones, LocalDateTime fecha) {
+        String isbn = isbnDePrestamo(idPrestamo);
+        if (isbn == null) {
+            return false;
+        }
+        long lsn;
+        Lock franja = bloquear(isbn);
+        try {
+            Prestamo prestamo = prestamos.get(idPrestamo);
+            if (prestamo == null || !prestamo.isPrestamoActivo()) {
+                return false;
+            }
+            if (prestamo.getNumRenovaciones() >= renovaciones) {
+                return true;
+            }
+            if (fecha == null) {
+                fecha = prestamo.getFechaPrestamo();
+            }
+            lsn = registrar(RegistroOperaciones.RENOVACION_REPLICA, codificarRenovacion(idPrestamo, renovaciones, fecha));
+            prestamo.setNumRenovaciones(renovaciones);
+            prestamo.setFechaPrestamo(fecha);
+            log.debug("Renovacion remota REGISTRADA: {} ({})", idPrestamo, renovaciones);
+        } finally {
+            liberar(franja);
+        }
+        return confirmar(lsn);
     }
 
     /**
-     * NUEVO: Registrar devolución remota (sin modificar inventario)
+     * Cede a destino la mitad (redondeada hacia arriba) de los ejemplares
+     * del cupo que esta sede no tiene prestados. Devuelve el acumulado
+     * cedido a destino para ese título, haya cedido algo o no.
      */
-    public synchronized boolean realizarDevolucionReplica(String idPrestamo) {
+    @Override
+    public long cederCupo(String isbn, String destino) {
+        Lock franja = bloquear(isbn);
+        try {
+            Libro libro = libros.get(isbn);
+            int cantidad = 0;
+            if (libro != null && cupos.estaActivo()) {
+                int total = libro.getEjemplaresTotales();
+                int libres = cupos.cupo(isbn, total) - (total - libro.getEjemplaresDisponibles());
+                cantidad = libres > 0 ? (libres + 1) / 2 : 0;
+            }
+            long acumulado = cupos.ceder(isbn, destino, cantidad);
+            if (cantidad > 0) {
+                log.info("Cupo cedido a {}: {} de {}", destino, cantidad, isbn);
+            }
+            return acumulado;
+        } catch (IOException e) {
+            log.error("Error guardando cupos: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        } finally {
+            liberar(franja);
+        }
+    }
+
+    @Override
+    public CuposInventario getCupos() {
+        return cupos;
+    }
+
+    // Debe llamarse con la franja del ISBN tomada. Devuelve el lsn o -1 si no aplica.
+    private long devolver(String idPrestamo) {
         Prestamo prestamo = prestamos.get(idPrestamo);
+        if (prestamo == null || !prestamo.isPrestamoActivo()) {
+            return -1;
+        }
+        Libro libro = libros.get(prestamo.getIsbn());
+        if (libro == null) {
+            return -1;
+        }
+        // Un préstamo de la otra sede no salió del inventario de esta
+        boolean propio = sede.equals(prestamo.getSede());
+        long lsn = registrar(propio ? RegistroOperaciones.DEVOLUCION : RegistroOperaciones.DEVOLUCION_REPLICA,
+                codificarDevolucion(idPrestamo, prestamo.getIsbn()));
+        if (propio) {
+            libro.devolver();
+        }
+        prestamo.setPrestamoActivo(false);
+        prestamo.setFechaDevolucion(LocalDateTime.now());
+        quitarPrestamo(idPrestamo);
+        recordarDevuelto(idPrestamo);
+        log.debug("Devolucion LOCAL realizada: {}", idPrestamo);
+        return lsn;
+    }
 
-        if (prestamo != null && prestamo.isPrestamoActivo()) {
-            // Solo marcar como inactivo, NO devolver al inventario
-            prestamo.setPrestamoActivo(false);
-            prestamo.setFechaDevolucion(LocalDateTime.now());
-            prestamos.remove(idPrestamo);
-            persistirCambios();
-            System.out.println("Devolucion remota REGISTRADA: " + idPrestamo);
-            return true;
+    // Debe llamarse con la franja del ISBN tomada. Devuelve el lsn o -1 si no aplica.
+    private long renovar(String idPrestamo) {
+        Prestamo prestamo = prestamos.get(idPrestamo);
+        if (prestamo == null || !prestamo.puedeRenovarse()) {
+            return -1;
         }
+        int renovaciones = prestamo.getNumRenovaciones() + 1;
+        LocalDateTime fecha = LocalDateTime.now();
+        long lsn = registrar(RegistroOperaciones.RENOVACION, codificarRenovacion(idPrestamo, renovaciones, fecha));
+        prestamo.setNumRenovaciones(renovaciones);
+        prestamo.setFechaPrestamo(fecha);
+        log.debug("Renovacion LOCAL realizada: {} (Renovacion #{})", idPrestamo, renovaciones);
+        return lsn;
+    }
 
-        return false;
+    /**
+     * Toma el candado compartido de instantáneas y la franja del ISBN. Las
+     * operaciones sobre títulos distintos caen casi siempre en franjas
+     * distintas y avanzan en paralelo; un préstamo y su libro comparten
+     * siempre la franja de su ISBN, así que las operaciones sobre un mismo
+     * préstamo quedan en orden en la bitácora.
+     */
+    private Lock bloquear(String isbn) {
+        lockInstantanea.readLock().lock();
+        Lock franja = franjas[indiceFranja(isbn)];
+        franja.lock();
+        return franja;
     }
 
-    public synchronized boolean realizarRenovacion(String idPrestamo) {
-        Prestamo prestamo = prestamos.get(idPrestamo);
+    private void liberar(Lock franja) {
+        franja.unlock();
+        lockInstantanea.readLock().unlock();
+    }
+
+    private static int indiceFranja(String isbn) {
+        int h = isbn == null ? 0 : isbn.hashCode();
+        return (h ^ (h >>> 16)) & (NUM_FRANJAS - 1);
+    }
+
+    // El ISBN de un préstamo no cambia, así que puede leerse sin candado
+    private String isbnDePrestamo(String idPrestamo) {
+        Prestamo prestamo = idPrestamo == null ? null : prestamos.get(idPrestamo);
+        return prestamo == null ? null : prestamo.getIsbn();
+    }
+
+    /**
+     * Encola el registro en la bitácora sin esperar el disco; la espera se
+     * hace con confirmar() una vez liberada la franja, para que las demás
+     * operaciones puedan sumarse al mismo lote.
+     */
+    private long registrar(byte tipo, byte[] datos) {
+        try {
+            return registro.encolar(tipo, datos);
+        } catch (IOException e) {
+            log.error("Error registrando operacion: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+    }
 
-        if (prestamo != null && prestamo.puedeRenovarse()) {
-            prestamo.setNumRenovaciones(prestamo.getNumRenovaciones() + 1);
-            prestamo.setFechaPrestamo(LocalDateTime.now());
-            persistirCambios();
-            System.out.println("Renovacion LOCAL realizada: " + idPrestamo +
-                    " (Renovacion #" + prestamo.getNumRenovaciones() + ")");
+    private boolean confirmar(long lsn) {
+        if (lsn < 0) {
+            return false;
+        }
+        if (confirmacionDiferida) {
+            lsnPorConfirmar = Math.max(lsnPorConfirmar, lsn);
+            return true;
+        }
+        long[] lote = loteEnCurso.get();
+        if (lote != null) {
+            lote[0] = Math.max(lote[0], lsn);
             return true;
         }
+        try {
+            registro.confirmar(lsn);
+            return true;
+        } catch (IOException e) {
+            log.error("Error confirmando operacion: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+    }
 
-        return false;
+    /**
+     * Las mutaciones del lote solo encolan su registro; al terminar se espera
+     * una vez el mayor lsn. Si la bitácora falla se lanza la excepción y
+     * ninguna operación del lote debe darse por confirmada.
+     */
+    @Override
+    public void aplicarEnLote(Runnable operaciones) {
+        if (confirmacionDiferida || loteEnCurso.get() != null) {
+            operaciones.run();
+            return;
+        }
+        long[] lote = {-1};
+        loteEnCurso.set(lote);
+        try {
+            operaciones.run();
+        } finally {
+            loteEnCurso.remove();
+        }
+        confirmar(lote[0]);
     }
 
-    public synchronized boolean realizarRenovacionReplica(String idPrestamo) {
-        Prestamo prestamo = prestamos.get(idPrestamo);
+    @Override
+    public void congelado(Runnable accion) {
+        lockInstantanea.writeLock().lock();
+        try {
+            accion.run();
+        } finally {
+            lockInstantanea.writeLock().unlock();
+        }
+    }
 
-        if (prestamo != null && prestamo.puedeRenovarse()) {
-            prestamo.setNumRenovaciones(prestamo.getNumRenovaciones() + 1);
-            prestamo.setFechaPrestamo(LocalDateTime.now());
-            persistirCambios();
-            System.out.println("Renovacion remota REGISTRADA: " + idPrestamo);
-            return true;
+    /**
+     * Devuelve el mayor lsn registrado por las mutaciones ejecutadas en este
+     * hilo desde la última llamada (-1 si ninguna escribió en la bitácora).
+     * Solo tiene sentido con confirmación diferida y un único hilo escritor.
+     */
+    long tomarLsnPorConfirmar() {
+        long lsn = lsnPorConfirmar;
+        lsnPorConfirmar = -1;
+        return lsn;
+    }
+
+    void confirmarDiferido(long lsn) throws IOException {
+        registro.confirmar(lsn);
+    }
+
+    ModoDurabilidad getModoDurabilidad() {
+        return modoDurabilidad;
+    }
+
+    private static byte[] codificarPrestamo(String idPrestamo, String isbn, String usuario,
+            String sedeOrigen, LocalDateTime fecha) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(idPrestamo);
+            out.writeUTF(isbn);
+            out.writeUTF(usuario);
+            out.writeUTF(sedeOrigen);
+            out.writeLong(FormatoBinario.aMilis(fecha));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        return false;
+    private static byte[] codificarDevolucion(String idPrestamo, String isbn) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(idPrestamo);
+            out.writeUTF(isbn);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] codificarRenovacion(String idPrestamo, int renovaciones, LocalDateTime fecha) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(idPrestamo);
+            out.writeInt(renovaciones);
+            out.writeLong(FormatoBinario.aMilis(fecha));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private void persistirCambios() {
+    /**
+     * Toma una instantánea consistente de libros y préstamos. Con el candado
+     * exclusivo solo se rota la bitácora y se copian los objetos; la escritura a
+     * disco ocurre después, sin bloquear las operaciones. Una vez publicada
+     * la instantánea se borran los segmentos de bitácora que cubre.
+     */
+    @Override
+    public void tomarInstantanea() {
         synchronized (lockArchivo) {
+            long inicio = System.nanoTime();
+            long lsn;
+            List<Libro> copiaLibros = null;
+            List<Prestamo> copiaPrestamos;
+
+            if (inventario != null) {
+                inventario.prepararInstantanea();
+            }
+            lockInstantanea.writeLock().lock();
             try {
-                List<String> lineasLibros = new ArrayList<>();
-                for (Libro libro : libros.values()) {
-                    lineasLibros.add(libro.toCSV());
+                try {
+                    lsn = registro.rotar();
+                } catch (IOException e) {
+                    log.error("Error rotando bitacora: {}", e.getMessage());
+                    return;
                 }
-                Files.write(Paths.get(rutaLibros), lineasLibros,
-                        StandardOpenOption.TRUNCATE_EXISTING);
-
-                List<String> lineasPrestamos = new ArrayList<>();
+                if (lsn == lsnLibros && lsn == lsnPrestamos && !instantaneaPendiente) {
+                    return;
+                }
+                if (inventario != null) {
+                    // Con el inventario mapeado los libros no se serializan: basta
+                    // copiar los contadores vivos a la columna de la instantánea
+                    inventario.copiarValoresVivos();
+                } else {
+                    copiaLibros = new ArrayList<>(libros.size());
+                    for (Libro libro : libros.values()) {
+                        copiaLibros.add(libro.copiar());
+                    }
+                }
+                copiaPrestamos = new ArrayList<>(prestamos.size());
                 for (Prestamo prestamo : prestamos.values()) {
-                    lineasPrestamos.add(prestamo.toCSV() + "," + prestamo.getSede());
+                    copiaPrestamos.add(prestamo.copiar());
+                }
+            } finally {
+                lockInstantanea.writeLock().unlock();
+            }
+            long pausaMs = (System.nanoTime() - inicio) / 1_000_000;
+
+            try {
+                long tamano;
+                if (inventario != null) {
+                    inventario.publicar(lsn);
+                    tamano = inventario.tamanoBytes() + instantaneas.escribirPrestamos(copiaPrestamos, lsn);
+                } else {
+                    tamano = instantaneas.escribir(copiaLibros, copiaPrestamos, lsn);
+                }
+                lsnLibros = lsn;
+                lsnPrestamos = lsn;
+                instantaneaPendiente = false;
+                registro.descartarHasta(lsn);
+                if (inventarioObsoleto) {
+                    InventarioMapeado.eliminar(rutaBase, sede);
+                    inventarioObsoleto = false;
                 }
-                Files.write(Paths.get(rutaPrestamos), lineasPrestamos,
-                        StandardOpenOption.TRUNCATE_EXISTING);
 
+                long duracionMs = (System.nanoTime() - inicio) / 1_000_000;
+                instantaneas.registrarMetricas(duracionMs, pausaMs, tamano);
+                log.info("Instantanea {} (lsn {}): {}", sede, lsn, libros.size()
+                        + " libros, " + copiaPrestamos.size() + " prestamos, " + (tamano / 1024) + " KB en "
+                        + duracionMs + " ms (pausa " + pausaMs + " ms)");
             } catch (IOException e) {
-                System.err.println("Error persistiendo datos: " + e.getMessage());
-                throw new RuntimeException("Fallo en persistencia", e);
+                log.error("Error escribiendo instantanea: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void iniciarInstantaneasPeriodicas() {
+        if (intervaloInstantaneaSeg <= 0) {
+            return;
+        }
+        schedulerInstantaneas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "Instantaneas-" + sede);
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        schedulerInstantaneas.scheduleWithFixedDelay(this::tomarInstantanea,
+                intervaloInstantaneaSeg, intervaloInstantaneaSeg, TimeUnit.SECONDS);
+    }
+
+    public Instantaneas getInstantaneas() {
+        return instantaneas;
+    }
+
+    // Libros, préstamos y operaciones de bitácora leídos al arrancar
+    @Override
+    public long getRegistrosCargados() {
+        return registrosCargados;
+    }
+
+    @Override
+    public long getDuracionCargaMs() {
+        return duracionCargaMs;
+    }
+
+    // Lsn cubierto por la última instantánea publicada
+    public long getLsnInstantanea() {
+        synchronized (lockArchivo) {
+            return Math.min(lsnLibros, lsnPrestamos);
+        }
+    }
+
+    @Override
+    public void cerrar() {
+        if (!registro.estaAbierto()) {
+            return;
+        }
+        if (schedulerInstantaneas != null) {
+            schedulerInstantaneas.shutdown();
+        }
+        try {
+            tomarInstantanea();
+            log.info("BD {}: tamano promedio de lote en bitacora {}", sede,
+                    String.format("%.1f", registro.getTamanoPromedioLote()));
+            registro.close();
+            if (inventario != null) {
+                inventario.close();
             }
+        } catch (Exception e) {
+            log.error("Error cerrando BD: {}", e.getMessage());
         }
     }
 
+    @Override
     public Map<String, Libro> getLibros() {
         return new HashMap<>(libros);
     }
 
+    @Override
     public Map<String, Prestamo> getPrestamos() {
         return new HashMap<>(prestamos);
     }
 
+    @Override
     public Libro consultarLibro(String isbn) {
         return libros.get(isbn);
     }
 
+    @Override
     public Prestamo consultarPrestamo(String idPrestamo) {
         return prestamos.get(idPrestamo);
     }
 
+    @Override
     public boolean verificarDisponibilidad() {
         try {
-            return Files.exists(Paths.get(rutaLibros)) &&
-                    Files.isReadable(Paths.get(rutaLibros)) &&
-                    Files.isWritable(Paths.get(rutaLibros));
+            Path ruta = inventario != null ? inventario.getRutaDatos() : Paths.get(rutaLibros);
+            return Files.exists(ruta) &&
+                    Files.isReadable(ruta) &&
+                    Files.isWritable(ruta);
         } catch (Exception e) {
             return false;
         }
     }
 
+    @Override
     public String getSede() {
         return sede;
     }
 
+    @Override
     public String buscarPrestamoActivo(String isbn, String usuario) {
-        for (Prestamo prestamo : prestamos.values()) {
-            if (prestamo.isPrestamoActivo() &&
-                    prestamo.getIsbn().equals(isbn) &&
-                    prestamo.getUsuario().equals(usuario)) {
-                return prestamo.getIdPrestamo();
+        Set<String> ids = prestamosPorUsuario.get(claveUsuario(isbn, usuario));
+        if (ids != null) {
+            for (String idPrestamo : ids) {
+                Prestamo prestamo = prestamos.get(idPrestamo);
+                if (prestamo != null && prestamo.isPrestamoActivo()) {
+                    return idPrestamo;
+                }
             }
         }
         return null;
     }
-    public synchronized boolean realizarDevolucionPorUsuario(String isbn, String usuario) {
-        String idPrestamo = buscarPrestamoActivo(isbn, usuario);
-        if (idPrestamo != null) {
-            return realizarDevolucion(idPrestamo);
+
+    /**
+     * Agrega un préstamo al mapa principal y, si está activo, al índice
+     * (isbn, usuario). Todo cambio de préstamos debe pasar por aquí o por
+     * quitarPrestamo() para que el índice no se desincronice.
+     */
+    private void agregarPrestamo(Prestamo prestamo) {
+        prestamos.put(prestamo.getIdPrestamo(), prestamo);
+        if (prestamo.isPrestamoActivo()) {
+            prestamosPorUsuario.compute(claveUsuario(prestamo.getIsbn(), prestamo.getUsuario()), (clave, ids) -> {
+                Set<String> resultado = ids != null ? ids : ConcurrentHashMap.newKeySet();
+                resultado.add(prestamo.getIdPrestamo());
+                return resultado;
+            });
+        }
+    }
+
+    private void quitarPrestamo(String idPrestamo) {
+        Prestamo prestamo = prestamos.remove(idPrestamo);
+        if (prestamo != null) {
+            prestamosPorUsuario.computeIfPresent(claveUsuario(prestamo.getIsbn(), prestamo.getUsuario()),
+                    (clave, ids) -> {
+                        ids.remove(idPrestamo);
+                        return ids.isEmpty() ? null : ids;
+                    });
+        }
+    }
+
+    private void recordarDevuelto(String idPrestamo) {
+        synchronized (devueltos) {
+            devueltos.add(idPrestamo);
+        }
+    }
+
+    private boolean fueDevuelto(String idPrestamo) {
+        synchronized (devueltos) {
+            return devueltos.contains(idPrestamo);
+        }
+    }
+
+    private static String claveUsuario(String isbn, String usuario) {
+        return isbn + '\u0000' + usuario;
+    }
+
+    @Override
+    public String realizarDevolucionPorUsuario(String isbn, String usuario) {
+        long lsn = -1;
+        String idPrestamo;
+        Lock franja = bloquear(isbn);
+        try {
+            // Se busca bajo la franja: dos devoluciones del mismo usuario cierran préstamos distintos
+            idPrestamo = buscarPrestamoActivo(isbn, usuario);
+            if (idPrestamo != null) {
+                lsn = devolver(idPrestamo);
+            }
+        } finally {
+            liberar(franja);
         }
-        return false;
+        return confirmar(lsn) ? idPrestamo : null;
     }
-    public synchronized boolean realizarRenovacionPorUsuario(String isbn, String usuario) {
-        String idPrestamo = buscarPrestamoActivo(isbn, usuario);
-        if (idPrestamo != null) {
-            return realizarRenovacion(idPrestamo);
+    @Override
+    public String realizarRenovacionPorUsuario(String isbn, String usuario) {
+        long lsn = -1;
+        String idPrestamo;
+        Lock franja = bloquear(isbn);
+        try {
+            idPrestamo = buscarPrestamoActivo(isbn, usuario);
+            if (idPrestamo != null) {
+                lsn = renovar(idPrestamo);
+            }
+        } finally {
+            liberar(franja);
         }
-        return false;
+        return confirmar(lsn) ? idPrestamo : null;
     }
 }
\ No newline at end of file
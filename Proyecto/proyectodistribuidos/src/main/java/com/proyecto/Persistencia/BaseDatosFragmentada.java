@@ -0,0 +1,414 @@
+/**
+ * ============================================================
+ * Título: BaseDatosFragmentada - Sede repartida en fragmentos por ISBN
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Reparte el catálogo y sus préstamos en N fragmentos según el hash del
+ * ISBN (propiedad ga.fragmentos). Cada fragmento es una BaseDatos completa
+ * en <rutaBase>/fragmento<i>, con sus propios mapas, instantáneas y
+ * bitácora, y un único hilo escritor alimentado por una cola: todas las
+ * operaciones del fragmento se ejecutan en ese hilo, sin competir por
+ * candados con los demás fragmentos.
+ *
+ * El hilo escritor no espera a la bitácora. Las mutaciones usan
+ * confirmación diferida y un hilo confirmador por fragmento completa cada
+ * operación cuando su lsn queda confirmado, así que el escritor sigue con
+ * la siguiente y la escritura en grupo agrupa varias operaciones por lote.
+ *
+ * Los cupos por título (CuposInventario) son de la sede y no de cada
+ * fragmento: se guardan en <rutaBase> y los comparten todos.
+ *
+ * La primera vez que se arranca en este modo, los datos de la sede sin
+ * fragmentar en <rutaBase> se reparten entre los fragmentos.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import com.proyecto.Registros.Registro;
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+public class BaseDatosFragmentada implements Almacenamiento {
+    private static final Registro log = Registro.de(BaseDatosFragmentada.class);
+    private final String sede;
+    private final Fragmento[] fragmentos;
+    private final long duracionCargaMs;
+    private final CuposInventario cupos;
+
+    private static final class Fragmento {
+        final BaseDatos bd;
+        final ExecutorService escritor;
+        final ExecutorService confirmador;
+
+        Fragmento(BaseDatos bd, String nombre) {
+            this.bd = bd;
+            this.escritor = Executors.newSingleThreadExecutor(r -> hilo(r, "Escritor-" + nombre));
+            this.confirmador = Executors.newSingleThreadExecutor(r -> hilo(r, "Confirmador-" + nombre));
+        }
+
+        private static Thread hilo(Runnable r, String nombre) {
+            Thread hilo = new Thread(r, nombre);
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    }
+
+    public BaseDatosFragmentada(String rutaBase, String sede, int numFragmentos) {
+        this(rutaBase, sede, numFragmentos,
+                ModoDurabilidad.desdeTexto(System.getProperty("ga.durabilidad")),
+                Long.getLong("ga.durabilidad.intervaloMs", 10));
+    }
+
+    public BaseDatosFragmentada(String rutaBase, String sede, int numFragmentos,
+            ModoDurabilidad modoDurabilidad, long intervaloDurabilidadMs) {
+        if (numFragmentos < 1) {
+            throw new IllegalArgumentException("Cantidad de fragmentos invalida: " + numFragmentos);
+        }
+        this.sede = sede;
+        long inicio = System.nanoTime();
+        try {
+            prepararFragmentos(rutaBase, sede, numFragmentos, modoDurabilidad, intervaloDurabilidadMs);
+            this.cupos = new CuposInventario(rutaBase, sede);
+        } catch (IOException e) {
+            log.error("Error preparando fragmentos: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+
+        // Los fragmentos se cargan en paralelo, cada uno con sus propios archivos
+        this.fragmentos = new Fragmento[numFragmentos];
+        List<CompletableFuture<Void>> cargas = new ArrayList<>(numFragmentos);
+        for (int i = 0; i < numFragmentos; i++) {
+            int indice = i;
+            cargas.add(CompletableFuture.runAsync(() -> {
+                BaseDatos bd = new BaseDatos(rutaFragmento(rutaBase, indice), sede,
+                        modoDurabilidad, intervaloDurabilidadMs, true, cupos);
+                fragmentos[indice] = new Fragmento(bd, sede + "-" + indice);
+            }));
+        }
+        for (CompletableFuture<Void> carga : cargas) {
+            esperar(carga);
+        }
+        try {
+            cupos.terminarSiembra();
+        } catch (IOException e) {
+            log.error("Error guardando cupos iniciales: {}", e.getMessage());
+            throw new RuntimeException("Fallo en persistencia", e);
+        }
+        this.duracionCargaMs = Math.max(1, (System.nanoTime() - inicio) / 1_000_000);
+        log.info("BD {} fragmentada en {} fragmentos: {}", sede, numFragmentos,
+                getRegistrosCargados() + " registros en " + duracionCargaMs + " ms");
+    }
+
+    private static String rutaFragmento(String rutaBase, int indice) {
+        return rutaBase + "/fragmento" + indice;
+    }
+
+    /**
+     * Comprueba la cantidad de fragmentos guardada en fragmentos_<SEDE>.txt.
+     * Si la sede aún no está fragmentada, abre la base sin fragmentar
+     * (reproduciendo su bitácora) y reparte libros y préstamos por ISBN.
+     */
+    private static void prepararFragmentos(String rutaBase, String sede, int numFragmentos,
+            ModoDurabilidad modoDurabilidad, long intervaloDurabilidadMs) throws IOException {
+        Path marca = Paths.get(rutaBase, "fragmentos_" + sede + ".txt");
+        if (Files.exists(marca)) {
+            int existentes = Integer.parseInt(Files.readAllLines(marca).get(0).trim());
+            if (existentes != numFragmentos) {
+                throw new IOException("La sede " + sede + " esta repartida en " + existentes
+                        + " fragmentos y se pidieron " + numFragmentos);
+            }
+            return;
+        }
+
+        BaseDatos original = new BaseDatos(rutaBase, sede, modoDurabilidad, intervaloDurabilidadMs);
+        List<List<Libro>> libros = new ArrayList<>();
+        List<List<Prestamo>> prestamos = new ArrayList<>();
+        for (int i = 0; i < numFragmentos; i++) {
+            libros.add(new ArrayList<>());
+            prestamos.add(new ArrayList<>());
+        }
+        for (Libro libro : original.getLibros().values()) {
+            libros.get(indiceFragmento(libro.getIsbn(), numFragmentos)).add(libro.copiar());
+        }
+        for (Prestamo prestamo : original.getPrestamos().values()) {
+            prestamos.get(indiceFragmento(prestamo.getIsbn(), numFragmentos)).add(prestamo.copiar());
+        }
+        original.cerrar();
+
+        for (int i = 0; i < numFragmentos; i++) {
+            Path directorio = Paths.get(rutaFragmento(rutaBase, i));
+            Files.createDirectories(directorio);
+            Instantaneas instantaneas = new Instantaneas(
+                    directorio.resolve("libros_" + sede + ".dat").toString(),
+                    directorio.resolve("prestamos_" + sede + ".dat").toString());
+            instantaneas.escribir(libros.get(i), prestamos.get(i), 0);
+        }
+        Files.write(marca, Collections.singletonList(String.valueOf(numFragmentos)));
+        log.info("BD {}: datos repartidos en {} fragmentos", sede, numFragmentos);
+    }
+
+    static int indiceFragmento(String isbn, int numFragmentos) {
+        int h = isbn.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), numFragmentos);
+    }
+
+    private Fragmento fragmentoDeIsbn(String isbn) {
+        return fragmentos[indiceFragmento(isbn, fragmentos.length)];
+    }
+
+    // Los ids de préstamo no indican su fragmento; se busca el que lo tiene
+    private Fragmento fragmentoDePrestamo(String idPrestamo) {
+        if (idPrestamo != null) {
+            for (Fragmento fragmento : fragmentos) {
+                Prestamo prestamo = fragmento.bd.consultarPrestamo(idPrestamo);
+                if (prestamo != null) {
+                    return fragmentoDeIsbn(prestamo.getIsbn());
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getNumFragmentos() {
+        return fragmentos.length;
+    }
+
+    /**
+     * Ejecuta la operación en el hilo escritor del fragmento del ISBN. El
+     * futuro se completa cuando las escrituras de la operación quedan
+     * confirmadas según el modo de durabilidad.
+     */
+    public <T> CompletableFuture<T> ejecutarPorIsbn(String isbn, Function<Almacenamiento, T> operacion) {
+        return ejecutar(fragmentoDeIsbn(isbn), operacion);
+    }
+
+    /**
+     * Como ejecutarPorIsbn, ubicando el fragmento por el id del préstamo.
+     * Si ningún fragmento tiene el préstamo se usa el primero, donde la
+     * operación fallará como en una base sin fragmentar.
+     */
+    public <T> CompletableFuture<T> ejecutarPorPrestamo(String idPrestamo, Function<Almacenamiento, T> operacion) {
+        Fragmento fragmento = fragmentoDePrestamo(idPrestamo);
+        return ejecutar(fragmento != null ? fragmento : fragmentos[0], operacion);
+    }
+
+    private <T> CompletableFuture<T> ejecutar(Fragmento fragmento, Function<Almacenamiento, T> operacion) {
+        CompletableFuture<T> futuro = new CompletableFuture<>();
+        try {
+            fragmento.escritor.execute(() -> {
+                T resultado;
+                long lsn;
+                try {
+                    resultado = operacion.apply(fragmento.bd);
+                } catch (RuntimeException e) {
+                    futuro.completeExceptionally(e);
+                    return;
+                } finally {
+                    lsn = fragmento.bd.tomarLsnPorConfirmar();
+                }
+                if (lsn < 0 || fragmento.bd.getModoDurabilidad() == ModoDurabilidad.ASINCRONO) {
+                    futuro.complete(resultado);
+                    return;
+                }
+                fragmento.confirmador.execute(() -> {
+                    try {
+                        fragmento.bd.confirmarDiferido(lsn);
+                        futuro.complete(resultado);
+                    } catch (IOException e) {
+                        log.error("Error confirmando operacion: {}", e.getMessage());
+                        futuro.completeExceptionally(new RuntimeException("Fallo en persistencia", e));
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            futuro.completeExceptionally(new IllegalStateException("BD " + sede + " cerrada"));
+        }
+        return futuro;
+    }
+
+    private static <T> T esperar(CompletableFuture<T> futuro) {
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String realizarPrestamo(String isbn, String usuario) {
+        return esperar(ejecutarPorIsbn(isbn, bd -> bd.realizarPrestamo(isbn, usuario)));
+    }
+
+    @Override
+    public String realizarPrestamoReplica(String isbn, String usuario, String idPrestamo, String sedeOrigen) {
+        return esperar(ejecutarPorIsbn(isbn, bd -> bd.realizarPrestamoReplica(isbn, usuario, idPrestamo, sedeOrigen)));
+    }
+
+    @Override
+    public boolean realizarDevolucion(String idPrestamo) {
+        return esperar(ejecutarPorPrestamo(idPrestamo, bd -> bd.realizarDevolucion(idPrestamo)));
+    }
+
+    @Override
+    public boolean realizarDevolucionReplica(String idPrestamo) {
+        return esperar(ejecutarPorPrestamo(idPrestamo, bd -> bd.realizarDevolucionReplica(idPrestamo)));
+    }
+
+    @Override
+    public boolean realizarRenovacion(String idPrestamo) {
+        return esperar(ejecutarPorPrestamo(idPrestamo, bd -> bd.realizarRenovacion(idPrestamo)));
+    }
+
+    @Override
+    public boolean realizarRenovacionReplica(String idPrestamo) {
+        return esperar(ejecutarPorPrestamo(idPrestamo, bd -> bd.realizarRenovacionReplica(idPrestamo)));
+    }
+
+    @Override
+    public boolean realizarRenovacionReplica(String idPrestamo, int renovaciones, LocalDateTime fecha) {
+        return esperar(ejecutarPorPrestamo(idPrestamo,
+                bd -> bd.realizarRenovacionReplica(idPrestamo, renovaciones, fecha)));
+    }
+
+    /**
+     * Cada operación del lote se ejecuta en el escritor de su fragmento y
+     * espera su propio commit; el lote no se agrupa entre fragmentos.
+     */
+    @Override
+    public void aplicarEnLote(Runnable operaciones) {
+        operaciones.run();
+    }
+
+    // Toma el candado de cada fragmento, siempre en el mismo orden
+    @Override
+    public void congelado(Runnable accion) {
+        congelarDesde(0, accion);
+    }
+
+    private void congelarDesde(int indice, Runnable accion) {
+        if (indice == fragmentos.length) {
+            accion.run();
+            return;
+        }
+        fragmentos[indice].bd.congelado(() -> congelarDesde(indice + 1, accion));
+    }
+
+    @Override
+    public long cederCupo(String isbn, String destino) {
+        return esperar(ejecutarPorIsbn(isbn, bd -> bd.cederCupo(isbn, destino)));
+    }
+
+    @Override
+    public CuposInventario getCupos() {
+        return cupos;
+    }
+
+    @Override
+    public String realizarDevolucionPorUsuario(String isbn, String usuario) {
+        return esperar(ejecutarPorIsbn(isbn, bd -> bd.realizarDevolucionPorUsuario(isbn, usuario)));
+    }
+
+    @Override
+    public String realizarRenovacionPorUsuario(String isbn, String usuario) {
+        return esperar(ejecutarPorIsbn(isbn, bd -> bd.realizarRenovacionPorUsuario(isbn, usuario)));
+    }
+
+    // Las consultas leen directamente los mapas concurrentes del fragmento
+
+    @Override
+    public String buscarPrestamoActivo(String isbn, String usuario) {
+        return fragmentoDeIsbn(isbn).bd.buscarPrestamoActivo(isbn, usuario);
+    }
+
+    @Override
+    public Libro consultarLibro(String isbn) {
+        return fragmentoDeIsbn(isbn).bd.consultarLibro(isbn);
+    }
+
+    @Override
+    public Prestamo consultarPrestamo(String idPrestamo) {
+        Fragmento fragmento = fragmentoDePrestamo(idPrestamo);
+        return fragmento != null ? fragmento.bd.consultarPrestamo(idPrestamo) : null;
+    }
+
+    @Override
+    public Map<String, Libro> getLibros() {
+        Map<String, Libro> todos = new HashMap<>();
+        for (Fragmento fragmento : fragmentos) {
+            todos.putAll(fragmento.bd.getLibros());
+        }
+        return todos;
+    }
+
+    @Override
+    public Map<String, Prestamo> getPrestamos() {
+        Map<String, Prestamo> todos = new HashMap<>();
+        for (Fragmento fragmento : fragmentos) {
+            todos.putAll(fragmento.bd.getPrestamos());
+        }
+        return todos;
+    }
+
+    @Override
+    public boolean verificarDisponibilidad() {
+        for (Fragmento fragmento : fragmentos) {
+            if (!fragmento.bd.verificarDisponibilidad()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getSede() {
+        return sede;
+    }
+
+    @Override
+    public void tomarInstantanea() {
+        for (Fragmento fragmento : fragmentos) {
+            fragmento.bd.tomarInstantanea();
+        }
+    }
+
+    @Override
+    public long getRegistrosCargados() {
+        long total = 0;
+        for (Fragmento fragmento : fragmentos) {
+            total += fragmento.bd.getRegistrosCargados();
+        }
+        return total;
+    }
+
+    @Override
+    public long getDuracionCargaMs() {
+        return duracionCargaMs;
+    }
+
+    @Override
+    public void cerrar() {
+        for (Fragmento fragmento : fragmentos) {
+            fragmento.escritor.shutdown();
+        }
+        for (Fragmento fragmento : fragmentos) {
+            try {
+                fragmento.escritor.awaitTermination(10, TimeUnit.SECONDS);
+                fragmento.confirmador.shutdown();
+                fragmento.confirmador.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            fragmento.bd.cerrar();
+        }
+    }
+}
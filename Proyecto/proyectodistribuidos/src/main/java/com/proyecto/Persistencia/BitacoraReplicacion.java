@@ -0,0 +1,181 @@
+/**
+ * ============================================================
+ * Título: BitacoraReplicacion - Registro persistente de réplicas salientes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Cada operación que el GA publica hacia la otra sede recibe un número de
+ * secuencia consecutivo y se guarda en replicacion_<SEDE>.log, una
+ * RegistroOperaciones cuyo lsn es la secuencia. Si el receptor detecta un
+ * hueco (o arranca atrasado) pide el rango que le falta y se le responde
+ * desde aquí, sin reenviar el estado completo de la sede.
+ *
+ * Las últimas operaciones se mantienen también en memoria, de modo que un
+ * hueco corto se atiende sin leer el archivo. La bitácora se escribe con
+ * fsync por lote y una secuencia solo se publica (en un lote, un latido o
+ * una recuperación) después de asegurar(): si el GA se cae, al volver no
+ * puede reasignar a otra operación una secuencia que la otra sede ya vio,
+ * porque el aplicador de allá la descartaría por repetida. Se rota por
+ * tamaño y solo se conservan las últimas ga.replicacion.retencion
+ * operaciones.
+ */
+
+package com.proyecto.Persistencia;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.function.BiConsumer;
+
+public class BitacoraReplicacion implements Closeable {
+    private static final byte OPERACION = 1;
+    private static final long TAMANO_SEGMENTO = 64L << 20;
+    private static final int REVISION_CADA = 10_000;
+
+    private final RegistroOperaciones registro;
+    private final int capacidadMemoria;
+    private final long retencion;
+    private final ArrayDeque<Registro> recientes = new ArrayDeque<>();
+    private long primeraSecuencia;
+    // Última secuencia que ya está en disco; la única que se puede anunciar
+    private volatile long ultimaSegura;
+
+    private static final class Registro {
+        final long secuencia;
+        final String json;
+
+        Registro(long secuencia, String json) {
+            this.secuencia = secuencia;
+            this.json = json;
+        }
+    }
+
+    public BitacoraReplicacion(String rutaBase, String sede) throws IOException {
+        this(rutaBase, sede,
+                Integer.getInteger("ga.replicacion.memoria", 10_000),
+                Long.getLong("ga.replicacion.retencion", 1_000_000));
+    }
+
+    public BitacoraReplicacion(String rutaBase, String sede, int capacidadMemoria, long retencion)
+            throws IOException {
+        this.capacidadMemoria = Math.max(1, capacidadMemoria);
+        this.retencion = Math.max(1, retencion);
+        this.registro = new RegistroOperaciones(
+                Paths.get(rutaBase, "replicacion_" + sede + ".log").toString(),
+                ModoDurabilidad.FSYNC_POR_LOTE, Long.getLong("ga.durabilidad.intervaloMs", 10));
+
+        // Recupera la última secuencia y la primera que sigue disponible
+        long[] primera = {0};
+        registro.reproducir(0, entrada -> {
+            if (primera[0] == 0) {
+                primera[0] = entrada.lsn;
+            }
+        });
+        this.primeraSecuencia = primera[0] == 0 ? registro.getUltimoLsn() + 1 : primera[0];
+        this.ultimaSegura = registro.getUltimoLsn();
+    }
+
+    /**
+     * Guarda la operación y devuelve su número de secuencia. Las secuencias
+     * se asignan en el orden de las llamadas, que deben venir de un único hilo.
+     */
+    public long anexar(String json) throws IOException {
+        long secuencia = registro.encolar(OPERACION, json.getBytes(StandardCharsets.UTF_8));
+        synchronized (recientes) {
+            recientes.addLast(new Registro(secuencia, json));
+            if (recientes.size() > capacidadMemoria) {
+                recientes.removeFirst();
+            }
+        }
+        if (secuencia % REVISION_CADA == 0) {
+            depurar(secuencia);
+        }
+        return secuencia;
+    }
+
+    // Rota el segmento activo si creció demasiado y borra lo que excede la retención.
+    // El escritor fuerza el canal fuera del lock; rotar() espera a que lo suelte
+    // antes de cerrarlo
+    private void depurar(long secuencia) throws IOException {
+        if (registro.tamanoBytes() > TAMANO_SEGMENTO) {
+            registro.rotar();
+        }
+        long hasta = secuencia - retencion;
+        if (hasta >= primeraSecuencia) {
+            registro.descartarHasta(hasta);
+            synchronized (recientes) {
+                primeraSecuencia = hasta + 1;
+            }
+        }
+    }
+
+    /**
+     * Entrega en orden las operaciones con secuencia entre desde y hasta
+     * (ambas incluidas), como máximo limite. Devuelve false si desde ya no
+     * está disponible porque se descartó por retención.
+     */
+    public boolean leer(long desde, long hasta, int limite, BiConsumer<Long, String> consumidor)
+            throws IOException {
+        long fin = Math.min(hasta, desde + limite - 1);
+        synchronized (recientes) {
+            if (desde < primeraSecuencia) {
+                return false;
+            }
+            if (!recientes.isEmpty() && recientes.peekFirst().secuencia <= desde) {
+                for (Registro r : recientes) {
+                    if (r.secuencia > fin) {
+                        break;
+                    }
+                    if (r.secuencia >= desde) {
+                        consumidor.accept(r.secuencia, r.json);
+                    }
+                }
+                return true;
+            }
+        }
+
+        // El rango empieza antes de lo que hay en memoria: se lee del archivo
+        registro.vaciar();
+        registro.leer(desde - 1, entrada -> {
+            if (entrada.lsn <= fin) {
+                consumidor.accept(entrada.lsn, new String(entrada.datos, StandardCharsets.UTF_8));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Espera a que la secuencia (y todas las anteriores) esté en disco. Las
+     * réplicas de un lote comparten un solo fsync.
+     */
+    public void asegurar(long secuencia) throws IOException {
+        registro.confirmar(secuencia);
+        synchronized (this) {
+            if (secuencia > ultimaSegura) {
+                ultimaSegura = secuencia;
+            }
+        }
+    }
+
+    // Última secuencia asignada, esté o no en disco
+    public long getUltimaAnexada() {
+        return registro.getUltimoLsn();
+    }
+
+    // Última secuencia en disco; las anexadas después todavía no se anuncian
+    public long getUltimaSecuencia() {
+        return ultimaSegura;
+    }
+
+    public long getPrimeraSecuencia() {
+        synchronized (recientes) {
+            return primeraSecuencia;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        registro.close();
+    }
+}
@@ -0,0 +1,406 @@
+/**
+ * ============================================================
+ * Título: CargadorParalelo - Carga de libros y préstamos al arrancar
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Lee los archivos de una sede sin materializarlos como listas de líneas:
+ * el archivo se mapea en memoria, se divide en fragmentos y cada fragmento
+ * se decodifica en paralelo en un ForkJoinPool.
+ *   - Binario (.dat): un recorrido secuencial salta de registro en registro
+ *     usando solo las longitudes; la verificación del CRC y la decodificación
+ *     se hacen en paralelo por fragmentos.
+ *   - CSV (.txt): los fragmentos se cortan en saltos de línea y los campos
+ *     se separan byte a byte, sin expresiones regulares.
+ * El resultado conserva los objetos por fragmento para que el llamador
+ * pueda dimensionar sus mapas con el total antes de insertarlos.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class CargadorParalelo {
+    private static final int REGISTROS_MINIMOS_FRAGMENTO = 4096;
+    private static final int BYTES_MINIMOS_FRAGMENTO = 256 * 1024;
+
+    private final ForkJoinPool pool;
+
+    public CargadorParalelo() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CargadorParalelo(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Objetos leídos de un archivo, agrupados por fragmento, y el lsn que
+     * indica su cabecera.
+     */
+    public static class Resultado<T> {
+        private final long lsn;
+        private final List<List<T>> fragmentos;
+        private final int total;
+
+        Resultado(long lsn, List<List<T>> fragmentos) {
+            this.lsn = lsn;
+            this.fragmentos = fragmentos;
+            int suma = 0;
+            for (List<T> fragmento : fragmentos) {
+                suma += fragmento.size();
+            }
+            this.total = suma;
+        }
+
+        static <T> Resultado<T> vacio() {
+            return new Resultado<>(0, new ArrayList<>());
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<T> comoLista() {
+            List<T> lista = new ArrayList<>(total);
+            for (List<T> fragmento : fragmentos) {
+                lista.addAll(fragmento);
+            }
+            return lista;
+        }
+
+        /**
+         * Entrega cada objeto al consumidor, un fragmento por tarea del
+         * pool. El consumidor debe ser seguro para hilos.
+         */
+        public void paraCada(ForkJoinPool pool, Consumer<T> consumidor) {
+            List<ForkJoinTask<?>> tareas = new ArrayList<>(fragmentos.size());
+            for (List<T> fragmento : fragmentos) {
+                tareas.add(pool.submit(() -> fragmento.forEach(consumidor)));
+            }
+            for (ForkJoinTask<?> tarea : tareas) {
+                tarea.join();
+            }
+        }
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public Resultado<Libro> leerLibrosBinario(Path ruta) throws IOException {
+        return leerBinario(ruta, FormatoBinario.MAGIA_LIBROS, FormatoBinario::decodificarLibro);
+    }
+
+    public Resultado<Prestamo> leerPrestamosBinario(Path ruta) throws IOException {
+        return leerBinario(ruta, FormatoBinario.MAGIA_PRESTAMOS, FormatoBinario::decodificarPrestamo);
+    }
+
+    public Resultado<Libro> leerLibrosCSV(Path ruta) throws IOException {
+        return leerCSV(ruta, (campos, n) -> FormatoCSV.libroDesdeCampos(campos, n));
+    }
+
+    public Resultado<Prestamo> leerPrestamosCSV(Path ruta, String sedePorDefecto) throws IOException {
+        return leerCSV(ruta, (campos, n) -> FormatoCSV.prestamoDesdeCampos(campos, n, sedePorDefecto));
+    }
+
+    interface Decodificador<T> {
+        T decodificar(ByteBuffer registro) throws IOException;
+    }
+
+    private interface Constructor<T> {
+        T construir(String[] campos, int n);
+    }
+
+    // ---------------------------------------------------------------
+    // Formato binario
+    // ---------------------------------------------------------------
+
+    <T> Resultado<T> leerBinario(Path ruta, int magia, Decodificador<T> decodificador) throws IOException {
+        ByteBuffer archivo = mapear(ruta);
+        long lsn = FormatoBinario.leerCabecera(archivo, magia);
+
+        // Recorrido secuencial: solo se leen las longitudes para ubicar cada registro
+        int[] posiciones = new int[1024];
+        int cantidad = 0;
+        int posicion = archivo.position();
+        int limite = archivo.limit();
+        while (posicion < limite) {
+            if (limite - posicion < 8) {
+                throw new IOException("Registro truncado en la posicion " + posicion + " de " + ruta);
+            }
+            int longitud = archivo.getInt(posicion);
+            if (longitud < 0 || longitud > FormatoBinario.MAX_REGISTRO || limite - posicion - 8 < longitud) {
+                throw new IOException("Longitud de registro invalida en la posicion " + posicion + " de " + ruta);
+            }
+            if (cantidad == posiciones.length) {
+                posiciones = Arrays.copyOf(posiciones, cantidad * 2);
+            }
+            posiciones[cantidad++] = posicion;
+            posicion += 4 + longitud + 4;
+        }
+
+        int porFragmento = Math.max(REGISTROS_MINIMOS_FRAGMENTO,
+                (cantidad + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        List<ForkJoinTask<List<T>>> tareas = new ArrayList<>();
+        final int[] indice = posiciones;
+        for (int desde = 0; desde < cantidad; desde += porFragmento) {
+            int inicio = desde;
+            int fin = Math.min(cantidad, desde + porFragmento);
+            tareas.add(pool.submit(() -> decodificarFragmento(archivo, indice, inicio, fin, decodificador)));
+        }
+        return new Resultado<>(lsn, reunir(tareas));
+    }
+
+    private static <T> List<T> decodificarFragmento(ByteBuffer archivo, int[] posiciones, int inicio, int fin,
+            Decodificador<T> decodificador) {
+        ByteBuffer vista = archivo.duplicate();
+        CRC32 crc = new CRC32();
+        List<T> objetos = new ArrayList<>(fin - inicio);
+        try {
+            for (int i = inicio; i < fin; i++) {
+                int posicion = posiciones[i];
+                int longitud = vista.getInt(posicion);
+                vista.limit(posicion + 4 + longitud).position(posicion + 4);
+                ByteBuffer registro = vista.slice();
+                vista.limit(vista.capacity());
+
+                crc.reset();
+                crc.update(registro.duplicate());
+                if ((int) crc.getValue() != vista.getInt(posicion + 4 + longitud)) {
+                    throw new IOException("CRC invalido en el registro de la posicion " + posicion);
+                }
+                objetos.add(decodificador.decodificar(registro));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return objetos;
+    }
+
+    // ---------------------------------------------------------------
+    // Formato CSV
+    // ---------------------------------------------------------------
+
+    private <T> Resultado<T> leerCSV(Path ruta, Constructor<T> constructor) throws IOException {
+        ByteBuffer archivo = mapear(ruta);
+        int inicio = 0;
+        int limite = archivo.limit();
+
+        // Marca de orden de bytes UTF-8 opcional
+        if (limite >= 3 && archivo.get(0) == (byte) 0xEF && archivo.get(1) == (byte) 0xBB
+                && archivo.get(2) == (byte) 0xBF) {
+            inicio = 3;
+        }
+
+        long lsn = 0;
+        byte[] prefijo = FormatoCSV.PREFIJO_LSN.getBytes(StandardCharsets.US_ASCII);
+        if (empiezaCon(archivo, inicio, limite, prefijo)) {
+            int finLinea = buscarFinLinea(archivo, inicio, limite);
+            lsn = parsearLong(archivo, inicio + prefijo.length, finLinea);
+            inicio = Math.min(limite, finLinea + 1);
+        }
+
+        int fragmentos = Math.max(1, Math.min(pool.getParallelism() * 4,
+                (limite - inicio) / BYTES_MINIMOS_FRAGMENTO));
+        int tamano = (limite - inicio) / fragmentos;
+        List<ForkJoinTask<List<T>>> tareas = new ArrayList<>(fragmentos);
+        int desde = inicio;
+        for (int f = 0; f < fragmentos && desde < limite; f++) {
+            // Cada corte avanza hasta el siguiente salto de línea
+            int hasta = f == fragmentos - 1 ? limite
+                    : Math.min(limite, buscarFinLinea(archivo, Math.max(desde, inicio + (f + 1) * tamano), limite) + 1);
+            int a = desde;
+            int b = hasta;
+            tareas.add(pool.submit(() -> parsearFragmento(archivo, a, b, constructor)));
+            desde = hasta;
+        }
+        return new Resultado<>(lsn, reunir(tareas));
+    }
+
+    private static <T> List<T> parsearFragmento(ByteBuffer archivo, int desde, int hasta, Constructor<T> constructor) {
+        List<T> objetos = new ArrayList<>();
+        byte[] linea = new byte[256];
+        String[] campos = new String[8];
+        int posicion = desde;
+
+        while (posicion < hasta) {
+            int finLinea = buscarFinLinea(archivo, posicion, hasta);
+            int longitud = finLinea - posicion;
+            if (longitud > 0 && archivo.get(finLinea - 1) == '\r') {
+                longitud--;
+            }
+            if (longitud > linea.length) {
+                linea = new byte[Math.max(longitud, linea.length * 2)];
+            }
+            archivo.get(posicion, linea, 0, longitud);
+            posicion = finLinea + 1;
+
+            if (esBlanca(linea, longitud)) {
+                continue;
+            }
+            int n = dividir(linea, longitud, campos);
+            if (n > campos.length) {
+                campos = new String[n];
+                dividir(linea, longitud, campos);
+            }
+            T objeto = constructor.construir(campos, Math.min(n, campos.length));
+            if (objeto != null) {
+                objetos.add(objeto);
+            }
+        }
+        return objetos;
+    }
+
+    /**
+     * Separa una línea por comas respetando comillas dobles, con las mismas
+     * reglas que FormatoCSV.dividir. Devuelve la cantidad de campos; si
+     * supera el tamaño de campos solo se llenan los primeros.
+     */
+    private static int dividir(byte[] linea, int longitud, String[] campos) {
+        int n = 0;
+        int inicio = 0;
+        boolean entreComillas = false;
+        boolean conComillas = false;
+
+        for (int i = 0; i <= longitud; i++) {
+            if (i < longitud) {
+                byte c = linea[i];
+                if (c == '"') {
+                    entreComillas = !entreComillas;
+                    conComillas = true;
+                    continue;
+                }
+                if (c != ',' || entreComillas) {
+                    continue;
+                }
+            }
+            if (n < campos.length) {
+                campos[n] = conComillas ? sinComillas(linea, inicio, i)
+                        : new String(linea, inicio, i - inicio, StandardCharsets.UTF_8);
+            }
+            n++;
+            inicio = i + 1;
+            conComillas = false;
+        }
+        return n;
+    }
+
+    // Quita las comillas del campo y convierte "" dentro de comillas en una comilla literal
+    private static String sinComillas(byte[] linea, int desde, int hasta) {
+        byte[] valor = new byte[hasta - desde];
+        int largo = 0;
+        boolean entreComillas = false;
+        for (int i = desde; i < hasta; i++) {
+            byte c = linea[i];
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < hasta && linea[i + 1] == '"') {
+                        valor[largo++] = '"';
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    valor[largo++] = c;
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else {
+                valor[largo++] = c;
+            }
+        }
+        return new String(valor, 0, largo, StandardCharsets.UTF_8);
+    }
+
+    private static boolean esBlanca(byte[] linea, int longitud) {
+        for (int i = 0; i < longitud; i++) {
+            if (linea[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int buscarFinLinea(ByteBuffer archivo, int desde, int limite) {
+        for (int i = desde; i < limite; i++) {
+            if (archivo.get(i) == '\n') {
+                return i;
+            }
+        }
+        return limite;
+    }
+
+    private static boolean empiezaCon(ByteBuffer archivo, int desde, int limite, byte[] prefijo) {
+        if (limite - desde < prefijo.length) {
+            return false;
+        }
+        for (int i = 0; i < prefijo.length; i++) {
+            if (archivo.get(desde + i) != prefijo[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parsearLong(ByteBuffer archivo, int desde, int hasta) throws IOException {
+        long valor = 0;
+        boolean digitos = false;
+        for (int i = desde; i < hasta; i++) {
+            byte b = archivo.get(i);
+            if (b >= '0' && b <= '9') {
+                valor = valor * 10 + (b - '0');
+                digitos = true;
+            } else if (b > ' ') {
+                throw new IOException("Cabecera de lsn invalida");
+            }
+        }
+        if (!digitos) {
+            throw new IOException("Cabecera de lsn invalida");
+        }
+        return valor;
+    }
+
+    // ---------------------------------------------------------------
+
+    private static ByteBuffer mapear(Path ruta) throws IOException {
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            if (tamano > Integer.MAX_VALUE) {
+                throw new IOException("Archivo demasiado grande para cargar: " + ruta);
+            }
+            return canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+        }
+    }
+
+    private static <T> List<List<T>> reunir(List<ForkJoinTask<List<T>>> tareas) throws IOException {
+        List<List<T>> fragmentos = new ArrayList<>(tareas.size());
+        try {
+            for (ForkJoinTask<List<T>> tarea : tareas) {
+                fragmentos.add(tarea.join());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return fragmentos;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * ============================================================
+ * Título: ConversorDatos - Importación y exportación de datos de una sede
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Convierte los datos de una sede entre el formato de texto (CSV) y el
+ * formato binario que usa BaseDatos:
+ *   importar  lee libros_<SEDE>.txt y prestamos_<SEDE>.txt y escribe los .dat
+ *   exportar  abre la sede (instantánea + bitácora) y escribe los .txt
+ * La exportación conserva el lsn en la línea "#lsn=N", de modo que un
+ * archivo exportado puede volver a importarse junto a la misma bitácora.
+ *
+ * Uso: ConversorDatos importar|exportar <rutaBase> <SEDE>
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConversorDatos {
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Uso: ConversorDatos importar|exportar <rutaBase> <SEDE>");
+            System.exit(1);
+        }
+        String operacion = args[0];
+        String rutaBase = args[1];
+        String sede = args[2];
+
+        try {
+            if (operacion.equalsIgnoreCase("importar")) {
+                importar(rutaBase, sede);
+            } else if (operacion.equalsIgnoreCase("exportar")) {
+                exportar(rutaBase, sede);
+            } else {
+                System.err.println("Operacion desconocida: " + operacion);
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Error convirtiendo datos de " + sede + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static void importar(String rutaBase, String sede) throws IOException {
+        Path csvLibros = Paths.get(rutaBase, "libros_" + sede + ".txt");
+        Path csvPrestamos = Paths.get(rutaBase, "prestamos_" + sede + ".txt");
+
+        CargadorParalelo cargador = new CargadorParalelo();
+        CargadorParalelo.Resultado<Libro> leidosLibros = cargador.leerLibrosCSV(csvLibros);
+        CargadorParalelo.Resultado<Prestamo> leidosPrestamos = Files.exists(csvPrestamos)
+                ? cargador.leerPrestamosCSV(csvPrestamos, sede)
+                : null;
+        long lsnLibros = leidosLibros.getLsn();
+        long lsnPrestamos = leidosPrestamos != null ? leidosPrestamos.getLsn() : 0;
+
+        List<Libro> libros = leidosLibros.comoLista();
+        List<Prestamo> prestamos = leidosPrestamos != null ? leidosPrestamos.comoLista() : new ArrayList<>();
+
+        // La instantánea binaria lleva un único lsn; se toma el menor para
+        // que la bitácora se reproduzca desde un punto que cubra ambos archivos
+        long lsn = Math.min(lsnLibros, lsnPrestamos);
+        Instantaneas instantaneas = new Instantaneas(
+                Paths.get(rutaBase, "libros_" + sede + ".dat").toString(),
+                Paths.get(rutaBase, "prestamos_" + sede + ".dat").toString());
+        long tamano = instantaneas.escribir(libros, prestamos, lsn);
+
+        System.out.println("Importados " + libros.size() + " libros y " + prestamos.size()
+                + " prestamos de " + sede + " (lsn " + lsn + ", " + (tamano / 1024) + " KB)");
+    }
+
+    public static void exportar(String rutaBase, String sede) throws IOException {
+        BaseDatos bd = new BaseDatos(rutaBase, sede);
+        try {
+            bd.tomarInstantanea();
+            long lsn = bd.getLsnInstantanea();
+
+            List<String> lineasLibros = new ArrayList<>();
+            lineasLibros.add(FormatoCSV.PREFIJO_LSN + lsn);
+            for (Libro libro : bd.getLibros().values()) {
+                lineasLibros.add(FormatoCSV.escribirLibro(libro));
+            }
+            List<String> lineasPrestamos = new ArrayList<>();
+            lineasPrestamos.add(FormatoCSV.PREFIJO_LSN + lsn);
+            for (Prestamo prestamo : bd.getPrestamos().values()) {
+                lineasPrestamos.add(FormatoCSV.escribirPrestamo(prestamo));
+            }
+
+            Files.write(Paths.get(rutaBase, "libros_" + sede + ".txt"), lineasLibros, StandardCharsets.UTF_8);
+            Files.write(Paths.get(rutaBase, "prestamos_" + sede + ".txt"), lineasPrestamos, StandardCharsets.UTF_8);
+            System.out.println("Exportados " + (lineasLibros.size() - 1) + " libros y "
+                    + (lineasPrestamos.size() - 1) + " prestamos de " + sede + " (lsn " + lsn + ")");
+        } finally {
+            bd.cerrar();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * ============================================================
+ * Título: CuposInventario - Reparto de los ejemplares de cada título entre sedes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Los ejemplares de un título son los mismos para todas las sedes, así
+ * que si cada una prestara de su copia del total se prestarían de más.
+ * Cada sede recibe un cupo y solo presta dentro de él, sin consultar a
+ * la otra:
+ *
+ *   cupo(sede) = inicial(sede) + recibido(sede) - cedido(sede)
+ *
+ * El inicial reparte el total por partes iguales entre las sedes de
+ * ga.sedes, salvo en los títulos que ya tenían préstamos activos la
+ * primera vez que arrancó la sede: ahí cada sede parte de lo que ya tenía
+ * prestado más su parte de lo libre, y si los préstamos superan el total
+ * se recortan en el orden de ga.sedes, para que la suma de los iniciales
+ * nunca pase del total. Ese inicial se calcula una sola vez y se guarda;
+ * las dos sedes llegan al mismo porque arrancan con los mismos préstamos
+ * (GeneradorDatosIniciales copia todos en ambas, o los trae la
+ * transferencia de estado). Lo recibido y lo cedido salen de contadores
+ * "cuánto cedió A a B" que solo crecen y que solo A incrementa; dos sedes
+ * combinan sus copias tomando el máximo de cada contador, de modo que
+ * convergen sin importar el orden ni las repeticiones (un contador PN por
+ * sede). Una sede solo cede lo que no tiene prestado, así que la suma de
+ * los préstamos activos nunca supera el total.
+ *
+ * Lo prestado de cada sede son los ejemplares que descuenta su Libro, que
+ * solo cuenta los préstamos originados en ella: el ejemplar vuelve al cupo
+ * de la sede que lo prestó aunque se devuelva en la otra.
+ *
+ * Solo se guardan los iniciales calculados (ISBN,sede,inicial) y los
+ * contadores distintos de cero (ISBN,origen,destino,acumulado), en
+ * cupos_<SEDE>.txt; cada cesión se fuerza a disco antes de
+ * anunciarse, para no volver a ceder lo mismo tras una caída. También se
+ * anotan aquí los títulos que se quedaron sin cupo, que el GA pide a la
+ * otra sede en segundo plano.
+ */
+
+package com.proyecto.Persistencia;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CuposInventario {
+    private final String sede;
+    private final List<String> sedes;
+    private final int indiceSede;
+    private final Path ruta;
+    private final Map<String, Titulo> titulos = new ConcurrentHashMap<>();
+    private final Set<String> agotados = ConcurrentHashMap.newKeySet();
+    // Sin cupos_<SEDE>.txt al arrancar: falta calcular los iniciales
+    private boolean siembraPendiente;
+
+    // Contadores de un título, ya separados por sede para no tener que
+    // interpretar claves en cada préstamo
+    private static final class Titulo {
+        // sede -> inicial; vacío si el título se reparte por partes iguales
+        final Map<String, Long> iniciales = new ConcurrentHashMap<>();
+        // origen -> destino -> acumulado cedido
+        final Map<String, Map<String, Long>> cedidos = new ConcurrentHashMap<>();
+    }
+
+    public CuposInventario(String rutaBase, String sede) throws IOException {
+        this(rutaBase, sede, leerSedes(), Boolean.parseBoolean(System.getProperty("ga.cupos", "true")));
+    }
+
+    public CuposInventario(String rutaBase, String sede, List<String> sedes, boolean activo) throws IOException {
+        this.sede = sede;
+        this.sedes = new ArrayList<>(sedes);
+        Collections.sort(this.sedes);
+        // Con una sola sede, o una que no está en la lista, no hay reparto
+        this.indiceSede = activo && this.sedes.size() > 1 ? this.sedes.indexOf(sede) : -1;
+        this.ruta = Paths.get(rutaBase, "cupos_" + sede + ".txt");
+        this.siembraPendiente = !Files.exists(ruta);
+        if (!siembraPendiente) {
+            for (String linea : Files.readAllLines(ruta, StandardCharsets.UTF_8)) {
+                String[] partes = linea.split(",");
+                if (partes.length == 3) {
+                    titulo(partes[0]).iniciales.put(partes[1], Long.parseLong(partes[2].trim()));
+                } else if (partes.length == 4) {
+                    fusionarEnMemoria(partes[0], partes[1], partes[2], Long.parseLong(partes[3].trim()));
+                }
+            }
+        }
+    }
+
+    private static List<String> leerSedes() {
+        List<String> sedes = new ArrayList<>();
+        for (String nombre : System.getProperty("ga.sedes", "SEDE1,SEDE2").split(",")) {
+            if (!nombre.trim().isEmpty()) {
+                sedes.add(nombre.trim());
+            }
+        }
+        return sedes;
+    }
+
+    public boolean estaActivo() {
+        return indiceSede >= 0;
+    }
+
+    private Titulo titulo(String isbn) {
+        return titulos.computeIfAbsent(isbn, clave -> new Titulo());
+    }
+
+    public boolean isSiembraPendiente() {
+        return siembraPendiente && estaActivo();
+    }
+
+    /**
+     * Fija los iniciales de un título a partir de los préstamos activos que
+     * ya tiene cada sede (sede -> cantidad). Solo tiene efecto en el primer
+     * arranque; no escribe a disco hasta terminarSiembra().
+     */
+    public synchronized void sembrar(String isbn, int total, Map<String, Integer> prestadosPorSede) {
+        // Sin préstamos vale el reparto por partes iguales y no hace falta guardarlo
+        if (!isSiembraPendiente() || prestadosPorSede.isEmpty()) {
+            return;
+        }
+        long libres = total;
+        for (String nombre : sedes) {
+            libres -= prestadosPorSede.getOrDefault(nombre, 0);
+        }
+        Titulo titulo = titulo(isbn);
+        long restante = total;
+        for (int i = 0; i < sedes.size(); i++) {
+            long prestados = prestadosPorSede.getOrDefault(sedes.get(i), 0);
+            long inicial = libres >= 0
+                    ? prestados + libres / sedes.size() + (i < libres % sedes.size() ? 1 : 0)
+                    : Math.min(prestados, restante);
+            restante -= inicial;
+            titulo.iniciales.put(sedes.get(i), inicial);
+        }
+    }
+
+    /**
+     * Guarda los iniciales sembrados; desde aquí cupos_<SEDE>.txt existe
+     * aunque no tenga líneas y no se vuelven a calcular.
+     */
+    public synchronized void terminarSiembra() throws IOException {
+        if (isSiembraPendiente()) {
+            guardar();
+            siembraPendiente = false;
+        }
+    }
+
+    /**
+     * Ejemplares de un título con el total indicado que esta sede puede tener prestados.
+     */
+    public int cupo(String isbn, int total) {
+        if (!estaActivo()) {
+            return total;
+        }
+        Titulo titulo = titulos.get(isbn);
+        Long inicial = titulo == null ? null : titulo.iniciales.get(sede);
+        long cupo = inicial != null ? inicial
+                : total / sedes.size() + (indiceSede < total % sedes.size() ? 1 : 0);
+        if (titulo != null) {
+            for (Map.Entry<String, Map<String, Long>> origen : titulo.cedidos.entrySet()) {
+                if (origen.getKey().equals(sede)) {
+                    for (long acumulado : origen.getValue().values()) {
+                        cupo -= acumulado;
+                    }
+                } else {
+                    cupo += origen.getValue().getOrDefault(sede, 0L);
+                }
+            }
+        }
+        return (int) Math.max(0, Math.min(total, cupo));
+    }
+
+    public long getCedido(String isbn, String origen, String destino) {
+        Titulo titulo = titulos.get(isbn);
+        Map<String, Long> destinos = titulo == null ? null : titulo.cedidos.get(origen);
+        Long acumulado = destinos == null ? null : destinos.get(destino);
+        return acumulado == null ? 0 : acumulado;
+    }
+
+    /**
+     * Registra que esta sede cede cantidad ejemplares más a destino y lo
+     * fuerza a disco. Quien llama debe haber comprobado que están libres
+     * y tener tomado el candado del ISBN. Devuelve el nuevo acumulado.
+     */
+    public synchronized long ceder(String isbn, String destino, int cantidad) throws IOException {
+        long acumulado = getCedido(isbn, sede, destino) + cantidad;
+        if (cantidad > 0) {
+            fusionarEnMemoria(isbn, sede, destino, acumulado);
+            guardar();
+        }
+        return acumulado;
+    }
+
+    /**
+     * Combina un contador recibido de otra sede; devuelve cuánto aumentó
+     * (0 si ya se conocía un valor igual o mayor).
+     */
+    public synchronized long fusionar(String isbn, String origen, String destino, long acumulado)
+            throws IOException {
+        long anterior = getCedido(isbn, origen, destino);
+        if (acumulado <= anterior) {
+            return 0;
+        }
+        fusionarEnMemoria(isbn, origen, destino, acumulado);
+        guardar();
+        return acumulado - anterior;
+    }
+
+    private void fusionarEnMemoria(String isbn, String origen, String destino, long acumulado) {
+        titulo(isbn).cedidos.computeIfAbsent(origen, clave -> new ConcurrentHashMap<>())
+                .merge(destino, acumulado, Math::max);
+    }
+
+    // Las cesiones son poco frecuentes: se reescribe el archivo completo
+    private void guardar() throws IOException {
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        Files.write(temporal, exportar(), StandardCharsets.UTF_8);
+        Instantaneas.publicar(temporal, ruta);
+    }
+
+    /**
+     * Los iniciales y contadores en el formato de cupos_<SEDE>.txt; lo usa
+     * también la transferencia de estado entre sedes.
+     */
+    public synchronized List<String> exportar() {
+        List<String> lineas = new ArrayList<>();
+        for (Map.Entry<String, Titulo> titulo : titulos.entrySet()) {
+            for (Map.Entry<String, Long> inicial : titulo.getValue().iniciales.entrySet()) {
+                lineas.add(titulo.getKey() + "," + inicial.getKey() + "," + inicial.getValue());
+            }
+            for (Map.Entry<String, Map<String, Long>> origen : titulo.getValue().cedidos.entrySet()) {
+                for (Map.Entry<String, Long> contador : origen.getValue().entrySet()) {
+                    lineas.add(titulo.getKey() + "," + origen.getKey() + "," + contador.getKey()
+                            + "," + contador.getValue());
+                }
+            }
+        }
+        return lineas;
+    }
+
+    public void marcarAgotado(String isbn) {
+        agotados.add(isbn);
+    }
+
+    // Devuelve y olvida los títulos que se quedaron sin cupo desde la última llamada
+    public List<String> tomarAgotados() {
+        List<String> titulos = new ArrayList<>();
+        for (Iterator<String> it = agotados.iterator(); it.hasNext();) {
+            titulos.add(it.next());
+            it.remove();
+        }
+        return titulos;
+    }
+}
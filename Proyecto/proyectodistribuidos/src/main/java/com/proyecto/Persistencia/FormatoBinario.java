@@ -0,0 +1,336 @@
+/**
+ * ============================================================
+ * Título: FormatoBinario - Formato en disco de libros y préstamos
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Define el formato binario versionado de los archivos libros_<SEDE>.dat y
+ * prestamos_<SEDE>.dat, y la codificación de los registros de la bitácora.
+ *
+ * Cabecera del archivo (16 bytes):
+ *   [int magia][short version][short reservado][long lsn]
+ * Cada registro:
+ *   [int longitud][datos...][int crc32 de los datos]
+ * Datos de un libro:
+ *   [int totales][int prestados][texto isbn][texto titulo][texto autor]
+ * Datos de un préstamo:
+ *   [long fechaPrestamo][long fechaDevolucion][byte renovaciones][byte banderas]
+ *   [id: 16 bytes si es UUID, texto si no][texto isbn][texto usuario][texto sede]
+ * Entrada del índice del inventario mapeado (ver InventarioMapeado):
+ *   [int ranura][texto isbn][texto titulo][texto autor]
+ * Los textos van como [short longitud][bytes UTF-8] y las fechas como
+ * milisegundos desde la época, de modo que escribir un registro no
+ * requiere formatear cadenas.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+public final class FormatoBinario {
+    public static final int MAGIA_LIBROS = 0x42444C42;     // "BDLB"
+    public static final int MAGIA_PRESTAMOS = 0x42445052;  // "BDPR"
+    public static final int MAGIA_INVENTARIO = 0x42444956; // "BDIV"
+    public static final int MAGIA_INDICE = 0x42444958;     // "BDIX"
+    public static final short VERSION = 1;
+    public static final int TAMANO_CABECERA = 16;
+
+    private static final long SIN_FECHA = Long.MIN_VALUE;
+    private static final int BANDERA_ACTIVO = 1;
+    private static final int BANDERA_ID_UUID = 2;
+    static final int MAX_REGISTRO = 1 << 20;
+
+    private FormatoBinario() {
+    }
+
+    /**
+     * Escribe la cabecera y luego un registro por cada libro o préstamo.
+     * Reutiliza un único búfer, así que no asigna memoria por registro
+     * más allá de los bytes UTF-8 de los textos.
+     */
+    public static class Escritor implements Closeable {
+        private final DataOutputStream out;
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private final CRC32 crc = new CRC32();
+        private long registros = 0;
+
+        public Escritor(OutputStream destino, int magia, long lsn) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(destino, 1 << 16));
+            out.writeInt(magia);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeLong(lsn);
+        }
+
+        // Se espera una copia estable del libro (ver Libro.copiar())
+        public void escribirLibro(Libro libro) throws IOException {
+            while (true) {
+                try {
+                    buffer.clear();
+                    codificarLibro(buffer, libro.getIsbn(), libro.getTitulo(), libro.getAutor(),
+                            libro.getEjemplaresTotales(), libro.getEjemplaresTotales() - libro.getEjemplaresDisponibles());
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 4);
+                }
+            }
+            volcar();
+        }
+
+        public void escribirPrestamo(Prestamo prestamo) throws IOException {
+            while (true) {
+                try {
+                    buffer.clear();
+                    codificarPrestamo(buffer, prestamo);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 4);
+                }
+            }
+            volcar();
+        }
+
+        public void escribirEntradaIndice(int ranura, Libro libro) throws IOException {
+            while (true) {
+                try {
+                    buffer.clear();
+                    buffer.putInt(ranura);
+                    escribirTexto(buffer, libro.getIsbn());
+                    escribirTexto(buffer, libro.getTitulo());
+                    escribirTexto(buffer, libro.getAutor());
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 4);
+                }
+            }
+            volcar();
+        }
+
+        private void volcar() throws IOException {
+            buffer.flip();
+            int longitud = buffer.remaining();
+            crc.reset();
+            crc.update(buffer.array(), 0, longitud);
+            out.writeInt(longitud);
+            out.write(buffer.array(), 0, longitud);
+            out.writeInt((int) crc.getValue());
+            registros++;
+        }
+
+        public long getRegistros() {
+            return registros;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Lee un archivo escrito por Escritor. leerLibro() y leerPrestamo()
+     * devuelven null al final del archivo; un registro con CRC inválido
+     * o truncado produce una IOException.
+     */
+    public static class Lector implements Closeable {
+        private final DataInputStream in;
+        private final long lsn;
+        private byte[] datos = new byte[512];
+
+        public Lector(InputStream origen, int magiaEsperada) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(origen, 1 << 16));
+            byte[] cabecera = new byte[TAMANO_CABECERA];
+            in.readFully(cabecera);
+            this.lsn = leerCabecera(ByteBuffer.wrap(cabecera), magiaEsperada);
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public Libro leerLibro() throws IOException {
+            ByteBuffer registro = leerRegistro();
+            return registro == null ? null : decodificarLibro(registro);
+        }
+
+        public Prestamo leerPrestamo() throws IOException {
+            ByteBuffer registro = leerRegistro();
+            return registro == null ? null : decodificarPrestamo(registro);
+        }
+
+        private ByteBuffer leerRegistro() throws IOException {
+            int longitud;
+            try {
+                longitud = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (longitud < 0 || longitud > MAX_REGISTRO) {
+                throw new IOException("Longitud de registro invalida: " + longitud);
+            }
+            if (datos.length < longitud) {
+                datos = new byte[Math.max(longitud, datos.length * 2)];
+            }
+            in.readFully(datos, 0, longitud);
+            int esperado = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(datos, 0, longitud);
+            if ((int) crc.getValue() != esperado) {
+                throw new IOException("CRC invalido en registro");
+            }
+            return ByteBuffer.wrap(datos, 0, longitud);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Valida la cabecera que empieza en la posición actual del búfer y
+     * devuelve el lsn que cubre el archivo.
+     */
+    static long leerCabecera(ByteBuffer origen, int magiaEsperada) throws IOException {
+        if (origen.remaining() < TAMANO_CABECERA) {
+            throw new IOException("Archivo sin cabecera completa");
+        }
+        int magia = origen.getInt();
+        if (magia != magiaEsperada) {
+            throw new IOException("Archivo con firma desconocida: " + Integer.toHexString(magia));
+        }
+        short version = origen.getShort();
+        if (version > VERSION) {
+            throw new IOException("Version de formato no soportada: " + version);
+        }
+        origen.getShort();
+        return origen.getLong();
+    }
+
+    static void codificarLibro(ByteBuffer destino, String isbn, String titulo, String autor,
+            int totales, int prestados) {
+        destino.putInt(totales);
+        destino.putInt(prestados);
+        escribirTexto(destino, isbn);
+        escribirTexto(destino, titulo);
+        escribirTexto(destino, autor);
+    }
+
+    static Libro decodificarLibro(ByteBuffer origen) throws IOException {
+        try {
+            int totales = origen.getInt();
+            int prestados = origen.getInt();
+            String isbn = leerTexto(origen);
+            String titulo = leerTexto(origen);
+            String autor = leerTexto(origen);
+            return new Libro(isbn, titulo, autor, totales, prestados);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Registro de libro incompleto");
+        }
+    }
+
+    static void codificarPrestamo(ByteBuffer destino, Prestamo prestamo) {
+        UUID uuid = comoUUID(prestamo.getIdPrestamo());
+        int banderas = (prestamo.isPrestamoActivo() ? BANDERA_ACTIVO : 0) | (uuid != null ? BANDERA_ID_UUID : 0);
+
+        destino.putLong(aMilis(prestamo.getFechaPrestamo()));
+        destino.putLong(prestamo.getFechaDevolucion() == null ? SIN_FECHA : aMilis(prestamo.getFechaDevolucion()));
+        destino.put((byte) prestamo.getNumRenovaciones());
+        destino.put((byte) banderas);
+        if (uuid != null) {
+            destino.putLong(uuid.getMostSignificantBits());
+            destino.putLong(uuid.getLeastSignificantBits());
+        } else {
+            escribirTexto(destino, prestamo.getIdPrestamo());
+        }
+        escribirTexto(destino, prestamo.getIsbn());
+        escribirTexto(destino, prestamo.getUsuario());
+        escribirTexto(destino, prestamo.getSede());
+    }
+
+    static Prestamo decodificarPrestamo(ByteBuffer origen) throws IOException {
+        try {
+            long fechaPrestamo = origen.getLong();
+            long fechaDevolucion = origen.getLong();
+            int renovaciones = origen.get();
+            int banderas = origen.get();
+            String idPrestamo = (banderas & BANDERA_ID_UUID) != 0
+                    ? new UUID(origen.getLong(), origen.getLong()).toString()
+                    : leerTexto(origen);
+            String isbn = leerTexto(origen);
+            String usuario = leerTexto(origen);
+            String sede = leerTexto(origen);
+
+            Prestamo prestamo = new Prestamo(idPrestamo, isbn, usuario, sede);
+            prestamo.setFechaPrestamo(aFecha(fechaPrestamo));
+            if (fechaDevolucion != SIN_FECHA) {
+                prestamo.setFechaDevolucion(aFecha(fechaDevolucion));
+            }
+            prestamo.setNumRenovaciones(renovaciones);
+            prestamo.setPrestamoActivo((banderas & BANDERA_ACTIVO) != 0);
+            return prestamo;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Registro de prestamo incompleto");
+        }
+    }
+
+    // Devuelve el UUID solo si el id es exactamente su forma canónica
+    private static UUID comoUUID(String id) {
+        if (id == null || id.length() != 36 || id.charAt(8) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static void escribirTexto(ByteBuffer destino, String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Texto demasiado largo para el formato binario");
+        }
+        destino.putShort((short) bytes.length);
+        destino.put(bytes);
+    }
+
+    static String leerTexto(ByteBuffer origen) {
+        int longitud = origen.getShort() & 0xFFFF;
+        if (longitud > origen.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String texto;
+        if (origen.hasArray()) {
+            texto = new String(origen.array(), origen.arrayOffset() + origen.position(), longitud,
+                    StandardCharsets.UTF_8);
+            origen.position(origen.position() + longitud);
+        } else {
+            // Búferes mapeados (ver CargadorParalelo)
+            byte[] bytes = new byte[longitud];
+            origen.get(bytes);
+            texto = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return texto;
+    }
+
+    public static long aMilis(LocalDateTime fecha) {
+        return fecha.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    public static LocalDateTime aFecha(long milis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(milis, 1000L),
+                (int) Math.floorMod(milis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+}
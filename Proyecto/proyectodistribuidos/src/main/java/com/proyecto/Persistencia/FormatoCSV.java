@@ -0,0 +1,144 @@
+/**
+ * ============================================================
+ * Título: FormatoCSV - Lectura y escritura del formato de texto heredado
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Convierte entre líneas CSV y objetos Libro/Prestamo con las mismas
+ * columnas que usan GeneradorDatosIniciales y las versiones anteriores
+ * de BaseDatos:
+ *   libros:    ISBN,Titulo,Autor,EjemplaresTotales[,EjemplaresPrestados]
+ *   prestamos: idPrestamo,isbn,usuario,fechaPrestamo,renovaciones,activo[,sede]
+ * Al escribir, los campos que contienen comas o comillas se encierran entre
+ * comillas dobles; al leer se aceptan ambos estilos, así que los archivos
+ * existentes en datos/ siguen siendo válidos. Una primera línea "#lsn=N"
+ * indica el lsn de la bitácora que cubre el archivo.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class FormatoCSV {
+    public static final String PREFIJO_LSN = "#lsn=";
+
+    private FormatoCSV() {
+    }
+
+    public static Libro leerLibro(String linea) {
+        List<String> datos = dividir(linea);
+        return libroDesdeCampos(datos.toArray(new String[0]), datos.size());
+    }
+
+    public static Prestamo leerPrestamo(String linea, String sedePorDefecto) {
+        List<String> datos = dividir(linea);
+        return prestamoDesdeCampos(datos.toArray(new String[0]), datos.size(), sedePorDefecto);
+    }
+
+    /**
+     * Construye un libro a partir de los primeros n campos de una línea.
+     * Devuelve null si la línea no es un libro válido.
+     */
+    static Libro libroDesdeCampos(String[] datos, int n) {
+        if (n < 4) {
+            return null;
+        }
+        try {
+            int totales = Integer.parseInt(datos[3].trim());
+            int prestados = n >= 5 ? Integer.parseInt(datos[4].trim()) : 0;
+            return new Libro(datos[0].trim(), datos[1].trim(), datos[2].trim(), totales, prestados);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static Prestamo prestamoDesdeCampos(String[] datos, int n, String sedePorDefecto) {
+        if (n < 6) {
+            return null;
+        }
+
+        int renovaciones = 0;
+        if (!datos[4].trim().isEmpty()) {
+            try {
+                renovaciones = Integer.parseInt(datos[4].trim());
+            } catch (NumberFormatException e) {
+                renovaciones = 0;
+            }
+        }
+
+        boolean activo = true;
+        if (!datos[5].trim().isEmpty()) {
+            activo = Boolean.parseBoolean(datos[5].trim());
+        }
+
+        // Si hay 7 columnas, la última indica la sede origen
+        String sedeOrigen = n >= 7 ? datos[6].trim() : sedePorDefecto;
+
+        Prestamo prestamo = new Prestamo(datos[0].trim(), datos[1].trim(), datos[2].trim(), sedeOrigen);
+        prestamo.setNumRenovaciones(renovaciones);
+        prestamo.setPrestamoActivo(activo);
+        try {
+            prestamo.setFechaPrestamo(LocalDateTime.parse(datos[3].trim()));
+        } catch (Exception e) {
+        }
+        return prestamo;
+    }
+
+    public static String escribirLibro(Libro libro) {
+        return campo(libro.getIsbn()) + "," + campo(libro.getTitulo()) + "," + campo(libro.getAutor()) + ","
+                + libro.getEjemplaresTotales() + ","
+                + (libro.getEjemplaresTotales() - libro.getEjemplaresDisponibles());
+    }
+
+    public static String escribirPrestamo(Prestamo prestamo) {
+        return campo(prestamo.getIdPrestamo()) + "," + campo(prestamo.getIsbn()) + ","
+                + campo(prestamo.getUsuario()) + "," + prestamo.getFechaPrestamo() + ","
+                + prestamo.getNumRenovaciones() + "," + prestamo.isPrestamoActivo() + ","
+                + campo(prestamo.getSede());
+    }
+
+    private static String campo(String valor) {
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0) {
+            return valor;
+        }
+        return '"' + valor.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Divide una línea por comas respetando campos entre comillas dobles.
+     */
+    static List<String> dividir(String linea) {
+        List<String> campos = new ArrayList<>(8);
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                        actual.append('"');
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == ',') {
+                campos.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        campos.add(actual.toString());
+        return campos;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * ============================================================
+ * Título: Instantaneas - Escritura atómica de instantáneas de una sede
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Escribe una copia de los libros y préstamos de una sede en los archivos
+ * libros_<SEDE>.dat y prestamos_<SEDE>.dat con el formato de FormatoBinario.
+ * Cada archivo se escribe primero en un temporal (.tmp), se fuerza a disco y
+ * se renombra de forma atómica, de manera que un fallo a mitad de la
+ * escritura nunca deja una instantánea a medias. La cabecera de cada archivo
+ * indica el lsn de la bitácora que la instantánea cubre. Lleva además las
+ * métricas de la última instantánea (duración, pausa de captura y tamaño
+ * en disco).
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collection;
+
+public class Instantaneas {
+    private final Path rutaLibros;
+    private final Path rutaPrestamos;
+
+    private volatile long totalInstantaneas = 0;
+    private volatile long ultimaDuracionMs = 0;
+    private volatile long ultimaPausaMs = 0;
+    private volatile long ultimoTamanoBytes = 0;
+
+    public Instantaneas(String rutaLibros, String rutaPrestamos) {
+        this.rutaLibros = Paths.get(rutaLibros);
+        this.rutaPrestamos = Paths.get(rutaPrestamos);
+    }
+
+    /**
+     * Escribe ambos archivos de la instantánea. Devuelve el tamaño total en bytes.
+     */
+    public long escribir(Collection<Libro> libros, Collection<Prestamo> prestamos, long lsn) throws IOException {
+        return escribirLibros(libros, lsn) + escribirPrestamos(prestamos, lsn);
+    }
+
+    public long escribirLibros(Collection<Libro> libros, long lsn) throws IOException {
+        Path temporalLibros = rutaLibros.resolveSibling(rutaLibros.getFileName() + ".tmp");
+        try (FormatoBinario.Escritor out = new FormatoBinario.Escritor(abrir(temporalLibros),
+                FormatoBinario.MAGIA_LIBROS, lsn)) {
+            for (Libro libro : libros) {
+                out.escribirLibro(libro);
+            }
+        }
+        return publicar(temporalLibros, rutaLibros);
+    }
+
+    public long escribirPrestamos(Collection<Prestamo> prestamos, long lsn) throws IOException {
+        Path temporalPrestamos = rutaPrestamos.resolveSibling(rutaPrestamos.getFileName() + ".tmp");
+        try (FormatoBinario.Escritor out = new FormatoBinario.Escritor(abrir(temporalPrestamos),
+                FormatoBinario.MAGIA_PRESTAMOS, lsn)) {
+            for (Prestamo prestamo : prestamos) {
+                out.escribirPrestamo(prestamo);
+            }
+        }
+        return publicar(temporalPrestamos, rutaPrestamos);
+    }
+
+    private static OutputStream abrir(Path ruta) throws IOException {
+        return Files.newOutputStream(ruta, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    // Fuerza el temporal a disco y lo renombra sobre el archivo definitivo
+    static long publicar(Path temporal, Path destino) throws IOException {
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            canal.force(true);
+        }
+        long tamano = Files.size(temporal);
+        Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return tamano;
+    }
+
+    void registrarMetricas(long duracionMs, long pausaMs, long tamanoBytes) {
+        totalInstantaneas++;
+        ultimaDuracionMs = duracionMs;
+        ultimaPausaMs = pausaMs;
+        ultimoTamanoBytes = tamanoBytes;
+    }
+
+    public long getTotalInstantaneas() {
+        return totalInstantaneas;
+    }
+
+    public long getUltimaDuracionMs() {
+        return ultimaDuracionMs;
+    }
+
+    public long getUltimaPausaMs() {
+        return ultimaPausaMs;
+    }
+
+    public long getUltimoTamanoBytes() {
+        return ultimoTamanoBytes;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * ============================================================
+ * Título: InventarioMapeado - Contadores de ejemplares en un archivo mapeado
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Motor opcional de inventario (propiedad ga.inventario.mapeado). Los
+ * contadores de ejemplares de cada libro viven en una ranura de tamaño fijo
+ * dentro de inventario_<SEDE>.dat, mapeado en memoria, y prestar/devolver
+ * los actualizan en el mismo lugar con compare-and-set. El índice
+ * inventario_<SEDE>.idx asocia cada ISBN (con su título y autor) a su
+ * ranura y solo se escribe al crear el inventario.
+ *
+ * Cabecera (64 bytes):
+ *   [int magia][short version][short reservado][int tamanoRanura][int capacidad]
+ *   [long lsnColumnaA][long lsnColumnaB] ...
+ * Ranura (32 bytes):
+ *   [long vivo][long columnaA][long columnaB][long reservado]
+ *
+ * El valor vivo es el que usan las operaciones. Una instantánea copia los
+ * valores vivos a la columna con el lsn más antiguo, fuerza el archivo y
+ * solo entonces escribe el lsn de esa columna, que es un único long. Al
+ * arrancar se usa la columna con el lsn más reciente y la bitácora se
+ * reproduce desde ese lsn, igual que con libros_<SEDE>.dat, así que un
+ * fallo a mitad de una instantánea deja intacta la columna anterior.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.ContadorEjemplares;
+import com.proyecto.Modelos.Libro;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collection;
+
+public class InventarioMapeado implements Closeable {
+    private static final short VERSION = 1;
+    private static final int TAMANO_CABECERA = 64;
+    private static final int TAMANO_RANURA = 32;
+    private static final int CABECERA_TAMANO_RANURA = 8;
+    private static final int CABECERA_CAPACIDAD = 12;
+    private static final int CABECERA_LSN_A = 16;
+    private static final int CABECERA_LSN_B = 24;
+    private static final int RANURA_VIVO = 0;
+    private static final int RANURA_COLUMNA_A = 8;
+    private static final int RANURA_COLUMNA_B = 16;
+    private static final long LSN_INVALIDO = -1;
+
+    private static final VarHandle LARGO = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path rutaDatos;
+    private final Path rutaIndice;
+    private final FileChannel canal;
+    private final MappedByteBuffer mapa;
+    private final int capacidad;
+
+    private InventarioMapeado(Path rutaDatos, Path rutaIndice) throws IOException {
+        this.rutaDatos = rutaDatos;
+        this.rutaIndice = rutaIndice;
+        this.canal = FileChannel.open(rutaDatos, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+
+        if (mapa.capacity() < TAMANO_CABECERA || mapa.getInt(0) != FormatoBinario.MAGIA_INVENTARIO) {
+            canal.close();
+            throw new IOException("Archivo de inventario invalido: " + rutaDatos);
+        }
+        if (mapa.getShort(4) > VERSION || mapa.getInt(CABECERA_TAMANO_RANURA) != TAMANO_RANURA) {
+            canal.close();
+            throw new IOException("Version de inventario no soportada: " + rutaDatos);
+        }
+        this.capacidad = mapa.getInt(CABECERA_CAPACIDAD);
+        if (mapa.capacity() < desplazamiento(capacidad)) {
+            canal.close();
+            throw new IOException("Archivo de inventario truncado: " + rutaDatos);
+        }
+    }
+
+    private static Path rutaDatos(String rutaBase, String sede) {
+        return Paths.get(rutaBase, "inventario_" + sede + ".dat");
+    }
+
+    private static Path rutaIndice(String rutaBase, String sede) {
+        return Paths.get(rutaBase, "inventario_" + sede + ".idx");
+    }
+
+    // El índice se publica al final, así que su presencia indica un inventario completo
+    public static boolean existe(String rutaBase, String sede) {
+        return Files.exists(rutaDatos(rutaBase, sede)) && Files.exists(rutaIndice(rutaBase, sede));
+    }
+
+    public static void eliminar(String rutaBase, String sede) throws IOException {
+        Files.deleteIfExists(rutaIndice(rutaBase, sede));
+        Files.deleteIfExists(rutaDatos(rutaBase, sede));
+    }
+
+    /**
+     * Crea el inventario a partir del catálogo actual. La columna A queda
+     * con los valores de los libros y el lsn indicado.
+     */
+    public static InventarioMapeado crear(String rutaBase, String sede, Collection<Libro> libros, long lsn)
+            throws IOException {
+        Path datos = rutaDatos(rutaBase, sede);
+        Path indice = rutaIndice(rutaBase, sede);
+        Files.deleteIfExists(indice);
+
+        Path temporalDatos = datos.resolveSibling(datos.getFileName() + ".tmp");
+        try (FileChannel nuevo = FileChannel.open(temporalDatos, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer destino = nuevo.map(FileChannel.MapMode.READ_WRITE, 0, desplazamiento(libros.size()));
+            destino.putInt(0, FormatoBinario.MAGIA_INVENTARIO);
+            destino.putShort(4, VERSION);
+            destino.putInt(CABECERA_TAMANO_RANURA, TAMANO_RANURA);
+            destino.putInt(CABECERA_CAPACIDAD, libros.size());
+            destino.putLong(CABECERA_LSN_A, lsn);
+            destino.putLong(CABECERA_LSN_B, LSN_INVALIDO);
+            int ranura = 0;
+            for (Libro libro : libros) {
+                int base = desplazamiento(ranura++);
+                long estado = libro.getEstado();
+                destino.putLong(base + RANURA_VIVO, estado);
+                destino.putLong(base + RANURA_COLUMNA_A, estado);
+            }
+            destino.force();
+        }
+        Files.move(temporalDatos, datos, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        Path temporalIndice = indice.resolveSibling(indice.getFileName() + ".tmp");
+        try (FormatoBinario.Escritor out = new FormatoBinario.Escritor(
+                Files.newOutputStream(temporalIndice), FormatoBinario.MAGIA_INDICE, lsn)) {
+            int ranura = 0;
+            for (Libro libro : libros) {
+                out.escribirEntradaIndice(ranura++, libro);
+            }
+        }
+        Instantaneas.publicar(temporalIndice, indice);
+
+        return new InventarioMapeado(datos, indice);
+    }
+
+    /**
+     * Abre un inventario existente y restablece los valores vivos desde la
+     * columna más reciente; la bitácora posterior a getLsn() se reproduce después.
+     */
+    public static InventarioMapeado abrir(String rutaBase, String sede) throws IOException {
+        InventarioMapeado inventario = new InventarioMapeado(rutaDatos(rutaBase, sede), rutaIndice(rutaBase, sede));
+        int columna = inventario.columnaVigente();
+        if (inventario.lsnColumna(columna) == LSN_INVALIDO) {
+            inventario.close();
+            throw new IOException("Inventario sin columna valida: " + inventario.rutaDatos);
+        }
+        for (int ranura = 0; ranura < inventario.capacidad; ranura++) {
+            int base = desplazamiento(ranura);
+            inventario.mapa.putLong(base + RANURA_VIVO, inventario.mapa.getLong(base + columna));
+        }
+        return inventario;
+    }
+
+    /**
+     * Lee el índice y devuelve los libros con sus contadores ubicados en
+     * las ranuras del archivo mapeado.
+     */
+    public CargadorParalelo.Resultado<Libro> leerLibros(CargadorParalelo cargador) throws IOException {
+        return cargador.leerBinario(rutaIndice, FormatoBinario.MAGIA_INDICE, registro -> {
+            int ranura = registro.getInt();
+            if (ranura < 0 || ranura >= capacidad) {
+                throw new IOException("Ranura fuera de rango en el indice: " + ranura);
+            }
+            String isbn = FormatoBinario.leerTexto(registro);
+            String titulo = FormatoBinario.leerTexto(registro);
+            String autor = FormatoBinario.leerTexto(registro);
+            return new Libro(isbn, titulo, autor, new Ranura(desplazamiento(ranura) + RANURA_VIVO));
+        });
+    }
+
+    // Lsn que cubren los valores con que se abrió o se publicó el inventario
+    public long getLsn() {
+        return lsnColumna(columnaVigente());
+    }
+
+    /**
+     * Invalida la columna que recibirá la próxima instantánea y lo fuerza a
+     * disco, de modo que una copia a medias nunca se tome por válida.
+     */
+    public void prepararInstantanea() {
+        LARGO.setVolatile(mapa, cabeceraLsn(columnaSiguiente()), LSN_INVALIDO);
+        mapa.force(0, TAMANO_CABECERA);
+    }
+
+    /**
+     * Copia los valores vivos a la columna siguiente. Debe llamarse sin
+     * operaciones en curso (con el candado exclusivo de BaseDatos).
+     */
+    public void copiarValoresVivos() {
+        int columna = columnaSiguiente();
+        for (int ranura = 0; ranura < capacidad; ranura++) {
+            int base = desplazamiento(ranura);
+            mapa.putLong(base + columna, mapa.getLong(base + RANURA_VIVO));
+        }
+    }
+
+    /**
+     * Fuerza a disco la columna copiada y la marca como vigente con el lsn dado.
+     */
+    public void publicar(long lsn) {
+        int columna = columnaSiguiente();
+        mapa.force();
+        LARGO.setVolatile(mapa, cabeceraLsn(columna), lsn);
+        mapa.force(0, TAMANO_CABECERA);
+    }
+
+    public long tamanoBytes() {
+        return mapa.capacity();
+    }
+
+    public Path getRutaDatos() {
+        return rutaDatos;
+    }
+
+    private int columnaVigente() {
+        return (long) LARGO.getVolatile(mapa, CABECERA_LSN_A) >= (long) LARGO.getVolatile(mapa, CABECERA_LSN_B)
+                ? RANURA_COLUMNA_A
+                : RANURA_COLUMNA_B;
+    }
+
+    private int columnaSiguiente() {
+        return columnaVigente() == RANURA_COLUMNA_A ? RANURA_COLUMNA_B : RANURA_COLUMNA_A;
+    }
+
+    private long lsnColumna(int columna) {
+        return (long) LARGO.getVolatile(mapa, cabeceraLsn(columna));
+    }
+
+    private static int cabeceraLsn(int columna) {
+        return columna == RANURA_COLUMNA_A ? CABECERA_LSN_A : CABECERA_LSN_B;
+    }
+
+    private static int desplazamiento(int ranura) {
+        return TAMANO_CABECERA + ranura * TAMANO_RANURA;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapa.force();
+        canal.close();
+    }
+
+    /**
+     * Contador de un libro ubicado en el valor vivo de su ranura.
+     */
+    private final class Ranura implements ContadorEjemplares {
+        private final int desplazamiento;
+
+        Ranura(int desplazamiento) {
+            this.desplazamiento = desplazamiento;
+        }
+
+        @Override
+        public long get() {
+            return (long) LARGO.getVolatile(mapa, desplazamiento);
+        }
+
+        @Override
+        public boolean compareAndSet(long esperado, long nuevo) {
+            return LARGO.compareAndSet(mapa, desplazamiento, esperado, nuevo);
+        }
+    }
+}
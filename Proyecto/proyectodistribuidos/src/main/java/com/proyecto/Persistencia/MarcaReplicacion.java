@@ -0,0 +1,57 @@
+/**
+ * ============================================================
+ * Título: MarcaReplicacion - Última réplica aplicada desde la otra sede
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Guarda en replicacion_recibida_<SEDE>.dat la secuencia de la última
+ * operación recibida de la otra sede que ya se aplicó. Al reiniciar, el GA
+ * pide a la otra sede lo que sigue a esta marca en lugar de perderlo.
+ *
+ * La marca se escribe después de cada operación aplicada y se fuerza a
+ * disco al cerrar; tras una caída del equipo puede volver a aplicarse la
+ * última operación, que BaseDatos ignora si el préstamo ya existe.
+ */
+
+package com.proyecto.Persistencia;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class MarcaReplicacion implements Closeable {
+    private final FileChannel canal;
+    private final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    private long secuencia;
+
+    public MarcaReplicacion(String rutaBase, String sede) throws IOException {
+        this.canal = FileChannel.open(Paths.get(rutaBase, "replicacion_recibida_" + sede + ".dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (canal.size() >= Long.BYTES) {
+            while (buffer.hasRemaining() && canal.read(buffer, buffer.position()) >= 0) {
+            }
+            buffer.flip();
+            this.secuencia = buffer.getLong();
+        }
+    }
+
+    public synchronized long get() {
+        return secuencia;
+    }
+
+    public synchronized void avanzar(long nueva) throws IOException {
+        buffer.clear();
+        buffer.putLong(nueva).flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer, buffer.position());
+        }
+        secuencia = nueva;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        canal.force(false);
+        canal.close();
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * ============================================================
+ * Título: ModoDurabilidad
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Define cuándo se confirma una operación escrita en la bitácora:
+ *   FSYNC_POR_LOTE  la operación se confirma cuando su lote está en disco (fsync).
+ *   PERIODICO       la operación se confirma al escribirse al sistema operativo;
+ *                   el fsync se realiza cada N milisegundos.
+ *   ASINCRONO       la operación se confirma de inmediato; escritura y fsync
+ *                   ocurren en segundo plano.
+ * Se configura con la propiedad del sistema ga.durabilidad
+ * (fsync-per-batch, periodic o async).
+ */
+
+package com.proyecto.Persistencia;
+
+public enum ModoDurabilidad {
+    FSYNC_POR_LOTE("fsync-per-batch"),
+    PERIODICO("periodic"),
+    ASINCRONO("async");
+
+    private final String nombre;
+
+    ModoDurabilidad(String nombre) {
+        this.nombre = nombre;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public static ModoDurabilidad desdeTexto(String texto) {
+        if (texto == null || texto.trim().isEmpty()) {
+            return FSYNC_POR_LOTE;
+        }
+        for (ModoDurabilidad modo : values()) {
+            if (modo.nombre.equalsIgnoreCase(texto.trim()) || modo.name().equalsIgnoreCase(texto.trim())) {
+                return modo;
+            }
+        }
+        throw new IllegalArgumentException("Modo de durabilidad desconocido: " + texto
+                + " (use fsync-per-batch, periodic o async)");
+    }
+}
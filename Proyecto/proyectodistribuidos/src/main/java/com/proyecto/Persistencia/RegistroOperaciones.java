@@ -0,0 +1,503 @@
+/**
+ * ============================================================
+ * Título: RegistroOperaciones - Bitácora de escritura anticipada (WAL)
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Bitácora binaria de solo anexado usada por BaseDatos. Cada mutación
+ * se escribe como un registro independiente, de modo que el costo de
+ * una escritura no depende del tamaño del catálogo ni de los préstamos.
+ * Formato de cada registro:
+ *   [int longitud][long lsn][byte tipo][datos...][int crc32]
+ * donde longitud cubre lsn + tipo + datos y el CRC cubre los mismos bytes.
+ * Al arrancar, los registros se reproducen en orden sobre la última
+ * instantánea; un registro incompleto o con CRC inválido al final del
+ * archivo (escritura interrumpida) se descarta y el archivo se recorta.
+ * Las escrituras usan confirmación grupal: encolar() asigna el lsn y deja
+ * el registro en una cola; un único hilo escritor toma todo lo acumulado,
+ * lo escribe en una sola llamada y hace un fsync por lote. confirmar()
+ * bloquea al llamador hasta que su lote cumple el ModoDurabilidad elegido.
+ * La bitácora se divide en segmentos: rotar() cierra el archivo activo
+ * renombrándolo a <archivo>.<ultimoLsn> y abre uno nuevo, y
+ * descartarHasta() borra los segmentos que ya cubre una instantánea.
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Registros.Registro;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class RegistroOperaciones implements Closeable {
+    private static final Registro log = Registro.de(RegistroOperaciones.class);
+    public static final byte PRESTAMO = 1;
+    public static final byte PRESTAMO_REPLICA = 2;
+    // DEVOLUCION libera el ejemplar en el inventario de la sede; DEVOLUCION_REPLICA
+    // solo cierra el préstamo (se originó en la otra sede)
+    public static final byte DEVOLUCION = 3;
+    public static final byte DEVOLUCION_REPLICA = 4;
+    public static final byte RENOVACION = 5;
+    public static final byte RENOVACION_REPLICA = 6;
+
+    private static final int CABECERA = 4 + 8 + 1;
+    private static final int MAX_REGISTRO = 1 << 20;
+
+    private final Path ruta;
+    private final ModoDurabilidad modo;
+    private final long intervaloMs;
+
+    // Estado de la cola, protegido por lockCola
+    private final Object lockCola = new Object();
+    private FileChannel canal;
+    private List<ByteBuffer> pendientes = new ArrayList<>();
+    private long ultimoLsn = 0;
+    private long lsnEscrito = 0;
+    private long lsnDurable = 0;
+    private IOException falla;
+    private boolean abierto = true;
+    // El escritor está usando su copia de canal (write o force) fuera del lock
+    private boolean escritorOcupado = false;
+    private long lotesEscritos = 0;
+    private long registrosEscritos = 0;
+
+    private final Thread escritor;
+
+    public static class Entrada {
+        public final long lsn;
+        public final byte tipo;
+        public final byte[] datos;
+
+        Entrada(long lsn, byte tipo, byte[] datos) {
+            this.lsn = lsn;
+            this.tipo = tipo;
+            this.datos = datos;
+        }
+    }
+
+    public RegistroOperaciones(String ruta) throws IOException {
+        this(ruta, ModoDurabilidad.FSYNC_POR_LOTE, 10);
+    }
+
+    public RegistroOperaciones(String ruta, ModoDurabilidad modo, long intervaloMs) throws IOException {
+        this.ruta = Paths.get(ruta);
+        this.modo = modo;
+        this.intervaloMs = Math.max(1, intervaloMs);
+        this.canal = FileChannel.open(this.ruta,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.escritor = new Thread(this::cicloEscritor);
+        this.escritor.setName("EscritorBitacora-" + this.ruta.getFileName());
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    /**
+     * Reproduce en orden todos los registros válidos con lsn mayor que desdeLsn.
+     * Recorta la cola del archivo si encuentra un registro corrupto o incompleto.
+     * Devuelve la cantidad de registros entregados al consumidor.
+     */
+    public int reproducir(long desdeLsn, Consumer<Entrada> consumidor) throws IOException {
+        synchronized (lockCola) {
+            return reproducirBloqueado(desdeLsn, consumidor);
+        }
+    }
+
+    private int reproducirBloqueado(long desdeLsn, Consumer<Entrada> consumidor) throws IOException {
+        int[] aplicados = {0};
+
+        for (Path segmento : segmentosCerrados().values()) {
+            try (FileChannel lectura = FileChannel.open(segmento, StandardOpenOption.READ)) {
+                long fin = leerSegmento(lectura, desdeLsn, consumidor, aplicados, true);
+                if (fin < lectura.size()) {
+                    log.warn("Bitacora {}: segmento cerrado con {} bytes ilegibles al final", segmento.getFileName(),
+                            lectura.size() - fin);
+                }
+            }
+        }
+
+        long tamano = canal.size();
+        long posicion = leerSegmento(canal, desdeLsn, consumidor, aplicados, true);
+        if (posicion < tamano) {
+            log.warn("Bitacora {}: descartando {} bytes de un registro incompleto", ruta.getFileName(),
+                    tamano - posicion);
+            canal.truncate(posicion);
+        }
+        canal.position(posicion);
+        lsnEscrito = ultimoLsn;
+        lsnDurable = ultimoLsn;
+        return aplicados[0];
+    }
+
+    /**
+     * Entrega en orden los registros ya escritos con lsn mayor que desdeLsn.
+     * A diferencia de reproducir(), usa canales de solo lectura y no toca el
+     * archivo, así que puede llamarse mientras otros hilos siguen anexando.
+     */
+    public int leer(long desdeLsn, Consumer<Entrada> consumidor) throws IOException {
+        long hasta;
+        synchronized (lockCola) {
+            hasta = lsnEscrito;
+        }
+        long[] entregado = {desdeLsn};
+        Consumer<Entrada> filtro = entrada -> {
+            // Si el segmento activo rotó mientras se leía, sus registros aparecen dos veces
+            if (entrada.lsn > entregado[0] && entrada.lsn <= hasta) {
+                entregado[0] = entrada.lsn;
+                consumidor.accept(entrada);
+            }
+        };
+        int[] aplicados = {0};
+
+        // El activo se abre primero: si rota después, este canal sigue viendo el archivo renombrado
+        try (FileChannel activo = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            for (Path segmento : segmentosCerrados().tailMap(desdeLsn, false).values()) {
+                try (FileChannel lectura = FileChannel.open(segmento, StandardOpenOption.READ)) {
+                    leerSegmento(lectura, desdeLsn, filtro, aplicados, false);
+                } catch (NoSuchFileException e) {
+                    // Descartado mientras se leía
+                }
+            }
+            leerSegmento(activo, desdeLsn, filtro, aplicados, false);
+        }
+        return aplicados[0];
+    }
+
+    // Devuelve la posición donde termina el último registro válido del segmento
+    private long leerSegmento(FileChannel lectura, long desdeLsn, Consumer<Entrada> consumidor,
+            int[] aplicados, boolean actualizarUltimo) throws IOException {
+        long posicion = 0;
+        long tamano = lectura.size();
+        ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+        CRC32 crc = new CRC32();
+
+        while (posicion + CABECERA + 4 <= tamano) {
+            cabecera.clear();
+            lectura.read(cabecera, posicion);
+            cabecera.flip();
+            int longitud = cabecera.getInt();
+            if (longitud < 9 || longitud > MAX_REGISTRO || posicion + 4 + longitud + 4 > tamano) {
+                break;
+            }
+
+            ByteBuffer cuerpo = ByteBuffer.allocate(longitud + 4);
+            lectura.read(cuerpo, posicion + 4);
+            cuerpo.flip();
+            crc.reset();
+            crc.update(cuerpo.array(), 0, longitud);
+            if ((int) crc.getValue() != cuerpo.getInt(longitud)) {
+                break;
+            }
+
+            long lsn = cuerpo.getLong();
+            byte tipo = cuerpo.get();
+            byte[] datos = new byte[longitud - 9];
+            cuerpo.get(datos);
+
+            if (actualizarUltimo && lsn > ultimoLsn) {
+                ultimoLsn = lsn;
+            }
+            if (lsn > desdeLsn) {
+                consumidor.accept(new Entrada(lsn, tipo, datos));
+                aplicados[0]++;
+            }
+            posicion += 4 + longitud + 4;
+        }
+        return posicion;
+    }
+
+    // Segmentos ya rotados, ordenados por el último lsn que contienen
+    private TreeMap<Long, Path> segmentosCerrados() throws IOException {
+        TreeMap<Long, Path> segmentos = new TreeMap<>();
+        Path directorio = ruta.toAbsolutePath().getParent();
+        String prefijo = ruta.getFileName() + ".";
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio, prefijo + "*")) {
+            for (Path archivo : archivos) {
+                String sufijo = archivo.getFileName().toString().substring(prefijo.length());
+                try {
+                    segmentos.put(Long.parseLong(sufijo), archivo);
+                } catch (NumberFormatException e) {
+                    // No es un segmento de esta bitácora
+                }
+            }
+        }
+        return segmentos;
+    }
+
+    /**
+     * Anexa un registro a la cola del escritor y devuelve su lsn sin esperar
+     * a que llegue a disco. Debe seguirse de confirmar(lsn) antes de dar la
+     * operación por hecha.
+     */
+    public long encolar(byte tipo, byte[] datos) throws IOException {
+        int longitud = 8 + 1 + datos.length;
+        ByteBuffer registro = ByteBuffer.allocate(4 + longitud + 4);
+
+        synchronized (lockCola) {
+            if (falla != null) {
+                throw new IOException("Bitacora en estado de error", falla);
+            }
+            if (!abierto) {
+                throw new IOException("Bitacora cerrada");
+            }
+            long lsn = ultimoLsn + 1;
+            registro.putInt(longitud);
+            registro.putLong(lsn);
+            registro.put(tipo);
+            registro.put(datos);
+            CRC32 crc = new CRC32();
+            crc.update(registro.array(), 4, longitud);
+            registro.putInt((int) crc.getValue());
+            registro.flip();
+
+            pendientes.add(registro);
+            ultimoLsn = lsn;
+            lockCola.notifyAll();
+            return lsn;
+        }
+    }
+
+    /**
+     * Bloquea hasta que el registro con el lsn dado cumple el modo de
+     * durabilidad: en disco (FSYNC_POR_LOTE), escrito al sistema operativo
+     * (PERIODICO) o de inmediato (ASINCRONO).
+     */
+    public void confirmar(long lsn) throws IOException {
+        synchronized (lockCola) {
+            while (true) {
+                if (falla != null) {
+                    throw new IOException("Bitacora en estado de error", falla);
+                }
+                if (modo == ModoDurabilidad.ASINCRONO) {
+                    return;
+                }
+                long alcanzado = modo == ModoDurabilidad.FSYNC_POR_LOTE ? lsnDurable : lsnEscrito;
+                if (alcanzado >= lsn) {
+                    return;
+                }
+                if (!abierto && !escritor.isAlive()) {
+                    throw new IOException("Bitacora cerrada con operaciones sin escribir");
+                }
+                try {
+                    lockCola.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrumpido esperando la bitacora");
+                }
+            }
+        }
+    }
+
+    /**
+     * Anexa un registro y espera su confirmación. Devuelve su lsn.
+     */
+    public long agregar(byte tipo, byte[] datos) throws IOException {
+        long lsn = encolar(tipo, datos);
+        confirmar(lsn);
+        return lsn;
+    }
+
+    private void cicloEscritor() {
+        long ultimoForzado = System.currentTimeMillis();
+
+        while (true) {
+            List<ByteBuffer> lote;
+            long hasta;
+            FileChannel destino;
+
+            synchronized (lockCola) {
+                while (pendientes.isEmpty() && abierto && !debeForzar(ultimoForzado)) {
+                    try {
+                        lockCola.wait(modo == ModoDurabilidad.FSYNC_POR_LOTE ? 0 : intervaloMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendientes.isEmpty() && !abierto) {
+                    return;
+                }
+                lote = pendientes;
+                pendientes = new ArrayList<>();
+                hasta = ultimoLsn;
+                destino = canal;
+                escritorOcupado = true;
+            }
+
+            try {
+                if (!lote.isEmpty()) {
+                    ByteBuffer[] buffers = lote.toArray(new ByteBuffer[0]);
+                    ByteBuffer ultimo = buffers[buffers.length - 1];
+                    while (ultimo.hasRemaining()) {
+                        destino.write(buffers);
+                    }
+                }
+
+                boolean forzar = modo == ModoDurabilidad.FSYNC_POR_LOTE
+                        || System.currentTimeMillis() - ultimoForzado >= intervaloMs;
+                if (forzar) {
+                    destino.force(false);
+                    ultimoForzado = System.currentTimeMillis();
+                }
+
+                synchronized (lockCola) {
+                    escritorOcupado = false;
+                    lsnEscrito = hasta;
+                    if (forzar) {
+                        lsnDurable = hasta;
+                    }
+                    if (!lote.isEmpty()) {
+                        lotesEscritos++;
+                        registrosEscritos += lote.size();
+                    }
+                    lockCola.notifyAll();
+                }
+            } catch (IOException e) {
+                log.error("Error escribiendo bitacora {}: {}", ruta.getFileName(), e.getMessage());
+                synchronized (lockCola) {
+                    escritorOcupado = false;
+                    falla = e;
+                    lockCola.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean debeForzar(long ultimoForzado) {
+        return modo != ModoDurabilidad.FSYNC_POR_LOTE && lsnDurable < lsnEscrito
+                && System.currentTimeMillis() - ultimoForzado >= intervaloMs;
+    }
+
+    /**
+     * Espera a que todo lo encolado esté escrito y lo fuerza a disco,
+     * sin importar el modo de durabilidad. Devuelve el lsn alcanzado.
+     */
+    public long vaciar() throws IOException {
+        synchronized (lockCola) {
+            esperarEscritorLibre();
+            canal.force(false);
+            lsnDurable = lsnEscrito;
+            lockCola.notifyAll();
+            return lsnDurable;
+        }
+    }
+
+    // Debe llamarse con lockCola tomado. Al volver, el escritor no tiene el canal en uso
+    private void esperarEscritorLibre() throws IOException {
+        while (!pendientes.isEmpty() || lsnEscrito < ultimoLsn || escritorOcupado) {
+            if (falla != null) {
+                throw new IOException("Bitacora en estado de error", falla);
+            }
+            if (!escritor.isAlive()) {
+                throw new IOException("Bitacora cerrada con operaciones sin escribir");
+            }
+            try {
+                lockCola.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido vaciando la bitacora");
+            }
+        }
+    }
+
+    /**
+     * Cierra el segmento activo y abre uno nuevo. Todo registro con lsn menor
+     * o igual al devuelto queda en segmentos cerrados, que pueden descartarse
+     * con descartarHasta() cuando una instantánea los cubra.
+     */
+    public long rotar() throws IOException {
+        synchronized (lockCola) {
+            esperarEscritorLibre();
+            if (canal.size() == 0) {
+                return ultimoLsn;
+            }
+            canal.force(true);
+            canal.close();
+            Files.move(ruta, ruta.resolveSibling(ruta.getFileName() + "." + ultimoLsn),
+                    StandardCopyOption.ATOMIC_MOVE);
+            canal = FileChannel.open(ruta,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lsnDurable = lsnEscrito;
+            return ultimoLsn;
+        }
+    }
+
+    /**
+     * Borra los segmentos cerrados cuyo último lsn es menor o igual al dado.
+     */
+    public void descartarHasta(long lsn) throws IOException {
+        for (Path segmento : segmentosCerrados().headMap(lsn, true).values()) {
+            Files.deleteIfExists(segmento);
+        }
+    }
+
+    public long getUltimoLsn() {
+        synchronized (lockCola) {
+            return ultimoLsn;
+        }
+    }
+
+    public void establecerLsnMinimo(long lsn) {
+        synchronized (lockCola) {
+            if (lsn > ultimoLsn) {
+                ultimoLsn = lsn;
+                lsnEscrito = lsn;
+                lsnDurable = lsn;
+            }
+        }
+    }
+
+    public long tamanoBytes() throws IOException {
+        long total;
+        synchronized (lockCola) {
+            total = canal.size();
+        }
+        for (Path segmento : segmentosCerrados().values()) {
+            total += Files.size(segmento);
+        }
+        return total;
+    }
+
+    public ModoDurabilidad getModo() {
+        return modo;
+    }
+
+    public double getTamanoPromedioLote() {
+        synchronized (lockCola) {
+            return lotesEscritos == 0 ? 0.0 : (double) registrosEscritos / lotesEscritos;
+        }
+    }
+
+    public boolean estaAbierto() {
+        synchronized (lockCola) {
+            return abierto;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lockCola) {
+            if (!abierto) {
+                return;
+            }
+            abierto = false;
+            lockCola.notifyAll();
+        }
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lockCola) {
+            if (canal.isOpen()) {
+                canal.force(true);
+                canal.close();
+            }
+        }
+    }
+}
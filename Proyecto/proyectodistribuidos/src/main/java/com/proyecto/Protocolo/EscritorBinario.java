@@ -0,0 +1,128 @@
+/**
+ * ============================================================
+ * Título: EscritorBinario - Mensajes en el formato binario
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Escribe los mensajes en el formato descrito en FormatoMensaje. Un campo
+ * "operacion" con una operación conocida no se escribe como campo: va en
+ * el byte de operación de la cabecera. Los textos se copian sin escapar;
+ * su largo se completa al cerrar el campo.
+ */
+
+package com.proyecto.Protocolo;
+
+public final class EscritorBinario extends EscritorMensaje {
+    private int inicioTexto;
+
+    @Override
+    public EscritorBinario iniciar() {
+        longitud = 0;
+        agregar(FormatoMensaje.VERSION);
+        agregar(FormatoMensaje.SIN_OPERACION);
+        entero(System.currentTimeMillis());
+        return this;
+    }
+
+    @Override
+    public EscritorBinario terminar() {
+        return this;
+    }
+
+    @Override
+    public EscritorMensaje campo(String nombre, CharSequence valor) {
+        if (FormatoMensaje.CAMPO_OPERACION.equals(nombre)) {
+            int codigo = FormatoMensaje.codigoOperacion(valor);
+            if (codigo != FormatoMensaje.SIN_OPERACION) {
+                buffer[FormatoMensaje.POSICION_OPERACION] = (byte) codigo;
+                return this;
+            }
+        }
+        return super.campo(nombre, valor);
+    }
+
+    @Override
+    public EscritorBinario abrirCampo(String nombre) {
+        nombre(nombre);
+        agregar(FormatoMensaje.TEXTO);
+        agregar(0);
+        agregar(0);
+        inicioTexto = longitud;
+        return this;
+    }
+
+    @Override
+    public EscritorBinario cerrarCampo() {
+        int largo = longitud - inicioTexto;
+        if (largo > 0xFFFF) {
+            throw new IllegalStateException("Texto de " + largo + " bytes: el máximo es 65535");
+        }
+        buffer[inicioTexto - 2] = (byte) (largo >> 8);
+        buffer[inicioTexto - 1] = (byte) largo;
+        return this;
+    }
+
+    @Override
+    public EscritorBinario campo(String nombre, long valor) {
+        nombre(nombre);
+        agregar(FormatoMensaje.ENTERO);
+        entero(valor);
+        return this;
+    }
+
+    @Override
+    public EscritorBinario campo(String nombre, double valor) {
+        nombre(nombre);
+        agregar(FormatoMensaje.DECIMAL);
+        entero(Double.doubleToLongBits(valor));
+        return this;
+    }
+
+    @Override
+    public EscritorBinario campo(String nombre, boolean valor) {
+        nombre(nombre);
+        agregar(valor ? FormatoMensaje.VERDADERO : FormatoMensaje.FALSO);
+        return this;
+    }
+
+    @Override
+    public EscritorBinario campoNulo(String nombre) {
+        nombre(nombre);
+        agregar(FormatoMensaje.NULO);
+        return this;
+    }
+
+    // Los bytes ya son UTF-8 y no hay nada que escapar
+    @Override
+    public EscritorBinario texto(byte[] utf8, int desde, int hasta) {
+        agregar(utf8, desde, hasta);
+        return this;
+    }
+
+    private void nombre(String nombre) {
+        int clave = FormatoMensaje.codigoClave(nombre);
+        agregar(clave);
+        if (clave != FormatoMensaje.SIN_CLAVE) {
+            return;
+        }
+        agregar(0);
+        int inicioNombre = longitud;
+        texto(nombre);
+        int largo = longitud - inicioNombre;
+        if (largo > 0xFF) {
+            throw new IllegalArgumentException("Nombre de campo de " + largo + " bytes: el máximo es 255");
+        }
+        buffer[inicioNombre - 1] = (byte) largo;
+    }
+
+    private void entero(long valor) {
+        for (int desplazamiento = 56; desplazamiento >= 0; desplazamiento -= 8) {
+            agregar((int) (valor >>> desplazamiento));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return FormatoMensaje.describir(copiar());
+    }
+}
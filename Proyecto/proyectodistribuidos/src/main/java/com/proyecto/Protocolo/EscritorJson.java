@@ -0,0 +1,122 @@
+/**
+ * ============================================================
+ * Título: EscritorJson - Objetos JSON planos escritos directo a bytes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Arma en un buffer reutilizable objetos JSON de un solo nivel con campos
+ * de texto o numéricos, como los que viajan del GC a los actores y de los
+ * actores al GA, sin pasar por un Map ni por Gson. Los textos se escapan
+ * y se codifican en UTF-8 a medida que se escriben. No es seguro para
+ * varios hilos: cada hilo usa su propio escritor.
+ */
+
+package com.proyecto.Protocolo;
+
+import java.nio.charset.StandardCharsets;
+
+public final class EscritorJson extends EscritorMensaje {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private boolean primerCampo;
+
+    @Override
+    public EscritorJson iniciar() {
+        longitud = 0;
+        primerCampo = true;
+        agregar('{');
+        return this;
+    }
+
+    @Override
+    public EscritorJson terminar() {
+        agregar('}');
+        return this;
+    }
+
+    @Override
+    public EscritorJson campo(String nombre, long valor) {
+        nombre(nombre);
+        numero(valor);
+        return this;
+    }
+
+    @Override
+    public EscritorJson campo(String nombre, double valor) {
+        nombre(nombre);
+        texto(Double.toString(valor));
+        return this;
+    }
+
+    @Override
+    public EscritorJson campo(String nombre, boolean valor) {
+        nombre(nombre);
+        texto(valor ? "true" : "false");
+        return this;
+    }
+
+    @Override
+    public EscritorJson campoNulo(String nombre) {
+        nombre(nombre);
+        texto("null");
+        return this;
+    }
+
+    @Override
+    public EscritorJson abrirCampo(String nombre) {
+        nombre(nombre);
+        agregar('"');
+        return this;
+    }
+
+    @Override
+    public EscritorJson cerrarCampo() {
+        agregar('"');
+        return this;
+    }
+
+    private void nombre(String nombre) {
+        if (!primerCampo) {
+            agregar(',');
+        }
+        primerCampo = false;
+        agregar('"');
+        texto(nombre);
+        agregar('"');
+        agregar(':');
+    }
+
+    @Override
+    protected void ascii(char c) {
+        switch (c) {
+            case '"':
+            case '\\':
+                agregar('\\');
+                agregar(c);
+                break;
+            case '\n':
+                agregar('\\');
+                agregar('n');
+                break;
+            case '\r':
+                agregar('\\');
+                agregar('r');
+                break;
+            case '\t':
+                agregar('\\');
+                agregar('t');
+                break;
+            default:
+                if (c < 0x20) {
+                    agregar('\\');
+                    agregar('u');
+                    agregar('0');
+                    agregar('0');
+                    agregar(HEX[c >> 4]);
+                    agregar(HEX[c & 0xF]);
+                } else {
+                    agregar(c);
+                }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * ============================================================
+ * Título: EscritorMensaje - Mensajes planos escritos directo a bytes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Base de los escritores de mensajes de un solo nivel que van del GC a
+ * los actores y de los actores al GA (y las respuestas del GA): arma los
+ * campos en un buffer reutilizable, sin pasar por Gson. EscritorJson los
+ * escribe como JSON y EscritorBinario en el formato de FormatoMensaje;
+ * quien envía no necesita saber cuál de los dos usa. No es seguro para
+ * varios hilos: cada hilo usa su propio escritor.
+ */
+
+package com.proyecto.Protocolo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+public abstract class EscritorMensaje {
+    protected byte[] buffer = new byte[256];
+    protected int longitud;
+
+    public abstract EscritorMensaje iniciar();
+
+    public abstract EscritorMensaje terminar();
+
+    /**
+     * Abre un campo de texto para escribir su valor por partes con texto()
+     * y numero(); se cierra con cerrarCampo().
+     */
+    public abstract EscritorMensaje abrirCampo(String nombre);
+
+    public abstract EscritorMensaje cerrarCampo();
+
+    public abstract EscritorMensaje campo(String nombre, long valor);
+
+    public abstract EscritorMensaje campo(String nombre, double valor);
+
+    public abstract EscritorMensaje campo(String nombre, boolean valor);
+
+    public abstract EscritorMensaje campoNulo(String nombre);
+
+    public EscritorMensaje campo(String nombre, CharSequence valor) {
+        return abrirCampo(nombre).texto(valor).cerrarCampo();
+    }
+
+    public EscritorMensaje campo(String nombre, byte[] utf8, int desde, int hasta) {
+        return abrirCampo(nombre).texto(utf8, desde, hasta).cerrarCampo();
+    }
+
+    // Los valores que trae un Map leído de un JSON plano
+    public EscritorMensaje campo(String nombre, Object valor) {
+        if (valor == null) {
+            return campoNulo(nombre);
+        }
+        if (valor instanceof Boolean) {
+            return campo(nombre, ((Boolean) valor).booleanValue());
+        }
+        if (valor instanceof Long || valor instanceof Integer || valor instanceof Short || valor instanceof Byte) {
+            return campo(nombre, ((Number) valor).longValue());
+        }
+        if (valor instanceof Number) {
+            return campo(nombre, ((Number) valor).doubleValue());
+        }
+        return campo(nombre, valor.toString());
+    }
+
+    public EscritorMensaje escribir(Map<String, ?> campos) {
+        iniciar();
+        for (Map.Entry<String, ?> entrada : campos.entrySet()) {
+            campo(entrada.getKey(), entrada.getValue());
+        }
+        return terminar();
+    }
+
+    public EscritorMensaje texto(CharSequence valor) {
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c < 0x80) {
+                ascii(c);
+            } else if (c < 0x800) {
+                agregar(0xC0 | (c >> 6));
+                agregar(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < valor.length()
+                    && Character.isLowSurrogate(valor.charAt(i + 1))) {
+                int punto = Character.toCodePoint(c, valor.charAt(++i));
+                agregar(0xF0 | (punto >> 18));
+                agregar(0x80 | ((punto >> 12) & 0x3F));
+                agregar(0x80 | ((punto >> 6) & 0x3F));
+                agregar(0x80 | (punto & 0x3F));
+            } else {
+                agregar(0xE0 | (c >> 12));
+                agregar(0x80 | ((c >> 6) & 0x3F));
+                agregar(0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    // Los bytes ya son UTF-8: solo pasan por ascii() los que podrían necesitar escape
+    public EscritorMensaje texto(byte[] utf8, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            int b = utf8[i] & 0xFF;
+            if (b < 0x80) {
+                ascii((char) b);
+            } else {
+                agregar(b);
+            }
+        }
+        return this;
+    }
+
+    public EscritorMensaje numero(long valor) {
+        if (valor < 0) {
+            // No se usan en los mensajes; no vale la pena evitar el String
+            return texto(Long.toString(valor));
+        }
+        long divisor = 1;
+        while (valor / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            agregar('0' + (int) (valor / divisor % 10));
+        }
+        return this;
+    }
+
+    // Un carácter ASCII dentro de un texto; el escritor JSON lo escapa si hace falta
+    protected void ascii(char c) {
+        agregar(c);
+    }
+
+    protected void agregar(int b) {
+        if (longitud == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[longitud++] = (byte) b;
+    }
+
+    protected void agregar(byte[] datos, int desde, int hasta) {
+        int largo = hasta - desde;
+        if (longitud + largo > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, longitud + largo));
+        }
+        System.arraycopy(datos, desde, buffer, longitud, largo);
+        longitud += largo;
+    }
+
+    public int getLongitud() {
+        return longitud;
+    }
+
+    // El buffer interno: vale hasta el próximo iniciar()
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public byte[] copiar() {
+        return Arrays.copyOf(buffer, longitud);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, longitud, StandardCharsets.UTF_8);
+    }
+}
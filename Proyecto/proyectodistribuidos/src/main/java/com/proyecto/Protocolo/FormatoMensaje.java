@@ -0,0 +1,209 @@
+/**
+ * ============================================================
+ * Título: FormatoMensaje - Formato binario de los mensajes entre procesos
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Los mensajes del GC a los actores, de los actores al GA y las
+ * respuestas del GA van en binario: cada uno ocupa un frame que empieza
+ * con una cabecera fija de 10 bytes
+ *
+ *   [versión: 1][operación: 1][instante en ms: 8]
+ *
+ * seguida de los campos, cada uno con su nombre, un byte de tipo y el
+ * valor. Las operaciones y los nombres conocidos (idSolicitud, sede,
+ * isbn...) se escriben como un byte: su posición en OPERACIONES y CLAVES,
+ * que por eso solo pueden crecer al final. Los textos llevan su largo en
+ * 2 bytes y los números ocupan 8.
+ *
+ * JSON sigue disponible para depurar (-Dprotocolo.formato=json): quien
+ * recibe mira el primer byte, que en un JSON es '{' y nunca VERSION, y el
+ * GA responde en el mismo formato en que le llegó la solicitud. Así
+ * procesos con distinto formato conviven sin configurar nada más.
+ */
+
+package com.proyecto.Protocolo;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+public final class FormatoMensaje {
+    public static final byte VERSION = 1;
+    public static final boolean BINARIO = !"json".equalsIgnoreCase(System.getProperty("protocolo.formato", "binario"));
+
+    static final int POSICION_OPERACION = 1;
+    static final int POSICION_INSTANTE = 2;
+    static final int LARGO_CABECERA = 10;
+
+    static final int SIN_OPERACION = 0;
+    static final int SIN_CLAVE = 0;
+    static final String CAMPO_OPERACION = "operacion";
+    private static final String[] OPERACIONES = {
+        null, "PRESTAR", "DEVOLVER", "RENOVAR", "PRESTAMO", "DEVOLUCION", "RENOVACION"
+    };
+    private static final String[] CLAVES = {
+        null, CAMPO_OPERACION, "idSolicitud", "sede", "isbn", "usuario", "idPrestamo",
+        "fechaActual", "fechaNuevaEntrega", "exito", "mensaje", "error"
+    };
+    private static final Map<String, Integer> CODIGOS_CLAVES = new HashMap<>();
+
+    static final int TEXTO = 1;
+    static final int ENTERO = 2;
+    static final int DECIMAL = 3;
+    static final int VERDADERO = 4;
+    static final int FALSO = 5;
+    static final int NULO = 6;
+
+    private static final Gson gson = new Gson();
+    private static final Type TIPO_MAPA = new TypeToken<Map<String, Object>>(){}.getType();
+    private static final ThreadLocal<EscritorBinario> escritoresBinarios = ThreadLocal.withInitial(EscritorBinario::new);
+    private static final ThreadLocal<EscritorJson> escritoresJson = ThreadLocal.withInitial(EscritorJson::new);
+
+    static {
+        for (int i = 1; i < CLAVES.length; i++) {
+            CODIGOS_CLAVES.put(CLAVES[i], i);
+        }
+    }
+
+    private FormatoMensaje() {
+    }
+
+    // Un escritor en el formato configurado con protocolo.formato
+    public static EscritorMensaje nuevoEscritor() {
+        return nuevoEscritor(BINARIO);
+    }
+
+    public static EscritorMensaje nuevoEscritor(boolean binario) {
+        return binario ? new EscritorBinario() : new EscritorJson();
+    }
+
+    public static boolean esBinario(byte[] datos) {
+        return datos.length >= LARGO_CABECERA && datos[0] == VERSION;
+    }
+
+    /**
+     * Lee un mensaje binario o JSON. Como con Gson, los números se leen
+     * como Double, así que quien recibe trata igual los dos formatos. Un
+     * mensaje binario cortado o con un código desconocido produce una
+     * IllegalArgumentException.
+     */
+    public static Map<String, Object> leer(byte[] datos) {
+        if (!esBinario(datos)) {
+            return gson.fromJson(new String(datos, StandardCharsets.UTF_8), TIPO_MAPA);
+        }
+        try {
+            return leerBinario(datos);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Mensaje binario truncado (" + datos.length + " bytes)");
+        }
+    }
+
+    private static Map<String, Object> leerBinario(byte[] datos) {
+        Map<String, Object> campos = new HashMap<>();
+        int operacion = datos[POSICION_OPERACION];
+        if (operacion != SIN_OPERACION) {
+            campos.put(CAMPO_OPERACION, nombre(OPERACIONES, operacion, "operación"));
+        }
+        int i = LARGO_CABECERA;
+        while (i < datos.length) {
+            String nombre;
+            int clave = datos[i++] & 0xFF;
+            if (clave == SIN_CLAVE) {
+                int largo = datos[i++] & 0xFF;
+                nombre = new String(datos, i, largo, StandardCharsets.UTF_8);
+                i += largo;
+            } else {
+                nombre = nombre(CLAVES, clave, "campo");
+            }
+            int tipo = datos[i++];
+            switch (tipo) {
+                case TEXTO:
+                    int largo = ((datos[i] & 0xFF) << 8) | (datos[i + 1] & 0xFF);
+                    i += 2;
+                    campos.put(nombre, new String(datos, i, largo, StandardCharsets.UTF_8));
+                    i += largo;
+                    break;
+                case ENTERO:
+                    campos.put(nombre, (double) leerLong(datos, i));
+                    i += 8;
+                    break;
+                case DECIMAL:
+                    campos.put(nombre, Double.longBitsToDouble(leerLong(datos, i)));
+                    i += 8;
+                    break;
+                case VERDADERO:
+                    campos.put(nombre, true);
+                    break;
+                case FALSO:
+                    campos.put(nombre, false);
+                    break;
+                case NULO:
+                    campos.put(nombre, null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Tipo de campo desconocido: " + tipo);
+            }
+        }
+        return campos;
+    }
+
+    // Instante en que se escribió un mensaje binario
+    public static long getInstante(byte[] datos) {
+        return leerLong(datos, POSICION_INSTANTE);
+    }
+
+    public static byte[] codificar(Map<String, ?> campos) {
+        return codificar(campos, BINARIO);
+    }
+
+    // Con el escritor del hilo: solo se crea la copia que se envía
+    public static byte[] codificar(Map<String, ?> campos, boolean binario) {
+        EscritorMensaje escritor = binario ? escritoresBinarios.get() : escritoresJson.get();
+        return escritor.escribir(campos).copiar();
+    }
+
+    // Para los mensajes de consola: el JSON tal cual o los campos del binario
+    public static String describir(byte[] datos) {
+        if (!esBinario(datos)) {
+            return new String(datos, StandardCharsets.UTF_8);
+        }
+        try {
+            return leer(datos) + " (binario, " + Instant.ofEpochMilli(getInstante(datos)) + ")";
+        } catch (RuntimeException e) {
+            return "(binario ilegible: " + e.getMessage() + ")";
+        }
+    }
+
+    static int codigoOperacion(CharSequence operacion) {
+        for (int i = 1; i < OPERACIONES.length; i++) {
+            if (OPERACIONES[i].contentEquals(operacion)) {
+                return i;
+            }
+        }
+        return SIN_OPERACION;
+    }
+
+    static int codigoClave(String nombre) {
+        Integer codigo = CODIGOS_CLAVES.get(nombre);
+        return codigo != null ? codigo : SIN_CLAVE;
+    }
+
+    private static String nombre(String[] tabla, int codigo, String que) {
+        if (codigo <= 0 || codigo >= tabla.length) {
+            throw new IllegalArgumentException("Código de " + que + " desconocido: " + codigo);
+        }
+        return tabla[codigo];
+    }
+
+    private static long leerLong(byte[] datos, int desde) {
+        long valor = 0;
+        for (int i = desde; i < desde + 8; i++) {
+            valor = (valor << 8) | (datos[i] & 0xFF);
+        }
+        return valor;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * ============================================================
+ * Título: SolicitudPS - Lectura de las solicitudes OP,ISBN,USUARIO
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Lee la solicitud del PS directamente sobre los bytes recibidos: solo
+ * anota dónde empieza y termina cada campo (sin espacios alrededor) y
+ * compara la operación byte a byte. Un mismo objeto se reutiliza para
+ * todas las solicitudes, así que leer una no crea objetos; los textos se
+ * crean solo si alguien los pide, y EscritorJson copia los campos desde
+ * los mismos bytes.
+ *
+ * Los campos se cuentan como los contaría String.split(","): las comas
+ * finales sin nada entre ellas no cuentan.
+ */
+
+package com.proyecto.Protocolo;
+
+import java.nio.charset.StandardCharsets;
+
+public final class SolicitudPS {
+    public static final int DESCONOCIDA = 0;
+    public static final int PRESTAR = 1;
+    public static final int DEVOLVER = 2;
+    public static final int RENOVAR = 3;
+
+    public static final int CAMPO_OPERACION = 0;
+    public static final int CAMPO_ISBN = 1;
+    public static final int CAMPO_USUARIO = 2;
+
+    private static final int MAX_CAMPOS = 3;
+    private static final byte[] TEXTO_PRESTAR = "PRESTAR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXTO_DEVOLVER = "DEVOLVER".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXTO_RENOVAR = "RENOVAR".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] datos;
+    private final int[] inicio = new int[MAX_CAMPOS];
+    private final int[] fin = new int[MAX_CAMPOS];
+    private int campos;
+
+    public SolicitudPS leer(byte[] datos) {
+        this.datos = datos;
+        int ultimoNoVacio = -1;
+        int campo = 0;
+        int desde = 0;
+        for (int i = 0; i <= datos.length; i++) {
+            if (i < datos.length && datos[i] != ',') {
+                continue;
+            }
+            if (campo < MAX_CAMPOS) {
+                recortar(campo, desde, i);
+            }
+            if (i > desde) {
+                ultimoNoVacio = campo;
+            }
+            campo++;
+            desde = i + 1;
+        }
+        // Un texto vacío es un campo, como en split
+        campos = datos.length == 0 ? 1 : Math.min(MAX_CAMPOS, ultimoNoVacio + 1);
+        return this;
+    }
+
+    // Quita lo que trim() quitaría: todo byte menor o igual que un espacio
+    private void recortar(int campo, int desde, int hasta) {
+        while (desde < hasta && (datos[desde] & 0xFF) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && (datos[hasta - 1] & 0xFF) <= ' ') {
+            hasta--;
+        }
+        inicio[campo] = desde;
+        fin[campo] = hasta;
+    }
+
+    /**
+     * Cantidad de campos, hasta 3 (los siguientes se ignoran).
+     */
+    public int getCampos() {
+        return campos;
+    }
+
+    public int getOperacion() {
+        if (campos == 0) {
+            return DESCONOCIDA;
+        }
+        if (esIgual(CAMPO_OPERACION, TEXTO_PRESTAR)) {
+            return PRESTAR;
+        }
+        if (esIgual(CAMPO_OPERACION, TEXTO_DEVOLVER)) {
+            return DEVOLVER;
+        }
+        if (esIgual(CAMPO_OPERACION, TEXTO_RENOVAR)) {
+            return RENOVAR;
+        }
+        return DESCONOCIDA;
+    }
+
+    private boolean esIgual(int campo, byte[] texto) {
+        if (fin[campo] - inicio[campo] != texto.length) {
+            return false;
+        }
+        for (int i = 0; i < texto.length; i++) {
+            if (datos[inicio[campo] + i] != texto[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] getDatos() {
+        return datos;
+    }
+
+    public int getInicio(int campo) {
+        return inicio[campo];
+    }
+
+    public int getFin(int campo) {
+        return fin[campo];
+    }
+
+    public String getTexto(int campo) {
+        return new String(datos, inicio[campo], fin[campo] - inicio[campo], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return new String(datos, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * ============================================================
+ * Título: AnilloEventos - Cola sin bloqueos de los mensajes de registro
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Arreglo circular de eventos creados una sola vez, donde cualquier hilo
+ * publica y solo el hilo de EscritorRegistro consume. Cada casilla tiene
+ * un número de secuencia que dice si está libre para la vuelta actual o
+ * ya tiene un evento publicado (la cola acotada de D. Vyukov): publicar
+ * es un compareAndSet sobre la posición de escritura, sin locks y sin
+ * crear objetos. Si la cola está llena el evento se descarta en lugar de
+ * frenar al hilo que registra; el escritor informa cuántos se perdieron.
+ */
+
+package com.proyecto.Registros;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class AnilloEventos {
+
+    static final class Evento {
+        Nivel nivel;
+        long instante;
+        String hilo;
+        String componente;
+        String solicitud;
+        String plantilla;
+        Object a;
+        Object b;
+        Object c;
+    }
+
+    private final Evento[] eventos;
+    private final AtomicLongArray secuencias;
+    private final int mascara;
+    private final AtomicLong posicionEscritura = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    // Solo la usa el hilo escritor
+    private long posicionLectura;
+
+    AnilloEventos(int capacidadMinima) {
+        int capacidad = Integer.highestOneBit(Math.max(2, capacidadMinima - 1)) << 1;
+        eventos = new Evento[capacidad];
+        secuencias = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            eventos[i] = new Evento();
+            secuencias.set(i, i);
+        }
+        mascara = capacidad - 1;
+    }
+
+    boolean publicar(Nivel nivel, String componente, String solicitud, String plantilla,
+            Object a, Object b, Object c) {
+        long posicion = posicionEscritura.get();
+        while (true) {
+            int indice = (int) (posicion & mascara);
+            long diferencia = secuencias.get(indice) - posicion;
+            if (diferencia == 0) {
+                if (posicionEscritura.compareAndSet(posicion, posicion + 1)) {
+                    Evento evento = eventos[indice];
+                    evento.nivel = nivel;
+                    evento.instante = System.currentTimeMillis();
+                    evento.hilo = Thread.currentThread().getName();
+                    evento.componente = componente;
+                    evento.solicitud = solicitud;
+                    evento.plantilla = plantilla;
+                    evento.a = a;
+                    evento.b = b;
+                    evento.c = c;
+                    // Publica el evento: el escritor lo ve completo
+                    secuencias.set(indice, posicion + 1);
+                    return true;
+                }
+                posicion = posicionEscritura.get();
+            } else if (diferencia < 0) {
+                // La casilla aún tiene el evento de la vuelta anterior
+                descartados.incrementAndGet();
+                return false;
+            } else {
+                posicion = posicionEscritura.get();
+            }
+        }
+    }
+
+    // El siguiente evento publicado, o null si no hay; se devuelve con liberar()
+    Evento tomar() {
+        int indice = (int) (posicionLectura & mascara);
+        if (secuencias.get(indice) != posicionLectura + 1) {
+            return null;
+        }
+        return eventos[indice];
+    }
+
+    void liberar(Evento evento) {
+        evento.a = null;
+        evento.b = null;
+        evento.c = null;
+        int indice = (int) (posicionLectura & mascara);
+        secuencias.set(indice, posicionLectura + eventos.length);
+        posicionLectura++;
+    }
+
+    // Descartados desde la última llamada
+    long tomarDescartados() {
+        return descartados.getAndSet(0);
+    }
+
+    int getCapacidad() {
+        return eventos.length;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * ============================================================
+ * Título: EscritorRegistro - Hilo que escribe los mensajes de registro
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Vacía AnilloEventos en un hilo aparte: arma cada línea (las plantillas
+ * se completan aquí, no en el hilo que registró), las acumula y escribe
+ * cada tanda de una vez en el archivo del proceso y, si se pide, en la
+ * consola. Cuando el archivo pasa de registro.tamanoMB lo rota a .1, .2,
+ * ... y conserva registro.archivos. Al terminar el proceso escribe lo que
+ * quede pendiente.
+ */
+
+package com.proyecto.Registros;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+final class EscritorRegistro implements Runnable {
+    private static final int TANDA = 1024;
+    private static final long ESPERA_NS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final DateTimeFormatter FORMATO_FECHA =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.").withZone(ZoneId.systemDefault());
+
+    private final AnilloEventos anillo;
+    private final Path archivo;
+    private final long tamanoMaximo;
+    private final int archivosConservados;
+    private final boolean consola;
+
+    private final StringBuilder tanda = new StringBuilder(64 * 1024);
+    // Con registro.consola, las líneas también van a stdout, o a stderr si son WARN o ERROR
+    private final StringBuilder tandaSalida = new StringBuilder();
+    private final StringBuilder tandaErrores = new StringBuilder();
+    private Writer salida;
+    private long tamanoArchivo;
+    // La fecha hasta los segundos se formatea una vez por segundo; los ms se agregan a mano
+    private long segundoFormateado = Long.MIN_VALUE;
+    private String fechaFormateada;
+    private volatile boolean cerrando = false;
+    private Thread hilo;
+
+    EscritorRegistro(AnilloEventos anillo, Path archivo, long tamanoMaximo, int archivosConservados,
+            boolean consola) {
+        this.anillo = anillo;
+        this.archivo = archivo;
+        this.tamanoMaximo = tamanoMaximo;
+        this.archivosConservados = Math.max(1, archivosConservados);
+        this.consola = consola;
+    }
+
+    void iniciar() {
+        abrir();
+        hilo = new Thread(this, "registro");
+        hilo.setDaemon(true);
+        hilo.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::cerrar, "registro-cierre"));
+    }
+
+    @Override
+    public void run() {
+        while (!cerrando) {
+            if (escribirTanda() == 0) {
+                LockSupport.parkNanos(ESPERA_NS);
+            }
+        }
+        while (escribirTanda() > 0) {
+            // Lo que quedó en el anillo al cerrar
+        }
+        try {
+            if (salida != null) {
+                salida.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error cerrando el registro: " + e.getMessage());
+        }
+    }
+
+    private int escribirTanda() {
+        int escritos = 0;
+        AnilloEventos.Evento evento;
+        while (escritos < TANDA && (evento = anillo.tomar()) != null) {
+            int inicio = tanda.length();
+            formatear(evento, tanda);
+            if (consola) {
+                (evento.nivel.compareTo(Nivel.WARN) >= 0 ? tandaErrores : tandaSalida)
+                        .append(tanda, inicio, tanda.length());
+            }
+            anillo.liberar(evento);
+            escritos++;
+        }
+        long descartados = anillo.tomarDescartados();
+        if (descartados > 0) {
+            int inicio = tanda.length();
+            agregarFecha(System.currentTimeMillis(), tanda);
+            tanda.append(" WARN  [registro] ")
+                    .append(descartados).append(" mensajes descartados: el anillo de ")
+                    .append(anillo.getCapacidad()).append(" eventos se llenó\n");
+            if (consola) {
+                tandaErrores.append(tanda, inicio, tanda.length());
+            }
+        }
+        if (tanda.length() > 0) {
+            volcar();
+        }
+        return escritos;
+    }
+
+    private void volcar() {
+        try {
+            if (salida != null) {
+                salida.append(tanda);
+                salida.flush();
+                tamanoArchivo += tanda.length();
+                if (tamanoArchivo >= tamanoMaximo) {
+                    rotar();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error escribiendo el registro " + archivo + ": " + e.getMessage());
+        }
+        if (tandaSalida.length() > 0) {
+            System.out.print(tandaSalida);
+            System.out.flush();
+            tandaSalida.setLength(0);
+        }
+        if (tandaErrores.length() > 0) {
+            System.err.print(tandaErrores);
+            tandaErrores.setLength(0);
+        }
+        tanda.setLength(0);
+    }
+
+    private void agregarFecha(long instante, StringBuilder linea) {
+        long segundo = Math.floorDiv(instante, 1000);
+        if (segundo != segundoFormateado) {
+            segundoFormateado = segundo;
+            fechaFormateada = FORMATO_FECHA.format(Instant.ofEpochSecond(segundo));
+        }
+        int ms = Math.floorMod(instante, 1000);
+        linea.append(fechaFormateada).append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10))
+                .append((char) ('0' + ms % 10));
+    }
+
+    private void formatear(AnilloEventos.Evento evento, StringBuilder linea) {
+        agregarFecha(evento.instante, linea);
+        linea.append(' ');
+        linea.append(evento.nivel);
+        for (int i = evento.nivel.name().length(); i < 6; i++) {
+            linea.append(' ');
+        }
+        linea.append('[').append(evento.hilo).append("] ").append(evento.componente);
+        if (evento.solicitud != null) {
+            linea.append(" {").append(evento.solicitud).append('}');
+        }
+        linea.append(' ');
+
+        Object[] argumentos = {evento.a, evento.b, evento.c};
+        int usados = 0;
+        String plantilla = evento.plantilla;
+        int desde = 0;
+        int marca;
+        while (usados < argumentos.length && (marca = plantilla.indexOf("{}", desde)) >= 0) {
+            linea.append(plantilla, desde, marca).append(argumentos[usados++]);
+            desde = marca + 2;
+        }
+        linea.append(plantilla, desde, plantilla.length()).append('\n');
+
+        // Una excepción que no se usó en la plantilla se escribe con su traza
+        for (int i = usados; i < argumentos.length; i++) {
+            if (argumentos[i] instanceof Throwable) {
+                StringWriter traza = new StringWriter();
+                ((Throwable) argumentos[i]).printStackTrace(new PrintWriter(traza));
+                linea.append(traza);
+            }
+        }
+    }
+
+    private void abrir() {
+        try {
+            Path carpeta = archivo.toAbsolutePath().getParent();
+            if (carpeta != null) {
+                Files.createDirectories(carpeta);
+            }
+            tamanoArchivo = Files.exists(archivo) ? Files.size(archivo) : 0;
+            salida = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(archivo.toFile(), true), StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el registro " + archivo + ": " + e.getMessage());
+            salida = null;
+        }
+    }
+
+    // archivo.log -> archivo.log.1 -> archivo.log.2 ...; el más antiguo se borra
+    private void rotar() throws IOException {
+        salida.close();
+        for (int i = archivosConservados - 1; i >= 1; i--) {
+            Path anterior = Paths.get(archivo + "." + i);
+            if (Files.exists(anterior)) {
+                Files.move(anterior, Paths.get(archivo + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(archivo, Paths.get(archivo + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        abrir();
+    }
+
+    private void cerrar() {
+        cerrando = true;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * ============================================================
+ * Título: Nivel - Niveles de los mensajes de registro
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * De menor a mayor importancia. Un proceso escribe los mensajes de su
+ * nivel (propiedad registro.nivel) y los de los niveles siguientes;
+ * APAGADO no escribe ninguno.
+ */
+
+package com.proyecto.Registros;
+
+public enum Nivel {
+    DEBUG, INFO, WARN, ERROR, APAGADO;
+
+    static Nivel leer(String texto) {
+        try {
+            return valueOf(texto.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Nivel de registro desconocido: " + texto + ", se usa INFO");
+            return INFO;
+        }
+    }
+}
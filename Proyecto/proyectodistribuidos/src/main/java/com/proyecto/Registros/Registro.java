@@ -0,0 +1,175 @@
+/**
+ * ============================================================
+ * Título: Registro - Mensajes de registro por nivel, sin bloquear
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ * Reemplaza los System.out/System.err de los procesos. Cada clase tiene
+ * su Registro y registra con plantillas de hasta tres argumentos ("{}"),
+ * que se completan en el hilo escritor: el hilo que registra solo deja el
+ * evento en AnilloEventos, sin locks ni formateo. Un mensaje por debajo
+ * de registro.nivel (INFO por defecto) no hace nada: el umbral es una
+ * constante, así que la comprobación la elimina el JIT. Si los argumentos
+ * cuestan de calcular, se pregunta antes con esDebug(). Como se formatean
+ * después, un objeto que se reutiliza (SolicitudPS, un EscritorMensaje) se
+ * pasa ya convertido a texto.
+ *
+ * Cada línea lleva el idSolicitud que el hilo esté atendiendo (ver
+ * setSolicitud), así se puede seguir una solicitud entre el GC, los
+ * actores y el GA. Cada proceso escribe en registro.dir/<proceso>.log.
+ */
+
+package com.proyecto.Registros;
+
+import java.nio.file.Paths;
+
+public final class Registro {
+    private static final int UMBRAL = Nivel.leer(System.getProperty("registro.nivel", "INFO")).ordinal();
+    private static final ThreadLocal<String> solicitudActual = new ThreadLocal<>();
+    private static volatile String proceso = "proyecto";
+
+    private final String componente;
+
+    // El anillo y su hilo escritor se crean con el primer mensaje que supera el umbral
+    private static final class Salida {
+        static final AnilloEventos ANILLO = new AnilloEventos(Integer.getInteger("registro.capacidad", 8192));
+
+        static {
+            new EscritorRegistro(ANILLO,
+                    Paths.get(System.getProperty("registro.dir", "logs"), proceso + ".log"),
+                    Long.getLong("registro.tamanoMB", 10) * 1024 * 1024,
+                    Integer.getInteger("registro.archivos", 5),
+                    Boolean.parseBoolean(System.getProperty("registro.consola", "true"))).iniciar();
+        }
+    }
+
+    private Registro(String componente) {
+        this.componente = componente;
+    }
+
+    public static Registro de(Class<?> clase) {
+        return new Registro(clase.getSimpleName());
+    }
+
+    /**
+     * Da nombre al archivo de registro del proceso. Se llama al comienzo
+     * del main, antes de registrar nada.
+     */
+    public static void iniciar(String nombreProceso) {
+        proceso = nombreProceso;
+        if (UMBRAL < Nivel.APAGADO.ordinal()) {
+            Salida.ANILLO.getCapacidad();
+        }
+    }
+
+    // Solicitud que atiende el hilo actual; null al terminar
+    public static void setSolicitud(String idSolicitud) {
+        if (UMBRAL < Nivel.APAGADO.ordinal()) {
+            solicitudActual.set(idSolicitud);
+        }
+    }
+
+    public boolean esDebug() {
+        return UMBRAL <= Nivel.DEBUG.ordinal();
+    }
+
+    public void debug(String plantilla) {
+        if (UMBRAL <= Nivel.DEBUG.ordinal()) {
+            publicar(Nivel.DEBUG, plantilla, null, null, null);
+        }
+    }
+
+    public void debug(String plantilla, Object a) {
+        if (UMBRAL <= Nivel.DEBUG.ordinal()) {
+            publicar(Nivel.DEBUG, plantilla, a, null, null);
+        }
+    }
+
+    public void debug(String plantilla, Object a, Object b) {
+        if (UMBRAL <= Nivel.DEBUG.ordinal()) {
+            publicar(Nivel.DEBUG, plantilla, a, b, null);
+        }
+    }
+
+    public void debug(String plantilla, Object a, Object b, Object c) {
+        if (UMBRAL <= Nivel.DEBUG.ordinal()) {
+            publicar(Nivel.DEBUG, plantilla, a, b, c);
+        }
+    }
+
+    public void info(String plantilla) {
+        if (UMBRAL <= Nivel.INFO.ordinal()) {
+            publicar(Nivel.INFO, plantilla, null, null, null);
+        }
+    }
+
+    public void info(String plantilla, Object a) {
+        if (UMBRAL <= Nivel.INFO.ordinal()) {
+            publicar(Nivel.INFO, plantilla, a, null, null);
+        }
+    }
+
+    public void info(String plantilla, Object a, Object b) {
+        if (UMBRAL <= Nivel.INFO.ordinal()) {
+            publicar(Nivel.INFO, plantilla, a, b, null);
+        }
+    }
+
+    public void info(String plantilla, Object a, Object b, Object c) {
+        if (UMBRAL <= Nivel.INFO.ordinal()) {
+            publicar(Nivel.INFO, plantilla, a, b, c);
+        }
+    }
+
+    public void warn(String plantilla) {
+        if (UMBRAL <= Nivel.WARN.ordinal()) {
+            publicar(Nivel.WARN, plantilla, null, null, null);
+        }
+    }
+
+    public void warn(String plantilla, Object a) {
+        if (UMBRAL <= Nivel.WARN.ordinal()) {
+            publicar(Nivel.WARN, plantilla, a, null, null);
+        }
+    }
+
+    public void warn(String plantilla, Object a, Object b) {
+        if (UMBRAL <= Nivel.WARN.ordinal()) {
+            publicar(Nivel.WARN, plantilla, a, b, null);
+        }
+    }
+
+    public void warn(String plantilla, Object a, Object b, Object c) {
+        if (UMBRAL <= Nivel.WARN.ordinal()) {
+            publicar(Nivel.WARN, plantilla, a, b, c);
+        }
+    }
+
+    public void error(String plantilla) {
+        if (UMBRAL <= Nivel.ERROR.ordinal()) {
+            publicar(Nivel.ERROR, plantilla, null, null, null);
+        }
+    }
+
+    public void error(String plantilla, Object a) {
+        if (UMBRAL <= Nivel.ERROR.ordinal()) {
+            publicar(Nivel.ERROR, plantilla, a, null, null);
+        }
+    }
+
+    public void error(String plantilla, Object a, Object b) {
+        if (UMBRAL <= Nivel.ERROR.ordinal()) {
+            publicar(Nivel.ERROR, plantilla, a, b, null);
+        }
+    }
+
+    public void error(String plantilla, Object a, Object b, Object c) {
+        if (UMBRAL <= Nivel.ERROR.ordinal()) {
+            publicar(Nivel.ERROR, plantilla, a, b, c);
+        }
+    }
+
+    private void publicar(Nivel nivel, String plantilla, Object a, Object b, Object c) {
+        Salida.ANILLO.publicar(nivel, componente, solicitudActual.get(), plantilla, a, b, c);
+    }
+}
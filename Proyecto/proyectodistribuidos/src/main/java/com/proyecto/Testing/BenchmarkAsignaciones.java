@@ -0,0 +1,175 @@
+package com.proyecto.Testing;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.proyecto.Protocolo.EscritorBinario;
+import com.proyecto.Protocolo.EscritorJson;
+import com.proyecto.Protocolo.EscritorMensaje;
+import com.proyecto.Protocolo.FormatoMensaje;
+import com.proyecto.Protocolo.SolicitudPS;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Mide los bytes asignados y el tiempo por solicitud al leer un
+ * "PRESTAR,ISBN,USUARIO" y armar el JSON que va al ActorPrestamo, y al
+ * leer ese JSON en el actor y armar el que va al GA. Compara la forma
+ * anterior (String, split, trim, HashMap y Gson, con un TypeToken por
+ * mensaje) con la actual (SolicitudPS y EscritorMensaje sobre los bytes),
+ * en JSON y en el formato binario, y muestra cuánto ocupa cada mensaje en
+ * los dos formatos. Los bytes se cuentan con getThreadAllocatedBytes del
+ * hilo que mide.
+ *
+ * Uso: BenchmarkAsignaciones [solicitudes]
+ * Por defecto 1000000 solicitudes, después de un calentamiento igual.
+ */
+public class BenchmarkAsignaciones {
+
+    private static final Gson gson = new Gson();
+    private static final int DISTINTAS = 1024;
+    private static final SolicitudPS solicitud = new SolicitudPS();
+    private static final EscritorJson escritorJson = new EscritorJson();
+    private static final EscritorBinario escritorBinario = new EscritorBinario();
+
+    // Evita que el JIT descarte el trabajo medido
+    private static long sumidero;
+
+    public static void main(String[] args) {
+        int solicitudes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        java.lang.management.ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        if (!(mxBean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Esta JVM no permite medir los bytes asignados por hilo");
+            return;
+        }
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) mxBean;
+        hilos.setThreadAllocatedMemoryEnabled(true);
+
+        byte[][] entradas = new byte[DISTINTAS][];
+        for (int i = 0; i < DISTINTAS; i++) {
+            entradas[i] = String.format("PRESTAR, ISBN%04d ,usuario%d", i, i).getBytes(StandardCharsets.UTF_8);
+        }
+        String prefijo = UUID.randomUUID().toString();
+
+        PrintStream consola = System.out;
+        consola.println("═══════════════════════════════════════════");
+        consola.println("  BENCHMARK DE ASIGNACIONES POR SOLICITUD");
+        consola.println("═══════════════════════════════════════════");
+        consola.println("Solicitudes: " + solicitudes);
+        consola.println();
+        consola.printf("%-30s %16s %12s%n", "Etapa", "Bytes/solicitud", "ns/solicitud");
+
+        for (int ronda = 0; ronda < 2; ronda++) {
+            boolean reportar = ronda == 1;
+            medir(consola, hilos, reportar, "GC anterior", solicitudes, i -> gcAnterior(entradas[i % DISTINTAS], prefijo, i));
+            medir(consola, hilos, reportar, "GC JSON", solicitudes,
+                    i -> gcActual(escritorJson, entradas[i % DISTINTAS], prefijo, i));
+            medir(consola, hilos, reportar, "GC binario", solicitudes,
+                    i -> gcActual(escritorBinario, entradas[i % DISTINTAS], prefijo, i));
+        }
+        byte[][] mensajesJson = new byte[DISTINTAS][];
+        byte[][] mensajesBinarios = new byte[DISTINTAS][];
+        for (int i = 0; i < DISTINTAS; i++) {
+            mensajesJson[i] = gcActual(escritorJson, entradas[i], prefijo, i);
+            mensajesBinarios[i] = gcActual(escritorBinario, entradas[i], prefijo, i);
+        }
+        for (int ronda = 0; ronda < 2; ronda++) {
+            boolean reportar = ronda == 1;
+            medir(consola, hilos, reportar, "ActorPrestamo anterior", solicitudes,
+                    i -> actorAnterior(mensajesJson[i % DISTINTAS]));
+            medir(consola, hilos, reportar, "ActorPrestamo JSON", solicitudes,
+                    i -> actorActual(escritorJson, mensajesJson[i % DISTINTAS]));
+            medir(consola, hilos, reportar, "ActorPrestamo binario", solicitudes,
+                    i -> actorActual(escritorBinario, mensajesBinarios[i % DISTINTAS]));
+        }
+        consola.println();
+        consola.printf("%-30s %16s %12s%n", "Mensaje", "Bytes JSON", "Bytes binario");
+        consola.printf("%-30s %16d %12d%n", "GC -> ActorPrestamo", mensajesJson[0].length, mensajesBinarios[0].length);
+        actorActual(escritorJson, mensajesJson[0]);
+        actorActual(escritorBinario, mensajesBinarios[0]);
+        consola.printf("%-30s %16d %12d%n", "ActorPrestamo -> GA", escritorJson.getLongitud(),
+                escritorBinario.getLongitud());
+        consola.println("═══════════════════════════════════════════");
+        if (sumidero == 42) {
+            consola.println();
+        }
+    }
+
+    private interface Etapa {
+        byte[] ejecutar(int i);
+    }
+
+    private static void medir(PrintStream consola, com.sun.management.ThreadMXBean hilos, boolean reportar,
+            String nombre, int solicitudes, Etapa etapa) {
+        long hilo = Thread.currentThread().getId();
+        long bytesAntes = hilos.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < solicitudes; i++) {
+            sumidero += etapa.ejecutar(i).length;
+        }
+        long duracion = System.nanoTime() - inicio;
+        long bytes = hilos.getThreadAllocatedBytes(hilo) - bytesAntes;
+        if (reportar) {
+            consola.printf("%-30s %16.1f %12.1f%n", nombre, (double) bytes / solicitudes,
+                    (double) duracion / solicitudes);
+        }
+    }
+
+    // Como lo hacía GC.manejarPrestamo antes de SolicitudPS
+    private static byte[] gcAnterior(byte[] recibido, String prefijo, long idCorrelacion) {
+        String texto = new String(recibido, StandardCharsets.UTF_8);
+        String[] partes = texto.split(",");
+        String operacion = partes[0].trim();
+        if (!operacion.equals("PRESTAR")) {
+            return recibido;
+        }
+        Map<String, Object> solicitudActor = new HashMap<>();
+        solicitudActor.put("operacion", "PRESTAR");
+        solicitudActor.put("isbn", partes[1].trim());
+        solicitudActor.put("usuario", partes[2].trim());
+        solicitudActor.put("idSolicitud", prefijo + "-" + idCorrelacion);
+        return gson.toJson(solicitudActor).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Lo mismo que GC.manejarPrestamo: una copia exacta del mensaje es lo único que se crea
+    private static byte[] gcActual(EscritorMensaje escritor, byte[] recibido, String prefijo, long idCorrelacion) {
+        solicitud.leer(recibido);
+        if (solicitud.getOperacion() != SolicitudPS.PRESTAR) {
+            return recibido;
+        }
+        return escritor.iniciar()
+                .campo("operacion", "PRESTAR")
+                .campo("isbn", recibido, solicitud.getInicio(SolicitudPS.CAMPO_ISBN),
+                        solicitud.getFin(SolicitudPS.CAMPO_ISBN))
+                .campo("usuario", recibido, solicitud.getInicio(SolicitudPS.CAMPO_USUARIO),
+                        solicitud.getFin(SolicitudPS.CAMPO_USUARIO))
+                .abrirCampo("idSolicitud").texto(prefijo).texto("-").numero(idCorrelacion).cerrarCampo()
+                .terminar()
+                .copiar();
+    }
+
+    private static byte[] actorAnterior(byte[] recibido) {
+        Map<String, Object> solicitudJSON = gson.fromJson(new String(recibido, StandardCharsets.UTF_8),
+                new TypeToken<Map<String, Object>>(){}.getType());
+        Map<String, Object> solicitudGA = new HashMap<>();
+        solicitudGA.put("operacion", "PRESTAMO");
+        solicitudGA.put("idSolicitud", solicitudJSON.get("idSolicitud"));
+        solicitudGA.put("isbn", solicitudJSON.get("isbn"));
+        solicitudGA.put("usuario", solicitudJSON.get("usuario"));
+        return gson.toJson(solicitudGA).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Como ActorPrestamo.atenderSolicitud: el mensaje al GA se envía desde el buffer del escritor
+    private static byte[] actorActual(EscritorMensaje escritor, byte[] recibido) {
+        Map<String, Object> solicitudJSON = FormatoMensaje.leer(recibido);
+        EscritorMensaje solicitudGA = escritor.iniciar()
+                .campo("operacion", "PRESTAMO")
+                .campo("idSolicitud", (String) solicitudJSON.get("idSolicitud"))
+                .campo("isbn", (String) solicitudJSON.get("isbn"))
+                .campo("usuario", (String) solicitudJSON.get("usuario"))
+                .terminar();
+        return solicitudGA.getBuffer();
+    }
+}
@@ -0,0 +1,121 @@
+package com.proyecto.Testing;
+
+import com.proyecto.Persistencia.BaseDatos;
+import com.proyecto.Persistencia.ModoDurabilidad;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mide el throughput de BaseDatos con 1, 4, 16 y 64 hilos escritores
+ * concurrentes. Cada hilo presta un título al azar y lo devuelve, de modo
+ * que el inventario se mantiene estable durante toda la medición.
+ *
+ * Uso: BenchmarkContencion [libros] [segundosPorNivel] [durabilidad]
+ * Por defecto 10000 libros, 5 segundos y durabilidad async, para medir la
+ * contención de candados y no la latencia del disco.
+ */
+public class BenchmarkContencion {
+
+    private static final int[] ESCRITORES = { 1, 4, 16, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int numLibros = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int segundos = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ModoDurabilidad modo = ModoDurabilidad.desdeTexto(args.length > 2 ? args[2] : "async");
+
+        PrintStream consola = System.out;
+        consola.println("═══════════════════════════════════════════");
+        consola.println("  BENCHMARK DE CONTENCIÓN EN BaseDatos");
+        consola.println("═══════════════════════════════════════════");
+        consola.println("Libros: " + numLibros + ", " + segundos + " s por nivel, durabilidad "
+                + modo.getNombre() + ", " + Runtime.getRuntime().availableProcessors() + " núcleos");
+        consola.println();
+        consola.printf("%-12s %15s %12s%n", "Escritores", "Operaciones/s", "Aceleración");
+
+        // Calentamiento del JIT para que el primer nivel no salga penalizado
+        ejecutarNivel(consola, modo, numLibros, 4, Math.max(1, segundos / 2));
+
+        double base = 0;
+        for (int escritores : ESCRITORES) {
+            double throughput = ejecutarNivel(consola, modo, numLibros, escritores, segundos);
+            if (base == 0) {
+                base = throughput;
+            }
+            consola.printf("%-12d %15.0f %11.2fx%n", escritores, throughput, throughput / base);
+        }
+        consola.println("═══════════════════════════════════════════");
+    }
+
+    private static double ejecutarNivel(PrintStream consola, ModoDurabilidad modo, int numLibros,
+            int escritores, int segundos) throws Exception {
+        Path directorio = Files.createTempDirectory("benchmark-contencion");
+        try {
+            generarCatalogo(directorio, numLibros);
+
+            // Silenciar la traza por operación de BaseDatos durante la medición
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            BaseDatos bd = new BaseDatos(directorio.toString(), "BENCH", modo, 10);
+            double throughput = medir(bd, numLibros, escritores, segundos);
+            bd.cerrar();
+            return throughput;
+        } finally {
+            System.setOut(consola);
+            borrar(directorio);
+        }
+    }
+
+    private static double medir(BaseDatos bd, int numLibros, int escritores, int segundos)
+            throws InterruptedException {
+        AtomicLong operaciones = new AtomicLong();
+        CountDownLatch inicio = new CountDownLatch(1);
+        long fin = System.nanoTime() + TimeUnit.SECONDS.toNanos(segundos);
+        ExecutorService hilos = Executors.newFixedThreadPool(escritores);
+
+        for (int h = 0; h < escritores; h++) {
+            String usuario = "bench" + h;
+            hilos.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long propias = 0;
+                try {
+                    inicio.await();
+                    while (System.nanoTime() < fin) {
+                        String isbn = String.format("ISBN%07d", 1 + random.nextInt(numLibros));
+                        String idPrestamo = bd.realizarPrestamo(isbn, usuario);
+                        if (idPrestamo != null) {
+                            bd.realizarDevolucion(idPrestamo);
+                            propias += 2;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                operaciones.addAndGet(propias);
+            });
+        }
+
+        long t0 = System.nanoTime();
+        inicio.countDown();
+        hilos.shutdown();
+        hilos.awaitTermination(segundos + 60L, TimeUnit.SECONDS);
+        double duracion = (System.nanoTime() - t0) / 1e9;
+        return operaciones.get() / duracion;
+    }
+
+    private static void generarCatalogo(Path directorio, int numLibros) throws IOException {
+        List<String> lineas = new ArrayList<>(numLibros);
+        for (int i = 1; i <= numLibros; i++) {
+            lineas.add(String.format("ISBN%07d,Titulo %d,Autor %d,1000,0", i, i, i % 97));
+        }
+        Files.write(directorio.resolve("libros_BENCH.txt"), lineas);
+        Files.createFile(directorio.resolve("prestamos_BENCH.txt"));
+    }
+
+    private static void borrar(Path directorio) throws IOException {
+        try (var archivos = Files.walk(directorio)) {
+            archivos.sorted(Comparator.reverseOrder()).forEach(ruta -> ruta.toFile().delete());
+        }
+    }
+}
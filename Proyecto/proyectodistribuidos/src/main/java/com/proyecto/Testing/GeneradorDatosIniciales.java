@@ -60,18 +60,24 @@ public class GeneradorDatosIniciales {
             List<String> librosSede1 = ajustarDisponibilidad(libros, prestamosSede1);
             List<String> librosSede2 = ajustarDisponibilidad(libros, prestamosSede2);
 
+            // Cada sede conoce también los préstamos de la otra, como si ya
+            // se hubieran replicado: así las dos calculan los mismos cupos iniciales
+            List<String> todosLosPrestamos = new ArrayList<>(prestamosSede1);
+            todosLosPrestamos.addAll(prestamosSede2);
+
             // Guardar archivos SEDE1
             guardarArchivo(rutaBase + "/sede1/libros_SEDE1.txt", librosSede1);
-            guardarArchivo(rutaBase + "/sede1/prestamos_SEDE1.txt", prestamosSede1);
+            guardarArchivo(rutaBase + "/sede1/prestamos_SEDE1.txt", todosLosPrestamos);
 
             // Guardar archivos SEDE2
             guardarArchivo(rutaBase + "/sede2/libros_SEDE2.txt", librosSede2);
-            guardarArchivo(rutaBase + "/sede2/prestamos_SEDE2.txt", prestamosSede2);
+            guardarArchivo(rutaBase + "/sede2/prestamos_SEDE2.txt", todosLosPrestamos);
 
             System.out.println("\n✓ Datos generados exitosamente");
             System.out.println("  - 1000 libros por sede");
             System.out.println("  - 50 préstamos en SEDE1");
             System.out.println("  - 150 préstamos en SEDE2");
+            System.out.println("  - Cada sede guarda los 200 préstamos (propios y remotos)");
             System.out.println("═══════════════════════════════════════════");
 
         } catch (Exception e) {
@@ -84,6 +90,29 @@ public class GeneradorDatosIniciales {
         Files.createDirectories(Paths.get(rutaBase + "/sede1"));
         Files.createDirectories(Paths.get(rutaBase + "/sede2"));
         System.out.println("✓ Directorios creados");
+
+        // Las instantáneas binarias y bitácoras anteriores tienen prioridad sobre
+        // los .txt al arrancar BaseDatos, así que se eliminan para que se importen
+        limpiarEstadoAnterior(Paths.get(rutaBase + "/sede1"));
+        limpiarEstadoAnterior(Paths.get(rutaBase + "/sede2"));
+    }
+
+    private static void limpiarEstadoAnterior(Path directorio) throws IOException {
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio)) {
+            for (Path archivo : archivos) {
+                String nombre = archivo.getFileName().toString();
+                if (Files.isDirectory(archivo) && nombre.startsWith("fragmento")) {
+                    // Fragmentos de ga.fragmentos: se vuelven a repartir al arrancar
+                    limpiarEstadoAnterior(archivo);
+                    Files.delete(archivo);
+                } else if (nombre.startsWith("fragmentos_") || nombre.endsWith(".dat") || nombre.endsWith(".idx") || nombre.endsWith(".tmp")
+                        || nombre.startsWith("operaciones_") || nombre.startsWith("replicacion_")
+                        || nombre.startsWith("cupos_")) {
+                    Files.delete(archivo);
+                    System.out.println("✓ Eliminado estado anterior: " + archivo);
+                }
+            }
+        }
     }
 
     private static List<String> generarLibros(int cantidad) {
@@ -0,0 +1,155 @@
+/**
+ * ============================================================
+ * Título: CuposInventarioTest - Pruebas del reparto de ejemplares entre sedes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ */
+
+package com.proyecto.Persistencia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import junit.framework.TestCase;
+
+public class CuposInventarioTest extends TestCase {
+    private static final List<String> SEDES = Arrays.asList("SEDE1", "SEDE2");
+
+    private File carpeta;
+
+    @Override
+    protected void setUp() throws IOException {
+        carpeta = Files.createTempDirectory("cupos").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        borrar(carpeta);
+    }
+
+    private static void borrar(File archivo) {
+        File[] contenido = archivo.listFiles();
+        if (contenido != null) {
+            for (File hijo : contenido) {
+                borrar(hijo);
+            }
+        }
+        archivo.delete();
+    }
+
+    private CuposInventario cupos(String subcarpeta, String sede) throws IOException {
+        File ruta = new File(carpeta, subcarpeta);
+        ruta.mkdirs();
+        return new CuposInventario(ruta.getPath(), sede, SEDES, true);
+    }
+
+    private static Set<String> contenido(CuposInventario cupos) {
+        return new HashSet<>(cupos.exportar());
+    }
+
+    public void testRepartoParejo() throws IOException {
+        assertEquals(3, cupos("a", "SEDE1").cupo("ISBN0001", 5));
+        assertEquals(2, cupos("b", "SEDE2").cupo("ISBN0001", 5));
+    }
+
+    public void testCesionPasaCupoALaOtraSede() throws IOException {
+        CuposInventario sede1 = cupos("a", "SEDE1");
+        CuposInventario sede2 = cupos("b", "SEDE2");
+
+        long acumulado = sede1.ceder("ISBN0001", "SEDE2", 2);
+        assertEquals(2, acumulado);
+        assertEquals(2, sede2.fusionar("ISBN0001", "SEDE1", "SEDE2", acumulado));
+
+        assertEquals(1, sede1.cupo("ISBN0001", 5));
+        assertEquals(4, sede2.cupo("ISBN0001", 5));
+    }
+
+    public void testFusionIdempotente() throws IOException {
+        CuposInventario sede2 = cupos("b", "SEDE2");
+
+        assertEquals(2, sede2.fusionar("ISBN0001", "SEDE1", "SEDE2", 2));
+        Set<String> antes = contenido(sede2);
+        assertEquals(0, sede2.fusionar("ISBN0001", "SEDE1", "SEDE2", 2));
+        // Un valor viejo que llega tarde tampoco cambia nada
+        assertEquals(0, sede2.fusionar("ISBN0001", "SEDE1", "SEDE2", 1));
+
+        assertEquals(antes, contenido(sede2));
+        assertEquals(4, sede2.cupo("ISBN0001", 5));
+    }
+
+    public void testFusionConmutativa() throws IOException {
+        CuposInventario uno = cupos("a", "SEDE1");
+        CuposInventario otro = cupos("b", "SEDE1");
+
+        uno.fusionar("ISBN0001", "SEDE2", "SEDE1", 1);
+        uno.fusionar("ISBN0001", "SEDE2", "SEDE1", 3);
+        uno.fusionar("ISBN0002", "SEDE1", "SEDE2", 1);
+
+        otro.fusionar("ISBN0002", "SEDE1", "SEDE2", 1);
+        otro.fusionar("ISBN0001", "SEDE2", "SEDE1", 3);
+        otro.fusionar("ISBN0001", "SEDE2", "SEDE1", 1);
+
+        assertEquals(contenido(uno), contenido(otro));
+        assertEquals(uno.cupo("ISBN0001", 6), otro.cupo("ISBN0001", 6));
+        assertEquals(uno.cupo("ISBN0002", 6), otro.cupo("ISBN0002", 6));
+        assertEquals(6, uno.cupo("ISBN0001", 6));
+        assertEquals(2, uno.cupo("ISBN0002", 6));
+    }
+
+    public void testContadoresSobrevivenAlReinicio() throws IOException {
+        CuposInventario sede1 = cupos("a", "SEDE1");
+        sede1.terminarSiembra();
+        sede1.ceder("ISBN0001", "SEDE2", 1);
+        sede1.fusionar("ISBN0002", "SEDE2", "SEDE1", 2);
+
+        CuposInventario recargado = cupos("a", "SEDE1");
+        assertEquals(contenido(sede1), contenido(recargado));
+        assertEquals(2, recargado.cupo("ISBN0001", 5));
+        assertEquals(4, recargado.cupo("ISBN0002", 4));
+    }
+
+    public void testSiembraDescuentaPrestamosExistentes() throws IOException {
+        Map<String, Integer> prestados = new HashMap<>();
+        prestados.put("SEDE2", 3);
+        CuposInventario sede1 = cupos("a", "SEDE1");
+        CuposInventario sede2 = cupos("b", "SEDE2");
+        sede1.sembrar("ISBN0001", 4, prestados);
+        sede2.sembrar("ISBN0001", 4, prestados);
+
+        // SEDE2 conserva lo que ya prestó y el único libre va a SEDE1
+        assertEquals(1, sede1.cupo("ISBN0001", 4));
+        assertEquals(3, sede2.cupo("ISBN0001", 4));
+        assertEquals(contenido(sede1), contenido(sede2));
+    }
+
+    public void testSiembraNuncaSuperaElTotal() throws IOException {
+        Map<String, Integer> prestados = new HashMap<>();
+        prestados.put("SEDE1", 1);
+        prestados.put("SEDE2", 2);
+        CuposInventario sede1 = cupos("a", "SEDE1");
+        CuposInventario sede2 = cupos("b", "SEDE2");
+        sede1.sembrar("ISBN0001", 2, prestados);
+        sede2.sembrar("ISBN0001", 2, prestados);
+
+        assertEquals(1, sede1.cupo("ISBN0001", 2));
+        assertEquals(1, sede2.cupo("ISBN0001", 2));
+    }
+
+    public void testSiembraSoloEnElPrimerArranque() throws IOException {
+        Map<String, Integer> prestados = Collections.singletonMap("SEDE1", 2);
+        CuposInventario sede1 = cupos("a", "SEDE1");
+        assertTrue(sede1.isSiembraPendiente());
+        sede1.sembrar("ISBN0001", 2, prestados);
+        sede1.terminarSiembra();
+        assertFalse(sede1.isSiembraPendiente());
+
+        CuposInventario recargado = cupos("a", "SEDE1");
+        assertFalse(recargado.isSiembraPendiente());
+        assertEquals(2, recargado.cupo("ISBN0001", 2));
+        // Los préstamos posteriores ya no cambian el inicial
+        recargado.sembrar("ISBN0001", 2, Collections.singletonMap("SEDE2", 2));
+        assertEquals(2, recargado.cupo("ISBN0001", 2));
+    }
+}
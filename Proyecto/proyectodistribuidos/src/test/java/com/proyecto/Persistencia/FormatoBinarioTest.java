@@ -0,0 +1,161 @@
+/**
+ * ============================================================
+ * Título: FormatoBinarioTest - Pruebas del formato de libros_ y prestamos_<SEDE>.dat
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ */
+
+package com.proyecto.Persistencia;
+
+import com.proyecto.Modelos.Libro;
+import com.proyecto.Modelos.Prestamo;
+import java.io.*;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.UUID;
+import junit.framework.TestCase;
+
+public class FormatoBinarioTest extends TestCase {
+
+    private static byte[] escribirLibros(long lsn, Libro... libros) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        try (FormatoBinario.Escritor escritor = new FormatoBinario.Escritor(salida,
+                FormatoBinario.MAGIA_LIBROS, lsn)) {
+            for (Libro libro : libros) {
+                escritor.escribirLibro(libro);
+            }
+        }
+        return salida.toByteArray();
+    }
+
+    private static FormatoBinario.Lector lectorLibros(byte[] datos) throws IOException {
+        return new FormatoBinario.Lector(new ByteArrayInputStream(datos), FormatoBinario.MAGIA_LIBROS);
+    }
+
+    public void testLibrosIdaYVuelta() throws IOException {
+        byte[] datos = escribirLibros(42, new Libro("ISBN0001", "Rayuela", "Julio Cortázar", 5, 2),
+                new Libro("ISBN0002", "Ficciones", "Jorge Luis Borges", 1, 0));
+
+        try (FormatoBinario.Lector lector = lectorLibros(datos)) {
+            assertEquals(42, lector.getLsn());
+            Libro primero = lector.leerLibro();
+            assertEquals("ISBN0001", primero.getIsbn());
+            assertEquals("Rayuela", primero.getTitulo());
+            assertEquals("Julio Cortázar", primero.getAutor());
+            assertEquals(5, primero.getEjemplaresTotales());
+            assertEquals(3, primero.getEjemplaresDisponibles());
+            assertEquals("ISBN0002", lector.leerLibro().getIsbn());
+            assertNull(lector.leerLibro());
+        }
+    }
+
+    public void testTextoVacio() throws IOException {
+        byte[] datos = escribirLibros(0, new Libro("ISBN0003", "", "", 1, 0));
+
+        try (FormatoBinario.Lector lector = lectorLibros(datos)) {
+            Libro libro = lector.leerLibro();
+            assertEquals("", libro.getTitulo());
+            assertEquals("", libro.getAutor());
+        }
+    }
+
+    public void testTextoDelLargoMaximo() throws IOException {
+        char[] titulo = new char[0xFFFF];
+        Arrays.fill(titulo, 'a');
+        byte[] datos = escribirLibros(0, new Libro("ISBN0004", new String(titulo), "Anónimo", 1, 0));
+
+        try (FormatoBinario.Lector lector = lectorLibros(datos)) {
+            assertEquals(0xFFFF, lector.leerLibro().getTitulo().length());
+        }
+    }
+
+    public void testTextoDemasiadoLargo() throws IOException {
+        char[] titulo = new char[0x10000];
+        Arrays.fill(titulo, 'a');
+        try {
+            escribirLibros(0, new Libro("ISBN0005", new String(titulo), "Anónimo", 1, 0));
+            fail("Un texto de más de 65535 bytes no cabe en el formato");
+        } catch (IllegalArgumentException e) {
+            // esperado
+        }
+    }
+
+    public void testPrestamosIdaYVuelta() throws IOException {
+        String idUuid = UUID.randomUUID().toString();
+        Prestamo conUuid = new Prestamo(idUuid, "ISBN0001", "est001", "SEDE1");
+        conUuid.setFechaPrestamo(LocalDateTime.of(2026, 10, 1, 12, 30, 15, 250_000_000));
+        conUuid.setNumRenovaciones(2);
+        Prestamo devuelto = new Prestamo("PREST-SEDE2-0001", "ISBN0002", "prof001", "SEDE2");
+        devuelto.setFechaPrestamo(LocalDateTime.of(2026, 9, 20, 8, 0));
+        devuelto.setFechaDevolucion(LocalDateTime.of(2026, 10, 4, 8, 0));
+        devuelto.setPrestamoActivo(false);
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        try (FormatoBinario.Escritor escritor = new FormatoBinario.Escritor(salida,
+                FormatoBinario.MAGIA_PRESTAMOS, 7)) {
+            escritor.escribirPrestamo(conUuid);
+            escritor.escribirPrestamo(devuelto);
+        }
+
+        try (FormatoBinario.Lector lector = new FormatoBinario.Lector(
+                new ByteArrayInputStream(salida.toByteArray()), FormatoBinario.MAGIA_PRESTAMOS)) {
+            Prestamo leido = lector.leerPrestamo();
+            assertEquals(idUuid, leido.getIdPrestamo());
+            assertEquals(conUuid.getFechaPrestamo(), leido.getFechaPrestamo());
+            assertEquals(2, leido.getNumRenovaciones());
+            assertTrue(leido.isPrestamoActivo());
+            assertEquals("SEDE1", leido.getSede());
+
+            leido = lector.leerPrestamo();
+            assertEquals("PREST-SEDE2-0001", leido.getIdPrestamo());
+            assertEquals("prof001", leido.getUsuario());
+            assertEquals(devuelto.getFechaDevolucion(), leido.getFechaDevolucion());
+            assertFalse(leido.isPrestamoActivo());
+            assertNull(lector.leerPrestamo());
+        }
+    }
+
+    public void testCrcInvalido() throws IOException {
+        byte[] datos = escribirLibros(0, new Libro("ISBN0001", "Rayuela", "Julio Cortázar", 5, 0));
+        // Un byte del título, después de la cabecera, la longitud y los dos enteros
+        datos[FormatoBinario.TAMANO_CABECERA + 4 + 8 + 2 + 8 + 2] ^= 1;
+
+        try (FormatoBinario.Lector lector = lectorLibros(datos)) {
+            lector.leerLibro();
+            fail("Un registro alterado debe rechazarse por su CRC");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("CRC"));
+        }
+    }
+
+    public void testRegistroTruncado() throws IOException {
+        byte[] datos = escribirLibros(0, new Libro("ISBN0001", "Rayuela", "Julio Cortázar", 5, 0));
+
+        try (FormatoBinario.Lector lector = lectorLibros(Arrays.copyOf(datos, datos.length - 6))) {
+            lector.leerLibro();
+            fail("Un registro incompleto debe producir una IOException");
+        } catch (IOException e) {
+            // esperado
+        }
+    }
+
+    public void testFirmaEquivocada() throws IOException {
+        byte[] datos = escribirLibros(0);
+        try {
+            new FormatoBinario.Lector(new ByteArrayInputStream(datos), FormatoBinario.MAGIA_PRESTAMOS);
+            fail("Un archivo de libros no debe leerse como de préstamos");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("firma"));
+        }
+    }
+
+    public void testCabeceraIncompleta() {
+        try {
+            lectorLibros(new byte[FormatoBinario.TAMANO_CABECERA - 1]);
+            fail("Un archivo sin cabecera completa debe rechazarse");
+        } catch (IOException e) {
+            // esperado
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * ============================================================
+ * Título: FormatoMensajeTest - Pruebas del formato binario de los mensajes
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ */
+
+package com.proyecto.Protocolo;
+
+import java.util.*;
+import junit.framework.TestCase;
+
+public class FormatoMensajeTest extends TestCase {
+
+    private static Map<String, Object> solicitud() {
+        Map<String, Object> campos = new LinkedHashMap<>();
+        campos.put("operacion", "PRESTAR");
+        campos.put("idSolicitud", "6f1c2a7e-0000-4000-8000-000000000001");
+        campos.put("isbn", "ISBN0001");
+        campos.put("usuario", "josé");
+        campos.put("exito", true);
+        campos.put("error", null);
+        campos.put("intentos", 3L);
+        campos.put("espera", 1.5);
+        return campos;
+    }
+
+    private static String repetir(char c, int veces) {
+        char[] texto = new char[veces];
+        Arrays.fill(texto, c);
+        return new String(texto);
+    }
+
+    public void testIdaYVuelta() {
+        long antes = System.currentTimeMillis();
+        byte[] datos = FormatoMensaje.codificar(solicitud(), true);
+
+        assertTrue(FormatoMensaje.esBinario(datos));
+        assertTrue(FormatoMensaje.getInstante(datos) >= antes);
+        Map<String, Object> leido = FormatoMensaje.leer(datos);
+        assertEquals("PRESTAR", leido.get("operacion"));
+        assertEquals("6f1c2a7e-0000-4000-8000-000000000001", leido.get("idSolicitud"));
+        assertEquals("ISBN0001", leido.get("isbn"));
+        assertEquals("josé", leido.get("usuario"));
+        assertEquals(Boolean.TRUE, leido.get("exito"));
+        assertTrue(leido.containsKey("error"));
+        assertNull(leido.get("error"));
+        // Como en JSON con Gson, los números se leen como Double
+        assertEquals(3.0, leido.get("intentos"));
+        assertEquals(1.5, leido.get("espera"));
+        assertEquals(8, leido.size());
+    }
+
+    public void testMismoResultadoQueJson() {
+        Map<String, Object> binario = FormatoMensaje.leer(FormatoMensaje.codificar(solicitud(), true));
+        Map<String, Object> json = FormatoMensaje.leer(FormatoMensaje.codificar(solicitud(), false));
+
+        assertEquals(json, binario);
+    }
+
+    public void testCampoVacio() {
+        Map<String, Object> leido = FormatoMensaje.leer(FormatoMensaje.codificar(
+                Collections.singletonMap("isbn", ""), true));
+
+        assertEquals("", leido.get("isbn"));
+    }
+
+    public void testOperacionSinCodigoViajaComoTexto() {
+        Map<String, Object> leido = FormatoMensaje.leer(FormatoMensaje.codificar(
+                Collections.singletonMap("operacion", "RESERVAR"), true));
+
+        assertEquals("RESERVAR", leido.get("operacion"));
+    }
+
+    public void testTextoDelLargoMaximo() {
+        String texto = repetir('a', 0xFFFF);
+        Map<String, Object> leido = FormatoMensaje.leer(FormatoMensaje.codificar(
+                Collections.singletonMap("mensaje", texto), true));
+
+        assertEquals(texto, leido.get("mensaje"));
+    }
+
+    public void testTextoDemasiadoLargo() {
+        EscritorBinario escritor = new EscritorBinario();
+        escritor.iniciar();
+        try {
+            // 'é' ocupa 2 bytes: el límite cuenta bytes UTF-8, no caracteres
+            escritor.campo("mensaje", repetir('é', 0x8000));
+            fail("Un texto de más de 65535 bytes no cabe en el formato");
+        } catch (IllegalStateException e) {
+            // esperado
+        }
+    }
+
+    public void testNombreDeCampoDemasiadoLargo() {
+        EscritorBinario escritor = new EscritorBinario();
+        escritor.iniciar();
+        try {
+            escritor.campo(repetir('x', 256), "valor");
+            fail("Un nombre de más de 255 bytes no cabe en el formato");
+        } catch (IllegalArgumentException e) {
+            // esperado
+        }
+    }
+
+    public void testCodigoDeOperacionDesconocido() {
+        byte[] datos = FormatoMensaje.codificar(solicitud(), true);
+        datos[FormatoMensaje.POSICION_OPERACION] = 99;
+
+        try {
+            FormatoMensaje.leer(datos);
+            fail("Una operación fuera de la tabla debe rechazarse");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("99"));
+        }
+    }
+
+    public void testCodigoDeCampoDesconocido() {
+        byte[] datos = FormatoMensaje.codificar(Collections.singletonMap("isbn", "ISBN0001"), true);
+        datos[FormatoMensaje.LARGO_CABECERA] = (byte) 200;
+
+        try {
+            FormatoMensaje.leer(datos);
+            fail("Un campo fuera de la tabla debe rechazarse");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("200"));
+        }
+    }
+
+    public void testTipoDeCampoDesconocido() {
+        byte[] datos = FormatoMensaje.codificar(Collections.singletonMap("isbn", "ISBN0001"), true);
+        datos[FormatoMensaje.LARGO_CABECERA + 1] = 42;
+
+        try {
+            FormatoMensaje.leer(datos);
+            fail("Un tipo de campo desconocido debe rechazarse");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("42"));
+        }
+    }
+
+    public void testMensajeTruncado() {
+        byte[] completo = FormatoMensaje.codificar(solicitud(), true);
+
+        // Cualquier corte después de la cabecera deja un campo a medias
+        for (int largo = FormatoMensaje.LARGO_CABECERA + 1; largo < completo.length; largo++) {
+            byte[] cortado = Arrays.copyOf(completo, largo);
+            try {
+                Map<String, Object> leido = FormatoMensaje.leer(cortado);
+                // Solo es válido si el corte cae justo entre dos campos
+                assertTrue("Corte en " + largo + " leyó " + leido, leido.size() < solicitud().size());
+            } catch (IllegalArgumentException e) {
+                // esperado
+            }
+        }
+    }
+
+    public void testMensajeTruncadoDentroDeUnTexto() {
+        byte[] completo = FormatoMensaje.codificar(Collections.singletonMap("isbn", "ISBN0001"), true);
+
+        try {
+            FormatoMensaje.leer(Arrays.copyOf(completo, completo.length - 3));
+            fail("Un texto más corto que su largo debe rechazarse");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("truncado"));
+        }
+        assertTrue(FormatoMensaje.describir(Arrays.copyOf(completo, completo.length - 3))
+                .startsWith("(binario ilegible"));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * ============================================================
+ * Título: SolicitudPSTest - Pruebas de la lectura de solicitudes OP,ISBN,USUARIO
+ * Autores: Sergio Ortiz,Juan Sebastian Vargas, Ana Sofia Grass, Isabella Palacio Fajardo
+ * Fecha: 2026-10-18
+ * ============================================================
+ */
+
+package com.proyecto.Protocolo;
+
+import java.nio.charset.StandardCharsets;
+import junit.framework.TestCase;
+
+public class SolicitudPSTest extends TestCase {
+    private final SolicitudPS solicitud = new SolicitudPS();
+
+    private SolicitudPS leer(String texto) {
+        return solicitud.leer(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void testSolicitudCompleta() {
+        leer("PRESTAR,ISBN0001,est001");
+
+        assertEquals(3, solicitud.getCampos());
+        assertEquals(SolicitudPS.PRESTAR, solicitud.getOperacion());
+        assertEquals("ISBN0001", solicitud.getTexto(SolicitudPS.CAMPO_ISBN));
+        assertEquals("est001", solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    public void testOperaciones() {
+        assertEquals(SolicitudPS.DEVOLVER, leer("DEVOLVER,ISBN0001,est001").getOperacion());
+        assertEquals(SolicitudPS.RENOVAR, leer("RENOVAR,ISBN0001,est001").getOperacion());
+    }
+
+    public void testOperacionDesconocida() {
+        assertEquals(SolicitudPS.DESCONOCIDA, leer("RESERVAR,ISBN0001,est001").getOperacion());
+        assertEquals(SolicitudPS.DESCONOCIDA, leer("prestar,ISBN0001,est001").getOperacion());
+        assertEquals(SolicitudPS.DESCONOCIDA, leer("PRESTARX,ISBN0001,est001").getOperacion());
+        assertEquals(SolicitudPS.DESCONOCIDA, leer("PRESTA,ISBN0001,est001").getOperacion());
+    }
+
+    public void testEspaciosAlrededorDeLosCampos() {
+        leer("  PRESTAR ,\tISBN0001 , est001\r\n");
+
+        assertEquals(SolicitudPS.PRESTAR, solicitud.getOperacion());
+        assertEquals("ISBN0001", solicitud.getTexto(SolicitudPS.CAMPO_ISBN));
+        assertEquals("est001", solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    public void testCampoVacio() {
+        leer("PRESTAR,,est001");
+
+        assertEquals(3, solicitud.getCampos());
+        assertEquals("", solicitud.getTexto(SolicitudPS.CAMPO_ISBN));
+        assertEquals(solicitud.getInicio(SolicitudPS.CAMPO_ISBN), solicitud.getFin(SolicitudPS.CAMPO_ISBN));
+        assertEquals("est001", solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    public void testSolicitudVacia() {
+        leer("");
+
+        assertEquals(1, solicitud.getCampos());
+        assertEquals(SolicitudPS.DESCONOCIDA, solicitud.getOperacion());
+    }
+
+    public void testCuentaLosCamposComoSplit() {
+        String[] casos = {
+            "PRESTAR", "PRESTAR,ISBN0001", "PRESTAR,ISBN0001,", "PRESTAR,,", ",,", ",", " ,",
+            ",ISBN0001", "PRESTAR,ISBN0001,est001,extra", "PRESTAR,ISBN0001,est001,,", "a,b,c,d,e"
+        };
+        for (String caso : casos) {
+            assertEquals(caso, Math.min(3, caso.split(",").length), leer(caso).getCampos());
+        }
+    }
+
+    public void testCamposDeMasSeIgnoran() {
+        leer("PRESTAR,ISBN0001,est001,extra");
+
+        assertEquals(3, solicitud.getCampos());
+        assertEquals("est001", solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    public void testTextoUtf8() {
+        leer("PRESTAR,ISBN0001,josé");
+
+        assertEquals("josé", solicitud.getTexto(SolicitudPS.CAMPO_USUARIO));
+    }
+
+    public void testReutilizacionNoDejaRestos() {
+        leer("PRESTAR,ISBN0001,est001");
+        leer("DEVOLVER,ISBN0002");
+
+        assertEquals(2, solicitud.getCampos());
+        assertEquals(SolicitudPS.DEVOLVER, solicitud.getOperacion());
+        assertEquals("ISBN0002", solicitud.getTexto(SolicitudPS.CAMPO_ISBN));
+        assertEquals("DEVOLVER,ISBN0002", solicitud.toString());
+    }
+}